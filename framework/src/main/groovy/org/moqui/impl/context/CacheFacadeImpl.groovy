@@ -20,6 +20,10 @@ import org.moqui.jcache.MCacheManager
 import org.moqui.impl.tools.MCacheToolFactory
 import org.moqui.jcache.MEntry
 import org.moqui.jcache.MStats
+import org.moqui.jcache.MWeigher
+import org.moqui.impl.entity.EntityCacheCodec
+import org.moqui.impl.entity.EntityCacheWeigher
+import org.moqui.jcache.MOffHeapStore
 import org.moqui.util.CollectionUtilities
 import org.moqui.util.MNode
 import org.moqui.util.ObjectUtilities
@@ -135,6 +139,7 @@ public class CacheFacadeImpl implements CacheFacade {
     @Override
     Set<String> getCacheNames() { return localCacheMap.keySet() }
 
+    @Override
     List<Map<String, Object>> getAllCachesInfo(String orderByField, String filterRegexp) {
         boolean hasFilterRegexp = filterRegexp != null && filterRegexp.length() > 0
         List<Map<String, Object>> ci = new LinkedList()
@@ -161,17 +166,7 @@ public class CacheFacadeImpl implements CacheFacade {
             } else
             */
             if (co instanceof MCache) {
-                MCache mc = co.unwrap(MCache.class)
-                MStats stats = mc.getMStats()
-                Long expireIdle = mc.getAccessDuration()?.durationAmount ?: 0
-                Long expireLive = mc.getCreationDuration()?.durationAmount ?: 0
-                ci.add([name:co.getName(), expireTimeIdle:expireIdle,
-                        expireTimeLive:expireLive, maxElements:mc.getMaxEntries(),
-                        evictionStrategy:"LRU", size:mc.size(),
-                        getCount:stats.getCacheGets(), putCount:stats.getCachePuts(),
-                        hitCount:stats.getCacheHits(), missCountTotal:stats.getCacheMisses(),
-                        evictionCount:stats.getCacheEvictions(), removeCount:stats.getCacheRemovals(),
-                        expireCount:stats.getCacheExpires()] as Map<String, Object>)
+                ci.add(makeCacheInfo(co.unwrap(MCache.class)))
             } else {
                 logger.warn("Cannot get detailed info for cache ${cn} which is of type ${co.class.name}")
             }
@@ -179,6 +174,41 @@ public class CacheFacadeImpl implements CacheFacade {
         if (orderByField) CollectionUtilities.orderMapList(ci, [orderByField])
         return ci
     }
+    @Override
+    Map<String, Object> getCacheInfo(String cacheName) {
+        Cache co = localCacheMap.get(cacheName)
+        if (co == null || !(co instanceof MCache)) return (Map<String, Object>) null
+        return makeCacheInfo(co.unwrap(MCache.class))
+    }
+    protected static Map<String, Object> makeCacheInfo(MCache mc) {
+        MStats stats = mc.getMStats()
+        MStats.Timer loadTimer = stats.getLoadTimer()
+        MStats.Timer evictTimer = stats.getEvictTimer()
+        MStats.Timer expireSweepTimer = stats.getExpireSweepTimer()
+        MOffHeapStore offHeap = mc.getOffHeapStore()
+        Long expireIdle = mc.getAccessDuration()?.durationAmount ?: 0
+        Long expireLive = mc.getCreationDuration()?.durationAmount ?: 0
+        return [name:mc.getName(), expireTimeIdle:expireIdle,
+                expireTimeLive:expireLive, maxElements:mc.getMaxEntries(),
+                maxBytes:mc.getMaxBytes(), estimatedBytes:stats.getEstimatedBytes(),
+                evictionStrategy:"LRU", size:mc.size(), statsEnabled:mc.isStatisticsEnabled(),
+                getCount:stats.getCacheGets(), putCount:stats.getCachePuts(),
+                hitCount:stats.getCacheHits(), missCountTotal:stats.getCacheMisses(),
+                hitPercent:stats.getCacheHitPercentage(),
+                evictionCount:stats.getCacheEvictions(), removeCount:stats.getCacheRemovals(),
+                expireCount:stats.getCacheExpires(),
+                loadCount:loadTimer.getCount(), loadTotalMillis:loadTimer.getTotalMillis(),
+                loadAvgMicros:loadTimer.getAverageMicros(), loadMaxMicros:loadTimer.getMaxMicros(),
+                load99Micros:loadTimer.getPercentileMicros(0.99d),
+                evictionRuns:evictTimer.getCount(), evictionTotalMillis:evictTimer.getTotalMillis(),
+                evictionMaxMicros:evictTimer.getMaxMicros(),
+                expireSweepCount:expireSweepTimer.getCount(), expireSweepTotalMillis:expireSweepTimer.getTotalMillis(),
+                expireSweepMaxMicros:expireSweepTimer.getMaxMicros(),
+                offHeapBytes:offHeap?.getCapacityBytes() ?: 0,
+                offHeapSize:offHeap?.size() ?: 0, offHeapUsedBytes:offHeap?.getUsedBytes() ?: 0,
+                offHeapHitCount:offHeap?.getHits() ?: 0, offHeapPutCount:offHeap?.getPuts() ?: 0,
+                offHeapEvictionCount:offHeap?.getEvictions() ?: 0] as Map<String, Object>
+    }
 
     protected MNode getCacheNode(String cacheName) {
         MNode cacheListNode = ecfi.getConfXmlRoot().first("cache-list")
@@ -236,6 +266,27 @@ public class CacheFacadeImpl implements CacheFacade {
                     int maxElements = Integer.parseInt(maxElementsStr)
                     mConf.setMaxEntries(maxElements)
                 }
+                String maxBytesStr = cacheNode.attribute("max-bytes")
+                String weigherClass = cacheNode.attribute("weigher-class")
+                if (weigherClass) {
+                    mConf.setWeigher((MWeigher) Thread.currentThread().getContextClassLoader()
+                            .loadClass(weigherClass).getDeclaredConstructor().newInstance())
+                } else if (maxBytesStr && maxBytesStr != "0") {
+                    mConf.setWeigher(new EntityCacheWeigher())
+                }
+                if (maxBytesStr && maxBytesStr != "0") mConf.setMaxBytes(Long.parseLong(maxBytesStr))
+                String staleGraceStr = cacheNode.attribute("stale-grace-seconds")
+                if (staleGraceStr) mConf.setStaleGraceMillis(Long.parseLong(staleGraceStr) * 1000L)
+                String refreshAheadStr = cacheNode.attribute("refresh-ahead-seconds")
+                if (refreshAheadStr) mConf.setRefreshAheadMillis(Long.parseLong(refreshAheadStr) * 1000L)
+                mConf.setCoalesceLoads(cacheNode.attribute("coalesce-loads") == "true")
+                String coalesceWaitStr = cacheNode.attribute("coalesce-wait-seconds")
+                if (coalesceWaitStr) mConf.setCoalesceWaitMillis(Long.parseLong(coalesceWaitStr) * 1000L)
+                String offHeapBytesStr = cacheNode.attribute("off-heap-bytes")
+                if (offHeapBytesStr && offHeapBytesStr != "0") {
+                    mConf.setOffHeapBytes(Long.parseLong(offHeapBytesStr))
+                    mConf.setCodec(new EntityCacheCodec(ecfi))
+                }
 
                 config = (Configuration) mConf
             /* TODO: somehow support external cache configuration like Hazelcast, through some sort of Moqui interface, maybe pass cacheNode to Cache factory?
@@ -51,6 +51,8 @@ import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
 
 public class ContextJavaUtil {
     protected final static Logger logger = LoggerFactory.getLogger(ContextJavaUtil.class);
@@ -230,8 +232,8 @@ public class ContextJavaUtil {
         ArtifactHitInfo(ExecutionContextImpl eci, boolean isSlowHit, ArtifactExecutionInfo.ArtifactType artifactTypeEnum,
                         String artifactSubType, String artifactName, long startTime, double runningTimeMillis,
                         Map<String, Object> parameters, Long outputSize) {
-            visitId = eci.userFacade.getVisitId();
-            userId = eci.userFacade.getUserId();
+            visitId = eci.getUserFacade().getVisitId();
+            userId = eci.getUserFacade().getUserId();
             this.isSlowHit = isSlowHit;
             this.artifactTypeEnum = artifactTypeEnum;
             this.artifactSubType = artifactSubType;
@@ -460,6 +462,82 @@ public class ContextJavaUtil {
         }
     }
 
+    /** Hit and miss counts for the PreparedStatement cache a connection pool keeps for each physical connection (like
+     * the Bitronix LruStatementCache). Pools don't report these so the statement keys are tracked per physical
+     * connection with the same size and LRU policy, which matches the pool's cache as long as statements are closed
+     * after use (as in the Entity Facade). Only counts statements prepared on connections stashed for a transaction. */
+    public static class StatementCacheStats {
+        public final String groupName;
+        public final int cacheSize;
+        private final Function<Connection, Object> physicalConnectionGetter;
+        // weak keys so entries go away with physical connections the pool has closed
+        private final Map<Object, StatementKeyLru> keyLruByPhysicalCon = Collections.synchronizedMap(new WeakHashMap<>());
+        private final LongAdder hitCount = new LongAdder(), missCount = new LongAdder();
+
+        public StatementCacheStats(String groupName, int cacheSize, Function<Connection, Object> physicalConnectionGetter) {
+            this.groupName = groupName;
+            this.cacheSize = cacheSize;
+            this.physicalConnectionGetter = physicalConnectionGetter;
+        }
+
+        StatementKeyLru getKeyLru(Connection con) {
+            if (cacheSize <= 0) return null;
+            Object physicalCon;
+            try {
+                physicalCon = physicalConnectionGetter.apply(con);
+            } catch (Exception e) {
+                logger.warn("Could not get physical connection for statement cache stats in group " + groupName + ": " + e.toString());
+                return null;
+            }
+            if (physicalCon == null) return null;
+            return keyLruByPhysicalCon.computeIfAbsent(physicalCon, k -> new StatementKeyLru(cacheSize));
+        }
+
+        void countPrepare(StatementKeyLru keyLru, String sql, int resultSetType, int resultSetConcurrency) {
+            if (keyLru.touch(new StatementKey(sql, resultSetType, resultSetConcurrency))) hitCount.increment();
+            else missCount.increment();
+        }
+
+        public Map<String, Object> getStats() {
+            long hits = hitCount.sum(), misses = missCount.sum();
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("cacheSize", cacheSize);
+            stats.put("connections", keyLruByPhysicalCon.size());
+            stats.put("hits", hits);
+            stats.put("misses", misses);
+            stats.put("hitRate", hits + misses > 0 ? hits / (double) (hits + misses) : 0.0);
+            return stats;
+        }
+    }
+    static class StatementKeyLru extends LinkedHashMap<StatementKey, Boolean> {
+        private final int maxSize;
+        StatementKeyLru(int maxSize) { super(16, 0.75f, true); this.maxSize = maxSize; }
+        @Override protected boolean removeEldestEntry(Map.Entry<StatementKey, Boolean> eldest) { return size() > maxSize; }
+        /** Returns true if the key was already in the cache, moves it to most recently used or adds it */
+        synchronized boolean touch(StatementKey key) {
+            if (get(key) != null) return true;
+            put(key, Boolean.TRUE);
+            return false;
+        }
+    }
+    static class StatementKey {
+        final String sql;
+        final int resultSetType, resultSetConcurrency, hashCode;
+        StatementKey(String sql, int resultSetType, int resultSetConcurrency) {
+            this.sql = sql;
+            this.resultSetType = resultSetType;
+            this.resultSetConcurrency = resultSetConcurrency;
+            hashCode = (sql.hashCode() * 31 + resultSetType) * 31 + resultSetConcurrency;
+        }
+        @Override public int hashCode() { return hashCode; }
+        @Override public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof StatementKey)) return false;
+            StatementKey that = (StatementKey) o;
+            return resultSetType == that.resultSetType && resultSetConcurrency == that.resultSetConcurrency && sql.equals(that.sql);
+        }
+    }
+
     /** A simple delegating wrapper for java.sql.Connection.
      *
      * The close() method does nothing, only closed when closeInternal() called by TransactionFacade on commit,
@@ -471,6 +549,8 @@ public class ContextJavaUtil {
         protected Connection con;
         TransactionFacadeImpl tfi;
         String groupName;
+        StatementCacheStats statementCacheStats = null;
+        StatementKeyLru statementKeyLru = null;
 
         public ConnectionWrapper(Connection con, TransactionFacadeImpl tfi, String groupName) {
             this.con = con;
@@ -480,12 +560,20 @@ public class ContextJavaUtil {
 
         public String getGroupName() { return groupName; }
 
+        void trackStatementCache(StatementCacheStats stats) {
+            statementKeyLru = stats.getKeyLru(con);
+            if (statementKeyLru != null) statementCacheStats = stats;
+        }
+
         public void closeInternal() throws SQLException {
             con.close();
         }
 
         @Override public Statement createStatement() throws SQLException { return con.createStatement(); }
-        @Override public PreparedStatement prepareStatement(String sql) throws SQLException { return con.prepareStatement(sql); }
+        @Override public PreparedStatement prepareStatement(String sql) throws SQLException {
+            if (statementCacheStats != null) statementCacheStats.countPrepare(statementKeyLru, sql, -1, -1);
+            return con.prepareStatement(sql);
+        }
         @Override public CallableStatement prepareCall(String sql) throws SQLException { return con.prepareCall(sql); }
         @Override public String nativeSQL(String sql) throws SQLException { return con.nativeSQL(sql); }
         @Override public void setAutoCommit(boolean autoCommit) throws SQLException { con.setAutoCommit(autoCommit); }
@@ -512,7 +600,9 @@ public class ContextJavaUtil {
         @Override public Statement createStatement(int resultSetType, int resultSetConcurrency) throws SQLException {
             return con.createStatement(resultSetType, resultSetConcurrency); }
         @Override public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency) throws SQLException {
-            return con.prepareStatement(sql, resultSetType, resultSetConcurrency); }
+            if (statementCacheStats != null) statementCacheStats.countPrepare(statementKeyLru, sql, resultSetType, resultSetConcurrency);
+            return con.prepareStatement(sql, resultSetType, resultSetConcurrency);
+        }
         @Override public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency) throws SQLException {
             return con.prepareCall(sql, resultSetType, resultSetConcurrency); }
 
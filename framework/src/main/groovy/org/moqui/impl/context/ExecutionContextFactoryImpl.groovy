@@ -45,10 +45,12 @@ import org.moqui.impl.context.ContextJavaUtil.ScheduledRunnableInfo
 import org.moqui.impl.entity.EntityFacadeImpl
 import org.moqui.impl.screen.ScreenFacadeImpl
 import org.moqui.impl.service.ServiceFacadeImpl
+import org.moqui.impl.service.ServiceDefinition
 import org.moqui.impl.webapp.NotificationWebSocketListener
 import org.moqui.screen.ScreenFacade
 import org.moqui.service.ServiceFacade
 import org.moqui.util.MNode
+import org.moqui.util.MNodeSnapshot
 import org.moqui.resource.ResourceReference
 import org.moqui.util.ObjectUtilities
 import org.moqui.util.SimpleTopic
@@ -66,8 +68,14 @@ import java.lang.management.ManagementFactory
 import java.math.RoundingMode
 import java.sql.Timestamp
 import java.util.concurrent.BlockingQueue
+import java.util.concurrent.Callable
+import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Future
 import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.RejectedExecutionException
 import java.util.concurrent.ScheduledFuture
 import java.util.concurrent.ScheduledThreadPoolExecutor
 import java.util.concurrent.ThreadPoolExecutor
@@ -147,6 +155,9 @@ class ExecutionContextFactoryImpl implements ExecutionContextFactory {
 
     /** The main worker pool for services, running async closures and runnables, etc */
     @SuppressWarnings("GrFinalVariableAccess") public final ThreadPoolExecutor workerPool
+    /** Named lanes over the worker pool with separate queues and concurrency limits, from tools.worker-lane elements */
+    @SuppressWarnings("GrFinalVariableAccess") public final Map<String, WorkerLane> workerLaneMap
+    private final ConcurrentHashMap<String, ExecutorService> serviceExecutorCache = new ConcurrentHashMap<>()
     /** An executor for the scheduled job runner */
     @SuppressWarnings("GrFinalVariableAccess") public final CustomScheduledExecutor scheduledExecutor
     public final ArrayList<ScheduledRunnableInfo> scheduledRunnableList = new ArrayList<>()
@@ -213,6 +224,7 @@ class ExecutionContextFactoryImpl implements ExecutionContextFactory {
 
         reconfigureLog4j()
         workerPool = makeWorkerPool()
+        workerLaneMap = makeWorkerLanes()
         scheduledExecutor = makeScheduledExecutor()
 
         preFacadeInit()
@@ -273,6 +285,7 @@ class ExecutionContextFactoryImpl implements ExecutionContextFactory {
 
         reconfigureLog4j()
         workerPool = makeWorkerPool()
+        workerLaneMap = makeWorkerLanes()
         scheduledExecutor = makeScheduledExecutor()
 
         preFacadeInit()
@@ -464,21 +477,94 @@ class ExecutionContextFactoryImpl implements ExecutionContextFactory {
         return new ContextJavaUtil.WorkerThreadPoolExecutor(this, coreSize, maxSize, aliveTime, TimeUnit.SECONDS,
                 workQueue, new ContextJavaUtil.WorkerThreadFactory())
     }
+    private Map<String, WorkerLane> makeWorkerLanes() {
+        Map<String, WorkerLane> laneMap = new LinkedHashMap<>()
+        for (MNode laneNode in confXmlRoot.first('tools').children("worker-lane")) {
+            WorkerLane lane = new WorkerLane(laneNode, workerPool)
+            laneMap.put(lane.name, lane)
+            logger.info("Initialized worker lane ${lane.name}: concurrency ${lane.minLimit} to ${lane.maxLimit}, queue-max ${lane.queueMax}, adaptive ${lane.adaptive}")
+        }
+        return Collections.unmodifiableMap(laneMap)
+    }
+    /** Get a worker lane by name, or the main workerPool if no lane with the name is configured */
+    ExecutorService getWorkerLane(String name) {
+        WorkerLane lane = name != null ? workerLaneMap.get(name) : null
+        return lane != null ? (ExecutorService) lane : (ExecutorService) workerPool
+    }
+    /** Get the executor to run a service in, based on the service.@worker-lane attribute or worker-lane.@service-pattern */
+    ExecutorService getServiceWorkerExecutor(String serviceName) {
+        if (workerLaneMap.isEmpty() || serviceName == null) return workerPool
+        ExecutorService cached = serviceExecutorCache.get(serviceName)
+        if (cached != null) return cached
+
+        ExecutorService executor = null
+        ServiceDefinition sd = serviceFacade.getServiceDefinition(serviceName)
+        if (sd != null && sd.workerLane != null) {
+            executor = workerLaneMap.get(sd.workerLane)
+            if (executor == null) logger.warn("Service ${serviceName} has worker-lane ${sd.workerLane} but no lane with that name is configured, using worker pool")
+        }
+        if (executor == null) for (WorkerLane lane in workerLaneMap.values()) {
+            if (lane.matchesService(serviceName)) { executor = lane; break }
+        }
+        if (executor == null) executor = workerPool
+        serviceExecutorCache.put(serviceName, executor)
+        return executor
+    }
+    List<Map<String, Object>> getWorkerLaneStats() {
+        List<Map<String, Object>> statsList = new ArrayList<>(workerLaneMap.size())
+        for (WorkerLane lane in workerLaneMap.values()) statsList.add(lane.getStats())
+        return statsList
+    }
+    private int getWorkerLaneQueueSize() {
+        int size = 0
+        for (WorkerLane lane in workerLaneMap.values()) size += lane.getQueueSize()
+        return size
+    }
+
     boolean waitWorkerPoolEmpty(int retryLimit) {
         ThreadPoolExecutor jobWorkerPool = serviceFacade.jobWorkerPool
         int count = 0
-        while (count < retryLimit && (workerPool.getQueue().size() > 0 || workerPool.getActiveCount() > 0 ||
+        while (count < retryLimit && (workerPool.getQueue().size() > 0 || workerPool.getActiveCount() > 0 || getWorkerLaneQueueSize() > 0 ||
                 jobWorkerPool.getQueue().size() > 0 || jobWorkerPool.getActiveCount() > 0)) {
             if (count % 10 == 0) logger.warn("Wait for workerPool and jobWorkerPool empty: worker queue size ${workerPool.getQueue().size()} active ${workerPool.getActiveCount()} max threads ${workerPool.getMaximumPoolSize()}; service job queue size ${jobWorkerPool.getQueue().size()} active ${jobWorkerPool.getActiveCount()}")
             Thread.sleep(100)
             count++
         }
-        int afterSize = workerPool.getQueue().size() + workerPool.getActiveCount()
+        int afterSize = workerPool.getQueue().size() + workerPool.getActiveCount() + getWorkerLaneQueueSize()
         int jobAfterSize = jobWorkerPool.getQueue().size() + jobWorkerPool.getActiveCount()
         if (afterSize > 0 || jobAfterSize > 0) logger.warn("After ${retryLimit} 100ms waits worker pool size is ${afterSize} and service job pool size is ${jobAfterSize}")
         return afterSize == 0 && jobAfterSize == 0
     }
 
+    /** Parse XML files on the worker pool into the MNode parsed file cache, for definition loading on the calling thread
+     * to use (mostly on start, when nothing else is using the pool). Parse errors are left for that loading to report.
+     * Returns the number of files parsed. */
+    int parseXmlFilesParallel(String description, Collection<ResourceReference> rrList) {
+        if (rrList == null || rrList.isEmpty()) return 0
+        long startTime = System.currentTimeMillis()
+        ArrayList<Future<MNode>> futureList = new ArrayList<Future<MNode>>(rrList.size())
+        for (ResourceReference rr in rrList) {
+            ResourceReference parseRr = rr
+            try {
+                futureList.add(workerPool.submit({ MNode.parse(parseRr) } as Callable<MNode>))
+            } catch (RejectedExecutionException e) {
+                // worker queue full, the rest will be parsed when loaded
+                break
+            }
+        }
+        int parsedCount = 0
+        int futureListSize = futureList.size()
+        for (int i = 0; i < futureListSize; i++) {
+            try {
+                if (futureList.get(i).get() != null) parsedCount++
+            } catch (ExecutionException e) {
+                if (logger.isTraceEnabled()) logger.trace("Error parsing ${description} file, will be reported when loaded", e.getCause())
+            }
+        }
+        logger.info("Parsed ${parsedCount} of ${rrList.size()} ${description} files in ${System.currentTimeMillis() - startTime}ms on worker pool")
+        return parsedCount
+    }
+
     private CustomScheduledExecutor makeScheduledExecutor() {
         // TODO: make the scheduled thread pool core and max sizes configurable? so far only used for a small number of scheduled Runnables
         CustomScheduledExecutor executor = new CustomScheduledExecutor(2)
@@ -586,6 +672,14 @@ class ExecutionContextFactoryImpl implements ExecutionContextFactory {
     }
 
     private void postFacadeInit() {
+        // use XML files parsed on the last start if unchanged, if configured (cache-list.@definition-snapshot)
+        MNodeSnapshot definitionSnapshot = (MNodeSnapshot) null
+        if (confXmlRoot.first("cache-list").attribute("definition-snapshot") == "true") {
+            definitionSnapshot = MNodeSnapshot.open(new File(runtimePath + "/db/DefinitionSnapshot.bin"))
+            logger.info("Using definition snapshot with ${definitionSnapshot.getEntryCount()} parsed files")
+            MNode.setParseSnapshot(definitionSnapshot)
+        }
+
         entityFacade.postFacadeInit()
         serviceFacade.postFacadeInit()
 
@@ -606,6 +700,9 @@ class ExecutionContextFactoryImpl implements ExecutionContextFactory {
             }
         }
 
+        // load entity cache entries saved on last shutdown, if configured (cache-list.@warm-snapshot-keys, etc)
+        entityFacade.loadCacheSnapshot()
+
         // Notification Message Topic
         String notificationTopicFactory = confXmlRoot.first("tools").attribute("notification-topic-factory")
         if (notificationTopicFactory) {
@@ -620,6 +717,13 @@ class ExecutionContextFactoryImpl implements ExecutionContextFactory {
         DeferredHitInfoFlush dhif = new DeferredHitInfoFlush(this)
         this.scheduleAtFixedRate(dhif, 10, 5)
 
+        // save files parsed from source for the next start
+        if (definitionSnapshot != null) {
+            MNode.setParseSnapshot(null)
+            logger.info("Used ${definitionSnapshot.getSnapshotCount()} files from definition snapshot, parsed ${definitionSnapshot.getParsedCount()}")
+            definitionSnapshot.save()
+        }
+
         // all config loaded, save memory by clearing the parsed MNode cache, especially for production mode
         MNode.clearParsedNodeCache()
         // bunch of junk in memory, trigger gc (to happen soon, when JVM decides, not immediate)
@@ -828,11 +932,15 @@ class ExecutionContextFactoryImpl implements ExecutionContextFactory {
         } finally { if (enableAuthz) aefi.enableAuthz() }
         logger.info("ArtifactHitBins stored")
 
+        // save most used entity cache keys to load on next start, if configured
+        entityFacade.saveCacheSnapshot()
+
         // shutdown scheduled executor and worker pools
         try {
             logger.info("Shutting scheduled executor")
             scheduledExecutor.shutdown()
-            logger.info("Shutting down worker pool")
+            logger.info("Shutting down worker lanes and pool")
+            for (WorkerLane lane in workerLaneMap.values()) lane.shutdown()
             workerPool.shutdown()
 
             scheduledExecutor.awaitTermination(30, TimeUnit.SECONDS)
@@ -1191,6 +1299,7 @@ class ExecutionContextFactoryImpl implements ExecutionContextFactory {
             statusMap.JavaRuntime = [SpecVersion:runtimeMXBean.getSpecVersion(), VmVendor:runtimeMXBean.getVmVendor(), VmVersion:runtimeMXBean.getVmVersion(), Start:startTimestamp, UptimeHours:uptimeHours]
             statusMap.DataSources = entityFacade.getDataSourcesInfo()
         }
+        if (workerLaneMap.size() > 0) statusMap.WorkerLanes = getWorkerLaneStats()
         return statusMap
     }
 
@@ -1594,12 +1703,13 @@ class ExecutionContextFactoryImpl implements ExecutionContextFactory {
 
         // otherwise, persist the old and create a new one
         EntityValue ahb = abi.makeAhbValue(this, new Timestamp(binStartTime + hitBinLengthMillis))
-        eci.runInWorkerThread({
+        // run in the HitBin lane (if configured) so hit bin inserts don't compete with other work for worker threads
+        getWorkerLane("HitBin").execute(new ExecutionContextImpl.ThreadPoolRunnable(eci, {
             ArtifactExecutionFacadeImpl aefi = getEci().artifactExecutionFacade
             boolean enableAuthz = !aefi.disableAuthz()
             try { ahb.setSequencedIdPrimary().create() }
             finally { if (enableAuthz) aefi.enableAuthz() }
-        })
+        }))
 
         statsInfo.curHitBin = new ArtifactBinInfo(statsInfo, startTime)
     }
@@ -1611,6 +1721,7 @@ class ExecutionContextFactoryImpl implements ExecutionContextFactory {
     protected static void mergeConfigNodes(MNode baseNode, MNode overrideNode) {
         baseNode.mergeChildrenByKey(overrideNode, "default-property", "name", null)
         baseNode.mergeChildWithChildKey(overrideNode, "tools", "tool-factory", "class", null)
+        baseNode.mergeChildWithChildKey(overrideNode, "tools", "worker-lane", "name", null)
         baseNode.mergeChildWithChildKey(overrideNode, "cache-list", "cache", "name", null)
 
         if (overrideNode.hasChild("server-stats")) {
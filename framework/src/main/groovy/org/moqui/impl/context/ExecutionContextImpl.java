@@ -64,8 +64,11 @@ public class ExecutionContextImpl implements ExecutionContext {
     public final TransactionFacadeImpl transactionFacade;
 
     private Boolean skipStats = null;
-    private Cache<String, String> l10nMessageCache;
-    private Cache<String, ArrayList> tarpitHitCache;
+    private Cache<String, String> l10nMessageCache = (Cache<String, String>) null;
+    private Cache<String, ArrayList> tarpitHitCache = (Cache<String, ArrayList>) null;
+
+    // entity groups written to in this context, finds on them don't use read replicas after (see DatasourceReplicaSet)
+    private HashSet<String> groupWriteSet = (HashSet<String>) null;
 
     public String forThreadName;
     public long forThreadId;
@@ -100,18 +103,24 @@ public class ExecutionContextImpl implements ExecutionContext {
         if (serviceFacade == null) throw new IllegalStateException("serviceFacade was null");
         if (transactionFacade == null) throw new IllegalStateException("transactionFacade was null");
 
-        initCaches();
-
         if (loggerDirect.isTraceEnabled()) loggerDirect.trace("ExecutionContextImpl initialized");
     }
 
     @SuppressWarnings("unchecked")
-    private void initCaches() {
-        tarpitHitCache = cacheFacade.getCache("artifact.tarpit.hits");
-        l10nMessageCache = cacheFacade.getCache("l10n.message");
+    Cache<String, String> getL10nMessageCache() {
+        if (l10nMessageCache == null) l10nMessageCache = cacheFacade.getCache("l10n.message");
+        return l10nMessageCache;
+    }
+    @SuppressWarnings("unchecked")
+    public Cache<String, ArrayList> getTarpitHitCache() {
+        if (tarpitHitCache == null) tarpitHitCache = cacheFacade.getCache("artifact.tarpit.hits");
+        return tarpitHitCache;
     }
-    Cache<String, String> getL10nMessageCache() { return l10nMessageCache; }
-    public Cache<String, ArrayList> getTarpitHitCache() { return tarpitHitCache; }
+
+    public @Nonnull UserFacadeImpl getUserFacade() { return userFacade; }
+    public @Nonnull MessageFacadeImpl getMessageFacade() { return messageFacade; }
+    public @Nonnull ArtifactExecutionFacadeImpl getArtifactExecutionFacade() { return artifactExecutionFacade; }
+    public @Nonnull L10nFacadeImpl getL10nFacade() { return l10nFacade; }
 
     @Override public @Nonnull ExecutionContextFactory getFactory() { return ecfi; }
 
@@ -127,10 +136,10 @@ public class ExecutionContextImpl implements ExecutionContext {
     @Override public @Nullable WebFacade getWeb() { return webFacade; }
     public @Nullable WebFacadeImpl getWebImpl() { return webFacadeImpl; }
 
-    @Override public @Nonnull UserFacade getUser() { return userFacade; }
-    @Override public @Nonnull MessageFacade getMessage() { return messageFacade; }
-    @Override public @Nonnull ArtifactExecutionFacade getArtifactExecution() { return artifactExecutionFacade; }
-    @Override public @Nonnull L10nFacade getL10n() { return l10nFacade; }
+    @Override public @Nonnull UserFacade getUser() { return getUserFacade(); }
+    @Override public @Nonnull MessageFacade getMessage() { return getMessageFacade(); }
+    @Override public @Nonnull ArtifactExecutionFacade getArtifactExecution() { return getArtifactExecutionFacade(); }
+    @Override public @Nonnull L10nFacade getL10n() { return getL10nFacade(); }
     @Override public @Nonnull ResourceFacade getResource() { return resourceFacade; }
     @Override public @Nonnull LoggerFacade getLogger() { return loggerFacade; }
     @Override public @Nonnull CacheFacade getCache() { return cacheFacade; }
@@ -147,10 +156,11 @@ public class ExecutionContextImpl implements ExecutionContext {
 
     @Override
     public @Nonnull List<NotificationMessage> getNotificationMessages(@Nullable String topic) {
-        String userId = userFacade.getUserId();
+        String userId = getUserFacade().getUserId();
         if (userId == null || userId.isEmpty()) return new ArrayList<>();
 
         List<NotificationMessage> nmList = new ArrayList<>();
+        ArtifactExecutionFacadeImpl artifactExecutionFacade = getArtifactExecutionFacade();
         boolean alreadyDisabled = artifactExecutionFacade.disableAuthz();
         try {
             EntityFind nmbuFind = activeEntityFacade.find("moqui.security.user.NotificationMessageByUser").condition("userId", userId);
@@ -175,6 +185,7 @@ public class ExecutionContextImpl implements ExecutionContext {
         webFacadeImpl = wfi;
 
         // now that we have the webFacade in place we can do init UserFacade
+        UserFacadeImpl userFacade = getUserFacade();
         userFacade.initFromHttpRequest(request, response);
         // for convenience (and more consistent code in screen actions, services, etc) add all requestParameters to the context
         contextStack.putAll(webFacadeImpl.getRequestParameters());
@@ -235,36 +246,46 @@ public class ExecutionContextImpl implements ExecutionContext {
         if (loggerDirect.isTraceEnabled()) loggerDirect.trace("ExecutionContextImpl destroyed");
     }
 
+    public void noteGroupWrite(String groupName) {
+        if (groupWriteSet == null) groupWriteSet = new HashSet<>();
+        groupWriteSet.add(groupName);
+    }
+    public boolean hasGroupWrite(String groupName) { return groupWriteSet != null && groupWriteSet.contains(groupName); }
+
     @Override public String toString() { return "ExecutionContext"; }
 
     public static class ThreadPoolRunnable implements Runnable {
-        private ExecutionContextImpl threadEci;
         private ExecutionContextFactoryImpl ecfi;
         private Closure closure;
-        /** With this constructor (passing ECI) the ECI is used in the separate thread */
+        // user and authz state of the calling ECI, captured when created as the calling ECI may be destroyed or reused before this runs
+        private final boolean useThreadEci;
+        private final String threadUsername;
+        private final boolean threadAuthzDisabled;
+        /** With this constructor (passing ECI) the user and authz state of the ECI is used in the separate thread */
         public ThreadPoolRunnable(ExecutionContextImpl eci, Closure closure) {
-            threadEci = eci;
             ecfi = eci.ecfi;
             this.closure = closure;
+            useThreadEci = true;
+            threadUsername = eci.getUserFacade().getUsername();
+            threadAuthzDisabled = eci.getArtifactExecutionFacade().getAuthzDisabled();
         }
 
         /** With this constructor (passing ECFI) a new ECI is created for the separate thread */
         public ThreadPoolRunnable(ExecutionContextFactoryImpl ecfi, Closure closure) {
             this.ecfi = ecfi;
-            threadEci = null;
             this.closure = closure;
+            useThreadEci = false;
+            threadUsername = null;
+            threadAuthzDisabled = false;
         }
 
         @Override
         public void run() {
-            if (threadEci != null) {
-                // ecfi.useExecutionContextInThread(threadEci);
+            if (useThreadEci) {
                 ExecutionContextImpl eci = ecfi.getEci();
-                String threadUsername = threadEci.userFacade.getUsername();
                 if (threadUsername != null && !threadUsername.isEmpty())
-                    eci.userFacade.internalLoginUser(threadUsername, false);
-                if (threadEci.artifactExecutionFacade.authzDisabled)
-                    eci.artifactExecutionFacade.disableAuthz();
+                    eci.getUserFacade().internalLoginUser(threadUsername, false);
+                if (threadAuthzDisabled) eci.getArtifactExecutionFacade().disableAuthz();
             }
             try {
                 closure.call();
@@ -0,0 +1,352 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.impl.context;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.*;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A simple JDBC connection pool for local (non-XA) transactions with LocalTransactionManager.
+ *
+ * In a transaction getConnection() returns the connection bound to the transaction (see
+ * LocalTransactionManager.LocalTransaction), and close() on it does nothing. Outside a transaction it returns an
+ * auto-commit connection that goes back to the pool on close(). Idle connections are kept most recently used first so
+ * the least used ones reach the idle timeout and get closed when there are more than the min size. Connections idle
+ * for more than a few seconds are tested before use.
+ */
+public class LocalConnectionPool implements DataSource {
+    protected final static Logger logger = LoggerFactory.getLogger(LocalConnectionPool.class);
+    private final static long testIdleMillis = 5000;
+
+    public final String name;
+    private final LocalTransactionManager ltm;
+    private final Callable<Connection> connectionFactory;
+    public final int minSize, maxSize;
+    private final long acquireTimeoutMillis, maxIdleMillis;
+    private final String testQuery;
+    private final int isolationLevel;
+
+    private final LinkedBlockingDeque<PooledConnection> idleDeque = new LinkedBlockingDeque<>();
+    private final Semaphore permits;
+    private final AtomicInteger openCount = new AtomicInteger(0);
+    private final LongAdder acquireCount = new LongAdder(), createCount = new LongAdder(), timeoutCount = new LongAdder(),
+            acquireWaitNanos = new LongAdder();
+    private volatile boolean closed = false;
+    private int loginTimeout = 0;
+
+    /**
+     * @param isolationLevel java.sql.Connection isolation level constant, -1 to leave the driver default
+     * @param acquireTimeoutMillis max time to wait for a connection when all are in use
+     * @param maxIdleMillis idle connections over min size are closed after this time
+     */
+    public LocalConnectionPool(String name, LocalTransactionManager ltm, Callable<Connection> connectionFactory,
+                               int minSize, int maxSize, long acquireTimeoutMillis, long maxIdleMillis,
+                               String testQuery, int isolationLevel) {
+        this.name = name;
+        this.ltm = ltm;
+        this.connectionFactory = connectionFactory;
+        this.maxSize = maxSize > 0 ? maxSize : 50;
+        this.minSize = Math.min(minSize, this.maxSize);
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+        this.maxIdleMillis = maxIdleMillis;
+        this.testQuery = testQuery != null && !testQuery.isEmpty() ? testQuery : null;
+        this.isolationLevel = isolationLevel;
+        permits = new Semaphore(this.maxSize, true);
+    }
+
+    /** Open min size connections so the first requests don't wait for them */
+    public void init() {
+        for (int i = 0; i < minSize; i++) {
+            try {
+                idleDeque.offerLast(createPhysical());
+            } catch (SQLException e) {
+                logger.warn("Error opening initial connection for pool " + name + ": " + e.toString());
+                break;
+            }
+        }
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        LocalTransactionManager.LocalTransaction tx = ltm.getCurrent();
+        if (tx != null) return tx.getConnection(this);
+        PooledConnection pc = acquire();
+        return pc.makeHandle(false);
+    }
+
+    PooledConnection acquire() throws SQLException {
+        if (closed) throw new SQLException("Connection pool " + name + " is closed");
+        long startNanos = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                timeoutCount.increment();
+                throw new SQLTransientConnectionException("Timed out after " + acquireTimeoutMillis +
+                        "ms waiting for a connection from pool " + name + " (max " + maxSize + ")");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted waiting for a connection from pool " + name);
+        }
+
+        try {
+            PooledConnection pc;
+            while ((pc = idleDeque.pollFirst()) != null) {
+                if (isUsable(pc)) break;
+                closePhysical(pc);
+            }
+            if (pc == null) pc = createPhysical();
+            acquireCount.increment();
+            acquireWaitNanos.add(System.nanoTime() - startNanos);
+            return pc;
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    void release(PooledConnection pc, boolean discard) {
+        // the transaction is done, a handle from it kept somewhere must not use the connection once back in the pool
+        pc.closeTxHandle();
+        try {
+            if (discard || pc.broken || closed) {
+                closePhysical(pc);
+                return;
+            }
+            try {
+                // a non-tx handle may have turned off auto-commit and left work uncommitted
+                if (!pc.autoCommit) {
+                    pc.con.rollback();
+                    pc.setAutoCommit(true);
+                }
+                pc.con.clearWarnings();
+            } catch (SQLException e) {
+                logger.warn("Error resetting connection from pool " + name + ", closing: " + e.toString());
+                closePhysical(pc);
+                return;
+            }
+            pc.lastUsed = System.currentTimeMillis();
+            idleDeque.offerFirst(pc);
+
+            // close the least recently used connection if it has been idle too long
+            if (maxIdleMillis > 0 && openCount.get() > minSize) {
+                PooledConnection oldest = idleDeque.peekLast();
+                if (oldest != null && pc.lastUsed - oldest.lastUsed > maxIdleMillis && idleDeque.removeLastOccurrence(oldest))
+                    closePhysical(oldest);
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    private boolean isUsable(PooledConnection pc) {
+        if (pc.broken) return false;
+        long idleMillis = System.currentTimeMillis() - pc.lastUsed;
+        if (maxIdleMillis > 0 && idleMillis > maxIdleMillis && openCount.get() > minSize) return false;
+        if (idleMillis < testIdleMillis) return true;
+        try {
+            if (testQuery != null) {
+                try (Statement stmt = pc.con.createStatement()) { stmt.execute(testQuery); }
+                return true;
+            }
+            return pc.con.isValid(5);
+        } catch (SQLException e) {
+            logger.info("Connection from pool " + name + " failed test, closing: " + e.toString());
+            return false;
+        }
+    }
+
+    private PooledConnection createPhysical() throws SQLException {
+        Connection con;
+        try {
+            con = connectionFactory.call();
+        } catch (SQLException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new SQLException("Error opening connection for pool " + name, e);
+        }
+        if (con == null) throw new SQLException("No connection returned opening connection for pool " + name);
+        try {
+            if (isolationLevel >= 0) con.setTransactionIsolation(isolationLevel);
+            if (!con.getAutoCommit()) con.setAutoCommit(true);
+        } catch (SQLException e) {
+            try { con.close(); } catch (SQLException ce) { /* ignore */ }
+            throw e;
+        }
+        openCount.incrementAndGet();
+        createCount.increment();
+        return new PooledConnection(this, con);
+    }
+
+    private void closePhysical(PooledConnection pc) {
+        openCount.decrementAndGet();
+        try {
+            pc.con.close();
+        } catch (SQLException e) {
+            logger.warn("Error closing connection from pool " + name + ": " + e.toString());
+        }
+    }
+
+    public void close() {
+        closed = true;
+        PooledConnection pc;
+        while ((pc = idleDeque.pollFirst()) != null) closePhysical(pc);
+    }
+
+    public int getInUseCount() { return maxSize - permits.availablePermits(); }
+
+    public Map<String, Object> getStats() {
+        long acquired = acquireCount.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("maxSize", maxSize);
+        stats.put("open", openCount.get());
+        stats.put("idle", idleDeque.size());
+        stats.put("inUse", getInUseCount());
+        stats.put("waiting", permits.getQueueLength());
+        stats.put("acquired", acquired);
+        stats.put("created", createCount.sum());
+        stats.put("timeouts", timeoutCount.sum());
+        stats.put("avgAcquireMillis", acquired > 0 ? (acquireWaitNanos.sum() / acquired) / 1000000.0 : 0.0);
+        stats.put("transactions", ltm.getStats());
+        return stats;
+    }
+
+    @Override public Connection getConnection(String username, String password) throws SQLException {
+        throw new SQLFeatureNotSupportedException("Connection pool " + name + " does not support getConnection with user and password"); }
+    @Override public PrintWriter getLogWriter() { return null; }
+    @Override public void setLogWriter(PrintWriter out) { }
+    @Override public void setLoginTimeout(int seconds) { loginTimeout = seconds; }
+    @Override public int getLoginTimeout() { return loginTimeout; }
+    @Override public java.util.logging.Logger getParentLogger() throws SQLFeatureNotSupportedException { throw new SQLFeatureNotSupportedException(); }
+    @Override @SuppressWarnings("unchecked") public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) return (T) this;
+        throw new SQLException("Connection pool " + name + " is not a wrapper for " + iface.getName());
+    }
+    @Override public boolean isWrapperFor(Class<?> iface) { return iface.isInstance(this); }
+
+    static class PooledConnection {
+        final LocalConnectionPool pool;
+        final Connection con;
+        boolean autoCommit = true;
+        volatile boolean broken = false;
+        long lastUsed = System.currentTimeMillis();
+        private Connection txHandle = null;
+        private HandleInvocationHandler txHandler = null;
+
+        PooledConnection(LocalConnectionPool pool, Connection con) { this.pool = pool; this.con = con; }
+
+        void setAutoCommit(boolean autoCommit) throws SQLException {
+            if (this.autoCommit == autoCommit) return;
+            con.setAutoCommit(autoCommit);
+            this.autoCommit = autoCommit;
+        }
+        void commit() throws SQLException {
+            try { con.commit(); } catch (SQLException e) { checkBroken(e); throw e; }
+        }
+        void rollback() throws SQLException {
+            try { con.rollback(); } catch (SQLException e) { checkBroken(e); throw e; }
+        }
+        void checkBroken(SQLException e) {
+            // SQLState class 08 is connection exception
+            String sqlState = e.getSQLState();
+            if (sqlState != null && sqlState.startsWith("08")) broken = true;
+        }
+
+        /** One handle for the transaction the connection is bound to, used until commit or rollback */
+        Connection getTxHandle() {
+            if (txHandle == null) {
+                txHandler = new HandleInvocationHandler(this, true);
+                txHandle = makeProxy(txHandler);
+            }
+            return txHandle;
+        }
+        /** Mark the transaction handle closed so any later use throws, called when the connection goes back to the pool */
+        void closeTxHandle() {
+            if (txHandler != null) {
+                txHandler.handleClosed = true;
+                txHandler = null;
+            }
+            txHandle = null;
+        }
+        Connection makeHandle(boolean txBound) {
+            if (txBound) return getTxHandle();
+            closeTxHandle();
+            return makeProxy(new HandleInvocationHandler(this, false));
+        }
+        private static Connection makeProxy(HandleInvocationHandler handler) {
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] { Connection.class }, handler);
+        }
+    }
+
+    /** Connection handle: close() returns to the pool or does nothing if bound to a transaction, commit/rollback are
+     * not allowed on a transaction bound connection (done by LocalTransaction), everything else goes to the connection */
+    static class HandleInvocationHandler implements InvocationHandler {
+        private final PooledConnection pc;
+        private final boolean txBound;
+        private volatile boolean handleClosed = false;
+
+        HandleInvocationHandler(PooledConnection pc, boolean txBound) { this.pc = pc; this.txBound = txBound; }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!txBound && !handleClosed) {
+                        handleClosed = true;
+                        pc.pool.release(pc, false);
+                    }
+                    return null;
+                case "isClosed": return handleClosed || pc.con.isClosed();
+                case "equals": return proxy == args[0];
+                case "hashCode": return System.identityHashCode(proxy);
+                case "toString": return "LocalConnectionPool[" + pc.pool.name + "]:" + pc.con;
+                case "commit": case "rollback": case "setAutoCommit":
+                    if (txBound) {
+                        // rollback to a savepoint is fine
+                        if ("rollback".equals(method.getName()) && args != null && args.length == 1) break;
+                        throw new SQLException(method.getName() + " not allowed on a connection bound to a transaction");
+                    }
+                    if ("setAutoCommit".equals(method.getName())) {
+                        if (handleClosed) throw new SQLException("Connection handle is closed");
+                        pc.setAutoCommit((Boolean) args[0]);
+                        return null;
+                    }
+                    break;
+            }
+            if (handleClosed) throw new SQLException("Connection handle is closed");
+            try {
+                return method.invoke(pc.con, args);
+            } catch (InvocationTargetException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof SQLException) pc.checkBroken((SQLException) cause);
+                throw cause;
+            }
+        }
+    }
+}
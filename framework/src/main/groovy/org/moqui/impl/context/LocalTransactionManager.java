@@ -0,0 +1,378 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.impl.context;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.transaction.*;
+import javax.transaction.xa.XAException;
+import javax.transaction.xa.XAResource;
+import javax.transaction.xa.Xid;
+import java.nio.ByteBuffer;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A JTA TransactionManager and UserTransaction using local JDBC transactions, for use with LocalConnectionPool
+ * through TransactionInternalLocal.
+ *
+ * The first time a LocalConnectionPool is used in a transaction a connection is taken from the pool, auto-commit is
+ * turned off and it is bound to the transaction until commit or rollback. A suspended transaction keeps its
+ * connections so a transaction begun while it is suspended gets separate connections. There is no two-phase commit:
+ * with more than one datasource in a transaction each is committed in turn. XAResources enlisted by other code get a
+ * one-phase commit after the connections.
+ */
+public class LocalTransactionManager implements TransactionManager, UserTransaction {
+    protected final static Logger logger = LoggerFactory.getLogger(LocalTransactionManager.class);
+
+    private final ThreadLocal<LocalTransaction> currentTx = new ThreadLocal<>();
+    private final ThreadLocal<Integer> timeoutThread = new ThreadLocal<>();
+    private final AtomicLong txIdSequence = new AtomicLong(0);
+    private final byte[] gtridPrefix;
+    public final int defaultTimeout;
+
+    private final LongAdder begunCount = new LongAdder(), committedCount = new LongAdder(),
+            rolledBackCount = new LongAdder(), timedOutCount = new LongAdder();
+
+    public LocalTransactionManager(int defaultTimeout) {
+        this.defaultTimeout = defaultTimeout > 0 ? defaultTimeout : 60;
+        // distinguish Xids from different instances for XAResources shared between servers
+        gtridPrefix = ByteBuffer.allocate(8).putLong(System.currentTimeMillis()).array();
+    }
+
+    /** Get the transaction for the current thread, null if there is none */
+    public LocalTransaction getCurrent() { return currentTx.get(); }
+
+    private LocalTransaction requireCurrent() {
+        LocalTransaction tx = currentTx.get();
+        if (tx == null) throw new IllegalStateException("No transaction associated with the current thread");
+        return tx;
+    }
+
+    @Override
+    public void begin() throws NotSupportedException {
+        if (currentTx.get() != null) throw new NotSupportedException("Nested transactions not supported, transaction already associated with the current thread");
+        Integer timeout = timeoutThread.get();
+        currentTx.set(new LocalTransaction(txIdSequence.incrementAndGet(), timeout != null ? timeout : defaultTimeout));
+        begunCount.increment();
+    }
+
+    @Override
+    public void commit() throws RollbackException, HeuristicMixedException, HeuristicRollbackException, SystemException {
+        LocalTransaction tx = requireCurrent();
+        try {
+            tx.commit();
+        } finally {
+            currentTx.remove();
+        }
+    }
+
+    @Override
+    public void rollback() throws SystemException {
+        LocalTransaction tx = requireCurrent();
+        try {
+            tx.rollback();
+        } finally {
+            currentTx.remove();
+        }
+    }
+
+    @Override
+    public void setRollbackOnly() { requireCurrent().setRollbackOnly(); }
+
+    @Override
+    public int getStatus() {
+        LocalTransaction tx = currentTx.get();
+        return tx != null ? tx.getStatus() : Status.STATUS_NO_TRANSACTION;
+    }
+
+    @Override
+    public Transaction getTransaction() { return currentTx.get(); }
+
+    @Override
+    public void setTransactionTimeout(int seconds) {
+        if (seconds > 0) timeoutThread.set(seconds);
+        else timeoutThread.remove();
+    }
+
+    @Override
+    public Transaction suspend() {
+        LocalTransaction tx = currentTx.get();
+        currentTx.remove();
+        return tx;
+    }
+
+    @Override
+    public void resume(Transaction transaction) throws InvalidTransactionException {
+        if (!(transaction instanceof LocalTransaction)) throw new InvalidTransactionException("Cannot resume transaction " + transaction + ", not a LocalTransaction");
+        if (currentTx.get() != null) throw new IllegalStateException("Cannot resume transaction " + transaction + ", transaction already associated with the current thread");
+        LocalTransaction tx = (LocalTransaction) transaction;
+        int status = tx.getStatus();
+        if (status != Status.STATUS_ACTIVE && status != Status.STATUS_MARKED_ROLLBACK)
+            throw new InvalidTransactionException("Cannot resume transaction " + transaction + " with status " + status);
+        currentTx.set(tx);
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("begun", begunCount.sum());
+        stats.put("committed", committedCount.sum());
+        stats.put("rolledBack", rolledBackCount.sum());
+        stats.put("timedOut", timedOutCount.sum());
+        return stats;
+    }
+
+    public class LocalTransaction implements Transaction {
+        public final long txId;
+        public final long beginTime;
+        private final long timeoutMillis;
+        private int status = Status.STATUS_ACTIVE;
+        private boolean timedOut = false;
+        private final ArrayList<Synchronization> syncList = new ArrayList<>();
+        // usually there is just one, kept in the order first used
+        private final LinkedHashMap<LocalConnectionPool, LocalConnectionPool.PooledConnection> conByPool = new LinkedHashMap<>(4);
+        private ArrayList<XAResource> xaResourceList = null;
+        private ArrayList<Xid> xidList = null;
+
+        LocalTransaction(long txId, int timeoutSeconds) {
+            this.txId = txId;
+            this.beginTime = System.currentTimeMillis();
+            this.timeoutMillis = timeoutSeconds * 1000L;
+        }
+
+        /** Get the connection for the pool bound to this transaction, binding one from the pool if needed */
+        Connection getConnection(LocalConnectionPool pool) throws SQLException {
+            int curStatus = getStatus();
+            if (curStatus != Status.STATUS_ACTIVE && curStatus != Status.STATUS_MARKED_ROLLBACK)
+                throw new SQLException("Cannot get connection from " + pool.name + ", transaction " + txId + " status is " + curStatus);
+            LocalConnectionPool.PooledConnection pc = conByPool.get(pool);
+            if (pc == null) {
+                pc = pool.acquire();
+                try {
+                    pc.setAutoCommit(false);
+                } catch (SQLException e) {
+                    pool.release(pc, true);
+                    throw e;
+                }
+                conByPool.put(pool, pc);
+            }
+            return pc.getTxHandle();
+        }
+
+        @Override
+        public int getStatus() {
+            if (status == Status.STATUS_ACTIVE && timeoutMillis > 0 && System.currentTimeMillis() - beginTime > timeoutMillis) {
+                status = Status.STATUS_MARKED_ROLLBACK;
+                timedOut = true;
+                timedOutCount.increment();
+                logger.warn("Transaction " + txId + " timed out after " + (timeoutMillis / 1000) + " seconds, marked rollback only");
+            }
+            return status;
+        }
+
+        @Override
+        public void setRollbackOnly() {
+            int curStatus = getStatus();
+            if (curStatus != Status.STATUS_ACTIVE && curStatus != Status.STATUS_MARKED_ROLLBACK)
+                throw new IllegalStateException("Cannot set rollback only on transaction " + txId + " with status " + curStatus);
+            status = Status.STATUS_MARKED_ROLLBACK;
+        }
+
+        @Override
+        public void registerSynchronization(Synchronization sync) throws RollbackException {
+            int curStatus = getStatus();
+            if (curStatus == Status.STATUS_MARKED_ROLLBACK) throw new RollbackException("Transaction " + txId + " is marked rollback only");
+            if (curStatus != Status.STATUS_ACTIVE) throw new IllegalStateException("Cannot register synchronization on transaction " + txId + " with status " + curStatus);
+            syncList.add(sync);
+        }
+
+        @Override
+        public boolean enlistResource(XAResource xaRes) throws RollbackException, SystemException {
+            int curStatus = getStatus();
+            if (curStatus == Status.STATUS_MARKED_ROLLBACK) throw new RollbackException("Transaction " + txId + " is marked rollback only");
+            if (curStatus != Status.STATUS_ACTIVE) throw new IllegalStateException("Cannot enlist resource in transaction " + txId + " with status " + curStatus);
+            if (xaResourceList == null) { xaResourceList = new ArrayList<>(); xidList = new ArrayList<>(); }
+            if (xaResourceList.contains(xaRes)) return true;
+            Xid xid = new LocalXid(gtridPrefix, txId, xaResourceList.size() + 1);
+            try {
+                xaRes.start(xid, XAResource.TMNOFLAGS);
+            } catch (XAException e) {
+                SystemException se = new SystemException("Could not start XAResource in transaction " + txId + ": " + e.toString());
+                se.initCause(e);
+                throw se;
+            }
+            xaResourceList.add(xaRes);
+            xidList.add(xid);
+            return true;
+        }
+
+        @Override
+        public boolean delistResource(XAResource xaRes, int flag) throws SystemException {
+            int index = xaResourceList != null ? xaResourceList.indexOf(xaRes) : -1;
+            if (index < 0) return false;
+            try {
+                xaRes.end(xidList.get(index), flag);
+            } catch (XAException e) {
+                SystemException se = new SystemException("Could not end XAResource in transaction " + txId + ": " + e.toString());
+                se.initCause(e);
+                throw se;
+            }
+            return true;
+        }
+
+        @Override
+        public void commit() throws RollbackException, HeuristicMixedException, SystemException {
+            if (getStatus() == Status.STATUS_ACTIVE) {
+                // synchronizations may register more synchronizations so don't use an iterator
+                try {
+                    for (int i = 0; i < syncList.size(); i++) syncList.get(i).beforeCompletion();
+                } catch (RuntimeException e) {
+                    rollbackInternal();
+                    RollbackException re = new RollbackException("Transaction " + txId + " rolled back, error in beforeCompletion: " + e.toString());
+                    re.initCause(e);
+                    throw re;
+                }
+            }
+            int curStatus = getStatus();
+            if (curStatus == Status.STATUS_MARKED_ROLLBACK) {
+                rollbackInternal();
+                throw new RollbackException("Transaction " + txId + (timedOut ? " timed out" : " was marked rollback only") + ", rolled back instead of commit");
+            }
+            if (curStatus != Status.STATUS_ACTIVE) throw new IllegalStateException("Cannot commit transaction " + txId + " with status " + curStatus);
+
+            status = Status.STATUS_COMMITTING;
+            int committed = 0;
+            Exception error = null;
+            for (LocalConnectionPool.PooledConnection pc : conByPool.values()) {
+                try {
+                    pc.commit();
+                    committed++;
+                } catch (SQLException e) {
+                    error = e;
+                    break;
+                }
+            }
+            if (error == null && xaResourceList != null) {
+                for (int i = 0; i < xaResourceList.size(); i++) {
+                    try {
+                        XAResource xaRes = xaResourceList.get(i);
+                        Xid xid = xidList.get(i);
+                        xaRes.end(xid, XAResource.TMSUCCESS);
+                        xaRes.commit(xid, true);
+                        committed++;
+                    } catch (XAException e) {
+                        error = e;
+                        break;
+                    }
+                }
+            }
+
+            if (error != null) {
+                // roll back whatever wasn't committed, if anything was committed the outcome is mixed
+                boolean mixed = committed > 0;
+                rollbackResources(committed);
+                finish(Status.STATUS_ROLLEDBACK);
+                if (mixed) {
+                    HeuristicMixedException hme = new HeuristicMixedException("Transaction " + txId + " partly committed, error committing resource " + (committed + 1) + ": " + error.toString());
+                    hme.initCause(error);
+                    throw hme;
+                }
+                RollbackException re = new RollbackException("Transaction " + txId + " rolled back, error in commit: " + error.toString());
+                re.initCause(error);
+                throw re;
+            }
+            finish(Status.STATUS_COMMITTED);
+        }
+
+        @Override
+        public void rollback() {
+            int curStatus = getStatus();
+            if (curStatus != Status.STATUS_ACTIVE && curStatus != Status.STATUS_MARKED_ROLLBACK)
+                throw new IllegalStateException("Cannot roll back transaction " + txId + " with status " + curStatus);
+            rollbackInternal();
+        }
+
+        private void rollbackInternal() {
+            status = Status.STATUS_ROLLING_BACK;
+            rollbackResources(0);
+            finish(Status.STATUS_ROLLEDBACK);
+        }
+
+        /** Roll back connections and XAResources after the first skipCount (already committed) */
+        private void rollbackResources(int skipCount) {
+            int index = 0;
+            for (LocalConnectionPool.PooledConnection pc : conByPool.values()) {
+                if (index++ < skipCount) continue;
+                try {
+                    pc.rollback();
+                } catch (SQLException e) {
+                    logger.error("Error rolling back connection from pool " + pc.pool.name + " in transaction " + txId, e);
+                    pc.broken = true;
+                }
+            }
+            if (xaResourceList != null) for (int i = 0; i < xaResourceList.size(); i++) {
+                if (index++ < skipCount) continue;
+                XAResource xaRes = xaResourceList.get(i);
+                Xid xid = xidList.get(i);
+                try {
+                    try { xaRes.end(xid, XAResource.TMFAIL); } catch (XAException e) { /* may already be ended */ }
+                    xaRes.rollback(xid);
+                } catch (XAException e) {
+                    logger.error("Error rolling back XAResource " + xaRes + " in transaction " + txId, e);
+                }
+            }
+        }
+
+        private void finish(int finalStatus) {
+            status = finalStatus;
+            for (LocalConnectionPool.PooledConnection pc : conByPool.values()) pc.pool.release(pc, pc.broken);
+            conByPool.clear();
+            if (finalStatus == Status.STATUS_COMMITTED) committedCount.increment();
+            else rolledBackCount.increment();
+            for (int i = 0; i < syncList.size(); i++) {
+                Synchronization sync = syncList.get(i);
+                try {
+                    sync.afterCompletion(finalStatus);
+                } catch (Throwable t) {
+                    logger.error("Error in afterCompletion for " + sync + " in transaction " + txId, t);
+                }
+            }
+        }
+
+        @Override public String toString() { return "LocalTransaction[" + txId + "]"; }
+    }
+
+    static class LocalXid implements Xid {
+        private final byte[] gtrid, bqual;
+        LocalXid(byte[] gtridPrefix, long txId, int branch) {
+            gtrid = ByteBuffer.allocate(gtridPrefix.length + 8).put(gtridPrefix).putLong(txId).array();
+            bqual = ByteBuffer.allocate(4).putInt(branch).array();
+        }
+        // 0x4D51 is 'MQ'
+        @Override public int getFormatId() { return 0x4D51; }
+        @Override public byte[] getGlobalTransactionId() { return gtrid; }
+        @Override public byte[] getBranchQualifier() { return bqual; }
+        @Override public boolean equals(Object o) {
+            if (!(o instanceof Xid)) return false;
+            Xid that = (Xid) o;
+            return getFormatId() == that.getFormatId() && Arrays.equals(gtrid, that.getGlobalTransactionId()) &&
+                    Arrays.equals(bqual, that.getBranchQualifier());
+        }
+        @Override public int hashCode() { return Arrays.hashCode(gtrid) * 31 + Arrays.hashCode(bqual); }
+    }
+}
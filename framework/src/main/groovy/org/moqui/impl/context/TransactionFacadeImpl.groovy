@@ -21,6 +21,7 @@ import org.moqui.context.TransactionInternal
 import org.moqui.impl.context.ContextJavaUtil.ConnectionWrapper
 import org.moqui.impl.context.ContextJavaUtil.EntityRecordLock
 import org.moqui.impl.context.ContextJavaUtil.RollbackInfo
+import org.moqui.impl.context.ContextJavaUtil.StatementCacheStats
 import org.moqui.impl.context.ContextJavaUtil.TxStackInfo
 import org.moqui.util.MNode
 import org.slf4j.Logger
@@ -57,6 +58,7 @@ class TransactionFacadeImpl implements TransactionFacade {
     private ThreadLocal<LinkedList<TxStackInfo>> txStackInfoListThread = new ThreadLocal<LinkedList<TxStackInfo>>()
 
     protected final ConcurrentHashMap<String, ArrayList<EntityRecordLock>> recordLockByEntityPk = new ConcurrentHashMap<>()
+    protected final ConcurrentHashMap<String, StatementCacheStats> statementCacheStatsByGroup = new ConcurrentHashMap<>()
 
     TransactionFacadeImpl(ExecutionContextFactoryImpl ecfi) {
         this.ecfi = ecfi
@@ -131,6 +133,9 @@ class TransactionFacadeImpl implements TransactionFacade {
     boolean getUseStatementTimeout() { return useStatementTimeout }
 
     TransactionInternal getTransactionInternal() { return transactionInternal }
+    /** True with TransactionInternalLocal where each datasource in a transaction commits on its own, otherwise
+     * connections used in a transaction are enlisted in an XA transaction */
+    boolean isLocalTransactions() { return transactionInternal instanceof TransactionInternalLocal }
     TransactionManager getTransactionManager() { return tm }
     UserTransaction getUserTransaction() { return ut }
     Long getCurrentTransactionStartTime() {
@@ -670,6 +675,15 @@ class TransactionFacadeImpl implements TransactionFacade {
         }
     }
 
+    /** Called by TransactionInternal implementations for each DataSource with a PreparedStatement cache */
+    void registerStatementCache(StatementCacheStats statementCacheStats) {
+        statementCacheStatsByGroup.put(statementCacheStats.groupName, statementCacheStats)
+    }
+    Map<String, Object> getStatementCacheStats(String groupName) {
+        StatementCacheStats statementCacheStats = statementCacheStatsByGroup.get(groupName)
+        return statementCacheStats != null ? statementCacheStats.getStats() : null
+    }
+
     Connection getTxConnection(String groupName) {
         if (!useConnectionStash) return null
 
@@ -706,6 +720,8 @@ class TransactionFacadeImpl implements TransactionFacade {
             logger.error("Error closing previously stashed connection for group ${groupName}: ${existing.toString()}", t)
         }
         ConnectionWrapper newCw = new ConnectionWrapper(con, this, groupName)
+        StatementCacheStats statementCacheStats = statementCacheStatsByGroup.get(groupName)
+        if (statementCacheStats != null) newCw.trackStatementCache(statementCacheStats)
         txStackInfo.txConByGroup.put(conKey, newCw)
         return newCw
     }
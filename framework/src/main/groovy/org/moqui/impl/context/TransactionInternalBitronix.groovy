@@ -15,6 +15,7 @@ package org.moqui.impl.context
 
 import bitronix.tm.BitronixTransactionManager
 import bitronix.tm.TransactionManagerServices
+import bitronix.tm.resource.jdbc.PooledConnectionProxy
 import bitronix.tm.resource.jdbc.PoolingDataSource
 import bitronix.tm.utils.ClassLoaderUtils
 import bitronix.tm.utils.PropertyUtils
@@ -22,6 +23,7 @@ import groovy.transform.CompileStatic
 import org.moqui.context.ExecutionContextFactory
 import org.moqui.context.TransactionInternal
 import org.moqui.entity.EntityFacade
+import org.moqui.impl.context.ContextJavaUtil.StatementCacheStats
 import org.moqui.impl.entity.EntityFacadeImpl
 import org.moqui.util.MNode
 import org.slf4j.Logger
@@ -32,6 +34,7 @@ import javax.sql.XADataSource
 import javax.transaction.TransactionManager
 import javax.transaction.UserTransaction
 import java.sql.Connection
+import java.util.function.Function
 
 @CompileStatic
 class TransactionInternalBitronix implements TransactionInternal {
@@ -131,9 +134,12 @@ class TransactionInternalBitronix implements TransactionInternal {
         // pds.setIgnoreRecoveryFailures(false) // something to consider for XA recovery errors, quarantines by default
 
         pds.setEnableJdbc4ConnectionTest(true) // use faster jdbc4 connection test
-        // default is 0, disabled PreparedStatement cache (cache size per Connection)
-        // NOTE: make this configurable? value too high or low?
-        pds.setPreparedStatementCacheSize(100)
+        // Bitronix default is 0, disabled PreparedStatement cache (LRU cache size per physical Connection)
+        int statementCacheSize = (dsi.inlineJdbc.attribute("statement-cache-size") ?: "100") as int
+        pds.setPreparedStatementCacheSize(statementCacheSize)
+        if (statementCacheSize > 0) ecfi.transactionFacade.registerStatementCache(new StatementCacheStats(
+                datasourceNode.attribute("group-name"), statementCacheSize, { Connection con ->
+                    con instanceof PooledConnectionProxy ? ((PooledConnectionProxy) con).getPooledConnection() : null } as Function<Connection, Object>))
 
         // use-tm-join defaults to true, so does Bitronix so just set to false if false
         if (dsi.database.attribute("use-tm-join") == "false") pds.setUseTmJoin(false)
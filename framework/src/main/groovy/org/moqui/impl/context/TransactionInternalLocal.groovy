@@ -0,0 +1,119 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.impl.context
+
+import groovy.transform.CompileStatic
+import org.apache.commons.beanutils.BeanUtils
+import org.moqui.context.ExecutionContextFactory
+import org.moqui.context.TransactionInternal
+import org.moqui.entity.EntityFacade
+import org.moqui.impl.entity.EntityFacadeImpl
+import org.moqui.util.MNode
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+
+import javax.sql.DataSource
+import javax.transaction.TransactionManager
+import javax.transaction.UserTransaction
+import java.sql.Connection
+import java.sql.Driver
+import java.util.concurrent.Callable
+
+/**
+ * TransactionInternal using local JDBC transactions (LocalTransactionManager) and a simple connection pool
+ * (LocalConnectionPool) instead of XA. Less overhead per transaction than Bitronix for deployments where each
+ * transaction uses a single datasource; with more than one datasource in a transaction there is no two-phase commit.
+ */
+@CompileStatic
+class TransactionInternalLocal implements TransactionInternal {
+    protected final static Logger logger = LoggerFactory.getLogger(TransactionInternalLocal.class)
+
+    protected ExecutionContextFactoryImpl ecfi
+    protected LocalTransactionManager ltm
+
+    protected List<LocalConnectionPool> poolList = []
+
+    @Override
+    TransactionInternal init(ExecutionContextFactory ecf) {
+        this.ecfi = (ExecutionContextFactoryImpl) ecf
+        // timeout is always set by TransactionFacadeImpl.begin(), this is just a fallback
+        ltm = new LocalTransactionManager(60)
+        return this
+    }
+
+    @Override
+    TransactionManager getTransactionManager() { return ltm }
+
+    @Override
+    UserTransaction getUserTransaction() { return ltm }
+
+    @Override
+    DataSource getDataSource(EntityFacade ef, MNode datasourceNode) {
+        // NOTE: this is called during EFI init, so use the passed one and don't try to get from ECFI
+        EntityFacadeImpl efi = (EntityFacadeImpl) ef
+
+        EntityFacadeImpl.DatasourceInfo dsi = new EntityFacadeImpl.DatasourceInfo(efi, datasourceNode)
+
+        Callable<Connection> connectionFactory
+        if (dsi.xaDsClass) {
+            // most XA DataSource classes (H2, Postgres, MySQL, etc) are also plain DataSources, use them that way
+            Object dsObj = Thread.currentThread().getContextClassLoader().loadClass(dsi.xaDsClass).newInstance()
+            if (!(dsObj instanceof DataSource))
+                throw new IllegalArgumentException("xa-ds-class ${dsi.xaDsClass} does not implement DataSource, use inline-jdbc with jdbc-driver for datasource ${dsi.uniqueName} with TransactionInternalLocal")
+            for (Map.Entry<Object, Object> entry : dsi.xaProps.entrySet()) {
+                String name = (String) entry.getKey()
+                try {
+                    BeanUtils.setProperty(dsObj, name, entry.getValue())
+                } catch (Exception e) {
+                    logger.warn("Error setting ${dsi.uniqueName} property ${name}, ignoring: ${e.toString()}")
+                }
+            }
+            DataSource ds = (DataSource) dsObj
+            connectionFactory = { ds.getConnection() } as Callable<Connection>
+        } else {
+            Driver driver = (Driver) Thread.currentThread().getContextClassLoader().loadClass(dsi.jdbcDriver).newInstance()
+            Properties driverProps = new Properties()
+            if (dsi.jdbcUsername) driverProps.setProperty("user", dsi.jdbcUsername)
+            if (dsi.jdbcPassword) driverProps.setProperty("password", dsi.jdbcPassword)
+            String jdbcUri = dsi.jdbcUri
+            connectionFactory = { driver.connect(jdbcUri, driverProps) } as Callable<Connection>
+        }
+
+        String txIsolationLevel = dsi.inlineJdbc.attribute("isolation-level") ?
+                dsi.inlineJdbc.attribute("isolation-level") : dsi.database.attribute("default-isolation-level")
+        int isolationInt = txIsolationLevel ? efi.getTxIsolationFromString(txIsolationLevel) : -1
+
+        String testQuery = dsi.inlineJdbc.attribute("pool-test-query") ?: dsi.database.attribute("default-test-query")
+        // pool-time-idle and pool-time-wait are in seconds like for Bitronix; defaults are the Bitronix defaults
+        long maxIdleMillis = ((dsi.inlineJdbc.attribute("pool-time-idle") ?: "60") as long) * 1000L
+        long acquireTimeoutMillis = ((dsi.inlineJdbc.attribute("pool-time-wait") ?: "30") as long) * 1000L
+
+        LocalConnectionPool pool = new LocalConnectionPool(dsi.uniqueName, ltm, connectionFactory,
+                (dsi.inlineJdbc.attribute("pool-minsize") ?: "5") as int, (dsi.inlineJdbc.attribute("pool-maxsize") ?: "50") as int,
+                acquireTimeoutMillis, maxIdleMillis, testQuery, isolationInt)
+
+        logger.info("Initializing DataSource ${dsi.uniqueName} (${dsi.database.attribute('name')}) with properties: ${dsi.dsDetails}")
+        pool.init()
+        logger.info("Init local DataSource ${dsi.uniqueName} (${dsi.database.attribute('name')}) isolation ${isolationInt}, max pool ${pool.maxSize}")
+
+        poolList.add(pool)
+        return pool
+    }
+
+    @Override
+    void destroy() {
+        logger.info("Shutting down local transaction manager")
+        for (LocalConnectionPool pool in poolList) pool.close()
+    }
+}
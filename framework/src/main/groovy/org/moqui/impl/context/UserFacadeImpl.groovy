@@ -645,6 +645,16 @@ class UserFacadeImpl implements UserFacade {
         return internalLoginToken(username, token)
     }
 
+    /** For internal framework use only, in a worker thread running part of a request use the request's locale, time
+     * zone, visit and client IP without saving them on the UserAccount; call after any internalLoginUser() */
+    void internalSetRequestContext(Locale locale, TimeZone tz, String visitId, String clientIp) {
+        if (locale != null) currentInfo.localeCache = locale
+        if (tz != null) currentInfo.tzCache = tz
+        this.visitId = visitId
+        this.visitInternal = (EntityValue) null
+        this.clientIpInternal = clientIp
+    }
+
     /** For internal framework use only, does a login without authc. */
     boolean internalLoginUser(String username) { return internalLoginUser(username, true) }
     boolean internalLoginUser(String username, boolean saveHistory) {
@@ -14,7 +14,6 @@
 package org.moqui.impl.context
 
 import com.fasterxml.jackson.core.io.JsonStringEncoder
-import com.fasterxml.jackson.databind.JsonNode
 import groovy.transform.CompileStatic
 
 import org.apache.commons.fileupload.FileItem
@@ -50,6 +49,7 @@ import javax.servlet.ServletContext
 import javax.servlet.http.HttpServletRequest
 import javax.servlet.http.HttpServletResponse
 import javax.servlet.http.HttpSession
+import java.nio.charset.StandardCharsets
 
 /** This class is a facade to easily get information from and about the web context. */
 @CompileStatic
@@ -138,11 +138,12 @@ class WebFacadeImpl implements WebFacade {
 
                 if ((contentType.contains("application/json") || contentType.contains("text/json"))) {
                     try {
-                        JsonNode jsonNode = ContextJavaUtil.jacksonMapper.readTree(bodyString)
-                        if (jsonNode.isObject()) {
-                            jsonParameters = ContextJavaUtil.jacksonMapper.treeToValue(jsonNode, Map.class)
-                        } else if (jsonNode.isArray()) {
-                            jsonParameters = [_requestBodyJsonList:ContextJavaUtil.jacksonMapper.treeToValue(jsonNode, List.class)] as Map<String, Object>
+                        // bind directly to Map/List, no need for an intermediate JsonNode tree
+                        Object jsonObj = ContextJavaUtil.jacksonMapper.readValue(bodyString, Object.class)
+                        if (jsonObj instanceof Map) {
+                            jsonParameters = (Map<String, Object>) jsonObj
+                        } else if (jsonObj instanceof List) {
+                            jsonParameters = [_requestBodyJsonList:jsonObj] as Map<String, Object>
                         }
                     } catch (Throwable t) {
                         logger.error("Error parsing HTTP request body JSON: ${t.toString()}", t)
@@ -782,7 +783,12 @@ class WebFacadeImpl implements WebFacade {
         }
 
         // logger.warn("========== Sending JSON for object: ${responseObj}")
-        if (responseObj != null) jsonStr = ContextJavaUtil.jacksonMapper.writeValueAsString(responseObj)
+        if (responseObj != null) {
+            // serialize straight to UTF-8 bytes, avoids building a String then encoding it again to get the length
+            byte[] jsonBytes = ContextJavaUtil.jacksonMapper.writeValueAsBytes(responseObj)
+            if (sendJsonBytes(jsonBytes, request, response, requestAttributes)) return
+            jsonStr = new String(jsonBytes, StandardCharsets.UTF_8)
+        }
 
         if (!jsonStr) return
 
@@ -807,6 +813,35 @@ class WebFacadeImpl implements WebFacade {
         }
     }
 
+    /** Send JSON already encoded as UTF-8 using the response OutputStream, returns false if the response Writer is already in use */
+    protected static boolean sendJsonBytes(byte[] jsonBytes, HttpServletRequest request, HttpServletResponse response,
+                                           Map<String, Object> requestAttributes) {
+        if (jsonBytes.length == 0) return true
+        OutputStream os
+        try {
+            os = response.getOutputStream()
+        } catch (IllegalStateException | UnsupportedOperationException e) {
+            return false
+        }
+
+        response.setContentType("application/json")
+        response.setCharacterEncoding("UTF-8")
+        response.setContentLength(jsonBytes.length)
+        try {
+            os.write(jsonBytes)
+            os.flush()
+            if (logger.isTraceEnabled()) {
+                Long startTime = (Long) requestAttributes.get("moquiRequestStartTime")
+                String timeMsg = ""
+                if (startTime) timeMsg = "in ${(System.currentTimeMillis()-startTime)}ms"
+                logger.trace("Sent JSON response ${jsonBytes.length} bytes UTF-8 encoding ${timeMsg} for ${request.getMethod()} to ${request.getPathInfo()}")
+            }
+        } catch (IOException e) {
+            logger.error("Error sending JSON response", e)
+        }
+        return true
+    }
+
     @Override
     void sendJsonError(int statusCode, String message, Throwable origThrowable) {
         sendJsonErrorInternal(statusCode, message, origThrowable, response)
@@ -1061,6 +1096,8 @@ class WebFacadeImpl implements WebFacade {
                 if (parmStack.xPageMaxIndex != null) response.addIntHeader('X-Page-Max-Index', parmStack.xPageMaxIndex as int)
                 if (parmStack.xPageRangeLow != null) response.addIntHeader('X-Page-Range-Low', parmStack.xPageRangeLow as int)
                 if (parmStack.xPageRangeHigh != null) response.addIntHeader('X-Page-Range-High', parmStack.xPageRangeHigh as int)
+                if (parmStack.xPageNextCursor != null) response.addHeader('X-Page-Next-Cursor', parmStack.xPageNextCursor as String)
+                if (parmStack.xPagePrevCursor != null) response.addHeader('X-Page-Prev-Cursor', parmStack.xPagePrevCursor as String)
 
                 // NOTE: This will always respond with 200 OK, consider using 201 Created (for successful POST, create PUT)
                 //     and 204 No Content (for DELETE and other when no content is returned)
@@ -0,0 +1,258 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.impl.context;
+
+import org.moqui.util.MNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * A named lane (bulkhead) over the shared worker pool with its own queue and concurrency limit so that one kind of
+ * work (slow integration services, etc) can't take all worker threads and starve other work (data feeds, etc).
+ *
+ * When adaptive the concurrency limit is adjusted AIMD style: after each window of completions (window size is the
+ * current limit) if the average latency is over the latency target the limit is decreased by the backoff ratio,
+ * otherwise if the lane was saturated (tasks waiting in the lane queue) the limit is increased by one. If no
+ * latency-target is configured the target is the long-term average latency times the tolerance.
+ */
+public class WorkerLane extends AbstractExecutorService {
+    protected final static Logger logger = LoggerFactory.getLogger(WorkerLane.class);
+    private final static double backoffRatio = 0.9;
+    private final static double longAvgWeight = 0.05;
+
+    public final String name;
+    private final ThreadPoolExecutor workerPool;
+    public final Pattern servicePattern;
+    public final int minLimit, maxLimit, queueMax;
+    public final boolean adaptive;
+    private final long latencyTargetNanos;
+    private final double tolerance;
+
+    private volatile int limit;
+    private volatile boolean shutdown = false;
+    private final ConcurrentLinkedDeque<LaneTask> laneQueue = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger queued = new AtomicInteger(0);
+    private final AtomicInteger active = new AtomicInteger(0);
+
+    private final AtomicLong submittedCount = new AtomicLong(0), completedCount = new AtomicLong(0),
+            rejectedCount = new AtomicLong(0), totalWaitNanos = new AtomicLong(0), maxWaitNanos = new AtomicLong(0),
+            totalRunNanos = new AtomicLong(0);
+    private final AtomicInteger limitIncreases = new AtomicInteger(0), limitDecreases = new AtomicInteger(0);
+
+    // window state for limit adjustment, guarded by synchronized(this) in sample() except windowSaturated which is
+    // also set in drain() from any thread submitting or completing a task
+    private int windowCount = 0;
+    private long windowRunNanos = 0;
+    private volatile boolean windowSaturated = false;
+    private double longAvgNanos = 0;
+
+    public WorkerLane(MNode laneNode, ThreadPoolExecutor workerPool) {
+        this.name = laneNode.attribute("name");
+        this.workerPool = workerPool;
+        String patternAttr = laneNode.attribute("service-pattern");
+        servicePattern = patternAttr != null && !patternAttr.isEmpty() ? Pattern.compile(patternAttr) : null;
+
+        String maxAttr = laneNode.attribute("max-concurrency");
+        int maxTemp = maxAttr != null && !maxAttr.isEmpty() ? Integer.parseInt(maxAttr) : 4;
+        // never allow a lane to use the entire pool, that is what lanes are meant to prevent
+        if (maxTemp >= workerPool.getMaximumPoolSize()) maxTemp = Math.max(1, workerPool.getMaximumPoolSize() - 1);
+        maxLimit = maxTemp;
+        String minAttr = laneNode.attribute("min-concurrency");
+        minLimit = Math.min(maxLimit, minAttr != null && !minAttr.isEmpty() ? Integer.parseInt(minAttr) : 1);
+        String queueAttr = laneNode.attribute("queue-max");
+        queueMax = queueAttr != null && !queueAttr.isEmpty() ? Integer.parseInt(queueAttr) : 10000;
+        adaptive = !"false".equals(laneNode.attribute("adaptive"));
+        String targetAttr = laneNode.attribute("latency-target");
+        latencyTargetNanos = targetAttr != null && !targetAttr.isEmpty() ? Long.parseLong(targetAttr) * 1000000L : 0L;
+        String toleranceAttr = laneNode.attribute("latency-tolerance");
+        tolerance = toleranceAttr != null && !toleranceAttr.isEmpty() ? Double.parseDouble(toleranceAttr) : 2.0;
+
+        // start at max and let latency bring it down, better than starting low and queueing at startup
+        limit = maxLimit;
+    }
+
+    public boolean matchesService(String serviceName) {
+        return servicePattern != null && serviceName != null && servicePattern.matcher(serviceName).matches();
+    }
+
+    public int getLimit() { return limit; }
+    public int getActiveCount() { return active.get(); }
+    public int getQueueSize() { return queued.get(); }
+
+    @Override
+    public void execute(Runnable command) {
+        if (command == null) throw new NullPointerException("Runnable may not be null");
+        if (shutdown) {
+            rejectedCount.incrementAndGet();
+            throw new RejectedExecutionException("Worker lane " + name + " is shut down");
+        }
+        if (queued.incrementAndGet() > queueMax) {
+            queued.decrementAndGet();
+            rejectedCount.incrementAndGet();
+            throw new RejectedExecutionException("Worker lane " + name + " queue is full (" + queueMax + "), rejecting task");
+        }
+        submittedCount.incrementAndGet();
+        laneQueue.add(new LaneTask(command));
+        drain();
+    }
+
+    /** Move tasks from the lane queue to the worker pool while under the concurrency limit */
+    private void drain() {
+        while (true) {
+            int curActive = active.get();
+            if (curActive >= limit) {
+                if (!laneQueue.isEmpty()) windowSaturated = true;
+                return;
+            }
+            if (!active.compareAndSet(curActive, curActive + 1)) continue;
+            LaneTask task = laneQueue.poll();
+            if (task == null) {
+                active.decrementAndGet();
+                // another thread may have added after the poll but seen active at the limit, check again
+                if (laneQueue.isEmpty()) return;
+                continue;
+            }
+            queued.decrementAndGet();
+            try {
+                workerPool.execute(task);
+            } catch (RejectedExecutionException e) {
+                if (!workerPool.isShutdown() && active.get() > 1) {
+                    // other tasks from this lane are running, put it back at the head and retry when one completes
+                    laneQueue.addFirst(task);
+                    queued.incrementAndGet();
+                    if (active.decrementAndGet() > 0) return;
+                    // the others completed meanwhile and may not have seen it, try again now
+                    continue;
+                }
+                // nothing running in this lane to retry later so fail the task instead of leaving it queued forever
+                active.decrementAndGet();
+                rejectedCount.incrementAndGet();
+                logger.warn("Worker pool rejected task from lane " + name + ", failing task: " + e.toString());
+                task.reject(e);
+            }
+        }
+    }
+
+    private void sample(long runNanos) {
+        totalRunNanos.addAndGet(runNanos);
+        if (!adaptive) return;
+        synchronized (this) {
+            windowCount++;
+            windowRunNanos += runNanos;
+            if (windowCount < limit) return;
+
+            double windowAvg = windowRunNanos / (double) windowCount;
+            double targetNanos = latencyTargetNanos > 0 ? latencyTargetNanos : longAvgNanos * tolerance;
+            if (targetNanos > 0 && windowAvg > targetNanos) {
+                int newLimit = Math.max(minLimit, (int) (limit * backoffRatio));
+                if (newLimit < limit) { limit = newLimit; limitDecreases.incrementAndGet(); }
+            } else if (windowSaturated && limit < maxLimit) {
+                limit = limit + 1;
+                limitIncreases.incrementAndGet();
+            }
+            // update the long-term average after the comparison so a slow window doesn't raise its own target
+            longAvgNanos = longAvgNanos == 0 ? windowAvg : longAvgNanos * (1 - longAvgWeight) + windowAvg * longAvgWeight;
+            windowCount = 0;
+            windowRunNanos = 0;
+            windowSaturated = false;
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long completed = completedCount.get();
+        stats.put("name", name);
+        stats.put("limit", limit);
+        stats.put("minLimit", minLimit);
+        stats.put("maxLimit", maxLimit);
+        stats.put("active", active.get());
+        stats.put("queued", queued.get());
+        stats.put("submitted", submittedCount.get());
+        stats.put("completed", completed);
+        stats.put("rejected", rejectedCount.get());
+        stats.put("avgWaitMillis", completed > 0 ? (totalWaitNanos.get() / completed) / 1000000.0 : 0.0);
+        stats.put("maxWaitMillis", maxWaitNanos.get() / 1000000.0);
+        stats.put("avgRunMillis", completed > 0 ? (totalRunNanos.get() / completed) / 1000000.0 : 0.0);
+        stats.put("limitIncreases", limitIncreases.get());
+        stats.put("limitDecreases", limitDecreases.get());
+        return stats;
+    }
+
+    /** Reject new tasks, tasks already in the lane queue still run (or fail if the worker pool rejects them) */
+    @Override public void shutdown() {
+        shutdown = true;
+        drain();
+    }
+    @Override public List<Runnable> shutdownNow() {
+        shutdown = true;
+        List<Runnable> notRun = new ArrayList<>();
+        LaneTask task;
+        while ((task = laneQueue.poll()) != null) { queued.decrementAndGet(); notRun.add(task.command); }
+        return notRun;
+    }
+    @Override public boolean isShutdown() { return shutdown; }
+    @Override public boolean isTerminated() { return shutdown && active.get() == 0 && queued.get() == 0; }
+    @Override public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long endTime = System.currentTimeMillis() + unit.toMillis(timeout);
+        while (!isTerminated()) {
+            if (System.currentTimeMillis() > endTime) return false;
+            Thread.sleep(50);
+        }
+        return true;
+    }
+
+    @Override protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value) { return new LaneFuture<>(runnable, value); }
+    @Override protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) { return new LaneFuture<>(callable); }
+
+    /** FutureTask that can be completed with the worker pool rejection so callers waiting on it don't hang */
+    private static class LaneFuture<T> extends FutureTask<T> {
+        LaneFuture(Callable<T> callable) { super(callable); }
+        LaneFuture(Runnable runnable, T value) { super(runnable, value); }
+        void reject(Throwable t) { setException(t); }
+    }
+
+    private class LaneTask implements Runnable {
+        final Runnable command;
+        final long queuedNanos;
+        LaneTask(Runnable command) { this.command = command; this.queuedNanos = System.nanoTime(); }
+
+        void reject(RejectedExecutionException e) {
+            if (command instanceof LaneFuture) ((LaneFuture) command).reject(e);
+            else if (command instanceof Future) ((Future) command).cancel(false);
+        }
+
+        @Override
+        public void run() {
+            long startNanos = System.nanoTime();
+            long waitNanos = startNanos - queuedNanos;
+            totalWaitNanos.addAndGet(waitNanos);
+            long curMax;
+            while (waitNanos > (curMax = maxWaitNanos.get()) && !maxWaitNanos.compareAndSet(curMax, waitNanos)) { }
+            try {
+                command.run();
+            } finally {
+                completedCount.incrementAndGet();
+                active.decrementAndGet();
+                sample(System.nanoTime() - startNanos);
+                drain();
+            }
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.impl.entity;
+
+import bitronix.tm.resource.jdbc.PoolingDataSource;
+import org.moqui.impl.context.LocalConnectionPool;
+import org.moqui.util.MNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The read replicas (clones) of a datasource, configured as datasources with a group-name of the primary group-name
+ * plus '#' and a replica name (like 'transactional#replica1').
+ *
+ * Replicas are used for finds with useClone(true) and, when the primary datasource has replica-routing set, for
+ * finds that are not for update and don't need to see data written earlier in the same ExecutionContext. A replica
+ * that fails to give a connection is skipped for replica-retry-seconds and then tried again; when none are available
+ * the primary is used.
+ */
+public class DatasourceReplicaSet {
+    protected final static Logger logger = LoggerFactory.getLogger(DatasourceReplicaSet.class);
+
+    public enum Routing { OFF, OUTSIDE_TX, UNTIL_WRITE }
+
+    public final String groupName;
+    public final Routing routing;
+    public final boolean leastLoaded;
+    private final long retryMillis;
+    final Replica[] replicas;
+    private final AtomicInteger nextIndex = new AtomicInteger(0);
+    private final LongAdder primaryFallbackCount = new LongAdder();
+
+    public DatasourceReplicaSet(MNode primaryNode, Map<String, DataSource> dataSourceByReplicaGroup) {
+        groupName = primaryNode.attribute("group-name");
+        String routingAttr = primaryNode.attribute("replica-routing");
+        if ("outside-tx".equals(routingAttr)) routing = Routing.OUTSIDE_TX;
+        else if ("until-write".equals(routingAttr)) routing = Routing.UNTIL_WRITE;
+        else routing = Routing.OFF;
+        leastLoaded = "least-loaded".equals(primaryNode.attribute("replica-select"));
+        String retryAttr = primaryNode.attribute("replica-retry-seconds");
+        retryMillis = (retryAttr != null && !retryAttr.isEmpty() ? Long.parseLong(retryAttr) : 30L) * 1000L;
+
+        ArrayList<Replica> replicaList = new ArrayList<>(dataSourceByReplicaGroup.size());
+        for (Map.Entry<String, DataSource> entry : dataSourceByReplicaGroup.entrySet())
+            replicaList.add(new Replica(entry.getKey(), entry.getValue()));
+        // sort by name so round-robin order is the same on every server
+        replicaList.sort(Comparator.comparing(r -> r.groupName));
+        replicas = replicaList.toArray(new Replica[0]);
+    }
+
+    public int size() { return replicas.length; }
+
+    /** Replicas to try in order, not including those that recently failed; empty if none are available */
+    ArrayList<Replica> candidates() {
+        long now = System.currentTimeMillis();
+        ArrayList<Replica> candidateList = new ArrayList<>(replicas.length);
+        int start = leastLoaded ? 0 : Math.floorMod(nextIndex.getAndIncrement(), replicas.length);
+        for (int i = 0; i < replicas.length; i++) {
+            Replica replica = replicas[(start + i) % replicas.length];
+            if (replica.downUntil <= now) candidateList.add(replica);
+        }
+        if (leastLoaded && candidateList.size() > 1) {
+            // stable sort so with equal load the first by name is used, pools that don't report load count as 0
+            candidateList.sort(Comparator.comparingInt(r -> inUseCount(r.dataSource)));
+        }
+        return candidateList;
+    }
+
+    void noteUsed(Replica replica) {
+        replica.routedCount.increment();
+        if (replica.failureStreak > 0) {
+            replica.failureStreak = 0;
+            logger.info("Read replica " + replica.groupName + " is available again");
+        }
+    }
+    void noteFailed(Replica replica, Throwable t) {
+        replica.failureCount.increment();
+        replica.failureStreak++;
+        replica.lastError = t.toString();
+        replica.downUntil = System.currentTimeMillis() + retryMillis;
+        logger.warn("Error getting connection from read replica " + replica.groupName + ", skipping for " +
+                (retryMillis / 1000) + "s: " + t.toString());
+    }
+    void notePrimaryFallback() { primaryFallbackCount.increment(); }
+
+    static int inUseCount(DataSource ds) {
+        if (ds instanceof LocalConnectionPool) return ((LocalConnectionPool) ds).getInUseCount();
+        if (ds instanceof PoolingDataSource) {
+            PoolingDataSource pds = (PoolingDataSource) ds;
+            return pds.getTotalPoolSize() - pds.getInPoolSize();
+        }
+        return 0;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("routing", routing.name());
+        stats.put("select", leastLoaded ? "least-loaded" : "round-robin");
+        stats.put("primaryFallback", primaryFallbackCount.sum());
+        long now = System.currentTimeMillis();
+        List<Map<String, Object>> replicaStatsList = new ArrayList<>(replicas.length);
+        for (Replica replica : replicas) {
+            Map<String, Object> replicaStats = new LinkedHashMap<>();
+            replicaStats.put("group", replica.groupName);
+            replicaStats.put("available", replica.downUntil <= now);
+            replicaStats.put("routed", replica.routedCount.sum());
+            replicaStats.put("failures", replica.failureCount.sum());
+            replicaStats.put("inUse", inUseCount(replica.dataSource));
+            if (replica.lastError != null) replicaStats.put("lastError", replica.lastError);
+            replicaStatsList.add(replicaStats);
+        }
+        stats.put("replicas", replicaStatsList);
+        return stats;
+    }
+
+    static class Replica {
+        final String groupName;
+        final DataSource dataSource;
+        final LongAdder routedCount = new LongAdder(), failureCount = new LongAdder();
+        volatile long downUntil = 0;
+        volatile int failureStreak = 0;
+        volatile String lastError = null;
+        Replica(String groupName, DataSource dataSource) { this.groupName = groupName; this.dataSource = dataSource; }
+    }
+}
@@ -20,13 +20,32 @@ import org.moqui.entity.EntityCondition
 import org.moqui.entity.EntityList
 import org.moqui.entity.EntityValue
 import org.moqui.impl.context.CacheFacadeImpl
+import org.moqui.impl.context.ExecutionContextImpl
+import org.moqui.impl.context.TransactionFacadeImpl
+import org.moqui.impl.entity.condition.DateCondition
+import org.moqui.impl.entity.condition.EntityConditionImplBase
+import org.moqui.impl.entity.condition.FieldToFieldCondition
+import org.moqui.impl.entity.condition.FieldValueCondition
+import org.moqui.impl.entity.condition.ListCondition
+import org.moqui.impl.entity.condition.TrueCondition
+import org.moqui.jcache.MCache
+import org.moqui.jcache.MEntry
+import org.moqui.util.LiteStringMap
 import org.moqui.util.MNode
 import org.moqui.util.SimpleTopic
 import org.slf4j.Logger
 import org.slf4j.LoggerFactory
 
+import javax.transaction.Status
+import javax.transaction.Synchronization
+import java.util.concurrent.CompletableFuture
 import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.ConcurrentMap
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
+import java.util.concurrent.atomic.AtomicLong
+import java.util.function.Predicate
 
 @CompileStatic
 class EntityCache {
@@ -43,12 +62,27 @@ class EntityCache {
     static final String listViewRaKeyBase = "entity.record.list_view_ra."
     static final String countKeyBase = "entity.record.count."
 
-    Cache<String, Set<EntityCondition>> oneBfCache
+    Cache<String, EntityOneBfIndex> oneBfCache
     protected final Map<String, List<String>> cachedListViewEntitiesByMember = new HashMap<>()
 
+    /** In progress loads for coalesce-loads caches, by cache name and key */
+    protected final ConcurrentHashMap<CacheLoadKey, CompletableFuture<Void>> loadingMap = new ConcurrentHashMap<>()
+    /** Keys with a background refresh submitted, for stale-grace and refresh-ahead caches */
+    protected final Set<CacheLoadKey> refreshingSet = ConcurrentHashMap.newKeySet()
+    /** For cache-incremental entities, by entity name incremented before list and count caches are updated or cleared */
+    protected final ConcurrentHashMap<String, AtomicLong> listVersionMap = new ConcurrentHashMap<>()
+
     protected final boolean distributedCacheInvalidate
+    /** Publish EntityCacheInvalidateBatch messages (entity-facade.@dci-batch), otherwise an EntityCacheInvalidate per
+     * change for topic listeners that don't pass messages to receiveInvalidate() */
+    protected final boolean dciBatch
     /** Entity Cache Invalidate Topic */
-    private SimpleTopic<EntityCacheInvalidate> entityCacheInvalidateTopic = null
+    private SimpleTopic<Object> entityCacheInvalidateTopic = null
+    /** Identifies messages from this server so they are skipped when received, the changes are already applied here */
+    protected final String dciSenderId = UUID.randomUUID().toString()
+    /** With this many or more changes for an entity in a received message clear its list and count caches instead of
+     * checking each cached list for each change */
+    static final int DCI_BULK_CLEAR_SIZE = 100
 
     EntityCache(EntityFacadeImpl efi) {
         this.efi = efi
@@ -58,20 +92,30 @@ class EntityCache {
 
         MNode entityFacadeNode = efi.getEntityFacadeNode()
         distributedCacheInvalidate = entityFacadeNode.attribute("distributed-cache-invalidate") == "true" && entityFacadeNode.attribute("dci-topic-factory")
-        logger.info("Entity Cache initialized, distributed cache invalidate enabled: ${distributedCacheInvalidate}")
+        dciBatch = entityFacadeNode.attribute("dci-batch") == "true"
+        logger.info("Entity Cache initialized, distributed cache invalidate enabled: ${distributedCacheInvalidate}${distributedCacheInvalidate ? ', batch messages: ' + dciBatch : ''}")
 
         if (distributedCacheInvalidate) {
             try {
                 String dciTopicFactory = entityFacadeNode.attribute("dci-topic-factory")
-                entityCacheInvalidateTopic = (SimpleTopic<EntityCacheInvalidate>) efi.ecfi.getTool(dciTopicFactory, SimpleTopic.class)
+                entityCacheInvalidateTopic = (SimpleTopic<Object>) efi.ecfi.getTool(dciTopicFactory, SimpleTopic.class)
             } catch (Exception e) {
                 logger.error("Entity distributed cache invalidate is enabled but could not initialize", e)
             }
         }
     }
 
+    /** What to do with the list and count caches for the entity of a changed value: clear matching entries, nothing, or
+     * update them with the value (for cache-incremental entities) */
+    static final byte LISTS_CLEAR = 0, LISTS_SKIP = 1, LISTS_UPDATE = 2
+
     static class EntityCacheInvalidate implements Externalizable {
-        boolean isCreate
+        boolean isCreate, isDelete
+        /** For a delete true if the value was read from the database and not changed, so its fields can be used to adjust counts */
+        boolean valuesFromDb
+        /** If false only the list and count caches for the entity are cleared or updated (see listsAction) */
+        boolean clearOther = true
+        byte listsAction = LISTS_CLEAR
         EntityValueBase evb
 
         EntityCacheInvalidate() { }
@@ -79,15 +123,32 @@ class EntityCache {
             this.isCreate = isCreate
             this.evb = evb
         }
+        EntityCacheInvalidate(EntityValueBase evb, boolean isCreate, boolean isDelete, boolean valuesFromDb,
+                              boolean clearOther, byte listsAction) {
+            this.isCreate = isCreate
+            this.isDelete = isDelete
+            this.valuesFromDb = valuesFromDb
+            this.clearOther = clearOther
+            this.listsAction = listsAction
+            this.evb = evb
+        }
 
         @Override void writeExternal(ObjectOutput out) throws IOException {
             out.writeBoolean(isCreate)
+            out.writeBoolean(isDelete)
+            out.writeBoolean(valuesFromDb)
+            out.writeBoolean(clearOther)
+            out.writeByte(listsAction)
             // NOTE: this would be faster but can't because don't know which impl of the abstract class was used: evb.writeExternal(out)
             out.writeObject(evb)
         }
 
         @Override void readExternal(ObjectInput objectInput) throws IOException, ClassNotFoundException {
             isCreate = objectInput.readBoolean()
+            isDelete = objectInput.readBoolean()
+            valuesFromDb = objectInput.readBoolean()
+            clearOther = objectInput.readBoolean()
+            listsAction = objectInput.readByte()
             try {
                 evb = (EntityValueBase) objectInput.readObject()
             } catch (Throwable t) {
@@ -117,12 +178,118 @@ class EntityCache {
         if (whereCondition == null) return null
         if (entityListCache == null) entityListCache = ed.getCacheList(this)
 
-        EntityListImpl cacheHit = (EntityListImpl) entityListCache.get(whereCondition)
-        if (cacheHit != null && orderByList != null && orderByList.size() > 0) cacheHit.orderByFields(orderByList)
+        EntityListImpl cacheHit = (EntityListImpl) getCached(ed, whereCondition, entityListCache, true)
+        if (cacheHit != null && orderByList != null && orderByList.size() > 0) cacheHit = (EntityListImpl) cacheHit.orderByFields(orderByList)
         return cacheHit
     }
+
+    /** Get from a one or list cache. For an MCache with stale-grace-seconds an expired value is returned for that long
+     * after expiry, and with that or refresh-ahead-seconds it is refreshed on the worker pool by one thread. */
+    Object getCached(EntityDefinition ed, EntityCondition whereCondition, Cache cache, boolean isList) {
+        if (!(cache instanceof MCache)) return cache.get(whereCondition)
+        MCache mc = (MCache) cache
+        long staleGraceMillis = mc.getStaleGraceMillis()
+        long refreshAheadMillis = mc.getRefreshAheadMillis()
+        if (staleGraceMillis == 0L && refreshAheadMillis == 0L) return mc.get(whereCondition)
+
+        MEntry entry = mc.getEntryStale(whereCondition, staleGraceMillis)
+        if (entry == null) return null
+        long expireTime = mc.getExpireTime(entry)
+        if (expireTime != Long.MAX_VALUE && System.currentTimeMillis() > expireTime - refreshAheadMillis)
+            submitRefresh(ed, whereCondition, mc, entry, isList)
+        return entry.getValue()
+    }
+    protected void submitRefresh(EntityDefinition ed, EntityCondition whereCondition, MCache mc, MEntry entry, boolean isList) {
+        CacheLoadKey refreshKey = new CacheLoadKey(mc.getName(), whereCondition)
+        if (!refreshingSet.add(refreshKey)) return
+        String entityName = ed.getFullEntityName()
+        try {
+            efi.ecfi.workerPool.execute(new ExecutionContextImpl.ThreadPoolRunnable(efi.ecfi, {
+                long startNanos = System.nanoTime()
+                try {
+                    if (isList) {
+                        long listVersion = getListVersion(ed)
+                        EntityListImpl el = (EntityListImpl) efi.find(entityName).condition(whereCondition)
+                                .useCache(false).disableAuthz().list()
+                        el.setFromCache()
+                        // if the entry was cleared or replaced while querying don't put the result
+                        if (mc.replaceEntry(whereCondition, entry, el)) {
+                            registerCacheListRa(entityName, whereCondition, el)
+                            if (getListVersion(ed) != listVersion) mc.remove(whereCondition, el)
+                        }
+                    } else {
+                        EntityValueBase ev = (EntityValueBase) efi.find(entityName).condition(whereCondition)
+                                .useCache(false).disableAuthz().one()
+                        if (ev != null) ev.setFromCache()
+                        if (mc.replaceEntry(whereCondition, entry, ev != null ? ev : new EmptyRecord(ed, efi)))
+                            registerCacheOneRa(entityName, whereCondition, ev)
+                    }
+                    mc.recordLoad(System.nanoTime() - startNanos)
+                } finally {
+                    refreshingSet.remove(refreshKey)
+                }
+            }))
+        } catch (RejectedExecutionException e) {
+            refreshingSet.remove(refreshKey)
+            if (logger.isTraceEnabled()) logger.trace("Worker pool full, not refreshing ${entityName} cache entry ${whereCondition}")
+        }
+    }
+
+    /** True if the cache is an MCache with coalesce-loads and no transaction is in place, then use beginLoad() and
+     * endLoad() around queries on a miss; in a transaction always query as a load by another thread that started before
+     * a write in the transaction (which clears the cache entry) would not see the write */
+    boolean shouldCoalesceLoad(Cache cache) {
+        return cache instanceof MCache && ((MCache) cache).isCoalesceLoads() && !efi.ecfi.transactionFacade.isTransactionInPlace()
+    }
+    /** Record time since startNanos to query and put a value on a miss in the statistics of the cache, if an MCache */
+    static void recordLoad(Cache cache, long startNanos) {
+        if (cache instanceof MCache) ((MCache) cache).recordLoad(System.nanoTime() - startNanos)
+    }
+    /** If another thread is loading the key waits for it and returns null (check the cache again), otherwise returns
+     * a future that the caller must pass to endLoad() after putting the loaded value in the cache */
+    CompletableFuture<Void> beginLoad(Cache cache, EntityCondition whereCondition) {
+        CompletableFuture<Void> newFuture = new CompletableFuture<>()
+        CompletableFuture<Void> existing = loadingMap.putIfAbsent(new CacheLoadKey(cache.getName(), whereCondition), newFuture)
+        if (existing == null) return newFuture
+        long waitMillis = ((MCache) cache).getCoalesceWaitMillis()
+        try {
+            existing.get(waitMillis, TimeUnit.MILLISECONDS)
+        } catch (TimeoutException e) {
+            logger.warn("Waited ${waitMillis}ms for load of ${whereCondition} in cache ${cache.getName()}, querying anyway")
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt()
+        }
+        return (CompletableFuture<Void>) null
+    }
+    void endLoad(Cache cache, EntityCondition whereCondition, CompletableFuture<Void> loadFuture) {
+        loadingMap.remove(new CacheLoadKey(cache.getName(), whereCondition), loadFuture)
+        loadFuture.complete(null)
+    }
+
+    static final class CacheLoadKey {
+        final String cacheName
+        final EntityCondition condition
+        private final int hashCode
+        CacheLoadKey(String cacheName, EntityCondition condition) {
+            this.cacheName = cacheName
+            this.condition = condition
+            hashCode = cacheName.hashCode() * 31 + condition.hashCode()
+        }
+        @Override int hashCode() { return hashCode }
+        @Override boolean equals(Object obj) {
+            if (!(obj instanceof CacheLoadKey)) return false
+            CacheLoadKey that = (CacheLoadKey) obj
+            return hashCode == that.hashCode && cacheName.equals(that.cacheName) && condition.equals(that.condition)
+        }
+    }
     void putInListCache(EntityDefinition ed, EntityListImpl el, EntityCondition whereCondition,
                         Cache<EntityCondition, EntityListImpl> entityListCache) {
+        putInListCache(ed, el, whereCondition, entityListCache, getListVersion(ed))
+    }
+    /** For cache-incremental entities listVersion is from getListVersion() before the query; if list caches for the entity
+     * were updated since then the list is removed after the put, as it may be missing a change committed during the query */
+    void putInListCache(EntityDefinition ed, EntityListImpl el, EntityCondition whereCondition,
+                        Cache<EntityCondition, EntityListImpl> entityListCache, long listVersion) {
         if (whereCondition == null) return
         if (entityListCache == null) entityListCache = ed.getCacheList(this)
 
@@ -131,6 +298,20 @@ class EntityCache {
         elToCache.setFromCache()
         entityListCache.put(whereCondition, elToCache)
         registerCacheListRa(ed.getFullEntityName(), whereCondition, elToCache)
+        if (getListVersion(ed) != listVersion) entityListCache.remove(whereCondition, elToCache)
+    }
+    /** Like putInListCache() for counts, see it for listVersion */
+    void putInCountCache(EntityDefinition ed, EntityCondition whereCondition, long count,
+                         Cache<EntityCondition, Long> entityCountCache, long listVersion) {
+        Long countObj = Long.valueOf(count)
+        entityCountCache.put(whereCondition, countObj)
+        if (getListVersion(ed) != listVersion) entityCountCache.remove(whereCondition, countObj)
+    }
+    /** For cache-incremental entities a number that changes when list and count caches for the entity are updated, 0 for others */
+    long getListVersion(EntityDefinition ed) {
+        if (!ed.entityInfo.cacheIncremental) return 0L
+        AtomicLong listVersion = listVersionMap.get(ed.entityInfo.fullEntityName)
+        return listVersion != null ? listVersion.get() : 0L
     }
     /*
     Long getFromCountCache(EntityDefinition ed, EntityCondition whereCondition, Cache<EntityCondition, Long> entityCountCache) {
@@ -140,25 +321,119 @@ class EntityCache {
     */
 
     /** Called from EntityValueBase */
-    void clearCacheForValue(EntityValueBase evb, boolean isCreate) {
+    void clearCacheForValue(EntityValueBase evb, boolean isCreate) { clearCacheForValue(evb, isCreate, false) }
+    void clearCacheForValue(EntityValueBase evb, boolean isCreate, boolean isDelete) {
         if (evb == null) return
         EntityDefinition ed = evb.getEntityDefinition()
         if (ed.entityInfo.neverCache) return
 
         // String entityName = evb.getEntityName()
         // if (!entityName.startsWith("moqui.")) logger.info("========== ========== ========== clearCacheForValue ${entityName}")
+        boolean txActive = efi.ecfi.transactionFacade.isTransactionActive()
+        boolean cacheIncremental = ed.entityInfo.cacheIncremental
+        boolean valuesFromDb = cacheIncremental && isDelete && evb.getIsFromDb() && !evb.isModified()
+        EntityCacheInvalidate eci
+        if (cacheIncremental && txActive) {
+            // clear other caches now, update list and count caches on commit with a copy of the value as it is now
+            getCacheSynchronization().addChange(new EntityCacheInvalidate((EntityValueBase) evb.cloneValue(),
+                    isCreate, isDelete, valuesFromDb, false, LISTS_UPDATE))
+            eci = new EntityCacheInvalidate(evb, isCreate, isDelete, valuesFromDb, true, LISTS_SKIP)
+        } else {
+            eci = new EntityCacheInvalidate(evb, isCreate, isDelete, valuesFromDb, true, cacheIncremental ? LISTS_UPDATE : LISTS_CLEAR)
+        }
+        clearCacheForValueActual(eci)
+
         if (distributedCacheInvalidate && entityCacheInvalidateTopic != null) {
-            // NOTE: this takes some time to run and is done a LOT, for nearly all entity CrUD ops
-            // NOTE: have set many entities as never cache
             // NOTE: can't avoid message when caches don't exist and not used in view-entity as it might be on another server
-            EntityCacheInvalidate eci = new EntityCacheInvalidate(evb, isCreate)
-            entityCacheInvalidateTopic.publish(eci)
-        } else {
-            clearCacheForValueActual(evb, isCreate)
+            // in a transaction other servers get the changes after commit (in one message with dci-batch), nothing on rollback
+            if (txActive) {
+                getCacheSynchronization().addRemoteChange(evb, isCreate, isDelete, valuesFromDb, cacheIncremental)
+            } else if (dciBatch) {
+                EntityCacheInvalidateBatch batch = new EntityCacheInvalidateBatch(dciSenderId)
+                batch.add(evb, isCreate, isDelete, valuesFromDb, cacheIncremental)
+                publishInvalidate(batch)
+            } else {
+                publishInvalidate(new EntityCacheInvalidate(evb, isCreate))
+            }
+        }
+    }
+    /** Publish an EntityCacheInvalidateBatch or EntityCacheInvalidate message on the distributed cache invalidate topic */
+    protected void publishInvalidate(Object message) {
+        try {
+            entityCacheInvalidateTopic.publish(message)
+        } catch (Throwable t) {
+            logger.error("Error publishing entity cache invalidate message ${message.getClass().getSimpleName()}", t)
+        }
+    }
+
+    /** For distributed cache invalidate topic listeners, call with each message received. Handles EntityCacheInvalidateBatch
+     * and (from servers running older versions) EntityCacheInvalidate messages. */
+    void receiveInvalidate(Object message) {
+        if (message instanceof EntityCacheInvalidateBatch) {
+            clearCacheForBatch((EntityCacheInvalidateBatch) message)
+        } else if (message instanceof EntityCacheInvalidate) {
+            clearCacheForValueActual((EntityCacheInvalidate) message)
+        } else if (message != null) {
+            logger.warn("Ignoring entity cache invalidate message of type ${message.getClass().getName()}")
+        }
+    }
+    /** Apply changes from another server, skipped for messages from this server */
+    void clearCacheForBatch(EntityCacheInvalidateBatch batch) {
+        if (dciSenderId.equals(batch.getSenderId())) return
+        int batchSize = batch.size()
+
+        // for entities with many changes clear list and count caches (including view-entities it is a member of) once
+        Set<String> bulkEntityNames = null
+        if (batchSize >= DCI_BULK_CLEAR_SIZE) {
+            Map<String, Integer> countByEntity = new HashMap<>()
+            for (int i = 0; i < batchSize; i++) {
+                String entityName = batch.getChange(i).entityName
+                Integer count = countByEntity.get(entityName)
+                countByEntity.put(entityName, count != null ? count.intValue() + 1 : 1)
+            }
+            for (Map.Entry<String, Integer> countEntry in countByEntity.entrySet()) {
+                if (countEntry.getValue().intValue() < DCI_BULK_CLEAR_SIZE) continue
+                if (bulkEntityNames == null) bulkEntityNames = new HashSet<>()
+                bulkEntityNames.add(countEntry.getKey())
+            }
+            if (bulkEntityNames != null) for (String entityName in bulkEntityNames) clearListCaches(entityName)
+        }
+
+        for (int i = 0; i < batchSize; i++) {
+            EntityCacheInvalidateBatch.Change change = batch.getChange(i)
+            EntityValueBase evb = batch.makeValue(change, efi)
+            if (evb == null) continue
+            boolean bulkCleared = bulkEntityNames != null && bulkEntityNames.contains(change.entityName)
+            byte listsAction = !bulkCleared && change.hasFlag(EntityCacheInvalidateBatch.FLAG_LISTS_UPDATE) ? LISTS_UPDATE : LISTS_CLEAR
+            clearCacheForValueActual(new EntityCacheInvalidate(evb, change.hasFlag(EntityCacheInvalidateBatch.FLAG_CREATE),
+                    change.hasFlag(EntityCacheInvalidateBatch.FLAG_DELETE), change.hasFlag(EntityCacheInvalidateBatch.FLAG_VALUES_FROM_DB),
+                    true, listsAction))
+        }
+    }
+    /** Clear all list and count cache entries for an entity and the list caches of view-entities it is a member of */
+    protected void clearListCaches(String entityName) {
+        EntityDefinition ed = efi.getEntityDefinition(entityName)
+        if (ed == null) return
+        ConcurrentMap<String, Cache> localCacheMap = cfi.localCacheMap
+        if (ed.entityInfo.cacheIncremental) listVersionMap.computeIfAbsent(entityName, { String name -> new AtomicLong() }).incrementAndGet()
+        if (localCacheMap.containsKey(listKeyBase.concat(entityName))) ed.getCacheList(this).clear()
+        if (localCacheMap.containsKey(countKeyBase.concat(entityName))) ed.getCacheCount(this).clear()
+        List<String> cachedViewEntityNames = (List<String>) cachedListViewEntitiesByMember.get(entityName)
+        if (cachedViewEntityNames != null) synchronized (cachedViewEntityNames) {
+            for (String viewEntityName in cachedViewEntityNames) {
+                EntityDefinition viewEd = efi.getEntityDefinition(viewEntityName)
+                if (viewEd != null) viewEd.getCacheList(this).clear()
+            }
         }
     }
     /** Does actual cache clear, called directly or distributed through topic */
     void clearCacheForValueActual(EntityValueBase evb, boolean isCreate) {
+        clearCacheForValueActual(new EntityCacheInvalidate(evb, isCreate))
+    }
+    /** Does actual cache clear or update as described by the EntityCacheInvalidate, called directly or distributed through topic */
+    void clearCacheForValueActual(EntityCacheInvalidate eci) {
+        EntityValueBase evb = eci.evb
+        boolean isCreate = eci.isCreate
         // logger.info("====== clearCacheForValueActual isCreate=${isCreate}, evb: ${evb}")
         try {
             EntityDefinition ed = evb.getEntityDefinition()
@@ -175,7 +450,7 @@ class EntityCache {
 
             // clear one cache
             String oneKey = oneKeyBase.concat(fullEntityName)
-            if (localCacheMap.containsKey(oneKey)) {
+            if (eci.clearOther && localCacheMap.containsKey(oneKey)) {
                 pkCondition = efi.getConditionFactory().makeCondition(evb.getPrimaryKeys())
 
                 Cache<EntityCondition, EntityValueBase> entityOneCache = ed.getCacheOne(this)
@@ -193,27 +468,20 @@ class EntityCache {
                     // we've cleared all entries that this was referring to, so clean it out too
                     oneRaCache.remove(pkCondition)
                 }
-                // see if there are any cached entries with no result using the bf (brute-force) matching
-                Set<EntityCondition> bfKeySet = (Set<EntityCondition>) oneBfCache.get(fullEntityName)
-                if (bfKeySet != null && bfKeySet.size() > 0) {
-                    ArrayList<EntityCondition> keysToRemove = new ArrayList<EntityCondition>()
-                    Iterator<EntityCondition> bfKeySetIter = bfKeySet.iterator()
-                    while (bfKeySetIter.hasNext()) {
-                        EntityCondition bfKey = (EntityCondition) bfKeySetIter.next()
-                        if (bfKey.mapMatches(evbMap)) keysToRemove.add(bfKey)
-                    }
-                    int keysToRemoveSize = keysToRemove.size()
-                    for (int i = 0; i < keysToRemoveSize; i++) {
-                        EntityCondition key = (EntityCondition) keysToRemove.get(i)
-                        entityOneCache.remove(key)
-                        bfKeySet.remove(key)
+                // see if there are any cached entries with no result the value now matches, using the bf index
+                EntityOneBfIndex bfIndex = (EntityOneBfIndex) oneBfCache.get(fullEntityName)
+                if (bfIndex != null && !bfIndex.isEmpty()) {
+                    ArrayList<EntityCondition> keysToRemove = bfIndex.removeMatching(evbMap)
+                    if (keysToRemove != null) {
+                        int keysToRemoveSize = keysToRemove.size()
+                        for (int i = 0; i < keysToRemoveSize; i++) entityOneCache.remove((EntityCondition) keysToRemove.get(i))
                     }
                 }
             }
 
             // check the One View RA entries for this entity
             String oneViewRaKey = oneViewRaKeyBase.concat(fullEntityName)
-            if (localCacheMap.containsKey(oneViewRaKey)) {
+            if (eci.clearOther && localCacheMap.containsKey(oneViewRaKey)) {
                 if (pkCondition == null) pkCondition = efi.getConditionFactory().makeCondition(evb.getPrimaryKeys())
 
                 Cache<EntityCondition, Set<ViewRaKey>> oneViewRaCache = ed.getCacheOneViewRa(this)
@@ -231,9 +499,14 @@ class EntityCache {
                 }
             }
 
-            // clear list cache, use reverse-associative Map (also a Cache)
+            // queries for cache-incremental entity lists and counts running now won't be cached, see putInListCache()
+            if (ed.entityInfo.cacheIncremental && eci.listsAction != LISTS_SKIP)
+                listVersionMap.computeIfAbsent(fullEntityName, { String name -> new AtomicLong() }).incrementAndGet()
+
+            // clear list cache, use reverse-associative Map (also a Cache); for cache-incremental entities update instead if possible
             String listKey = listKeyBase.concat(fullEntityName)
-            if (localCacheMap.containsKey(listKey)) {
+            if (eci.listsAction != LISTS_SKIP && localCacheMap.containsKey(listKey) &&
+                    !(eci.listsAction == LISTS_UPDATE && updateListCache(ed, eci, ed.getCacheList(this)))) {
                 if (pkCondition == null) pkCondition = efi.getConditionFactory().makeCondition(evb.getPrimaryKeys())
 
                 Cache<EntityCondition, EntityListImpl> entityListCache = ed.getCacheList(this)
@@ -249,6 +522,9 @@ class EntityCache {
                     // any way to efficiently clear out the RA cache for these? for now just leave and they are handled eventually
                     if (ec.mapMatches(evbMap)) entityListCache.remove(ec)
                 }
+                // entries in an off-heap tier aren't in iterator(), remove by key without decoding
+                if (entityListCache instanceof MCache) ((MCache<EntityCondition, EntityListImpl>) entityListCache)
+                        .invalidateOffHeap({ EntityCondition ec -> ec.mapMatches(evbMap) } as Predicate<EntityCondition>)
 
                 // if this is an update also check reverse associations (RA) as the condition check above may not match
                 //     against the new values, or partially updated records
@@ -289,7 +565,7 @@ class EntityCache {
             }
 
             // see if this entity is a member of a cached view-entity
-            List<String> cachedViewEntityNames = (List<String>) cachedListViewEntitiesByMember.get(fullEntityName)
+            List<String> cachedViewEntityNames = eci.clearOther ? (List<String>) cachedListViewEntitiesByMember.get(fullEntityName) : (List<String>) null
             if (cachedViewEntityNames != null) synchronized (cachedViewEntityNames) {
                 int cachedViewEntityNamesSize = cachedViewEntityNames.size()
                 for (int i = 0; i < cachedViewEntityNamesSize; i++) {
@@ -337,18 +613,20 @@ class EntityCache {
                         //     but another member-entity is updated
                         if (econd.mapMatchesAny(viewMatchMap) || econd.mapKeysNotContained(viewMatchMap)) elcIterator.remove()
                     }
+                    if (entityListCache instanceof MCache) ((MCache<EntityCondition, EntityListImpl>) entityListCache).invalidateOffHeap(
+                            { EntityCondition econd -> econd.mapMatchesAny(viewMatchMap) || econd.mapKeysNotContained(viewMatchMap) } as Predicate<EntityCondition>)
                 }
             }
 
             // clear count cache (no RA because we only have a count to work with, just match by condition)
             String countKey = countKeyBase.concat(fullEntityName)
-            if (localCacheMap.containsKey(countKey)) {
+            if (eci.listsAction != LISTS_SKIP && localCacheMap.containsKey(countKey)) {
                 Cache<EntityCondition, Long> entityCountCache = ed.getCacheCount(this)
                 // with so little information about count cache results we can't do RA and checking conditions fails to clear in
                 //     cases where a value no longer matches, would handle newly matched clearing where count increases but not no
                 //     longer matches cases where count decreases
-                // no choice but to clear the whole cache
-                entityCountCache.clear()
+                // no choice but to clear the whole cache, unless for a cache-incremental entity the change is known
+                if (eci.listsAction != LISTS_UPDATE || !updateCountCache(ed, eci, entityCountCache)) entityCountCache.clear()
                 /*
                 Iterator<Cache.Entry<EntityCondition, Long>> eccIterator = entityCountCache.iterator()
                 while (eccIterator.hasNext()) {
@@ -363,16 +641,209 @@ class EntityCache {
             logger.error("Suppressed error in entity cache clearing [${evb.getEntityName()}; ${isCreate ? 'create' : 'non-create'}]", t)
         }
     }
+    /** Update cached lists with a created, updated, or deleted value instead of removing them. Returns false, and does
+     * nothing, if the value doesn't have all fields (for a delete the PK fields) so the lists need to be cleared instead. */
+    protected boolean updateListCache(EntityDefinition ed, EntityCacheInvalidate eci, Cache<EntityCondition, EntityListImpl> entityListCache) {
+        EntityValueBase evb = eci.evb
+        boolean isDelete = eci.isDelete
+        LiteStringMap<Object> evbMap = evb.getValueMap()
+        if (!isDelete && !isCompleteValue(ed, evbMap, eci.isCreate)) return false
+
+        FieldInfo[] pkFieldInfos = ed.entityInfo.pkFieldInfoArray
+        String[] pkNames = new String[pkFieldInfos.length]
+        Object[] pkValues = new Object[pkFieldInfos.length]
+        for (int i = 0; i < pkFieldInfos.length; i++) {
+            FieldInfo fi = pkFieldInfos[i]
+            if (!evbMap.containsKeyIString(fi.name, fi.index)) return false
+            pkNames[i] = fi.name
+            pkValues[i] = evbMap.getByIString(fi.name, fi.index)
+        }
+
+        // one copy of the value for all lists it is added to, immutable like values from the database in cached lists
+        EntityValueBase cacheValue = (EntityValueBase) null
+        EntityListImpl raList = (EntityListImpl) null
+        if (!isDelete) {
+            cacheValue = (EntityValueBase) evb.cloneValue()
+            // fields not set on create are null in the database, set them like a value from the database
+            LiteStringMap<Object> cacheValueMap = cacheValue.getValueMap()
+            FieldInfo[] allFieldInfos = ed.entityInfo.allFieldInfoArray
+            for (int i = 0; i < allFieldInfos.length; i++) {
+                FieldInfo fi = allFieldInfos[i]
+                if (!cacheValueMap.containsKeyIString(fi.name, fi.index)) cacheValueMap.putByIString(fi.name, null, fi.index)
+            }
+            cacheValue.setSyncedWithDb()
+            cacheValue.setFromCache()
+            raList = new EntityListImpl(efi, 1)
+            raList.add(cacheValue)
+        }
+
+        Iterator<Cache.Entry<EntityCondition, EntityListImpl>> elcIterator = entityListCache.iterator()
+        while (elcIterator.hasNext()) {
+            Cache.Entry<EntityCondition, EntityListImpl> entry = (Cache.Entry<EntityCondition, EntityListImpl>) elcIterator.next()
+            if (entry == null) continue
+            EntityCondition ec = (EntityCondition) entry.getKey()
+            // if the database may match differently than mapMatches() remove the list, like when not updating
+            if (!isExactMatch(ec)) { entityListCache.remove(ec); continue }
+            EntityListImpl oldList = (EntityListImpl) entry.getValue()
+            int oldIndex = oldList.indexOfFields(pkNames, pkValues)
+            boolean matches = !isDelete && ec.mapMatches(evbMap)
+            if (!matches && oldIndex == -1) continue
+
+            // cached lists are shared so make a new one; order doesn't matter, getFromListCache() sorts by the find order by
+            int oldSize = oldList.size()
+            EntityListImpl newList = new EntityListImpl(efi, oldSize + 1)
+            for (int i = 0; i < oldSize; i++) {
+                if (i != oldIndex) newList.add(oldList.get(i))
+                else if (matches) newList.add(cacheValue)
+            }
+            if (matches && oldIndex == -1) newList.add(cacheValue)
+            newList.setFromCache()
+            // only replace if not changed by another thread since the get, otherwise remove it
+            if (entityListCache.replace(ec, oldList, newList)) {
+                if (matches && oldIndex == -1) registerCacheListRa(ed.getFullEntityName(), ec, raList)
+            } else {
+                entityListCache.remove(ec)
+            }
+        }
+
+        // entries in an off-heap tier can't be updated without decoding, remove any that may have the value or now match it
+        if (entityListCache instanceof MCache) {
+            EntityCondition pkCondition = efi.getConditionFactory().makeCondition(evb.getPrimaryKeys())
+            Set<EntityCondition> raKeySet = (Set<EntityCondition>) ed.getCacheListRa(this).get(pkCondition)
+            ((MCache<EntityCondition, EntityListImpl>) entityListCache).invalidateOffHeap({ EntityCondition ec ->
+                    (raKeySet != null && raKeySet.contains(ec)) || !isExactMatch(ec) || (!isDelete && ec.mapMatches(evbMap)) } as Predicate<EntityCondition>)
+        }
+        return true
+    }
+    /** Adjust cached counts by one for a created value, or deleted value read from the database. Returns false, and does
+     * nothing, for an update (field values before the update aren't reliably known) or if the value doesn't have all fields. */
+    protected boolean updateCountCache(EntityDefinition ed, EntityCacheInvalidate eci, Cache<EntityCondition, Long> entityCountCache) {
+        if (!eci.isCreate && !(eci.isDelete && eci.valuesFromDb)) return false
+        LiteStringMap<Object> evbMap = eci.evb.getValueMap()
+        if (!isCompleteValue(ed, evbMap, eci.isCreate)) return false
+
+        long delta = eci.isCreate ? 1L : -1L
+        Iterator<Cache.Entry<EntityCondition, Long>> eccIterator = entityCountCache.iterator()
+        while (eccIterator.hasNext()) {
+            Cache.Entry<EntityCondition, Long> entry = (Cache.Entry<EntityCondition, Long>) eccIterator.next()
+            if (entry == null) continue
+            EntityCondition ec = (EntityCondition) entry.getKey()
+            if (!isExactMatch(ec)) { entityCountCache.remove(ec); continue }
+            if (!ec.mapMatches(evbMap)) continue
+            Long oldCount = (Long) entry.getValue()
+            long newCount = oldCount.longValue() + delta
+            // only replace if not changed by another thread since the get, otherwise remove it
+            if (newCount < 0 || !entityCountCache.replace(ec, oldCount, Long.valueOf(newCount))) entityCountCache.remove(ec)
+        }
+        if (entityCountCache instanceof MCache) ((MCache<EntityCondition, Long>) entityCountCache)
+                .invalidateOffHeap({ EntityCondition ec -> !isExactMatch(ec) || ec.mapMatches(evbMap) } as Predicate<EntityCondition>)
+        return true
+    }
+    /** True if mapMatches() for the condition matches the same values the database would, so a cached list or count
+     * for it can be updated in memory. Not for SQL where conditions (mapMatches() is always false), ignore case
+     * (mapMatches() compares exactly) or LIKE (pattern and collation handling varies by database). */
+    protected static boolean isExactMatch(EntityCondition cond) {
+        if (cond instanceof FieldValueCondition) {
+            FieldValueCondition fvc = (FieldValueCondition) cond
+            EntityCondition.ComparisonOperator op = fvc.getOperator()
+            return !fvc.getIgnoreCase() && op != EntityCondition.LIKE && op != EntityCondition.NOT_LIKE
+        }
+        if (cond instanceof ListCondition) {
+            ArrayList<EntityConditionImplBase> condList = ((ListCondition) cond).getConditionList()
+            int condListSize = condList.size()
+            for (int i = 0; i < condListSize; i++) if (!isExactMatch((EntityCondition) condList.get(i))) return false
+            return true
+        }
+        if (cond instanceof FieldToFieldCondition) return !((FieldToFieldCondition) cond).getIgnoreCase()
+        return cond instanceof DateCondition || cond instanceof TrueCondition
+    }
+    /** True if the value has all fields (for a create missing fields are null) with values of the field types, so is the
+     * same as the value would be if read from the database */
+    protected static boolean isCompleteValue(EntityDefinition ed, LiteStringMap<Object> valueMap, boolean isCreate) {
+        FieldInfo[] allFieldInfos = ed.entityInfo.allFieldInfoArray
+        for (int i = 0; i < allFieldInfos.length; i++) {
+            FieldInfo fi = allFieldInfos[i]
+            if (!valueMap.containsKeyIString(fi.name, fi.index)) {
+                if (isCreate) continue
+                return false
+            }
+            Object value = valueMap.getByIString(fi.name, fi.index)
+            if (value == null) continue
+            // a GString is not equal to the String from the database
+            if (value instanceof CharSequence && !(value instanceof String)) return false
+            Integer valueType = (Integer) EntityFacadeImpl.javaIntTypeMap.get(value.getClass().getName())
+            if (valueType == null || valueType.intValue() != fi.typeValue) return false
+        }
+        return true
+    }
+
+    protected EntityCacheSynchronization getCacheSynchronization() {
+        TransactionFacadeImpl tfi = efi.ecfi.transactionFacade
+        EntityCacheSynchronization ecs = (EntityCacheSynchronization) tfi.getActiveSynchronization("EntityCacheSynchronization")
+        if (ecs == null) {
+            ecs = new EntityCacheSynchronization(this)
+            tfi.putAndEnlistActiveSynchronization("EntityCacheSynchronization", ecs)
+        }
+        return ecs
+    }
+    /** True if the entity is cache-incremental and changed in the current transaction; its list and count caches are
+     * updated on commit so until then finds in the transaction should not use them */
+    boolean hasPendingChanges(EntityDefinition ed) {
+        if (!ed.entityInfo.cacheIncremental) return false
+        EntityCacheSynchronization ecs = (EntityCacheSynchronization) efi.ecfi.transactionFacade.getActiveSynchronization("EntityCacheSynchronization")
+        return ecs != null && ecs.entityNames.contains(ed.entityInfo.fullEntityName)
+    }
+
+    /** Updates list and count caches for changes to cache-incremental entities when the transaction commits, and with
+     * distributed cache invalidate sends changes to other servers */
+    static class EntityCacheSynchronization implements Synchronization {
+        protected final EntityCache entityCache
+        protected final ArrayList<EntityCacheInvalidate> changeList = new ArrayList<>()
+        protected final Set<String> entityNames = new HashSet<>()
+        protected EntityCacheInvalidateBatch remoteBatch = null
+        protected ArrayList<EntityCacheInvalidate> remoteList = null
+
+        EntityCacheSynchronization(EntityCache entityCache) { this.entityCache = entityCache }
+
+        void addChange(EntityCacheInvalidate eci) {
+            changeList.add(eci)
+            entityNames.add(eci.evb.getEntityDefinition().entityInfo.fullEntityName)
+        }
+        void addRemoteChange(EntityValueBase evb, boolean isCreate, boolean isDelete, boolean valuesFromDb, boolean listsUpdate) {
+            if (entityCache.dciBatch) {
+                if (remoteBatch == null) remoteBatch = new EntityCacheInvalidateBatch(entityCache.dciSenderId)
+                remoteBatch.add(evb, isCreate, isDelete, valuesFromDb, listsUpdate)
+            } else {
+                if (remoteList == null) remoteList = new ArrayList<>()
+                // a copy of the value as it is now, it may be changed again before commit
+                remoteList.add(new EntityCacheInvalidate((EntityValueBase) evb.cloneValue(), isCreate))
+            }
+        }
+
+        @Override void beforeCompletion() { }
+        @Override void afterCompletion(int status) {
+            // on rollback there is nothing to do, the list and count caches have not been changed
+            if (status != Status.STATUS_COMMITTED) return
+            int changeListSize = changeList.size()
+            for (int i = 0; i < changeListSize; i++) entityCache.clearCacheForValueActual((EntityCacheInvalidate) changeList.get(i))
+            if (remoteBatch != null) entityCache.publishInvalidate(remoteBatch)
+            if (remoteList != null) {
+                int remoteListSize = remoteList.size()
+                for (int i = 0; i < remoteListSize; i++) entityCache.publishInvalidate(remoteList.get(i))
+            }
+        }
+    }
+
     void registerCacheOneRa(String entityName, EntityCondition ec, EntityValueBase evb) {
         // don't skip it for null values because we're caching those too: if (evb == null) return
         if (evb == null) {
-            // can't use RA cache because we don't know the PK, so use a brute-force cache but keep it separate to perform better
-            Set<EntityCondition> bfKeySet = (Set<EntityCondition>) oneBfCache.get(entityName)
-            if (bfKeySet == null) {
-                bfKeySet = ConcurrentHashMap.newKeySet()
-                oneBfCache.put(entityName, bfKeySet)
+            // can't use RA cache because we don't know the PK, so use a bf index of conditions by field values instead
+            EntityOneBfIndex bfIndex = (EntityOneBfIndex) oneBfCache.get(entityName)
+            if (bfIndex == null) {
+                bfIndex = new EntityOneBfIndex()
+                if (!oneBfCache.putIfAbsent(entityName, bfIndex)) bfIndex = (EntityOneBfIndex) oneBfCache.get(entityName) ?: bfIndex
             }
-            bfKeySet.add(ec)
+            bfIndex.add(ec)
         } else {
             EntityDefinition ed = evb.getEntityDefinition()
             Cache<EntityCondition, Set<EntityCondition>> oneRaCache = ed.getCacheOneRa(this)
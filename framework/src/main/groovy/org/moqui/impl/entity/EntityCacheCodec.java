@@ -0,0 +1,111 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.impl.entity;
+
+import org.moqui.entity.EntityValue;
+import org.moqui.impl.context.ExecutionContextFactoryImpl;
+import org.moqui.jcache.MBinaryCodec;
+import org.moqui.util.LiteStringMap;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * MCodec for the off-heap tier of entity caches. Entity values are written as the entity name and field name/value
+ * pairs instead of with Java serialization, and when read back are marked as from the cache (immutable) like when first
+ * put in the cache.
+ */
+public class EntityCacheCodec extends MBinaryCodec {
+    protected static final byte TAG_ENTITY_VALUE = TAG_EXTENDED, TAG_EMPTY_RECORD = TAG_EXTENDED + 1,
+            TAG_ENTITY_LIST = TAG_EXTENDED + 2;
+
+    private final ExecutionContextFactoryImpl ecfi;
+
+    public EntityCacheCodec(ExecutionContextFactoryImpl ecfi) { this.ecfi = ecfi; }
+
+    @Override
+    protected void writeObject(DataOutputStream out, Object value) throws IOException {
+        if (value instanceof EntityCache.EmptyRecord) {
+            out.writeByte(TAG_EMPTY_RECORD);
+            out.writeUTF(((EntityValueBase) value).getEntityDefinition().getFullEntityName());
+        } else if (value != null && value.getClass() == EntityValueImpl.class) {
+            out.writeByte(TAG_ENTITY_VALUE);
+            writeEntityValue(out, (EntityValueBase) value);
+        } else if (value != null && value.getClass() == EntityListImpl.class && allValueImpl((EntityListImpl) value)) {
+            EntityListImpl eli = (EntityListImpl) value;
+            int size = eli.size();
+            out.writeByte(TAG_ENTITY_LIST);
+            out.writeInt(size);
+            for (int i = 0; i < size; i++) writeEntityValue(out, (EntityValueBase) eli.get(i));
+        } else {
+            super.writeObject(out, value);
+        }
+    }
+    private static boolean allValueImpl(EntityListImpl eli) {
+        int size = eli.size();
+        for (int i = 0; i < size; i++) if (eli.get(i).getClass() != EntityValueImpl.class) return false;
+        return true;
+    }
+    private void writeEntityValue(DataOutputStream out, EntityValueBase evb) throws IOException {
+        out.writeUTF(evb.getEntityDefinition().getFullEntityName());
+        LiteStringMap<Object> valueMap = evb.getValueMap();
+        int fieldCount = valueMap.size();
+        out.writeShort(fieldCount);
+        for (int i = 0; i < fieldCount; i++) {
+            out.writeUTF(valueMap.getKey(i));
+            super.writeObject(out, valueMap.getValue(i));
+        }
+    }
+
+    @Override
+    protected Object readObject(DataInputStream in) throws IOException {
+        in.mark(1);
+        byte tag = in.readByte();
+        EntityFacadeImpl efi = ecfi.entityFacade;
+        switch (tag) {
+            case TAG_EMPTY_RECORD:
+                return new EntityCache.EmptyRecord(efi.getEntityDefinition(in.readUTF()), efi);
+            case TAG_ENTITY_VALUE:
+                return readEntityValue(in, efi);
+            case TAG_ENTITY_LIST:
+                int size = in.readInt();
+                EntityListImpl eli = new EntityListImpl(efi, size);
+                for (int i = 0; i < size; i++) eli.add(readEntityValue(in, efi));
+                eli.setFromCache();
+                return eli;
+            default:
+                in.reset();
+                return super.readObject(in);
+        }
+    }
+    private EntityValue readEntityValue(DataInputStream in, EntityFacadeImpl efi) throws IOException {
+        String entityName = in.readUTF();
+        EntityDefinition ed = efi.getEntityDefinition(entityName);
+        if (ed == null) throw new IOException("Entity " + entityName + " not found reading cached value");
+        EntityValueImpl evi = new EntityValueImpl(ed, efi);
+        LiteStringMap<Object> valueMap = evi.getValueMap();
+        int fieldCount = in.readShort();
+        for (int i = 0; i < fieldCount; i++) {
+            String fieldName = in.readUTF();
+            Object fieldValue = super.readObject(in);
+            // skip fields no longer in the definition
+            FieldInfo fi = ed.getFieldInfo(fieldName);
+            if (fi != null) valueMap.putByIString(fi.name, fieldValue, fi.index);
+        }
+        evi.setSyncedWithDb();
+        evi.setFromCache();
+        return evi;
+    }
+}
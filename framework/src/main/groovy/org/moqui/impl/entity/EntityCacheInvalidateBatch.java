@@ -0,0 +1,184 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.impl.entity;
+
+import org.moqui.jcache.MBinaryCodec;
+import org.moqui.util.LiteStringMap;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Entity cache changes to send to other servers for distributed cache invalidate, usually all changes in a transaction
+ * published once after commit. Changes to the same record (by entity name and primary key) are combined with the
+ * latest field values, as other servers only see the committed result.
+ *
+ * Each change has the entity name and the fields in the written value (primary key and changed fields for an update by
+ * Map, all fields for a value read then changed) written with entity and field names once per message and field values
+ * in the compact form of MBinaryCodec instead of Java serialization of each EntityValue.
+ */
+public class EntityCacheInvalidateBatch implements Externalizable {
+    static final byte FLAG_CREATE = 1, FLAG_DELETE = 2, FLAG_VALUES_FROM_DB = 4, FLAG_LISTS_UPDATE = 8;
+    private static final ValueCodec valueCodec = new ValueCodec();
+
+    private String senderId;
+    private final ArrayList<Change> changeList = new ArrayList<>();
+    /** Only used on the sending server to combine changes */
+    private transient HashMap<List<Object>, Change> changeByPk = null;
+
+    static class Change {
+        String entityName;
+        byte flags;
+        String[] fieldNames;
+        Object[] fieldValues;
+        boolean hasFlag(byte flag) { return (flags & flag) != 0; }
+    }
+
+    public EntityCacheInvalidateBatch() { }
+    public EntityCacheInvalidateBatch(String senderId) { this.senderId = senderId; }
+
+    public String getSenderId() { return senderId; }
+    public int size() { return changeList.size(); }
+    Change getChange(int index) { return changeList.get(index); }
+
+    /** Add a change, with field values copied from the value as it is now */
+    public void add(EntityValueBase evb, boolean isCreate, boolean isDelete, boolean valuesFromDb, boolean listsUpdate) {
+        EntityDefinition ed = evb.getEntityDefinition();
+        String entityName = ed.entityInfo.fullEntityName;
+        LiteStringMap<Object> valueMap = evb.getValueMap();
+
+        FieldInfo[] pkFieldInfos = ed.entityInfo.pkFieldInfoArray;
+        ArrayList<Object> pkKey = new ArrayList<>(pkFieldInfos.length + 1);
+        pkKey.add(entityName);
+        for (int i = 0; i < pkFieldInfos.length; i++) pkKey.add(valueMap.get(pkFieldInfos[i].name));
+
+        if (changeByPk == null) changeByPk = new HashMap<>();
+        Change existing = changeByPk.get(pkKey);
+        if (existing == null) {
+            Change change = new Change();
+            change.entityName = entityName;
+            change.flags = (byte) ((isCreate ? FLAG_CREATE : 0) | (isDelete ? FLAG_DELETE : 0) |
+                    (valuesFromDb ? FLAG_VALUES_FROM_DB : 0) | (listsUpdate ? FLAG_LISTS_UPDATE : 0));
+            int fieldCount = valueMap.size();
+            change.fieldNames = new String[fieldCount];
+            change.fieldValues = new Object[fieldCount];
+            for (int i = 0; i < fieldCount; i++) {
+                change.fieldNames[i] = valueMap.getKey(i);
+                change.fieldValues[i] = valueMap.getValue(i);
+            }
+            changeList.add(change);
+            changeByPk.put(pkKey, change);
+        } else {
+            // latest field values over earlier ones, fields only in earlier changes kept
+            LinkedHashMap<String, Object> fieldMap = new LinkedHashMap<>();
+            for (int i = 0; i < existing.fieldNames.length; i++) fieldMap.put(existing.fieldNames[i], existing.fieldValues[i]);
+            int fieldCount = valueMap.size();
+            for (int i = 0; i < fieldCount; i++) fieldMap.put(valueMap.getKey(i), valueMap.getValue(i));
+            existing.fieldNames = fieldMap.keySet().toArray(new String[0]);
+            existing.fieldValues = fieldMap.values().toArray();
+
+            // created then deleted is a delete with no count change, deleted then created is an update; other servers
+            //     have the values from before the transaction so values from the db in this one can't be used for counts
+            boolean wasCreate = existing.hasFlag(FLAG_CREATE);
+            boolean listsBoth = listsUpdate && existing.hasFlag(FLAG_LISTS_UPDATE);
+            existing.flags = (byte) ((wasCreate && !isDelete ? FLAG_CREATE : 0) | (isDelete ? FLAG_DELETE : 0) |
+                    (listsBoth ? FLAG_LISTS_UPDATE : 0));
+        }
+    }
+
+    /** Make a value for a change, or null if the entity is not defined on this server */
+    EntityValueBase makeValue(Change change, EntityFacadeImpl efi) {
+        EntityDefinition ed = efi.getEntityDefinition(change.entityName);
+        if (ed == null) return null;
+        EntityValueImpl evi = new EntityValueImpl(ed, efi);
+        LiteStringMap<Object> valueMap = evi.getValueMap();
+        for (int i = 0; i < change.fieldNames.length; i++) {
+            // skip fields not in the definition on this server
+            FieldInfo fi = ed.getFieldInfo(change.fieldNames[i]);
+            if (fi != null) valueMap.putByIString(fi.name, change.fieldValues[i], fi.index);
+        }
+        return evi;
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        out.writeUTF(senderId);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(64 + changeList.size() * 64);
+        DataOutputStream dos = new DataOutputStream(baos);
+        HashMap<String, Integer> nameIndexMap = new HashMap<>();
+        int changeListSize = changeList.size();
+        dos.writeInt(changeListSize);
+        for (int i = 0; i < changeListSize; i++) {
+            Change change = changeList.get(i);
+            writeName(dos, nameIndexMap, change.entityName);
+            dos.writeByte(change.flags);
+            int fieldCount = change.fieldNames.length;
+            dos.writeShort(fieldCount);
+            for (int j = 0; j < fieldCount; j++) {
+                writeName(dos, nameIndexMap, change.fieldNames[j]);
+                valueCodec.write(dos, change.fieldValues[j]);
+            }
+        }
+        dos.flush();
+        out.writeInt(baos.size());
+        out.write(baos.toByteArray());
+    }
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        senderId = in.readUTF();
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(bytes));
+        ArrayList<String> nameList = new ArrayList<>();
+        int changeListSize = dis.readInt();
+        changeList.ensureCapacity(changeListSize);
+        for (int i = 0; i < changeListSize; i++) {
+            Change change = new Change();
+            change.entityName = readName(dis, nameList);
+            change.flags = dis.readByte();
+            int fieldCount = dis.readShort();
+            change.fieldNames = new String[fieldCount];
+            change.fieldValues = new Object[fieldCount];
+            for (int j = 0; j < fieldCount; j++) {
+                change.fieldNames[j] = readName(dis, nameList);
+                change.fieldValues[j] = valueCodec.read(dis);
+            }
+            changeList.add(change);
+        }
+    }
+
+    /** Write the index of a name already written, or -1 and the name */
+    private static void writeName(DataOutputStream out, HashMap<String, Integer> nameIndexMap, String name) throws IOException {
+        Integer index = nameIndexMap.get(name);
+        if (index != null) {
+            out.writeShort(index);
+        } else {
+            out.writeShort(-1);
+            out.writeUTF(name);
+            if (nameIndexMap.size() < Short.MAX_VALUE) nameIndexMap.put(name, nameIndexMap.size());
+        }
+    }
+    private static String readName(DataInputStream in, ArrayList<String> nameList) throws IOException {
+        short index = in.readShort();
+        if (index >= 0) return nameList.get(index);
+        String name = in.readUTF();
+        if (nameList.size() < Short.MAX_VALUE) nameList.add(name);
+        return name;
+    }
+
+    private static class ValueCodec extends MBinaryCodec {
+        void write(DataOutputStream out, Object value) throws IOException { writeObject(out, value); }
+        Object read(DataInputStream in) throws IOException { return readObject(in); }
+    }
+}
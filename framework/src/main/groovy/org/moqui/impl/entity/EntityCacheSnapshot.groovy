@@ -0,0 +1,335 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a 
+ * Grant of Patent License.
+ * 
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ * 
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.impl.entity
+
+import groovy.transform.CompileStatic
+import org.moqui.entity.EntityCondition
+import org.moqui.entity.EntityValue
+import org.moqui.impl.context.ExecutionContextImpl
+import org.moqui.jcache.MCache
+import org.moqui.jcache.MEntry
+import org.moqui.util.MClassLoader
+import org.moqui.util.ObjectUtilities
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+
+import javax.cache.Cache
+import java.util.concurrent.Future
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.zip.GZIPInputStream
+import java.util.zip.GZIPOutputStream
+
+/**
+ * Saves the most used keys of entity one and list caches to a file (on shutdown) and loads them (on start) so a new
+ * server instance doesn't start with empty caches. Loading is done in parallel on the worker pool within a time limit,
+ * with one query for up to PK_BATCH_SIZE keys of one caches by single field primary key. Can also load all records of
+ * small entities with cache=true into the one cache.
+ *
+ * Keys already in the cache when loaded are skipped, and results put with the same methods as finds so RA entries are
+ * registered and later writes clear them as usual.
+ */
+@CompileStatic
+class EntityCacheSnapshot {
+    protected final static Logger logger = LoggerFactory.getLogger(EntityCacheSnapshot.class)
+    protected final static int FORMAT_VERSION = 1
+    protected final static int PK_BATCH_SIZE = 200
+    protected final static int KEY_BATCH_SIZE = 20
+
+    protected final EntityFacadeImpl efi
+    protected final EntityCache entityCache
+
+    EntityCacheSnapshot(EntityFacadeImpl efi) {
+        this.efi = efi
+        this.entityCache = efi.getEntityCache()
+    }
+
+    /** Save up to maxKeys keys of each entity one and list cache, by most accessed; returns number of keys saved */
+    int save(File snapshotFile, int maxKeys) {
+        long startTime = System.currentTimeMillis()
+        int keyCount = 0
+        snapshotFile.getParentFile()?.mkdirs()
+        File tempFile = new File(snapshotFile.getPath() + ".tmp")
+        ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(tempFile))))
+        try {
+            oos.writeInt(FORMAT_VERSION)
+            for (Map.Entry<String, Cache> cacheEntry in efi.ecfi.cacheFacade.localCacheMap.entrySet()) {
+                String cacheName = cacheEntry.getKey()
+                boolean isList
+                String entityName
+                if (cacheName.startsWith(EntityCache.oneKeyBase)) {
+                    isList = false
+                    entityName = cacheName.substring(EntityCache.oneKeyBase.length())
+                } else if (cacheName.startsWith(EntityCache.listKeyBase)) {
+                    isList = true
+                    entityName = cacheName.substring(EntityCache.listKeyBase.length())
+                } else {
+                    continue
+                }
+                Cache cache = cacheEntry.getValue()
+                if (!(cache instanceof MCache)) continue
+
+                ArrayList<Cache.Entry> entryList = ((MCache) cache).getEntryList()
+                // most accessed first
+                entryList.sort({ Cache.Entry e1, Cache.Entry e2 -> Long.compare(((MEntry) e2).getAccessCount(), ((MEntry) e1).getAccessCount()) })
+                int entryCount = Math.min(maxKeys, entryList.size())
+                for (int i = 0; i < entryCount; i++) {
+                    Object key = entryList.get(i).getKey()
+                    if (!(key instanceof EntityCondition)) continue
+                    // write each key to bytes first so one that can't be serialized doesn't break the file
+                    byte[] keyBytes
+                    try {
+                        ByteArrayOutputStream baos = new ByteArrayOutputStream()
+                        ObjectOutputStream keyOos = new ObjectOutputStream(baos)
+                        keyOos.writeObject(key)
+                        keyOos.close()
+                        keyBytes = baos.toByteArray()
+                    } catch (Exception e) {
+                        if (logger.isTraceEnabled()) logger.trace("Not saving cache key ${key} for ${cacheName}: ${e.toString()}")
+                        continue
+                    }
+                    oos.writeUTF(entityName)
+                    oos.writeBoolean(isList)
+                    oos.writeInt(keyBytes.length)
+                    oos.write(keyBytes)
+                    keyCount++
+                }
+            }
+            oos.writeUTF("")
+        } finally {
+            oos.close()
+        }
+        if (!tempFile.renameTo(snapshotFile)) {
+            snapshotFile.delete()
+            tempFile.renameTo(snapshotFile)
+        }
+        logger.info("Saved ${keyCount} entity cache keys to ${snapshotFile.getPath()} in ${System.currentTimeMillis() - startTime}ms")
+        return keyCount
+    }
+
+    /** Load entity cache entries for keys in the snapshot file (if not null and it exists) and if preloadRows > 0 all records of entities
+     * with cache=true and up to that many records, waiting up to timeLimitMillis; returns number of cache entries loaded */
+    int load(File snapshotFile, int preloadRows, long timeLimitMillis) {
+        long startTime = System.currentTimeMillis()
+        long deadline = startTime + timeLimitMillis
+        AtomicInteger loadedCount = new AtomicInteger()
+        ArrayList<Future> futureList = new ArrayList<>()
+
+        if (snapshotFile != null && snapshotFile.exists()) {
+            Map<String, ArrayList<EntityCondition>> oneKeysByEntity = new LinkedHashMap<>()
+            Map<String, ArrayList<EntityCondition>> listKeysByEntity = new LinkedHashMap<>()
+            try {
+                readSnapshot(snapshotFile, oneKeysByEntity, listKeysByEntity)
+            } catch (Exception e) {
+                logger.warn("Error reading entity cache snapshot ${snapshotFile.getPath()}, not loading: ${e.toString()}")
+            }
+
+            for (Map.Entry<String, ArrayList<EntityCondition>> entry in oneKeysByEntity.entrySet()) {
+                EntityDefinition ed = efi.getEntityDefinition(entry.getKey())
+                if (ed == null || ed.entityInfo.neverCache) continue
+                ArrayList<EntityCondition> otherKeys = new ArrayList<>()
+                ArrayList<EntityCondition> pkKeys = new ArrayList<>()
+                FieldInfo[] pkFieldInfos = ed.entityInfo.pkFieldInfoArray
+                String pkName = pkFieldInfos.length == 1 && !ed.isViewEntity ? pkFieldInfos[0].name : (String) null
+                for (EntityCondition key in entry.getValue()) {
+                    Map<String, Object> keyMap = new HashMap<>()
+                    if (pkName != null && key.populateMap(keyMap) && keyMap.size() == 1 && keyMap.containsKey(pkName)) pkKeys.add(key)
+                    else otherKeys.add(key)
+                }
+                for (int i = 0; i < pkKeys.size(); i += PK_BATCH_SIZE) {
+                    List<EntityCondition> batchKeys = new ArrayList<>(pkKeys.subList(i, Math.min(i + PK_BATCH_SIZE, pkKeys.size())))
+                    submit(futureList, deadline, { loadOneByPk(ed, pkName, batchKeys, deadline, loadedCount) })
+                }
+                for (int i = 0; i < otherKeys.size(); i += KEY_BATCH_SIZE) {
+                    List<EntityCondition> batchKeys = new ArrayList<>(otherKeys.subList(i, Math.min(i + KEY_BATCH_SIZE, otherKeys.size())))
+                    submit(futureList, deadline, { loadKeys(ed, batchKeys, false, deadline, loadedCount) })
+                }
+            }
+            for (Map.Entry<String, ArrayList<EntityCondition>> entry in listKeysByEntity.entrySet()) {
+                EntityDefinition ed = efi.getEntityDefinition(entry.getKey())
+                if (ed == null || ed.entityInfo.neverCache) continue
+                ArrayList<EntityCondition> keys = entry.getValue()
+                for (int i = 0; i < keys.size(); i += KEY_BATCH_SIZE) {
+                    List<EntityCondition> batchKeys = new ArrayList<>(keys.subList(i, Math.min(i + KEY_BATCH_SIZE, keys.size())))
+                    submit(futureList, deadline, { loadKeys(ed, batchKeys, true, deadline, loadedCount) })
+                }
+            }
+        }
+
+        if (preloadRows > 0) {
+            for (String entityName in efi.getAllEntityNames()) {
+                EntityDefinition ed = efi.getEntityDefinition(entityName)
+                if (ed == null || ed.isViewEntity || !"true".equals(ed.entityInfo.useCache)) continue
+                submit(futureList, deadline, { preloadEntity(ed, preloadRows, loadedCount) })
+            }
+        }
+
+        if (futureList.size() == 0) return 0
+        boolean timedOut = false
+        for (Future future in futureList) {
+            long remaining = deadline - System.currentTimeMillis()
+            try {
+                if (remaining <= 0) { timedOut = true; break }
+                future.get(remaining, TimeUnit.MILLISECONDS)
+            } catch (TimeoutException e) {
+                timedOut = true
+                break
+            } catch (Exception e) {
+                logger.warn("Error loading entity cache entries: ${e.toString()}")
+            }
+        }
+        // tasks not yet started skip their queries after the deadline
+        logger.info("Loaded ${loadedCount.get()} entity cache entries in ${System.currentTimeMillis() - startTime}ms" +
+                (timedOut ? ", stopped at time limit of ${timeLimitMillis}ms" : ""))
+        return loadedCount.get()
+    }
+
+    protected void readSnapshot(File snapshotFile, Map<String, ArrayList<EntityCondition>> oneKeysByEntity,
+                                Map<String, ArrayList<EntityCondition>> listKeysByEntity) {
+        ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(snapshotFile))))
+        try {
+            int version = ois.readInt()
+            if (version != FORMAT_VERSION) {
+                logger.info("Entity cache snapshot ${snapshotFile.getPath()} has format ${version}, expected ${FORMAT_VERSION}, not loading")
+                return
+            }
+            while (true) {
+                String entityName = ois.readUTF()
+                if (entityName.isEmpty()) break
+                boolean isList = ois.readBoolean()
+                byte[] keyBytes = new byte[ois.readInt()]
+                ois.readFully(keyBytes)
+                EntityCondition key
+                try {
+                    key = (EntityCondition) readKey(keyBytes)
+                } catch (Exception e) {
+                    // classes may have changed since saved, skip this key
+                    if (logger.isTraceEnabled()) logger.trace("Skipping cache key for ${entityName}: ${e.toString()}")
+                    continue
+                }
+                Map<String, ArrayList<EntityCondition>> keysByEntity = isList ? listKeysByEntity : oneKeysByEntity
+                ArrayList<EntityCondition> keyList = keysByEntity.get(entityName)
+                if (keyList == null) { keyList = new ArrayList<>(); keysByEntity.put(entityName, keyList) }
+                keyList.add(key)
+            }
+        } finally {
+            ois.close()
+        }
+    }
+    protected static Object readKey(byte[] keyBytes) {
+        ObjectInputStream keyOis = new ObjectInputStream(new ByteArrayInputStream(keyBytes)) {
+            @Override protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+                return Class.forName(desc.getName(), false, Thread.currentThread().getContextClassLoader())
+            }
+        }
+        try { return keyOis.readObject() } finally { keyOis.close() }
+    }
+
+    protected void submit(ArrayList<Future> futureList, long deadline, Closure closure) {
+        try {
+            futureList.add(efi.ecfi.workerPool.submit(new ExecutionContextImpl.ThreadPoolRunnable(efi.ecfi, {
+                if (System.currentTimeMillis() > deadline) return
+                try {
+                    closure.call()
+                } catch (Throwable t) {
+                    logger.warn("Error loading entity cache entries: ${t.toString()}")
+                }
+            })))
+        } catch (RejectedExecutionException e) {
+            logger.warn("Worker pool full, not loading some entity cache entries")
+        }
+    }
+
+    /** One query for the PK values of up to PK_BATCH_SIZE keys, then each key put in the one cache (EmptyRecord if not found).
+     * Key values are converted to the field type to match values from the database; a key not found with a value that
+     * can't be compared that way (not of the field type or BigDecimal with any scale) is queried separately. */
+    protected void loadOneByPk(EntityDefinition ed, String pkName, List<EntityCondition> keys, long deadline, AtomicInteger loadedCount) {
+        String entityName = ed.getFullEntityName()
+        FieldInfo pkInfo = ed.getFieldInfo(pkName)
+        Class fieldClass = MClassLoader.getCommonClass(pkInfo.javaType)
+        List<Object> pkValues = new ArrayList<>(keys.size())
+        for (EntityCondition key in keys) {
+            Map<String, Object> keyMap = new HashMap<>()
+            key.populateMap(keyMap)
+            Object pkValue = keyMap.get(pkName)
+            try {
+                pkValue = ObjectUtilities.basicConvert(pkValue, pkInfo.javaType)
+            } catch (Exception e) {
+                if (logger.isTraceEnabled()) logger.trace("Could not convert ${entityName}.${pkName} cache key value ${pkValue}: ${e.toString()}")
+            }
+            pkValues.add(pkValue)
+        }
+        Map<Object, EntityValueBase> valueByPk = new HashMap<>()
+        for (EntityValue ev in efi.find(entityName).condition(pkName, EntityCondition.IN, pkValues).useCache(false).disableAuthz().list())
+            valueByPk.put(ev.getNoCheckSimple(pkName), (EntityValueBase) ev)
+
+        Cache<EntityCondition, EntityValueBase> entityOneCache = ed.getCacheOne(entityCache)
+        ArrayList<EntityCondition> checkKeys = null
+        for (int i = 0; i < keys.size(); i++) {
+            EntityCondition key = keys.get(i)
+            if (entityOneCache.containsKey(key)) continue
+            Object pkValue = pkValues.get(i)
+            EntityValueBase ev = valueByPk.get(pkValue)
+            if (ev == null && (pkValue == null || fieldClass == null || fieldClass != pkValue.getClass() || pkValue instanceof BigDecimal)) {
+                if (checkKeys == null) checkKeys = new ArrayList<>()
+                checkKeys.add(key)
+                continue
+            }
+            entityCache.putInOneCache(ed, key, ev, entityOneCache)
+            loadedCount.incrementAndGet()
+        }
+        if (checkKeys != null) loadKeys(ed, checkKeys, false, deadline, loadedCount)
+    }
+    /** Query each key separately, stopping at the deadline */
+    protected void loadKeys(EntityDefinition ed, List<EntityCondition> keys, boolean isList, long deadline, AtomicInteger loadedCount) {
+        String entityName = ed.getFullEntityName()
+        Cache<EntityCondition, EntityValueBase> entityOneCache = isList ? null : ed.getCacheOne(entityCache)
+        Cache<EntityCondition, EntityListImpl> entityListCache = isList ? ed.getCacheList(entityCache) : null
+        for (EntityCondition key in keys) {
+            if (System.currentTimeMillis() > deadline) return
+            try {
+                if (isList) {
+                    if (entityListCache.containsKey(key)) continue
+                    long listVersion = entityCache.getListVersion(ed)
+                    EntityListImpl el = (EntityListImpl) efi.find(entityName).condition(key).useCache(false).disableAuthz().list()
+                    if (entityListCache.containsKey(key)) continue
+                    entityCache.putInListCache(ed, el, key, entityListCache, listVersion)
+                } else {
+                    if (entityOneCache.containsKey(key)) continue
+                    EntityValueBase ev = (EntityValueBase) efi.find(entityName).condition(key).useCache(false).disableAuthz().one()
+                    if (entityOneCache.containsKey(key)) continue
+                    entityCache.putInOneCache(ed, key, ev, entityOneCache)
+                }
+                loadedCount.incrementAndGet()
+            } catch (Exception e) {
+                // may fail if the entity or data changed, like one() with more than one result; just don't cache
+                if (logger.isTraceEnabled()) logger.trace("Not loading ${entityName} cache entry ${key}: ${e.toString()}")
+            }
+        }
+    }
+    /** Put all records of the entity in the one cache by primary key if it has no more than maxRows records */
+    protected void preloadEntity(EntityDefinition ed, int maxRows, AtomicInteger loadedCount) {
+        String entityName = ed.getFullEntityName()
+        if (efi.find(entityName).useCache(false).disableAuthz().count() > maxRows) return
+        Cache<EntityCondition, EntityValueBase> entityOneCache = ed.getCacheOne(entityCache)
+        for (EntityValue ev in efi.find(entityName).useCache(false).disableAuthz().list()) {
+            EntityCondition pkCondition = efi.getConditionFactory().makeCondition(ev.getPrimaryKeys())
+            if (entityOneCache.containsKey(pkCondition)) continue
+            entityCache.putInOneCache(ed, pkCondition, (EntityValueBase) ev, entityOneCache)
+            loadedCount.incrementAndGet()
+        }
+    }
+}
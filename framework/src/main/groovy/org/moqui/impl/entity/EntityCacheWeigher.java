@@ -0,0 +1,91 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.impl.entity;
+
+import org.moqui.impl.entity.condition.EntityConditionImplBase;
+import org.moqui.jcache.MWeigher;
+import org.moqui.util.LiteStringMap;
+
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Default MWeigher for MCache max-bytes, with estimates for EntityValueBase (from the LiteStringMap contents),
+ * EntityListImpl, entity conditions used as cache keys, and common simple types.
+ *
+ * Estimates are rough (64-bit JVM with compressed references) and meant to compare entries, not to match heap dumps.
+ */
+public class EntityCacheWeigher implements MWeigher<Object, Object> {
+    /** For larger lists the size is estimated from this many values spread through the list */
+    static final int LIST_SAMPLE_SIZE = 100;
+
+    @Override public long weigh(Object key, Object value) {
+        // 64 for the MEntry and ConcurrentHashMap node
+        return 64 + estimateObject(key) + estimateObject(value);
+    }
+
+    public static long estimateObject(Object obj) {
+        if (obj == null) return 0;
+        if (obj instanceof EntityValueBase) return estimateValue((EntityValueBase) obj);
+        if (obj instanceof EntityListImpl) return estimateList((EntityListImpl) obj);
+        if (obj instanceof EntityConditionImplBase) return 96;
+        if (obj instanceof CharSequence) return 40 + ((CharSequence) obj).length();
+        if (obj instanceof Boolean) return 0;
+        if (obj instanceof BigDecimal) return 40 + ((BigDecimal) obj).precision() / 2;
+        if (obj instanceof Number) return 24;
+        if (obj instanceof java.util.Date) return 32;
+        if (obj instanceof byte[]) return 16 + ((byte[]) obj).length;
+        if (obj instanceof Collection) {
+            Collection<?> coll = (Collection<?>) obj;
+            long size = 48 + 16L * coll.size();
+            for (Object item : coll) size += estimateObject(item);
+            return size;
+        }
+        if (obj instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) obj;
+            long size = 64 + 40L * map.size();
+            for (Map.Entry<?, ?> entry : map.entrySet()) size += estimateObject(entry.getKey()) + estimateObject(entry.getValue());
+            return size;
+        }
+        return 64;
+    }
+
+    /** Estimate for the value including field values, field names are interned and shared so not counted */
+    public static long estimateValue(EntityValueBase evb) {
+        long size = 64;
+        LiteStringMap<Object> valueMap = evb.getValueMap();
+        int fieldCount = valueMap.size();
+        size += 56 + 8L * fieldCount;
+        for (int i = 0; i < fieldCount; i++) size += estimateObject(valueMap.getValue(i));
+        // values are shared with valueMap, just the arrays
+        LiteStringMap<Object> dbValueMap = evb.getDbValueMap();
+        if (dbValueMap != null) size += 56 + 8L * dbValueMap.size();
+        return size;
+    }
+
+    /** Estimate for the list, from a sample of values for larger lists */
+    public static long estimateList(EntityListImpl eli) {
+        int listSize = eli.size();
+        long size = 64 + 16 + 4L * listSize;
+        if (listSize <= LIST_SAMPLE_SIZE) {
+            for (int i = 0; i < listSize; i++) size += estimateObject(eli.get(i));
+        } else {
+            long sampleSize = 0;
+            for (int i = 0; i < LIST_SAMPLE_SIZE; i++) sampleSize += estimateObject(eli.get((int) ((long) i * listSize / LIST_SAMPLE_SIZE)));
+            size += sampleSize * listSize / LIST_SAMPLE_SIZE;
+        }
+        return size;
+    }
+}
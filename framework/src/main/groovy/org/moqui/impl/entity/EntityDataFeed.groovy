@@ -509,9 +509,9 @@ class EntityDataFeed {
                 // send feed in new thread and tx
                 FeedRunnable runnable = new FeedRunnable(ecfi, edf, feedValues, allDataDocumentIds, deleteValues)
                 try {
-                    ecfi.workerPool.execute(runnable)
+                    ecfi.getWorkerLane("DataFeed").execute(runnable)
                 } catch (RejectedExecutionException e) {
-                    logger.error("Worker pool rejected DataFeed run: " + e.toString())
+                    logger.error("Worker lane rejected DataFeed run: " + e.toString())
                 }
                 // logger.warn("================================================================\n================ feeding DataFeed with documents ${allDataDocumentIds}")
             }
@@ -31,6 +31,7 @@ import org.slf4j.Logger
 import org.slf4j.LoggerFactory
 
 import javax.cache.Cache
+import java.util.concurrent.ConcurrentHashMap
 import java.sql.Timestamp
 
 @CompileStatic
@@ -71,6 +72,9 @@ class EntityDefinition {
     private ArrayList<RelationshipInfo> relationshipInfoList = null
     private boolean hasReverseRelationships = false
     private Map<String, MasterDefinition> masterDefinitionMap = null
+    // SQL templates for finds on this entity by find shape key, see EntityFindBuilder.useSqlTemplate()
+    private final ConcurrentHashMap<String, EntityFindBuilder.SqlTemplate> sqlTemplateMap = new ConcurrentHashMap<>()
+    private final static int sqlTemplateMax = 200
 
     EntityDefinition(EntityFacadeImpl efi, MNode entityNode) {
         this.efi = efi
@@ -493,6 +497,12 @@ class EntityDefinition {
 
     EntityFacadeImpl getEfi() { return efi }
     String getEntityName() { return entityInfo.internalEntityName }
+    EntityFindBuilder.SqlTemplate getSqlTemplate(String key) { return sqlTemplateMap.get(key) }
+    void putSqlTemplate(String key, EntityFindBuilder.SqlTemplate template) {
+        // limit the number of templates, finds with many different shapes (like search screens) just don't get one
+        if (sqlTemplateMap.size() < sqlTemplateMax) sqlTemplateMap.putIfAbsent(key, template)
+    }
+
     String getFullEntityName() { return fullEntityName }
     String getShortAlias() { return entityInfo.shortAlias }
     String getShortOrFullEntityName() { return entityInfo.shortAlias != null ? entityInfo.shortAlias : entityInfo.fullEntityName }
@@ -40,6 +40,7 @@ import java.math.RoundingMode
 import java.sql.*
 import java.util.concurrent.*
 import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.LongAdder
 import java.util.concurrent.locks.Lock
 import java.util.concurrent.locks.ReentrantLock
 
@@ -52,6 +53,8 @@ class EntityFacadeImpl implements EntityFacade {
     public final EntityConditionFactoryImpl entityConditionFactory
 
     protected final HashMap<String, EntityDatasourceFactory> datasourceFactoryByGroupMap = new HashMap()
+    /** Read replicas by primary group name, only for groups that have replicas configured */
+    protected final HashMap<String, DatasourceReplicaSet> replicaSetByGroup = new HashMap<>()
 
     /** Cache with entity name as the key and an EntityDefinition as the value; clear this cache to reload entity def */
     final Cache<String, EntityDefinition> entityDefinitionCache
@@ -78,6 +81,7 @@ class EntityFacadeImpl implements EntityFacade {
     protected final ThreadLocal<Calendar> databaseTzLcCalendar = new ThreadLocal<>()
     protected final String sequencedIdPrefix
     boolean queryStats = false
+    boolean sqlTemplateCache = true
 
     protected EntityDbMeta dbMeta = null
     protected final EntityCache entityCache
@@ -103,6 +107,7 @@ class EntityFacadeImpl implements EntityFacade {
         defaultGroupName = entityFacadeNode.attribute("default-group-name")
         sequencedIdPrefix = entityFacadeNode.attribute("sequenced-id-prefix") ?: null
         queryStats = entityFacadeNode.attribute("query-stats") == "true"
+        sqlTemplateCache = entityFacadeNode.attribute("sql-template-cache") != "false"
 
         TimeZone theTimeZone = null
         if (entityFacadeNode.attribute("database-time-zone")) {
@@ -144,6 +149,8 @@ class EntityFacadeImpl implements EntityFacade {
         // load entity definitions
         logger.info("Loading entity definitions")
         long entityStartTime = System.currentTimeMillis()
+        // parse entity and EECA files in parallel, then locations and definitions below are loaded from parsed files
+        ecfi.parseXmlFilesParallel("entity", getAllEntityFileLocations())
         loadAllEntityLocations()
         int entityCount = loadAllEntityDefinitions()
         // don't always load/warm framework entities, in production warms anyway and in dev not needed: entityFacade.loadFrameworkEntities()
@@ -264,6 +271,7 @@ class EntityFacadeImpl implements EntityFacade {
     }
 
     protected void initAllDatasources() {
+        Map<String, MNode> primaryNodeByGroup = new HashMap<>()
         for (MNode datasourceNode in getEntityFacadeNode().children("datasource")) {
             datasourceNode.setSystemExpandAttributes(true)
             String groupName = datasourceNode.attribute("group-name")
@@ -276,6 +284,27 @@ class EntityFacadeImpl implements EntityFacade {
             String objectFactoryClass = datasourceNode.attribute("object-factory") ?: "org.moqui.impl.entity.EntityDatasourceFactoryImpl"
             EntityDatasourceFactory edf = (EntityDatasourceFactory) Thread.currentThread().getContextClassLoader().loadClass(objectFactoryClass).newInstance()
             datasourceFactoryByGroupMap.put(groupName, edf.init(this, datasourceNode))
+            primaryNodeByGroup.put(groupName, datasourceNode)
+        }
+
+        // replicas (clones) have a group-name of the primary group-name plus '#' and a replica name
+        Map<String, Map<String, DataSource>> replicaDsByPrimary = new HashMap<>()
+        for (Map.Entry<String, EntityDatasourceFactory> entry in datasourceFactoryByGroupMap.entrySet()) {
+            String groupName = entry.getKey()
+            int hashIndex = groupName.indexOf('#')
+            if (hashIndex <= 0) continue
+            DataSource ds = entry.getValue().getDataSource()
+            if (ds == null) continue
+            replicaDsByPrimary.computeIfAbsent(groupName.substring(0, hashIndex), { new HashMap<String, DataSource>() }).put(groupName, ds)
+        }
+        for (Map.Entry<String, Map<String, DataSource>> entry in replicaDsByPrimary.entrySet()) {
+            MNode primaryNode = primaryNodeByGroup.get(entry.getKey())
+            if (primaryNode == null) { logger.warn("Found replica datasources ${entry.getValue().keySet()} with no primary datasource ${entry.getKey()}"); continue }
+            DatasourceReplicaSet replicaSet = new DatasourceReplicaSet(primaryNode, entry.getValue())
+            replicaSetByGroup.put(entry.getKey(), replicaSet)
+            logger.info("Datasource ${entry.getKey()} has ${replicaSet.size()} read replicas, routing ${replicaSet.routing}")
+            if (replicaSet.routing == DatasourceReplicaSet.Routing.UNTIL_WRITE && !ecfi.transactionFacade.isLocalTransactions())
+                logger.warn("Datasource ${entry.getKey()} has replica-routing until-write but transactions are XA, only routing finds outside a transaction")
         }
     }
 
@@ -410,6 +439,32 @@ class EntityFacadeImpl implements EntityFacade {
         logger.info("Warmed entity definition cache for ${entityNames.size()} entities in ${System.currentTimeMillis() - startTime}ms")
     }
 
+    File getCacheSnapshotFile() { return new File(ecfi.runtimePath + "/db/EntityCacheSnapshot.bin") }
+    /** If cache-list.@warm-snapshot-keys or @warm-preload-rows are set load entity cache entries saved on last shutdown
+     * and records of small entities, see EntityCacheSnapshot */
+    void loadCacheSnapshot() {
+        MNode cacheListNode = ecfi.getConfXmlRoot().first("cache-list")
+        int snapshotKeys = (cacheListNode.attribute("warm-snapshot-keys") ?: "0") as int
+        int preloadRows = (cacheListNode.attribute("warm-preload-rows") ?: "0") as int
+        if (snapshotKeys <= 0 && preloadRows <= 0) return
+        long timeLimitMillis = ((cacheListNode.attribute("warm-time-limit") ?: "30") as long) * 1000L
+        try {
+            new EntityCacheSnapshot(this).load(snapshotKeys > 0 ? getCacheSnapshotFile() : (File) null, preloadRows, timeLimitMillis)
+        } catch (Throwable t) {
+            logger.warn("Error loading entity cache snapshot", t)
+        }
+    }
+    /** If cache-list.@warm-snapshot-keys is set save the most used entity cache keys, called on shutdown */
+    void saveCacheSnapshot() {
+        int snapshotKeys = (ecfi.getConfXmlRoot().first("cache-list").attribute("warm-snapshot-keys") ?: "0") as int
+        if (snapshotKeys <= 0) return
+        try {
+            new EntityCacheSnapshot(this).save(getCacheSnapshotFile(), snapshotKeys)
+        } catch (Throwable t) {
+            logger.warn("Error saving entity cache snapshot", t)
+        }
+    }
+
     Set<String> getDatasourceGroupNames() {
         Set<String> groupNames = new TreeSet<String>()
         for (MNode datasourceNode in getEntityFacadeNode().children("datasource")) {
@@ -809,6 +864,7 @@ class EntityFacadeImpl implements EntityFacade {
     }
 
     synchronized void createAllAutoReverseManyRelationships() {
+        long startTime = System.currentTimeMillis()
         int relationshipsCreated = 0
         Set<String> entityNameSet = getAllEntityNames()
         for (String entityName in entityNameSet) {
@@ -900,7 +956,7 @@ class EntityFacadeImpl implements EntityFacade {
             ed.setHasReverseRelationships()
         }
 
-        if (logger.infoEnabled && relationshipsCreated > 0) logger.info("Created ${relationshipsCreated} automatic reverse relationships")
+        if (logger.infoEnabled && relationshipsCreated > 0) logger.info("Created ${relationshipsCreated} automatic reverse relationships in ${System.currentTimeMillis() - startTime}ms")
     }
 
     // used in tools screen
@@ -911,6 +967,7 @@ class EntityFacadeImpl implements EntityFacade {
     }
 
     void loadEecaRulesAll() {
+        long startTime = System.currentTimeMillis()
         int numLoaded = 0
         int numFiles = 0
         HashMap<String, EntityEcaRule> ruleByIdMap = new HashMap<>()
@@ -941,7 +998,7 @@ class EntityFacadeImpl implements EntityFacade {
         }
         */
 
-        if (logger.infoEnabled) logger.info("Loaded ${numLoaded} Entity ECA rules from ${numFiles} .eecas.xml files, ${ruleNoIdList.size()} rules have no id, ${ruleNoIdList.size() + ruleByIdMap.size()} EECA rules active")
+        if (logger.infoEnabled) logger.info("Loaded ${numLoaded} Entity ECA rules from ${numFiles} .eecas.xml files in ${System.currentTimeMillis() - startTime}ms, ${ruleNoIdList.size()} rules have no id, ${ruleNoIdList.size() + ruleByIdMap.size()} EECA rules active")
 
         HashMap<String, ArrayList<EntityEcaRule>> ruleMap = new HashMap<>()
         ruleNoIdList.addAll(ruleByIdMap.values())
@@ -1332,7 +1389,13 @@ class EntityFacadeImpl implements EntityFacade {
             if (edf instanceof EntityDatasourceFactoryImpl) {
                 EntityDatasourceFactoryImpl edfi = (EntityDatasourceFactoryImpl) edf
                 DatasourceInfo dsi = edfi.dsi
-                dsiList.add([group:groupName, uniqueName:dsi.uniqueName, database:dsi.database.attribute('name'), detail:dsi.dsDetails] as Map<String, Object>)
+                Map<String, Object> dsInfo = [group:groupName, uniqueName:dsi.uniqueName, database:dsi.database.attribute('name'), detail:dsi.dsDetails,
+                        statementCache:ecfi.transactionFacade.getStatementCacheStats(groupName)] as Map<String, Object>
+                DataSource ds = edfi.getDataSource()
+                if (ds instanceof LocalConnectionPool) dsInfo.put("pool", ((LocalConnectionPool) ds).getStats())
+                DatasourceReplicaSet replicaSet = replicaSetByGroup.get(groupName)
+                if (replicaSet != null) dsInfo.put("replicas", replicaSet.getStats())
+                dsiList.add(dsInfo)
             } else {
                 dsiList.add([group:groupName] as Map<String, Object>)
             }
@@ -1341,21 +1404,32 @@ class EntityFacadeImpl implements EntityFacade {
     }
     String getDatasourceCloneName(String groupName) {
         String baseGroupName = groupName == null || groupName.isEmpty() ? defaultGroupName : groupName
-        String groupPrefix = baseGroupName.concat('#')
-
-        ArrayList<String> cloneGroupNames = new ArrayList<>(5)
-        for (String curGroup in datasourceFactoryByGroupMap.keySet())
-            if (curGroup.startsWith(groupPrefix)) cloneGroupNames.add(curGroup)
-
-        int cloneNamesSize = cloneGroupNames.size()
-        if (cloneNamesSize == 0) {
-            return baseGroupName
-        } else if (cloneNamesSize == 1) {
-            // logger.warn("Using DB clone ${cloneGroupNames.get(0)} instead of ${groupName}")
-            return cloneGroupNames.get(0)
-        } else {
-            return cloneGroupNames.get(ThreadLocalRandom.current().nextInt(cloneNamesSize))
-        }
+        DatasourceReplicaSet replicaSet = replicaSetByGroup.get(baseGroupName)
+        if (replicaSet == null) return baseGroupName
+        ArrayList<DatasourceReplicaSet.Replica> candidates = replicaSet.candidates()
+        return candidates.isEmpty() ? baseGroupName : candidates.get(0).groupName
+    }
+    DatasourceReplicaSet getReplicaSet(String groupName) { return replicaSetByGroup.get(groupName ?: defaultGroupName) }
+
+    /** Can a find on the group that is not for update use a read replica? Depends on the replica-routing of the group,
+     * and never after a write to the group in the current ExecutionContext so it sees its own writes. In a transaction
+     * only with local transactions: with XA a replica connection is enlisted in the transaction, and a later write to
+     * the primary makes the commit two-phase which read-only (hot standby) replicas reject. */
+    boolean isReplicaFind(String groupName) {
+        if (replicaSetByGroup.isEmpty()) return false
+        DatasourceReplicaSet replicaSet = replicaSetByGroup.get(groupName)
+        if (replicaSet == null || replicaSet.routing == DatasourceReplicaSet.Routing.OFF) return false
+        TransactionFacadeImpl tfi = ecfi.transactionFacade
+        if ((replicaSet.routing == DatasourceReplicaSet.Routing.OUTSIDE_TX || !tfi.isLocalTransactions()) &&
+                tfi.isTransactionInPlace()) return false
+        ExecutionContextImpl eci = ecfi.activeContext.get()
+        return eci == null || !eci.hasGroupWrite(groupName)
+    }
+    /** Called before each insert, update, and delete so later finds in the same ExecutionContext don't use replicas */
+    void noteGroupWrite(String groupName) {
+        if (replicaSetByGroup.isEmpty()) return
+        ExecutionContextImpl eci = ecfi.activeContext.get()
+        if (eci != null) eci.noteGroupWrite(groupName)
     }
 
     @Override EntityConditionFactory getConditionFactory() { return this.entityConditionFactory }
@@ -1708,8 +1782,10 @@ class EntityFacadeImpl implements EntityFacade {
                 // we don't want to go overboard with these requests, never do an unlimited find, if no limit use 100
                 if (!ef.getLimit()) ef.limit(100)
 
-                // support pagination, at least "X-Total-Count" header if find is paginated
-                long count = ef.count()
+                // support pagination, at least "X-Total-Count" header if find is paginated; for a plain list get the count
+                //     at the same time as the list
+                EntityList el = masterName ? (EntityList) null : ef.listWithCount()
+                long count = el != null ? el.getTotalCount() : ef.count()
                 long pageIndex = ef.getPageIndex()
                 long pageSize = ef.getPageSize()
                 long pageMaxIndex = ((count - 1) as BigDecimal).divide(pageSize as BigDecimal, 0, RoundingMode.DOWN).longValue()
@@ -1728,7 +1804,10 @@ class EntityFacadeImpl implements EntityFacade {
                     List resultList = ef.listMaster(masterName)
                     return resultList
                 } else {
-                    EntityList el = ef.list()
+                    if (((EntityFindBase) ef).isSeekPaginate()) {
+                        parameters.put('xPageNextCursor', ((EntityFindBase) ef).getNextSeekCursor(el))
+                        parameters.put('xPagePrevCursor', ((EntityFindBase) ef).getPrevSeekCursor(el))
+                    }
                     List resultList = el.getPlainValueList(dependentLevels)
                     return resultList
                 }
@@ -2021,8 +2100,29 @@ class EntityFacadeImpl implements EntityFacade {
         TransactionFacadeImpl tfi = ecfi.transactionFacade
         if (!tfi.isTransactionOperable()) throw new EntityException("Cannot get connection, transaction not in operable status (${tfi.getStatusString()})")
 
-        String groupToUse = useClone ? getDatasourceCloneName(groupName) : groupName
-
+        if (useClone && !replicaSetByGroup.isEmpty()) {
+            DatasourceReplicaSet replicaSet = replicaSetByGroup.get(groupName ?: defaultGroupName)
+            if (replicaSet != null) {
+                // in a transaction keep using the same replica
+                for (DatasourceReplicaSet.Replica replica in replicaSet.replicas) {
+                    Connection stashed = tfi.getTxConnection(replica.groupName)
+                    if (stashed != null) return stashed
+                }
+                for (DatasourceReplicaSet.Replica replica in replicaSet.candidates()) {
+                    try {
+                        Connection con = getGroupConnection(tfi, replica.groupName)
+                        replicaSet.noteUsed(replica)
+                        return con
+                    } catch (Exception e) {
+                        replicaSet.noteFailed(replica, e)
+                    }
+                }
+                replicaSet.notePrimaryFallback()
+            }
+        }
+        return getGroupConnection(tfi, groupName)
+    }
+    protected Connection getGroupConnection(TransactionFacadeImpl tfi, String groupToUse) {
         Connection stashed = tfi.getTxConnection(groupToUse)
         if (stashed != null) return stashed
 
@@ -2293,7 +2393,21 @@ class EntityFacadeImpl implements EntityFacade {
         if (orderByField) CollectionUtilities.orderMapList(qsl, [orderByField])
         return qsl
     }
-    void clearQueryStats() { queryStatsInfoMap.clear() }
+    void clearQueryStats() {
+        queryStatsInfoMap.clear()
+        sqlTemplateHits.reset()
+        sqlTemplateMisses.reset()
+    }
+
+    protected final LongAdder sqlTemplateHits = new LongAdder()
+    protected final LongAdder sqlTemplateMisses = new LongAdder()
+    void countSqlTemplateLookup(boolean hit) { if (hit) { sqlTemplateHits.increment() } else { sqlTemplateMisses.increment() } }
+    Map<String, Object> getSqlTemplateStats() {
+        long hits = sqlTemplateHits.sum()
+        long misses = sqlTemplateMisses.sum()
+        return [enabled:sqlTemplateCache, hits:hits, misses:misses,
+                hitRate:(hits + misses) > 0 ? (hits / (double) (hits + misses)) : 0.0d] as Map<String, Object>
+    }
 
     /**
      * Used by Gleecy
@@ -13,6 +13,8 @@
  */
 package org.moqui.impl.entity
 
+import groovy.json.JsonOutput
+import groovy.json.JsonSlurper
 import groovy.transform.CompileStatic
 import org.moqui.BaseException
 import org.moqui.context.ArtifactAuthorizationException
@@ -31,9 +33,20 @@ import org.slf4j.Logger
 import org.slf4j.LoggerFactory
 
 import javax.cache.Cache
+import java.nio.charset.StandardCharsets
+import java.sql.Date
 import java.sql.ResultSet
 import java.sql.SQLException
+import java.sql.Time
 import java.sql.Timestamp
+import java.util.concurrent.Callable
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Future
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
+import java.util.stream.Stream
 
 @CompileStatic
 abstract class EntityFindBase implements EntityFind {
@@ -44,6 +57,8 @@ abstract class EntityFindBase implements EntityFind {
     private static final String ONE_ERROR = 'Error finding one ${entityName} by ${condition}'
     private static final String LIST_ERROR = 'Error finding list of ${entityName} by ${condition}'
     private static final String COUNT_ERROR = 'Error finding count of ${entityName} by ${condition}'
+    /** Max wait for a count run in the worker pool for listWithCount(), then counted in this thread */
+    private static final long COUNT_WAIT_SECONDS = 30L
 
     final static int defaultResultSetType = ResultSet.TYPE_FORWARD_ONLY
 
@@ -71,7 +86,14 @@ abstract class EntityFindBase implements EntityFind {
     protected Integer offset = (Integer) null
     protected Integer limit = (Integer) null
     protected boolean forUpdate = false
+    protected boolean skipLocked = false
     protected boolean useClone = false
+    // keyset pagination, see seekAfter(); seekPaginate is set with seek values or pageCursor in searchFormMap()
+    protected boolean seekPaginate = false
+    protected ArrayList<Object> seekValues = (ArrayList<Object>) null
+    protected boolean seekBefore = false
+    protected Integer seekPageIndex = (Integer) null
+    protected String seekCursorPending = (String) null
 
     protected int resultSetType = defaultResultSetType
     protected int resultSetConcurrency = ResultSet.CONCUR_READ_ONLY
@@ -438,6 +460,15 @@ abstract class EntityFindBase implements EntityFind {
             limit(pageSize)
         }
 
+        // keyset pagination if there is a pageCursor parameter, empty for the first page; pageIndex is only for display
+        if (inputFieldsMap != null && inputFieldsMap.containsKey("pageCursor") && !shouldCache()) {
+            String pageCursor = (String) inputFieldsMap.get("pageCursor")
+            if (offset != null) seekPageIndex = getPageIndex()
+            seekPaginate = true
+            if (pageCursor != null && !pageCursor.isEmpty()) seekCursor(pageCursor)
+            offset = null
+        }
+
         // if there is a pageNoLimit clear out the limit regardless of other settings
         if ("true".equals(inputFieldsMap?.get("pageNoLimit")) || inputFieldsMap?.get("pageNoLimit") == true) {
             offset = null
@@ -633,9 +664,147 @@ abstract class EntityFindBase implements EntityFind {
     @Override EntityFind limit(Integer limit) { this.limit = limit; return this }
     @Override Integer getLimit() { return limit }
 
-    @Override int getPageIndex() { return offset == null ? 0 : (offset/getPageSize()).intValue() }
+    @Override int getPageIndex() {
+        if (seekPageIndex != null) return seekPageIndex.intValue()
+        return offset == null ? 0 : (offset/getPageSize()).intValue()
+    }
     @Override int getPageSize() { return limit != null ? limit : 20 }
 
+    @Override EntityFind seekAfter(List<Object> orderByValues) { return setSeek(orderByValues, false) }
+    @Override EntityFind seekBefore(List<Object> orderByValues) { return setSeek(orderByValues, true) }
+    protected EntityFind setSeek(List<Object> orderByValues, boolean before) {
+        if (orderByValues == null) { seekValues = null; return this }
+        seekPaginate = true
+        seekValues = new ArrayList<>(orderByValues)
+        seekBefore = before
+        offset = null
+        return this
+    }
+    boolean isSeekPaginate() { return seekPaginate }
+
+    /** Order by fields for keyset pagination: the order by fields plus primary key fields not in them */
+    ArrayList<String> getSeekOrderBy() {
+        EntityDefinition ed = getEntityDef()
+        ArrayList<String> seekOrderBy = new ArrayList<>()
+        Set<String> fieldNameSet = new HashSet<>()
+        if (orderByFields != null) for (int i = 0; i < orderByFields.size(); i++) {
+            String orderByField = (String) orderByFields.get(i)
+            if (fieldNameSet.add(new FieldOrderOptions(orderByField).fieldName)) seekOrderBy.add(orderByField)
+        }
+        ArrayList<String> pkFieldNames = ed.getPkFieldNames()
+        for (int i = 0; i < pkFieldNames.size(); i++) {
+            String pkName = (String) pkFieldNames.get(i)
+            if (fieldNameSet.add(pkName)) seekOrderBy.add(pkName)
+        }
+        return seekOrderBy
+    }
+    /** Order by for the query, for seekBefore reversed so rows just before are first (results are reversed after) */
+    protected ArrayList<String> makeSeekOrderByExpanded() {
+        ArrayList<String> seekOrderBy = getSeekOrderBy()
+        if (seekValues == null || !seekBefore) return seekOrderBy
+        ArrayList<String> reversedOrderBy = new ArrayList<>(seekOrderBy.size())
+        for (int i = 0; i < seekOrderBy.size(); i++) {
+            FieldOrderOptions foo = new FieldOrderOptions((String) seekOrderBy.get(i))
+            reversedOrderBy.add(foo.descending ? foo.fieldName : "-".concat(foo.fieldName))
+        }
+        return reversedOrderBy
+    }
+    /** Condition for rows after (or before) the seek values: (f1 > v1) OR (f1 = v1 AND f2 > v2) OR ... */
+    protected EntityConditionImplBase makeSeekCondition() {
+        ArrayList<String> seekOrderBy = getSeekOrderBy()
+        int size = seekOrderBy.size()
+        if (seekValues.size() != size)
+            throw new EntityException("Seek has ${seekValues.size()} values but order by for ${entityName} has ${size} fields: ${seekOrderBy}")
+        EntityConditionFactoryImpl ecf = efi.getConditionFactoryImpl()
+        List<EntityCondition> orList = new ArrayList<>(size)
+        for (int i = 0; i < size; i++) {
+            Object value = seekValues.get(i)
+            // in SQL nothing is greater or less than null
+            if (value == null) continue
+            FieldOrderOptions foo = new FieldOrderOptions((String) seekOrderBy.get(i))
+            List<EntityCondition> andList = new ArrayList<>(i + 1)
+            for (int j = 0; j < i; j++)
+                andList.add(ecf.makeCondition(new FieldOrderOptions((String) seekOrderBy.get(j)).fieldName, EntityCondition.EQUALS, seekValues.get(j)))
+            andList.add(ecf.makeCondition(foo.fieldName, foo.descending == seekBefore ? EntityCondition.GREATER_THAN : EntityCondition.LESS_THAN, value))
+            orList.add(andList.size() == 1 ? andList.get(0) : ecf.makeCondition(andList))
+        }
+        return (EntityConditionImplBase) ecf.makeCondition(orList, EntityCondition.OR)
+    }
+
+    @Override
+    String getSeekCursor(EntityValue value, boolean next) {
+        if (value == null) return null
+        ArrayList<String> seekOrderBy = getSeekOrderBy()
+        ArrayList<Object> cursorList = new ArrayList<>(seekOrderBy.size() + 1)
+        cursorList.add(next ? "n" : "p")
+        for (int i = 0; i < seekOrderBy.size(); i++) {
+            String fieldName = new FieldOrderOptions((String) seekOrderBy.get(i)).fieldName
+            Object fieldValue = value.getNoCheckSimple(fieldName)
+            if (fieldValue == null) { cursorList.add(null); continue }
+            // keep full precision, the l10n formats may not
+            if (fieldValue instanceof BigDecimal) cursorList.add(((BigDecimal) fieldValue).toPlainString())
+            else cursorList.add(fieldValue.toString())
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(JsonOutput.toJson(cursorList).getBytes(StandardCharsets.UTF_8))
+    }
+    @Override
+    EntityFind seekCursor(String cursor) {
+        if (cursor == null || cursor.isEmpty()) return this
+        // decode when the find is done, the order by may change until then (like in form-list for displayed fields)
+        seekPaginate = true
+        seekCursorPending = cursor
+        offset = null
+        return this
+    }
+    protected void resolveSeekCursor() {
+        String cursor = seekCursorPending
+        if (cursor == null) return
+        seekCursorPending = null
+        List cursorList
+        try {
+            cursorList = (List) new JsonSlurper().parseText(new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8))
+        } catch (Exception e) {
+            throw new EntityException("Invalid page cursor for ${entityName}", e)
+        }
+        ArrayList<String> seekOrderBy = getSeekOrderBy()
+        if (cursorList.size() != seekOrderBy.size() + 1)
+            throw new EntityException("Page cursor for ${entityName} does not match order by ${seekOrderBy}")
+        EntityDefinition ed = getEntityDef()
+        ArrayList<Object> values = new ArrayList<>(seekOrderBy.size())
+        for (int i = 0; i < seekOrderBy.size(); i++) {
+            FieldInfo fi = ed.getFieldInfo(new FieldOrderOptions((String) seekOrderBy.get(i)).fieldName)
+            values.add(seekValueFromString(fi, (String) cursorList.get(i + 1)))
+        }
+        setSeek(values, "p".equals(cursorList.get(0)))
+    }
+    protected static Object seekValueFromString(FieldInfo fi, String str) {
+        if (str == null) return null
+        switch (fi.typeValue) {
+            case 2: return Timestamp.valueOf(str)
+            case 3: return Time.valueOf(str)
+            case 4: return Date.valueOf(str)
+            case 5: return Integer.valueOf(str)
+            case 6: return Long.valueOf(str)
+            case 7: return Float.valueOf(str)
+            case 8: return Double.valueOf(str)
+            case 9: return new BigDecimal(str)
+            case 10: return Boolean.valueOf(str)
+            default: return str
+        }
+    }
+    /** Cursor for the next page if there may be one (list is a full page or came from seekBefore), otherwise null */
+    String getNextSeekCursor(EntityList el) {
+        if (el == null || el.size() == 0) return null
+        if ((seekValues == null || !seekBefore) && (limit == null || el.size() < limit)) return null
+        return getSeekCursor(el.get(el.size() - 1), true)
+    }
+    /** Cursor for the previous page if there may be one (not the first page), otherwise null */
+    String getPrevSeekCursor(EntityList el) {
+        if (el == null || el.size() == 0 || seekValues == null) return null
+        if (seekBefore && (limit == null || el.size() < limit)) return null
+        return getSeekCursor(el.get(0), false)
+    }
+
     @Override
     EntityFind forUpdate(boolean forUpdate) {
         this.forUpdate = forUpdate
@@ -643,6 +812,8 @@ abstract class EntityFindBase implements EntityFind {
         return this
     }
     @Override boolean getForUpdate() { return this.forUpdate }
+    @Override EntityFind skipLocked(boolean skipLocked) { this.skipLocked = skipLocked; return this }
+    @Override boolean getSkipLocked() { return this.skipLocked }
 
     // ======================== JDBC Options ==============================
 
@@ -676,6 +847,7 @@ abstract class EntityFindBase implements EntityFind {
     @Override
     boolean shouldCache() {
         if (dynamicView != null) return false
+        if (seekPaginate) return false
         if (havingEntityCondition != null) return false
         if (limit != null || offset != null) return false
         if (forUpdate) return false
@@ -848,7 +1020,16 @@ abstract class EntityFindBase implements EntityFind {
         Cache<EntityCondition, EntityValueBase> entityOneCache = doCache ?
                 ed.getCacheOne(efi.getEntityCache()) : (Cache<EntityCondition, EntityValueBase>) null
         EntityValueBase cacheHit = (EntityValueBase) null
-        if (doCache && txcValue == null && !forUpdate) cacheHit = (EntityValueBase) entityOneCache.get(whereCondition)
+        CompletableFuture<Void> cacheLoad = (CompletableFuture<Void>) null
+        if (doCache && txcValue == null && !forUpdate) {
+            EntityCache entityCache = efi.getEntityCache()
+            cacheHit = (EntityValueBase) entityCache.getCached(ed, whereCondition, entityOneCache, false)
+            // on a miss outside a transaction only one thread queries for a condition, others wait then check the cache again
+            if (cacheHit == null && txCache == null && entityCache.shouldCoalesceLoad(entityOneCache)) {
+                cacheLoad = entityCache.beginLoad(entityOneCache, whereCondition)
+                if (cacheLoad == null) cacheHit = (EntityValueBase) entityCache.getCached(ed, whereCondition, entityOneCache, false)
+            }
+        }
 
         // we always want fieldInfoArray populated so that we know the order of the results coming back
         int ftsSize = fieldsToSelect != null ? fieldsToSelect.size() : 0
@@ -948,36 +1129,44 @@ abstract class EntityFindBase implements EntityFind {
             if (cacheHit instanceof EntityCache.EmptyRecord) newEntityValue = (EntityValueBase) null
             else newEntityValue = cacheHit
         } else {
-            // for find one we'll always use the basic result set type and concurrency:
-            this.resultSetType = ResultSet.TYPE_FORWARD_ONLY
-            this.resultSetConcurrency = ResultSet.CONCUR_READ_ONLY
+            long loadStartNanos = doCache ? System.nanoTime() : 0L
+            try {
+                // for find one we'll always use the basic result set type and concurrency:
+                this.resultSetType = ResultSet.TYPE_FORWARD_ONLY
+                this.resultSetConcurrency = ResultSet.CONCUR_READ_ONLY
+
+                EntityConditionImplBase cond = isViewEntity ? getConditionForQuery(ed, whereCondition) : whereCondition
+
+                // register lock before if we have a full pk, otherwise after
+                if (forUpdate && hasFullPk && efi.ecfi.transactionFacade.getUseLockTrack())
+                    registerForUpdateLock(simpleAndMap != null ? simpleAndMap : [(singleCondField):singleCondValue])
+
+                try {
+                    tempHasFullPk = hasFullPk
+                    newEntityValue = oneExtended(cond, fieldInfoArray, fieldOptionsArray)
+                } catch (SQLException e) {
+                    throw new EntitySqlException(makeErrorMsg("Error finding one", ONE_ERROR, cond, ed, ec), e)
+                } catch (Exception e) {
+                    throw new EntityException(makeErrorMsg("Error finding one", ONE_ERROR, cond, ed, ec), e)
+                } finally {
+                    tempHasFullPk = null
+                }
 
-            EntityConditionImplBase cond = isViewEntity ? getConditionForQuery(ed, whereCondition) : whereCondition
+                // register lock before if we have a full pk, otherwise after
+                if (forUpdate && !hasFullPk && efi.ecfi.transactionFacade.getUseLockTrack())
+                    registerForUpdateLock(newEntityValue)
 
-            // register lock before if we have a full pk, otherwise after
-            if (forUpdate && hasFullPk && efi.ecfi.transactionFacade.getUseLockTrack())
-                registerForUpdateLock(simpleAndMap != null ? simpleAndMap : [(singleCondField):singleCondValue])
+                // it didn't come from the txCache so put it there
+                if (txCache != null) txCache.onePut(newEntityValue, forUpdate)
 
-            try {
-                tempHasFullPk = hasFullPk
-                newEntityValue = oneExtended(cond, fieldInfoArray, fieldOptionsArray)
-            } catch (SQLException e) {
-                throw new EntitySqlException(makeErrorMsg("Error finding one", ONE_ERROR, cond, ed, ec), e)
-            } catch (Exception e) {
-                throw new EntityException(makeErrorMsg("Error finding one", ONE_ERROR, cond, ed, ec), e)
+                // put it in whether null or not (already know cacheHit is null)
+                if (doCache) {
+                    efi.getEntityCache().putInOneCache(ed, whereCondition, newEntityValue, entityOneCache)
+                    EntityCache.recordLoad(entityOneCache, loadStartNanos)
+                }
             } finally {
-                tempHasFullPk = null
+                if (cacheLoad != null) efi.getEntityCache().endLoad(entityOneCache, whereCondition, cacheLoad)
             }
-
-            // register lock before if we have a full pk, otherwise after
-            if (forUpdate && !hasFullPk && efi.ecfi.transactionFacade.getUseLockTrack())
-                registerForUpdateLock(newEntityValue)
-
-            // it didn't come from the txCache so put it there
-            if (txCache != null) txCache.onePut(newEntityValue, forUpdate)
-
-            // put it in whether null or not (already know cacheHit is null)
-            if (doCache) efi.getEntityCache().putInOneCache(ed, whereCondition, newEntityValue, entityOneCache)
         }
 
         // if (logger.traceEnabled) logger.trace("Find one on entity [${ed.fullEntityName}] with condition [${whereCondition}] found value [${newEntityValue}]")
@@ -1083,6 +1272,12 @@ abstract class EntityFindBase implements EntityFind {
             }
         }
 
+        // for keyset pagination the seek order by (with PK fields as a tie-breaker) is the complete order by
+        if (seekPaginate) {
+            resolveSeekCursor()
+            orderByExpanded = makeSeekOrderByExpanded()
+        }
+
         boolean doEntityCache = shouldCache()
 
         // NOTE: artifactExecutionFacade.filterFindForUser() no longer called here, called in EntityFindBuilder after trimming if needed for view-entity
@@ -1091,8 +1286,11 @@ abstract class EntityFindBase implements EntityFind {
             ArrayList findFilterList = ec.artifactExecutionFacade.getFindFiltersForUser(ed, null)
             if (findFilterList != null && findFilterList.size() > 0) doEntityCache = false
         }
+        // changes to a cache-incremental entity in this transaction are applied to its list cache on commit
+        if (doEntityCache && entityInfo.cacheIncremental && efi.getEntityCache().hasPendingChanges(ed)) doEntityCache = false
 
         EntityConditionImplBase whereCondition = getWhereEntityConditionInternal(ed)
+        if (seekValues != null) whereCondition = EntityConditionFactoryImpl.makeConditionImpl(whereCondition, EntityCondition.AND, makeSeekCondition())
         // don't cache if no whereCondition
         if (whereCondition == null) doEntityCache = false
 
@@ -1104,8 +1302,16 @@ abstract class EntityFindBase implements EntityFind {
         Cache<EntityCondition, EntityListImpl> entityListCache = doEntityCache ?
                 ed.getCacheList(efi.getEntityCache()) : (Cache<EntityCondition, EntityListImpl>) null
         EntityListImpl cacheList = (EntityListImpl) null
-        if (doEntityCache && txcEli == null && !forUpdate)
-            cacheList = efi.getEntityCache().getFromListCache(ed, whereCondition, orderByExpanded, entityListCache)
+        CompletableFuture<Void> cacheLoad = (CompletableFuture<Void>) null
+        if (doEntityCache && txcEli == null && !forUpdate) {
+            EntityCache entityCache = efi.getEntityCache()
+            cacheList = entityCache.getFromListCache(ed, whereCondition, orderByExpanded, entityListCache)
+            // on a miss outside a transaction only one thread queries for a condition, others wait then check the cache again
+            if (cacheList == null && txCache == null && entityCache.shouldCoalesceLoad(entityListCache)) {
+                cacheLoad = entityCache.beginLoad(entityListCache, whereCondition)
+                if (cacheLoad == null) cacheList = entityCache.getFromListCache(ed, whereCondition, orderByExpanded, entityListCache)
+            }
+        }
 
         EntityListImpl el
         if (txcEli != null) {
@@ -1114,89 +1320,101 @@ abstract class EntityFindBase implements EntityFind {
         } else if (cacheList != null) {
             el = cacheList
         } else {
-            // order by fields need to be selected (at least on some databases, Derby is one of them)
-            int orderByExpandedSize = orderByExpanded.size()
-            if (getDistinct() && fieldsToSelect != null && fieldsToSelect.size() > 0 && orderByExpandedSize > 0) {
-                for (int i = 0; i < orderByExpandedSize; i++) {
-                    String orderByField = (String) orderByExpanded.get(i)
-                    FieldOrderOptions foo = new FieldOrderOptions(orderByField)
-                    if (!fieldsToSelect.contains(foo.fieldName)) fieldsToSelect.add(foo.fieldName)
+            long listVersion = doEntityCache ? efi.getEntityCache().getListVersion(ed) : 0L
+            long loadStartNanos = doEntityCache ? System.nanoTime() : 0L
+            try {
+                // order by fields need to be selected (at least on some databases, Derby is one of them); for keyset
+                //     pagination they are needed to make the cursors
+                int orderByExpandedSize = orderByExpanded.size()
+                if ((getDistinct() || seekPaginate) && fieldsToSelect != null && fieldsToSelect.size() > 0 && orderByExpandedSize > 0) {
+                    for (int i = 0; i < orderByExpandedSize; i++) {
+                        String orderByField = (String) orderByExpanded.get(i)
+                        FieldOrderOptions foo = new FieldOrderOptions(orderByField)
+                        if (!fieldsToSelect.contains(foo.fieldName)) fieldsToSelect.add(foo.fieldName)
+                    }
                 }
-            }
 
-            // we always want fieldInfoArray populated so that we know the order of the results coming back
-            int ftsSize = fieldsToSelect != null ? fieldsToSelect.size() : 0
-            FieldInfo[] fieldInfoArray
-            FieldOrderOptions[] fieldOptionsArray = (FieldOrderOptions[]) null
-            if (ftsSize == 0 || doEntityCache) {
-                fieldInfoArray = entityInfo.allFieldInfoArray
-            } else {
-                fieldInfoArray = new FieldInfo[ftsSize]
-                fieldOptionsArray = new FieldOrderOptions[ftsSize]
-                boolean hasFieldOptions = false
-                int fieldInfoArrayIndex = 0
-                for (int i = 0; i < ftsSize; i++) {
-                    String fieldName = (String) fieldsToSelect.get(i)
-                    FieldInfo fi = (FieldInfo) ed.getFieldInfo(fieldName)
-                    if (fi == null) {
-                        FieldOrderOptions foo = new FieldOrderOptions(fieldName)
-                        fi = ed.getFieldInfo(foo.fieldName)
-                        if (fi == null) throw new EntityException("Field to select ${fieldName} not found in entity ${ed.getFullEntityName()}")
-
-                        fieldInfoArray[fieldInfoArrayIndex] = fi
-                        fieldOptionsArray[fieldInfoArrayIndex] = foo
-                        fieldInfoArrayIndex++
-                        hasFieldOptions = true
-                    } else {
-                        fieldInfoArray[fieldInfoArrayIndex] = fi
-                        fieldInfoArrayIndex++
+                // we always want fieldInfoArray populated so that we know the order of the results coming back
+                int ftsSize = fieldsToSelect != null ? fieldsToSelect.size() : 0
+                FieldInfo[] fieldInfoArray
+                FieldOrderOptions[] fieldOptionsArray = (FieldOrderOptions[]) null
+                if (ftsSize == 0 || doEntityCache) {
+                    fieldInfoArray = entityInfo.allFieldInfoArray
+                } else {
+                    fieldInfoArray = new FieldInfo[ftsSize]
+                    fieldOptionsArray = new FieldOrderOptions[ftsSize]
+                    boolean hasFieldOptions = false
+                    int fieldInfoArrayIndex = 0
+                    for (int i = 0; i < ftsSize; i++) {
+                        String fieldName = (String) fieldsToSelect.get(i)
+                        FieldInfo fi = (FieldInfo) ed.getFieldInfo(fieldName)
+                        if (fi == null) {
+                            FieldOrderOptions foo = new FieldOrderOptions(fieldName)
+                            fi = ed.getFieldInfo(foo.fieldName)
+                            if (fi == null) throw new EntityException("Field to select ${fieldName} not found in entity ${ed.getFullEntityName()}")
+
+                            fieldInfoArray[fieldInfoArrayIndex] = fi
+                            fieldOptionsArray[fieldInfoArrayIndex] = foo
+                            fieldInfoArrayIndex++
+                            hasFieldOptions = true
+                        } else {
+                            fieldInfoArray[fieldInfoArrayIndex] = fi
+                            fieldInfoArrayIndex++
+                        }
                     }
+                    if (!hasFieldOptions) fieldOptionsArray = (FieldOrderOptions[]) null
+                    if (fieldOptionsArray == null && ftsSize == entityInfo.allFieldInfoArray.length)
+                        fieldInfoArray = entityInfo.allFieldInfoArray
                 }
-                if (!hasFieldOptions) fieldOptionsArray = (FieldOrderOptions[]) null
-                if (fieldOptionsArray == null && ftsSize == entityInfo.allFieldInfoArray.length)
-                    fieldInfoArray = entityInfo.allFieldInfoArray
-            }
 
-            EntityConditionImplBase queryWhereCondition = whereCondition
-            EntityConditionImplBase havingCondition = havingEntityCondition
-            if (isViewEntity) {
-                EntityConditionImplBase viewWhere = ed.makeViewWhereCondition()
-                queryWhereCondition = EntityConditionFactoryImpl.makeConditionImpl(whereCondition, EntityCondition.AND, viewWhere)
+                EntityConditionImplBase queryWhereCondition = whereCondition
+                EntityConditionImplBase havingCondition = havingEntityCondition
+                if (isViewEntity) {
+                    EntityConditionImplBase viewWhere = ed.makeViewWhereCondition()
+                    queryWhereCondition = EntityConditionFactoryImpl.makeConditionImpl(whereCondition, EntityCondition.AND, viewWhere)
 
-                havingCondition = havingEntityCondition
-                EntityConditionImplBase viewHaving = ed.makeViewHavingCondition()
-                havingCondition = EntityConditionFactoryImpl.makeConditionImpl(havingCondition, EntityCondition.AND, viewHaving)
-            }
+                    havingCondition = havingEntityCondition
+                    EntityConditionImplBase viewHaving = ed.makeViewHavingCondition()
+                    havingCondition = EntityConditionFactoryImpl.makeConditionImpl(havingCondition, EntityCondition.AND, viewHaving)
+                }
 
-            // call the abstract method
-            EntityListIterator eli
-            try { eli = iteratorExtended(queryWhereCondition, havingCondition, orderByExpanded, fieldInfoArray, fieldOptionsArray) }
-            catch (SQLException e) { throw new EntitySqlException(makeErrorMsg("Error finding list of", LIST_ERROR, queryWhereCondition, ed, ec), e) }
-            catch (ArtifactAuthorizationException e) { throw e }
-            catch (Exception e) { throw new EntityException(makeErrorMsg("Error finding list of", LIST_ERROR, queryWhereCondition, ed, ec), e) }
-
-            MNode databaseNode = this.efi.getDatabaseNode(ed.getEntityGroupName())
-            if (limit != null && databaseNode != null && "cursor".equals(databaseNode.attribute("offset-style"))) {
-                el = (EntityListImpl) eli.getPartialList(offset != null ? offset : 0, limit, true)
-            } else {
-                el = (EntityListImpl) eli.getCompleteList(true)
-            }
+                // call the abstract method
+                EntityListIterator eli
+                try { eli = iteratorExtended(queryWhereCondition, havingCondition, orderByExpanded, fieldInfoArray, fieldOptionsArray) }
+                catch (SQLException e) { throw new EntitySqlException(makeErrorMsg("Error finding list of", LIST_ERROR, queryWhereCondition, ed, ec), e) }
+                catch (ArtifactAuthorizationException e) { throw e }
+                catch (Exception e) { throw new EntityException(makeErrorMsg("Error finding list of", LIST_ERROR, queryWhereCondition, ed, ec), e) }
 
-            // register lock after because we can't before, don't know which records will be returned
-            if (forUpdate && !isViewEntity && efi.ecfi.transactionFacade.getUseLockTrack()) {
-                int elSize = el.size()
-                for (int i = 0; i < elSize; i++) {
-                    EntityValue ev = (EntityValue) el.get(i)
-                    registerForUpdateLock(ev)
+                MNode databaseNode = this.efi.getDatabaseNode(ed.getEntityGroupName())
+                if (limit != null && databaseNode != null && "cursor".equals(databaseNode.attribute("offset-style"))) {
+                    el = (EntityListImpl) eli.getPartialList(offset != null ? offset : 0, limit, true)
+                } else {
+                    el = (EntityListImpl) eli.getCompleteList(true)
+                }
+                // rows before the seek values were found in reverse order
+                if (seekValues != null && seekBefore) Collections.reverse(el)
+
+                // register lock after because we can't before, don't know which records will be returned
+                if (forUpdate && !isViewEntity && efi.ecfi.transactionFacade.getUseLockTrack()) {
+                    int elSize = el.size()
+                    for (int i = 0; i < elSize; i++) {
+                        EntityValue ev = (EntityValue) el.get(i)
+                        registerForUpdateLock(ev)
+                    }
                 }
-            }
 
-            // don't put in tx cache if it is going in list cache
-            if (txCache != null && !doEntityCache && ftsSize == 0) txCache.listPut(ed, whereCondition, el)
-            if (doEntityCache) efi.getEntityCache().putInListCache(ed, el, whereCondition, entityListCache)
+                // don't put in tx cache if it is going in list cache
+                if (txCache != null && !doEntityCache && ftsSize == 0) txCache.listPut(ed, whereCondition, el)
+                if (doEntityCache) {
+                    efi.getEntityCache().putInListCache(ed, el, whereCondition, entityListCache, listVersion)
+                    EntityCache.recordLoad(entityListCache, loadStartNanos)
+                }
 
-            // if (ed.getFullEntityName().contains("OrderItem")) logger.warn("======== Got OrderItem from DATABASE ${el.size()} results where: ${whereCondition}")
-            // logger.warn("======== Got ${ed.getFullEntityName()} from DATABASE ${el.size()} results where: ${whereCondition}")
+                // if (ed.getFullEntityName().contains("OrderItem")) logger.warn("======== Got OrderItem from DATABASE ${el.size()} results where: ${whereCondition}")
+                // logger.warn("======== Got ${ed.getFullEntityName()} from DATABASE ${el.size()} results where: ${whereCondition}")
+            } finally {
+                if (cacheLoad != null) efi.getEntityCache().endLoad(entityListCache, whereCondition, cacheLoad)
+            }
         }
 
         // run the final rules
@@ -1225,6 +1443,39 @@ abstract class EntityFindBase implements EntityFind {
             if (enableAuthz) ec.artifactExecutionFacade.enableAuthz()
         }
     }
+    @Override
+    Stream<EntityValue> stream() throws EntityException {
+        // streams are usually consumed to the end, fetch more rows per round trip than the driver or iterator() default
+        Integer origFetchSize = fetchSize
+        if (fetchSize == null) fetchSize = 500
+        try {
+            return EntityStreamSupport.iteratorStream(iterator())
+        } finally {
+            fetchSize = origFetchSize
+        }
+    }
+
+    @Override
+    Stream<EntityValue> parallelStream(int partitions) throws EntityException {
+        ArrayList<String> pkFieldNames = getEntityDef().getPkFieldNames()
+        if (pkFieldNames.size() == 0) throw new EntityException("Entity ${entityName} has no primary key fields, specify a field for parallel stream partitions")
+        return parallelStream(pkFieldNames.get(0), partitions)
+    }
+    @Override
+    Stream<EntityValue> parallelStream(String partitionField, int partitions) throws EntityException {
+        if (dynamicView != null) throw new EntityException("Parallel stream not supported for find with dynamic view on ${entityName}")
+        if (limit != null || offset != null || seekPaginate) throw new EntityException("Parallel stream not supported with limit, offset, or seek on ${entityName}")
+        EntityDefinition ed = getEntityDef()
+        FieldInfo fi = ed.getFieldInfo(partitionField)
+        if (fi == null) throw new EntityException("Field ${partitionField} not found in entity ${entityName} for parallel stream partitions")
+
+        EntityConditionImplBase whereCondition = getWhereEntityConditionInternal(ed)
+        List<EntityCondition> partitionConditions = partitions > 1 ?
+                EntityStreamSupport.makePartitionConditions(efi, ed, fi, whereCondition, disableAuthz, useClone, partitions) :
+                [(EntityCondition) null]
+        return new EntityStreamSupport.PartitionedRead(this, ed, whereCondition, partitionConditions).makeStream()
+    }
+
     protected EntityListIterator iteratorInternal(ExecutionContextImpl ec, EntityDefinition ed) throws EntityException, SQLException {
         if (requireSearchFormParameters && !hasSearchFormParameters) return null
 
@@ -1236,6 +1487,9 @@ abstract class EntityFindBase implements EntityFind {
         // there may not be a simpleAndMap, but that's all we have that can be treated directly by the EECA
         // find EECA rules deprecated, not worth performance hit: efi.runEecaRules(ed.getFullEntityName(), simpleAndMap, "find-iterator", true)
 
+        resolveSeekCursor()
+        if (seekValues != null && seekBefore) throw new EntityException("Find with seekBefore is only supported for list(), not iterator(), on ${entityName}")
+
         ArrayList<String> orderByExpanded = new ArrayList()
         // add the manually specified ones, then the ones in the view entity's entity-condition
         if (this.orderByFields != null) orderByExpanded.addAll(this.orderByFields)
@@ -1253,8 +1507,10 @@ abstract class EntityFindBase implements EntityFind {
             }
         }
 
-        // order by fields need to be selected (at least on some databases, Derby is one of them)
-        if (getDistinct() && fieldsToSelect != null && fieldsToSelect.size() > 0 && orderByExpanded.size() > 0) {
+        if (seekPaginate) orderByExpanded = makeSeekOrderByExpanded()
+
+        // order by fields need to be selected (at least on some databases, Derby is one of them), and for keyset pagination
+        if ((getDistinct() || seekPaginate) && fieldsToSelect != null && fieldsToSelect.size() > 0 && orderByExpanded.size() > 0) {
             for (String orderByField in orderByExpanded) {
                 FieldOrderOptions foo = new FieldOrderOptions(orderByField)
                 if (!fieldsToSelect.contains(foo.fieldName)) fieldsToSelect.add(foo.fieldName)
@@ -1297,6 +1553,7 @@ abstract class EntityFindBase implements EntityFind {
         // NOTE: artifactExecutionFacade.filterFindForUser() no longer called here, called in EntityFindBuilder after trimming if needed for view-entity
 
         EntityConditionImplBase whereCondition = getWhereEntityConditionInternal(ed)
+        if (seekValues != null) whereCondition = EntityConditionFactoryImpl.makeConditionImpl(whereCondition, EntityCondition.AND, makeSeekCondition())
         EntityConditionImplBase havingCondition = havingEntityCondition
         if (isViewEntity) {
             EntityConditionImplBase viewWhere = ed.makeViewWhereCondition()
@@ -1351,6 +1608,93 @@ abstract class EntityFindBase implements EntityFind {
             if (enableAuthz) ec.artifactExecutionFacade.enableAuthz()
         }
     }
+
+    @Override
+    EntityList listWithCount() throws EntityException {
+        ExecutionContextImpl ec = efi.ecfi.getEci()
+        EntityDefinition ed = getEntityDef()
+        Future<Long> countFuture = canCountConcurrently(ec, ed) ? submitCount(ec, ed) : (Future<Long>) null
+
+        EntityList el
+        try {
+            el = list()
+        } catch (Throwable t) {
+            if (countFuture != null) countFuture.cancel(false)
+            throw t
+        }
+
+        long totalCount
+        int listSize = el.size()
+        if (limit == null) {
+            if (countFuture != null) countFuture.cancel(false)
+            totalCount = listSize
+        } else if (!seekPaginate && listSize > 0 && listSize < limit.intValue()) {
+            // last page, don't need to wait for the count (offset is null for keyset pagination so can't do this then)
+            if (countFuture != null) countFuture.cancel(false)
+            totalCount = (offset != null ? offset.longValue() : 0L) + listSize
+        } else if (countFuture != null) {
+            try {
+                totalCount = countFuture.get(COUNT_WAIT_SECONDS, TimeUnit.SECONDS).longValue()
+            } catch (TimeoutException e) {
+                countFuture.cancel(true)
+                logger.warn("Count for ${entityName} in worker pool not done in ${COUNT_WAIT_SECONDS}s, counting in this thread")
+                totalCount = count()
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause()
+                if (cause instanceof EntityException) throw (EntityException) cause
+                throw new EntityException("Error in count for ${entityName}", cause)
+            }
+        } else {
+            totalCount = count()
+        }
+
+        EntityListImpl eli
+        if (el instanceof EntityListImpl) {
+            eli = (EntityListImpl) el
+        } else {
+            eli = new EntityListImpl(efi, listSize)
+            eli.addAll(el)
+        }
+        eli.setTotalCount(totalCount)
+        return eli
+    }
+    protected boolean canCountConcurrently(ExecutionContextImpl ec, EntityDefinition ed) {
+        if (limit == null || forUpdate || dynamicView != null || shouldCache()) return false
+        if (requireSearchFormParameters && !hasSearchFormParameters) return false
+        // the count is on another connection outside the current transaction, so would not see uncommitted writes
+        // in it and may wait on its locks; writes are only tracked for replica routing so check for any transaction
+        if (txCache != null || efi.ecfi.transactionFacade.isTransactionInPlace()) return false
+        // don't wait in the worker queue for a count that would be faster to run here
+        ThreadPoolExecutor workerPool = efi.ecfi.workerPool
+        return workerPool.getActiveCount() < workerPool.getMaximumPoolSize()
+    }
+    protected Future<Long> submitCount(ExecutionContextImpl ec, EntityDefinition ed) {
+        ExecutionContextFactoryImpl ecfi = efi.ecfi
+        String fullEntityName = ed.getFullEntityName()
+        EntityConditionImplBase whereCondition = getWhereEntityConditionInternal(ed)
+        EntityConditionImplBase havingCondition = this.havingEntityCondition
+        ArrayList<String> selectFields = fieldsToSelect != null ? new ArrayList<String>(fieldsToSelect) : (ArrayList<String>) null
+        boolean countDistinct = distinct, countUseClone = useClone, countDisableAuthz = disableAuthz
+        String threadUsername = ec.userFacade.username
+        boolean threadAuthzDisabled = ec.artifactExecutionFacade.getAuthzDisabled()
+
+        Callable<Long> countCallable = {
+            ExecutionContextImpl threadEci = ecfi.getEci()
+            try {
+                if (threadUsername) threadEci.userFacade.internalLoginUser(threadUsername, false)
+                if (threadAuthzDisabled) threadEci.artifactExecutionFacade.disableAuthz()
+                EntityFind countFind = threadEci.entityFacade.find(fullEntityName).condition(whereCondition)
+                        .havingCondition(havingCondition).distinct(countDistinct).useClone(countUseClone)
+                if (selectFields != null) countFind.selectFields(selectFields)
+                if (countDisableAuthz) countFind.disableAuthz()
+                return Long.valueOf(countFind.count())
+            } finally {
+                ecfi.destroyActiveExecutionContext()
+            }
+        } as Callable<Long>
+        return ecfi.workerPool.submit(countCallable)
+    }
+
     protected long countInternal(ExecutionContextImpl ec, EntityDefinition ed) throws EntityException, SQLException {
         if (requireSearchFormParameters && !hasSearchFormParameters) return 0L
 
@@ -1368,6 +1712,9 @@ abstract class EntityFindBase implements EntityFind {
             ArrayList findFilterList = ec.artifactExecutionFacade.getFindFiltersForUser(ed, null)
             if (findFilterList != null && findFilterList.size() > 0) doCache = false
         }
+        // for a cache-incremental entity changes in this transaction are applied to its count cache on commit, and a count
+        //     of distinct selected fields can't be adjusted by one
+        if (doCache && entityInfo.cacheIncremental && ((distinct && fieldsToSelect) || efi.getEntityCache().hasPendingChanges(ed))) doCache = false
 
         EntityConditionImplBase whereCondition = getWhereEntityConditionInternal(ed)
         // don't cache if no whereCondition
@@ -1382,6 +1729,8 @@ abstract class EntityFindBase implements EntityFind {
         if (cacheCount != null) {
             count = cacheCount
         } else {
+            long listVersion = doCache ? efi.getEntityCache().getListVersion(ed) : 0L
+            long loadStartNanos = doCache ? System.nanoTime() : 0L
             // select all pk and nonpk fields to match what list() or iterator() would do
             int ftsSize = fieldsToSelect != null ? fieldsToSelect.size() : 0
             FieldInfo[] fieldInfoArray
@@ -1437,7 +1786,10 @@ abstract class EntityFindBase implements EntityFind {
             catch (SQLException e) { throw new EntitySqlException(makeErrorMsg("Error finding count of", COUNT_ERROR, queryWhereCondition, ed, ec), e) }
             catch (Exception e) { throw new EntityException(makeErrorMsg("Error finding count of", COUNT_ERROR, queryWhereCondition, ed, ec), e) }
 
-            if (doCache) entityCountCache.put(whereCondition, count)
+            if (doCache) {
+                efi.getEntityCache().putInCountCache(ed, whereCondition, count, entityCountCache, listVersion)
+                EntityCache.recordLoad(entityCountCache, loadStartNanos)
+            }
         }
 
         // find EECA rules deprecated, not worth performance hit: efi.runEecaRules(ed.getFullEntityName(), simpleAndMap, "find-count", false)
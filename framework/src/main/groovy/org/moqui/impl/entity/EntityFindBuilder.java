@@ -36,6 +36,19 @@ public class EntityFindBuilder extends EntityQueryBuilder {
     private EntityConditionImplBase whereCondition;
     private FieldInfo[] fieldInfoArray;
 
+    // SQL template state, see useSqlTemplate() and finishSqlTemplate()
+    private String sqlTemplateKey = null;
+    private SqlTemplate sqlTemplate = null;
+    private int fromEnd = -1, whereEnd = -1, groupByEnd = -1, havingEnd = -1, fromParameterCount = 0;
+    private int limitOffsetStart = -1, limitOffsetEnd = -1;
+    // limit and offset values are not in the template, added by finishSqlTemplate() when using one
+    private Integer templateLimit = null, templateOffset = null;
+    private int filterCallCount = 0;
+    private boolean filterApplied = false;
+    // set when part of the find condition is in a sub-select in the FROM clause, its SQL depends on more than field names
+    private boolean conditionInFrom = false;
+    private Set<String> mainEntityAliasUsedSet = null;
+
     public EntityFindBuilder(EntityDefinition entityDefinition, EntityFindBase entityFindBase,
                              EntityConditionImplBase whereCondition, FieldInfo[] fieldInfoArray) {
         super(entityDefinition, entityFindBase.efi);
@@ -195,7 +208,9 @@ public class EntityFindBuilder extends EntityQueryBuilder {
             // logger.warn("============== entityAliasUsedSet=${entityAliasUsedSet} for entity ${localEntityDefinition.entityName}\nfieldUsedSet=${fieldUsedSet}\n fieldInfoList=${fieldInfoList}\n orderByFields=${entityFindBase.orderByFields}")
 
             // at this point entityAliasUsedSet is finalized so do authz filter if needed
-            ArrayList<EntityConditionImplBase> filterCondList = efi.ecfi.getEci().artifactExecutionFacade.filterFindForUser(localEntityDefinition, entityAliasUsedSet);
+            ArrayList<EntityConditionImplBase> filterCondList = efi.ecfi.getEci().getArtifactExecutionFacade().filterFindForUser(localEntityDefinition, entityAliasUsedSet);
+            countFilterCall(filterCondList);
+            if (localEntityDefinition == mainEntityDefinition && additionalFieldsUsed == null) mainEntityAliasUsedSet = entityAliasUsedSet;
             outWhereCondition = EntityConditionFactoryImpl.addAndListToCondition(outWhereCondition, filterCondList);
 
             // keep a set of all aliases in the join so far and if the left entity alias isn't there yet, and this
@@ -318,7 +333,8 @@ public class EntityFindBuilder extends EntityQueryBuilder {
             }
         } else {
             // not a view-entity so do authz filter now if needed
-            ArrayList<EntityConditionImplBase> filterCondList = efi.ecfi.getEci().artifactExecutionFacade.filterFindForUser(localEntityDefinition, null);
+            ArrayList<EntityConditionImplBase> filterCondList = efi.ecfi.getEci().getArtifactExecutionFacade().filterFindForUser(localEntityDefinition, null);
+            countFilterCall(filterCondList);
             outWhereCondition = EntityConditionFactoryImpl.addAndListToCondition(outWhereCondition, filterCondList);
 
             localBuilder.append(localEntityDefinition.getFullTableName());
@@ -655,6 +671,7 @@ public class EntityFindBuilder extends EntityQueryBuilder {
 
         // where condition to use for FROM clause (field filtering) and for sub-select WHERE clause
         EntityConditionImplBase condition = whereCondition != null ? whereCondition.filter(entityAlias, mainEntityDefinition) : null;
+        if (condition != null) conditionInFrom = true;
         condition = EntityConditionFactoryImpl.makeConditionImpl(condition, EntityCondition.AND, viewCondition);
 
         // logger.warn("makeSqlMemberSubSelect SQL so far " + localBuilder.toString());
@@ -685,7 +702,14 @@ public class EntityFindBuilder extends EntityQueryBuilder {
         localBuilder.append(")");
     }
 
+    private void countFilterCall(ArrayList<EntityConditionImplBase> filterCondList) {
+        filterCallCount++;
+        if (filterCondList != null && filterCondList.size() > 0) filterApplied = true;
+    }
+
     public void makeWhereClause() {
+        fromEnd = sqlTopLevel.length();
+        fromParameterCount = parameters.size();
         if (whereCondition == null) return;
         EntityConditionImplBase condition = whereCondition;
         if (mainEntityDefinition.hasSubSelectMembers) {
@@ -697,6 +721,17 @@ public class EntityFindBuilder extends EntityQueryBuilder {
     }
 
     public void makeGroupByClause() {
+        whereEnd = sqlTopLevel.length();
+        if (sqlTemplate != null) {
+            sqlTopLevel.append(sqlTemplate.groupBy);
+        } else {
+            appendGroupByClause();
+        }
+        groupByEnd = sqlTopLevel.length();
+        havingEnd = groupByEnd;
+    }
+
+    private void appendGroupByClause() {
         EntityJavaUtil.EntityInfo entityInfo = mainEntityDefinition.entityInfo;
         if (!entityInfo.isView) return;
 
@@ -732,6 +767,118 @@ public class EntityFindBuilder extends EntityQueryBuilder {
         if (condition == null) return;
         sqlTopLevel.append(" HAVING ");
         condition.makeSqlWhere(this, null);
+        havingEnd = sqlTopLevel.length();
+    }
+
+    /**
+     * Make a key for the structure of this find: everything that goes into the SELECT, FROM, GROUP BY, ORDER BY and
+     * later clauses, and the fields used in conditions (which member-entities are joined in) but not condition values.
+     * Returns null if SQL templates are not used for this find, currently only for view-entities (for others the SELECT
+     * and FROM are already cheap, see EntityInfo.allFieldsSqlSelect).
+     * The key has only whether there is a limit and offset, not their values, so paging through results doesn't make a
+     * template per page; the offset-style is by entity group so is the same for all finds on the entity.
+     */
+    public String makeSqlTemplateKey(char queryType, FieldOrderOptions[] fieldOptionsArray, EntityConditionImplBase havingCondition,
+                                     ArrayList<String> orderByExpanded, Integer limit, Integer offset) {
+        if (!efi.getSqlTemplateCache() || !mainEntityDefinition.isViewEntity || mainEntityDefinition.isDynamicView) return null;
+
+        StringBuilder keyBuilder = new StringBuilder(160);
+        keyBuilder.append(queryType);
+        if (entityFindBase.getDistinct()) keyBuilder.append('D');
+        if (entityFindBase.getForUpdate()) keyBuilder.append(entityFindBase.getSkipLocked() ? 'S' : 'U');
+        keyBuilder.append('|');
+        for (int i = 0; i < fieldInfoArray.length; i++) {
+            FieldInfo fi = fieldInfoArray[i];
+            if (fi == null) break;
+            if (i > 0) keyBuilder.append(',');
+            keyBuilder.append(fi.name);
+            FieldOrderOptions foo = fieldOptionsArray != null ? fieldOptionsArray[i] : null;
+            if (foo != null && foo.getCaseUpperLower() != null) keyBuilder.append(foo.getCaseUpperLower() ? "^U" : "^L");
+        }
+
+        Set<String> condAliasSet = new HashSet<>();
+        Set<String> condFieldSet = new TreeSet<>();
+        if (whereCondition != null) whereCondition.getAllAliases(condAliasSet, condFieldSet);
+        if (havingCondition != null) havingCondition.getAllAliases(condAliasSet, condFieldSet);
+        keyBuilder.append('|');
+        for (String fieldName : condFieldSet) keyBuilder.append(fieldName).append(',');
+
+        // order by fields are used for the FROM clause even for count, the expanded list for the ORDER BY clause
+        keyBuilder.append('|');
+        ArrayList<String> orderByFields = entityFindBase.orderByFields;
+        if (orderByFields != null) for (int i = 0; i < orderByFields.size(); i++) keyBuilder.append(orderByFields.get(i)).append(',');
+        keyBuilder.append('|');
+        if (orderByExpanded != null) for (int i = 0; i < orderByExpanded.size(); i++) keyBuilder.append(orderByExpanded.get(i)).append(',');
+
+        keyBuilder.append('|');
+        if (limit != null) keyBuilder.append('L');
+        if (offset != null) keyBuilder.append('O');
+        templateLimit = limit;
+        templateOffset = offset;
+        return keyBuilder.toString();
+    }
+
+    /**
+     * If there is a SQL template for the key start the SQL with its SELECT and FROM clauses and return true, then the
+     * caller should only call makeWhereClause(), makeGroupByClause(), makeHavingClause() and finishSqlTemplate().
+     * If false build the SQL as usual and call finishSqlTemplate() at the end to save it as a template.
+     */
+    public boolean useSqlTemplate(String key) {
+        if (key == null) return false;
+        SqlTemplate template = mainEntityDefinition.getSqlTemplate(key);
+        if (template != null) {
+            // the FROM clause is where authz filters are added, only use the template if there are none for this user
+            ArrayList<EntityConditionImplBase> filterCondList = efi.ecfi.getEci().getArtifactExecutionFacade()
+                    .filterFindForUser(mainEntityDefinition, template.entityAliasUsedSet);
+            if (filterCondList != null && filterCondList.size() > 0) {
+                efi.countSqlTemplateLookup(false);
+                return false;
+            }
+            sqlTopLevel.setLength(0);
+            sqlTopLevel.append(template.selectFrom);
+            sqlTemplate = template;
+            efi.countSqlTemplateLookup(true);
+            return true;
+        }
+        sqlTemplateKey = key;
+        efi.countSqlTemplateLookup(false);
+        return false;
+    }
+
+    /** Append the rest of the SQL from the template if one is used, otherwise save a template for the SQL if possible */
+    public void finishSqlTemplate() {
+        if (sqlTemplate != null) {
+            sqlTopLevel.append(sqlTemplate.orderBy);
+            if (sqlTemplate.hasLimitOffset) addLimitOffset(templateLimit, templateOffset);
+            sqlTopLevel.append(sqlTemplate.tail);
+            return;
+        }
+        if (sqlTemplateKey == null || fromEnd < 0 || whereEnd < 0) return;
+        // only save if the SELECT and FROM clauses have no parameters, no find condition (operators like IS NULL have no
+        //     parameters but are not in the key), and no authz filter applied at any level
+        if (fromParameterCount > 0 || conditionInFrom || filterCallCount != 1 || filterApplied || mainEntityAliasUsedSet == null) return;
+        String sql = sqlTopLevel.toString();
+        boolean hasLimitOffset = limitOffsetStart >= 0;
+        mainEntityDefinition.putSqlTemplate(sqlTemplateKey, new SqlTemplate(sql.substring(0, fromEnd),
+                sql.substring(whereEnd, groupByEnd), sql.substring(havingEnd, hasLimitOffset ? limitOffsetStart : sql.length()),
+                hasLimitOffset, hasLimitOffset ? sql.substring(limitOffsetEnd) : "", mainEntityAliasUsedSet));
+    }
+
+    /** The SELECT and FROM, GROUP BY, ORDER BY, and FOR UPDATE clauses of a find; WHERE and HAVING are always generated
+     * as that is also where the parameter values are collected, and LIMIT/OFFSET for the values of each find */
+    public static final class SqlTemplate {
+        final String selectFrom, groupBy, orderBy, tail;
+        final boolean hasLimitOffset;
+        final Set<String> entityAliasUsedSet;
+        SqlTemplate(String selectFrom, String groupBy, String orderBy, boolean hasLimitOffset, String tail,
+                    Set<String> entityAliasUsedSet) {
+            this.selectFrom = selectFrom;
+            this.groupBy = groupBy;
+            this.orderBy = orderBy;
+            this.hasLimitOffset = hasLimitOffset;
+            this.tail = tail;
+            this.entityAliasUsedSet = Collections.unmodifiableSet(entityAliasUsedSet);
+        }
     }
 
     public void makeOrderByClause(ArrayList<String> orderByFieldList, boolean hasLimitOffset) {
@@ -772,6 +919,7 @@ public class EntityFindBuilder extends EntityQueryBuilder {
         if (limit == null && offset == null) return;
 
         MNode databaseNode = efi.getDatabaseNode(mainEntityDefinition.getEntityGroupName());
+        limitOffsetStart = sqlTopLevel.length();
         // if no databaseNode do nothing, means it is not a standard SQL/JDBC database
         if (databaseNode != null) {
             String offsetStyle = databaseNode.attribute("offset-style");
@@ -786,12 +934,15 @@ public class EntityFindBuilder extends EntityQueryBuilder {
             }
             // do nothing here for offset-style=cursor, taken care of in EntityFindImpl
         }
+        limitOffsetEnd = sqlTopLevel.length();
     }
 
     /** Adds FOR UPDATE, should be added to end of query */
     public void makeForUpdate() {
         MNode databaseNode = efi.getDatabaseNode(mainEntityDefinition.getEntityGroupName());
-        String forUpdateStr = databaseNode.attribute("for-update");
+        String forUpdateStr = null;
+        if (entityFindBase.getSkipLocked()) forUpdateStr = databaseNode.attribute("for-update-skip-locked");
+        if (forUpdateStr == null || forUpdateStr.length() == 0) forUpdateStr = databaseNode.attribute("for-update");
         if (forUpdateStr != null && forUpdateStr.length() > 0) {
             sqlTopLevel.append(" ").append(forUpdateStr);
         } else {
@@ -43,6 +43,12 @@ public class EntityFindImpl extends EntityFindBase {
         return this.dynamicView;
     }
 
+    /** Use a read replica for useClone(true) or if replica-routing allows it; never for finds that may be cached as a
+     * replica that is behind could put old values in the cache after the cache is cleared for a write */
+    private boolean useReplica(EntityDefinition ed) {
+        return useClone || (!getForUpdate() && !shouldCache() && efi.isReplicaFind(ed.getEntityGroupName()));
+    }
+
     @Override
     public EntityValueBase oneExtended(EntityConditionImplBase whereCondition, FieldInfo[] fieldInfoArray,
                                        FieldOrderOptions[] fieldOptionsArray) throws SQLException {
@@ -55,17 +61,19 @@ public class EntityFindImpl extends EntityFindBase {
         // flag as a find one, small changes to internal behavior to reduce overhead
         efb.isFindOne();
 
+        boolean fromTemplate = efb.useSqlTemplate(efb.makeSqlTemplateKey('O', fieldOptionsArray, null, null, null, null));
         // SELECT fields
-        efb.makeSqlSelectFields(fieldInfoArray, fieldOptionsArray, "true".equals(efi.getDatabaseNode(ed.groupName).attribute("add-unique-as")));
+        if (!fromTemplate) efb.makeSqlSelectFields(fieldInfoArray, fieldOptionsArray, "true".equals(efi.getDatabaseNode(ed.groupName).attribute("add-unique-as")));
         // FROM Clause
-        efb.makeSqlFromClause();
+        if (!fromTemplate) efb.makeSqlFromClause();
         // WHERE clause only for one/pk query
         efb.makeWhereClause();
         // GROUP BY clause
         efb.makeGroupByClause();
         // NOTE 20200707 don't do this, databases such as Oracle (error ORA-02014) do not allow use of limit/offset with for update: LIMIT/OFFSET clause - for find one always limit to 1: efb.addLimitOffset(1, 0);
         // FOR UPDATE
-        if (getForUpdate()) efb.makeForUpdate();
+        if (!fromTemplate && getForUpdate()) efb.makeForUpdate();
+        efb.finishSqlTemplate();
 
         // run the SQL now that it is built
         EntityValueBase newEntityValue = null;
@@ -75,7 +83,7 @@ public class EntityFindImpl extends EntityFindBase {
             // if this is a view-entity and any table in it exists check/create all or will fail with optional members, etc
             if (ed.isViewEntity) efi.getEntityDbMeta().checkTableRuntime(ed);
 
-            efb.makeConnection(useClone);
+            efb.makeConnection(useReplica(ed));
             efb.makePreparedStatement();
             efb.setPreparedStatementValues();
 
@@ -114,12 +122,15 @@ public class EntityFindImpl extends EntityFindBase {
         if (!ed.tableExistsDbMetaOnly()) return new EntityListIteratorWrapper(new ArrayList<>(), ed, efi, null, null);
 
         EntityFindBuilder efb = new EntityFindBuilder(ed, this, whereCondition, fieldInfoArray);
-        if (getDistinct()) efb.makeDistinct();
-
-        // select fields
-        efb.makeSqlSelectFields(fieldInfoArray, fieldOptionsArray, "true".equals(efi.getDatabaseNode(ed.groupName).attribute("add-unique-as")));
-        // FROM Clause
-        efb.makeSqlFromClause();
+        // with a SQL template for this find shape only WHERE and HAVING are generated, for the parameter values
+        boolean fromTemplate = efb.useSqlTemplate(efb.makeSqlTemplateKey('I', fieldOptionsArray, havingCondition, orderByExpanded, limit, offset));
+        if (!fromTemplate) {
+            if (getDistinct()) efb.makeDistinct();
+            // select fields
+            efb.makeSqlSelectFields(fieldInfoArray, fieldOptionsArray, "true".equals(efi.getDatabaseNode(ed.groupName).attribute("add-unique-as")));
+            // FROM Clause
+            efb.makeSqlFromClause();
+        }
         // WHERE clause
         efb.makeWhereClause();
         // GROUP BY clause
@@ -127,13 +138,16 @@ public class EntityFindImpl extends EntityFindBase {
         // HAVING clause
         efb.makeHavingClause(havingCondition);
 
-        boolean hasLimitOffset = limit != null || offset != null;
-        // ORDER BY clause
-        efb.makeOrderByClause(orderByExpanded, hasLimitOffset);
-        // LIMIT/OFFSET clause
-        if (hasLimitOffset) efb.addLimitOffset(limit, offset);
-        // FOR UPDATE
-        if (getForUpdate()) efb.makeForUpdate();
+        if (!fromTemplate) {
+            boolean hasLimitOffset = limit != null || offset != null;
+            // ORDER BY clause
+            efb.makeOrderByClause(orderByExpanded, hasLimitOffset);
+            // LIMIT/OFFSET clause
+            if (hasLimitOffset) efb.addLimitOffset(limit, offset);
+            // FOR UPDATE
+            if (getForUpdate()) efb.makeForUpdate();
+        }
+        efb.finishSqlTemplate();
 
         // run the SQL now that it is built
         EntityListIteratorImpl elii;
@@ -143,7 +157,7 @@ public class EntityFindImpl extends EntityFindBase {
             // if this is a view-entity and any table in it exists check/create all or will fail with optional members, etc
             if (ed.isViewEntity) efi.getEntityDbMeta().checkTableRuntime(ed);
 
-            Connection con = efb.makeConnection(useClone);
+            Connection con = efb.makeConnection(useReplica(ed));
             efb.makePreparedStatement();
             efb.setPreparedStatementValues();
 
@@ -178,10 +192,13 @@ public class EntityFindImpl extends EntityFindBase {
         boolean isDistinct = getDistinct() || (ed.isViewEntity && condNode != null && "true".equals(condNode.attribute("distinct")));
         boolean isGroupBy = ed.entityInfo.hasFunctionAlias;
 
-        // count function instead of select fields
-        efb.makeCountFunction(fieldOptionsArray, isDistinct, isGroupBy);
-        // FROM Clause
-        efb.makeSqlFromClause();
+        boolean fromTemplate = efb.useSqlTemplate(efb.makeSqlTemplateKey('C', fieldOptionsArray, havingCondition, null, null, null));
+        if (!fromTemplate) {
+            // count function instead of select fields
+            efb.makeCountFunction(fieldOptionsArray, isDistinct, isGroupBy);
+            // FROM Clause
+            efb.makeSqlFromClause();
+        }
         // WHERE clause
         efb.makeWhereClause();
         // GROUP BY clause
@@ -189,7 +206,8 @@ public class EntityFindImpl extends EntityFindBase {
         // HAVING clause
         efb.makeHavingClause(havingCondition);
 
-        efb.closeCountSubSelect(fieldInfoArray.length, isDistinct, isGroupBy);
+        if (!fromTemplate) efb.closeCountSubSelect(fieldInfoArray.length, isDistinct, isGroupBy);
+        efb.finishSqlTemplate();
 
         // run the SQL now that it is built
         long count = 0;
@@ -199,7 +217,7 @@ public class EntityFindImpl extends EntityFindBase {
             // if this is a view-entity and any table in it exists check/create all or will fail with optional members, etc
             if (ed.isViewEntity) efi.getEntityDbMeta().checkTableRuntime(ed);
 
-            efb.makeConnection(useClone);
+            efb.makeConnection(useReplica(ed));
             efb.makePreparedStatement();
             efb.setPreparedStatementValues();
 
@@ -265,7 +265,7 @@ public class EntityJavaUtil {
         public final boolean createOnly, createOnlyFields;
         final boolean optimisticLock, needsAuditLog, needsEncrypt;
         public final String useCache;
-        public final boolean neverCache;
+        public final boolean neverCache, cacheIncremental;
         final String sequencePrimaryPrefix;
         public final long sequencePrimaryStagger, sequenceBankSize;
         public final boolean sequencePrimaryUseUuid;
@@ -352,6 +352,7 @@ public class EntityJavaUtil {
                 useCache = cacheAttr;
                 neverCache = "never".equals(useCache);
             }
+            cacheIncremental = !isView && !neverCache && "true".equals(internalEntityNode.attribute("cache-incremental"));
 
             // init the FieldInfo arrays and see if we have create only fields, etc
             int allFieldInfoSize = allFieldInfoList.size();
@@ -463,11 +464,11 @@ public class EntityJavaUtil {
                     if (!isEmpty) {
                         if (isCharSequence) {
                             try {
-                                Object converted = fi.convertFromString(value.toString(), eci.l10nFacade);
+                                Object converted = fi.convertFromString(value.toString(), eci.getL10nFacade());
                                 if (destIsEntityValueBase) destEvb.putKnownField(fi, converted);
                                 else dest.put(fieldName, converted);
                             } catch (BaseException be) {
-                                eci.messageFacade.addValidationError(null, fieldName, null, be.getMessage(), be);
+                                eci.getMessageFacade().addValidationError(null, fieldName, null, be.getMessage(), be);
                             }
                         } else {
                             if (destIsEntityValueBase) destEvb.putKnownField(fi, value);
@@ -524,10 +525,10 @@ public class EntityJavaUtil {
                     if (!isEmpty) {
                         if (isCharSequence) {
                             try {
-                                Object converted = fi.convertFromString(value.toString(), eci.l10nFacade);
+                                Object converted = fi.convertFromString(value.toString(), eci.getL10nFacade());
                                 dest.putKnownField(fi, converted);
                             } catch (BaseException be) {
-                                eci.messageFacade.addValidationError(null, fieldName, null, be.getMessage(), be);
+                                eci.getMessageFacade().addValidationError(null, fieldName, null, be.getMessage(), be);
                             }
                         } else {
                             dest.putKnownField(fi, value);
@@ -749,7 +750,7 @@ public class EntityJavaUtil {
             totalTimeNanos += runTimeNanos;
             totalSquaredTime += runTimeNanos * runTimeNanos;
             // this gets much more expensive, consider commenting in the future
-            ArtifactExecutionInfo aei = efi.ecfi.getEci().artifactExecutionFacade.peek();
+            ArtifactExecutionInfo aei = efi.ecfi.getEci().getArtifactExecutionFacade().peek();
             if (aei != null) aei = aei.getParent();
             if (aei != null) {
                 String artifactName = aei.getName();
@@ -32,6 +32,7 @@ import java.io.Writer;
 import java.sql.Date;
 import java.sql.Timestamp;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class EntityListImpl implements EntityList {
     protected static final Logger logger = LoggerFactory.getLogger(EntityConditionFactoryImpl.class);
@@ -40,6 +41,12 @@ public class EntityListImpl implements EntityList {
     private boolean fromCache = false;
     protected Integer offset = null;
     protected Integer limit = null;
+    protected Long totalCount = null;
+    /** Indexes for lists from the cache (which can't be modified), shared by all threads using the cached list */
+    private transient volatile ConcurrentHashMap<String, Object> cacheIndexMap = null;
+    private static final int INDEX_MIN_SIZE = 10;
+    private static final int INDEX_MAX_COUNT = 8;
+    private static final int[] EMPTY_POSITIONS = new int[0];
 
     /** Default constructor for deserialization ONLY. */
     public EntityListImpl() { }
@@ -74,14 +81,24 @@ public class EntityListImpl implements EntityList {
     @Override public EntityValue getFirst() { return valueList != null && valueList.size() > 0 ? valueList.get(0) : null; }
 
     @Override public EntityList filterByDate(String fromDateName, String thruDateName, Timestamp moment) {
-        if (fromCache) return this.cloneList().filterByDate(fromDateName, thruDateName, moment);
-
         // default to now
         long momentLong = moment != null ? moment.getTime() : System.currentTimeMillis();
         long momentDateLong = new Date(momentLong).getTime();
         if (fromDateName == null || fromDateName.length() == 0) fromDateName = "fromDate";
         if (thruDateName == null || thruDateName.length() == 0) thruDateName = "thruDate";
 
+        if (fromCache) {
+            DateIndex dateIndex = getDateIndex(fromDateName, thruDateName);
+            if (dateIndex == null) return this.cloneList().filterByDate(fromDateName, thruDateName, moment);
+            int valueListSize = valueList.size();
+            EntityListImpl newList = new EntityListImpl(getEfi(), valueListSize);
+            for (int i = 0; i < valueListSize; i++) {
+                long curMoment = dateIndex.isDate[i] ? momentDateLong : momentLong;
+                if (dateIndex.thruLongs[i] >= curMoment && dateIndex.fromLongs[i] <= curMoment) newList.valueList.add(valueList.get(i));
+            }
+            return newList;
+        }
+
         int valueIndex = 0;
         while (valueIndex < valueList.size()) {
             EntityValue value = valueList.get(valueIndex);
@@ -123,8 +140,6 @@ public class EntityListImpl implements EntityList {
 
     @Override public EntityList filterByAnd(Map<String, Object> fields) { return filterByAnd(fields, true); }
     @Override public EntityList filterByAnd(Map<String, Object> fields, Boolean include) {
-        if (fromCache) return this.cloneList().filterByAnd(fields, include);
-
         // iterate fields once, then use indexes within big loop
         int fieldsSize = fields.size();
         String[] names = new String[fieldsSize];
@@ -142,9 +157,31 @@ public class EntityListImpl implements EntityList {
             fieldIndex++;
         }
 
+        if (fromCache) return filterFromCache(names, values, hasSetValue, include);
         filterInternal(names, values, hasSetValue, include);
         return this;
     }
+    /** Filter a list from the cache into a new list, with an index if possible */
+    private EntityList filterFromCache(String[] names, Object[] values, boolean hasSetValue, Boolean include) {
+        int[] positions = hasSetValue ? null : indexLookup(names, values);
+        if (positions == null) {
+            EntityListImpl newList = (EntityListImpl) this.cloneList();
+            newList.filterInternal(names, values, hasSetValue, include);
+            return newList;
+        }
+        EntityListImpl newList = new EntityListImpl(getEfi(), include == null || include ? positions.length : valueList.size() - positions.length);
+        if (include == null || include) {
+            for (int i = 0; i < positions.length; i++) newList.valueList.add(valueList.get(positions[i]));
+        } else {
+            int valueListSize = valueList.size();
+            int posIndex = 0;
+            for (int i = 0; i < valueListSize; i++) {
+                if (posIndex < positions.length && positions[posIndex] == i) { posIndex++; continue; }
+                newList.valueList.add(valueList.get(i));
+            }
+        }
+        return newList;
+    }
     private void filterInternal(String[] names, Object[] values, boolean hasSetValue, Boolean include) {
         if (include == null) include = true;
         int valueIndex = 0;
@@ -184,8 +221,6 @@ public class EntityListImpl implements EntityList {
         if (namesAndValues.length == 0) return this;
         if (namesAndValues.length % 2 != 0) throw new IllegalArgumentException("Must pass an even number of parameters for name/value pairs");
 
-        if (fromCache) return this.cloneList().filterByAnd(namesAndValues);
-
         int fieldsSize = namesAndValues.length / 2;
         String[] names = new String[fieldsSize];
         Object[] values = new Object[fieldsSize];
@@ -203,6 +238,7 @@ public class EntityListImpl implements EntityList {
             values[i] = value;
         }
 
+        if (fromCache) return filterFromCache(names, values, hasSetValue, true);
         filterInternal(names, values, hasSetValue, true);
         return this;
     }
@@ -250,6 +286,11 @@ public class EntityListImpl implements EntityList {
             fieldIndex++;
         }
 
+        if (!hasSetValue) {
+            int[] positions = indexLookup(names, values);
+            if (positions != null) return positions.length > 0 ? valueList.get(positions[0]) : null;
+        }
+
         int valueListSize = valueList.size();
         for (int valueIndex = 0; valueIndex < valueListSize; valueIndex++) {
             EntityValue value = valueList.get(valueIndex);
@@ -279,6 +320,11 @@ public class EntityListImpl implements EntityList {
             values[i] = value;
         }
 
+        if (!hasSetValue) {
+            int[] positions = indexLookup(names, values);
+            if (positions != null) return positions.length > 0 ? valueList.get(positions[0]) : null;
+        }
+
         int valueListSize = valueList.size();
         for (int valueIndex = 0; valueIndex < valueListSize; valueIndex++) {
             EntityValue value = valueList.get(valueIndex);
@@ -372,15 +418,33 @@ public class EntityListImpl implements EntityList {
 
     @Override public int getPageIndex() { return (offset != null ? offset : 0) / getPageSize(); }
     @Override public int getPageSize() { return limit != null ? limit : 20; }
+    @Override public Long getTotalCount() { return totalCount; }
+    public void setTotalCount(Long totalCount) { this.totalCount = totalCount; }
 
     @Override public EntityList orderByFields(List<String> fieldNames) {
         if (fromCache) return this.cloneList().orderByFields(fieldNames);
-        if (fieldNames != null && fieldNames.size() > 0) valueList.sort(new CollectionUtilities.MapOrderByComparator(fieldNames));
+        if (fieldNames != null && fieldNames.size() > 0) new EntityOrderByComparator(fieldNames).sort(valueList);
         return this;
     }
     @Override public void sort(Comparator<? super EntityValue> comparator) { valueList.sort(comparator); }
 
     @Override public int indexMatching(Map<String, Object> valueMap) {
+        if (fromCache && valueMap.size() > 0) {
+            int fieldsSize = valueMap.size();
+            String[] names = new String[fieldsSize];
+            Object[] values = new Object[fieldsSize];
+            int fieldIndex = 0;
+            for (Map.Entry<String, Object> entry : valueMap.entrySet()) {
+                names[fieldIndex] = entry.getKey();
+                values[fieldIndex] = entry.getValue();
+                fieldIndex++;
+            }
+            // null values are not indexed here as EntityValue.mapMatches() doesn't support them
+            boolean hasNull = false;
+            for (int i = 0; i < fieldsSize; i++) if (values[i] == null) { hasNull = true; break; }
+            int[] positions = hasNull ? null : indexLookup(names, values);
+            if (positions != null) return positions.length > 0 ? positions[0] : -1;
+        }
         ListIterator<EntityValue> li = valueList.listIterator();
         int index = 0;
         while (li.hasNext()) {
@@ -478,6 +542,7 @@ public class EntityListImpl implements EntityList {
 
     @Override public void setFromCache() {
         fromCache = true;
+        cacheIndexMap = null;
         for (EntityValue ev : valueList) if (ev instanceof EntityValueBase) ((EntityValueBase) ev).setFromCache();
     }
 
@@ -544,6 +609,122 @@ public class EntityListImpl implements EntityList {
     @Override public @Nonnull List<EntityValue> subList(int start, int end) { return valueList.subList(start, end); }
     @Override public String toString() { return valueList.toString(); }
 
+    /** Position of the first value matching all fields, with an index for larger lists from the cache; -1 if none match */
+    int indexOfFields(String[] names, Object[] values) {
+        int[] positions = indexLookup(names, values);
+        if (positions != null) return positions.length > 0 ? positions[0] : -1;
+        int valueListSize = valueList.size();
+        for (int i = 0; i < valueListSize; i++) if (valueMatches(valueList.get(i), names, values, false)) return i;
+        return -1;
+    }
+    /** Positions of values matching all fields (ascending), or null if no index is used (not from cache, small list, etc) */
+    private int[] indexLookup(String[] names, Object[] values) {
+        if (!fromCache || valueList.size() < INDEX_MIN_SIZE) return null;
+        int fieldsSize = names.length;
+        if (fieldsSize == 0) return null;
+        for (int i = 0; i < fieldsSize; i++) if (!isIndexSafe(values[i])) return null;
+
+        // sort by name so the same index is used for any order of fields
+        String[] sortedNames = names;
+        Object[] sortedValues = values;
+        if (fieldsSize > 1) {
+            Integer[] order = new Integer[fieldsSize];
+            for (int i = 0; i < fieldsSize; i++) order[i] = i;
+            Arrays.sort(order, Comparator.comparing(i -> names[i]));
+            sortedNames = new String[fieldsSize];
+            sortedValues = new Object[fieldsSize];
+            for (int i = 0; i < fieldsSize; i++) { sortedNames[i] = names[order[i]]; sortedValues[i] = values[order[i]]; }
+        }
+        String indexKey = "and:".concat(String.join(",", sortedNames));
+
+        ConcurrentHashMap<String, Object> indexMap = getCacheIndexMap();
+        FieldIndex fieldIndex = (FieldIndex) indexMap.get(indexKey);
+        if (fieldIndex == null) {
+            if (indexMap.size() >= INDEX_MAX_COUNT) return null;
+            fieldIndex = new FieldIndex(sortedNames, valueList);
+            indexMap.putIfAbsent(indexKey, fieldIndex);
+        }
+        int[] positions = fieldIndex.positionMap.get(fieldsSize == 1 ? sortedValues[0] : Arrays.asList(sortedValues));
+        return positions != null ? positions : EMPTY_POSITIONS;
+    }
+    /** Only for values where equals() is symmetric with what may be in a field, so a hash lookup is the same as valueMatches() */
+    private static boolean isIndexSafe(Object value) {
+        return value == null || value instanceof String || value instanceof Long || value instanceof Integer ||
+                value instanceof Boolean || value instanceof java.math.BigDecimal;
+    }
+    private DateIndex getDateIndex(String fromDateName, String thruDateName) {
+        if (valueList.size() < INDEX_MIN_SIZE) return null;
+        String indexKey = "date:".concat(fromDateName).concat(",").concat(thruDateName);
+        ConcurrentHashMap<String, Object> indexMap = getCacheIndexMap();
+        DateIndex dateIndex = (DateIndex) indexMap.get(indexKey);
+        if (dateIndex == null) {
+            if (indexMap.size() >= INDEX_MAX_COUNT) return null;
+            dateIndex = new DateIndex(fromDateName, thruDateName, valueList);
+            indexMap.putIfAbsent(indexKey, dateIndex);
+        }
+        return dateIndex;
+    }
+    private ConcurrentHashMap<String, Object> getCacheIndexMap() {
+        ConcurrentHashMap<String, Object> indexMap = cacheIndexMap;
+        if (indexMap == null) {
+            synchronized (this) {
+                indexMap = cacheIndexMap;
+                if (indexMap == null) cacheIndexMap = indexMap = new ConcurrentHashMap<>();
+            }
+        }
+        return indexMap;
+    }
+
+    /** Value positions by field value (or List of values for more than one field) */
+    private static class FieldIndex {
+        final HashMap<Object, int[]> positionMap;
+        FieldIndex(String[] names, ArrayList<EntityValue> valueList) {
+            int valueListSize = valueList.size();
+            int fieldsSize = names.length;
+            HashMap<Object, ArrayList<Integer>> tempMap = new HashMap<>();
+            for (int i = 0; i < valueListSize; i++) {
+                EntityValue value = valueList.get(i);
+                Object key;
+                if (fieldsSize == 1) {
+                    key = value.getNoCheckSimple(names[0]);
+                } else {
+                    Object[] keyValues = new Object[fieldsSize];
+                    for (int j = 0; j < fieldsSize; j++) keyValues[j] = value.getNoCheckSimple(names[j]);
+                    key = Arrays.asList(keyValues);
+                }
+                tempMap.computeIfAbsent(key, k -> new ArrayList<>(2)).add(i);
+            }
+            positionMap = new HashMap<>(tempMap.size() * 4 / 3 + 1);
+            for (Map.Entry<Object, ArrayList<Integer>> entry : tempMap.entrySet()) {
+                ArrayList<Integer> posList = entry.getValue();
+                int[] positions = new int[posList.size()];
+                for (int j = 0; j < positions.length; j++) positions[j] = posList.get(j);
+                positionMap.put(entry.getKey(), positions);
+            }
+        }
+    }
+    /** From and thru dates as longs (nulls as min and max) for filterByDate() without getting field values each time */
+    private static class DateIndex {
+        final long[] fromLongs, thruLongs;
+        final boolean[] isDate;
+        DateIndex(String fromDateName, String thruDateName, ArrayList<EntityValue> valueList) {
+            int valueListSize = valueList.size();
+            fromLongs = new long[valueListSize];
+            thruLongs = new long[valueListSize];
+            isDate = new boolean[valueListSize];
+            for (int i = 0; i < valueListSize; i++) {
+                EntityValue value = valueList.get(i);
+                Object fromDateObj = value.get(fromDateName);
+                Object thruDateObj = value.get(thruDateName);
+                Long fromDateLong = getDateLong(fromDateObj);
+                Long thruDateLong = getDateLong(thruDateObj);
+                fromLongs[i] = fromDateLong != null ? fromDateLong : Long.MIN_VALUE;
+                thruLongs[i] = thruDateLong != null ? thruDateLong : Long.MAX_VALUE;
+                isDate[i] = fromDateObj instanceof Date || thruDateObj instanceof Date;
+            }
+        }
+    }
+
     @SuppressWarnings("unused")
     public static class EmptyEntityList implements EntityList {
         public EmptyEntityList() { }
@@ -568,6 +749,7 @@ public class EntityListImpl implements EntityList {
         @Override public Integer getLimit() { return this.limit; }
         @Override public int getPageIndex() { return (offset != null ? offset : 0) / getPageSize(); }
         @Override public int getPageSize() { return limit != null ? limit : 20; }
+        @Override public Long getTotalCount() { return null; }
         @Override public EntityList orderByFields(List<String> fieldNames) { return this; }
         @Override public int indexMatching(Map valueMap) { return -1; }
         @Override public void move(int fromIndex, int toIndex) { throw new IllegalArgumentException("EmptyEntityList does not support move"); }
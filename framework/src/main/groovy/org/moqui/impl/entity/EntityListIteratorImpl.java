@@ -78,7 +78,7 @@ public class EntityListIteratorImpl implements EntityListIterator {
         }
 
         // capture the current artifact stack for finalize not closed debugging, has minimal performance impact (still ~0.0038ms per call compared to numbers below)
-        artifactStack = efi.ecfi.getEci().artifactExecutionFacade.getStackArray();
+        artifactStack = efi.ecfi.getEci().getArtifactExecutionFacade().getStackArray();
 
         /* uncomment only if needed temporarily: huge performance impact, ~0.036ms per call with, ~0.0037ms without (~10x difference!)
         StackTraceElement[] tempStack = Thread.currentThread().getStackTrace();
@@ -355,7 +355,7 @@ public class EntityListIteratorImpl implements EntityListIterator {
     public void remove() {
         // TODO: call EECAs
         try {
-            efi.getEntityCache().clearCacheForValue((EntityValueBase) currentEntityValue(), false);
+            efi.getEntityCache().clearCacheForValue((EntityValueBase) currentEntityValue(), false, true);
             rs.deleteRow();
         } catch (SQLException e) {
             throw new EntityException("Error removing row", e);
@@ -0,0 +1,209 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.impl.entity;
+
+import org.moqui.entity.EntityCondition;
+
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Conditions of cached one() finds with no result for an entity, used to find those a created or updated value now
+ * matches so they can be cleared from the one cache. Conditions with only field equals ANDed together (the common case)
+ * are indexed by their field values with a hash map for each set of field names, and a small bloom filter on the same
+ * keys lets most values skip the hash lookups. Other conditions are checked one at a time with mapMatches().
+ *
+ * Removing more than needed is fine (the one cache entry is just queried again), so matching values that are equal in
+ * a Groovy comparison but have different types are normalized (Integer to Long, etc) and values of other types are
+ * checked against all conditions for the field names.
+ */
+public class EntityOneBfIndex {
+    private static final Object NULL_VALUE = new Object();
+    private static final Object NOT_INDEXED = new Object();
+    private static final int MIN_FILTER_LONGS = 4;
+    /** Filter bits per indexed key before the filter is made larger, with 2 bits set per key about 5% false positives */
+    private static final int FILTER_BITS_PER_KEY = 8;
+
+    private final HashMap<String, FieldGroup> groupMap = new HashMap<>();
+    private volatile FieldGroup[] groups = new FieldGroup[0];
+    private final Set<EntityCondition> otherSet = ConcurrentHashMap.newKeySet();
+    private volatile long[] filterBits = new long[MIN_FILTER_LONGS];
+    private volatile int indexedKeys = 0, indexedConditions = 0;
+
+    /** Conditions by field values for one set of field names (sorted) */
+    private static class FieldGroup {
+        final String[] names;
+        final int namesHash;
+        final ConcurrentHashMap<Object, Set<EntityCondition>> byKey = new ConcurrentHashMap<>();
+        FieldGroup(String[] names) { this.names = names; this.namesHash = Arrays.hashCode(names); }
+    }
+
+    public boolean isEmpty() { return indexedConditions == 0 && otherSet.isEmpty(); }
+    public int size() { return indexedConditions + otherSet.size(); }
+
+    public void add(EntityCondition ec) {
+        HashMap<String, Object> condMap = new HashMap<>();
+        if (!ec.populateMap(condMap) || condMap.isEmpty()) { otherSet.add(ec); return; }
+
+        int fieldsSize = condMap.size();
+        String[] names = condMap.keySet().toArray(new String[fieldsSize]);
+        if (fieldsSize > 1) Arrays.sort(names);
+        Object[] keyValues = new Object[fieldsSize];
+        for (int i = 0; i < fieldsSize; i++) {
+            Object keyValue = indexValue(condMap.get(names[i]));
+            if (keyValue == NOT_INDEXED) { otherSet.add(ec); return; }
+            keyValues[i] = keyValue;
+        }
+        Object key = fieldsSize == 1 ? keyValues[0] : Arrays.asList(keyValues);
+
+        synchronized (this) {
+            String groupName = String.join(",", names);
+            FieldGroup group = groupMap.get(groupName);
+            if (group == null) {
+                group = new FieldGroup(names);
+                groupMap.put(groupName, group);
+                FieldGroup[] newGroups = Arrays.copyOf(groups, groups.length + 1);
+                newGroups[groups.length] = group;
+                groups = newGroups;
+            }
+
+            Set<EntityCondition> condSet = group.byKey.get(key);
+            if (condSet == null) {
+                condSet = ConcurrentHashMap.newKeySet();
+                group.byKey.put(key, condSet);
+                indexedKeys++;
+                long[] bits = filterBits;
+                if ((long) indexedKeys * FILTER_BITS_PER_KEY > ((long) bits.length << 6)) {
+                    filterBits = makeFilter(bits.length * 2);
+                } else {
+                    setFilterBits(bits, keyHash(group, key));
+                    // write the volatile field so lock-free readers see the bits set
+                    filterBits = bits;
+                }
+            }
+            if (condSet.add(ec)) indexedConditions++;
+        }
+    }
+
+    /** Remove and return conditions that match the value Map, or null if none match */
+    public ArrayList<EntityCondition> removeMatching(Map<String, Object> valueMap) {
+        ArrayList<EntityCondition> matchList = null;
+
+        FieldGroup[] curGroups = groups;
+        long[] bits = filterBits;
+        for (int g = 0; g < curGroups.length; g++) {
+            FieldGroup group = curGroups[g];
+            String[] names = group.names;
+            int fieldsSize = names.length;
+            Object[] keyValues = new Object[fieldsSize];
+            boolean indexed = true;
+            for (int i = 0; i < fieldsSize; i++) {
+                Object keyValue = indexValue(valueMap.get(names[i]));
+                if (keyValue == NOT_INDEXED) { indexed = false; break; }
+                keyValues[i] = keyValue;
+            }
+
+            if (indexed) {
+                Object key = fieldsSize == 1 ? keyValues[0] : Arrays.asList(keyValues);
+                if (!mightContain(bits, keyHash(group, key)) || !group.byKey.containsKey(key)) continue;
+                synchronized (this) {
+                    Set<EntityCondition> condSet = group.byKey.remove(key);
+                    if (condSet != null) {
+                        keyRemoved(condSet.size());
+                        if (matchList == null) matchList = new ArrayList<>();
+                        matchList.addAll(condSet);
+                    }
+                }
+            } else {
+                // a value not normalized for the index, check each condition with the field names
+                for (Map.Entry<Object, Set<EntityCondition>> entry : group.byKey.entrySet()) {
+                    for (EntityCondition ec : entry.getValue()) {
+                        if (!ec.mapMatches(valueMap)) continue;
+                        if (matchList == null) matchList = new ArrayList<>();
+                        matchList.add(ec);
+                        synchronized (this) {
+                            Set<EntityCondition> condSet = group.byKey.get(entry.getKey());
+                            if (condSet != null && condSet.remove(ec)) {
+                                indexedConditions--;
+                                if (condSet.isEmpty()) { group.byKey.remove(entry.getKey()); keyRemoved(0); }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        if (!otherSet.isEmpty()) {
+            Iterator<EntityCondition> otherIter = otherSet.iterator();
+            while (otherIter.hasNext()) {
+                EntityCondition ec = otherIter.next();
+                if (!ec.mapMatches(valueMap)) continue;
+                otherIter.remove();
+                if (matchList == null) matchList = new ArrayList<>();
+                matchList.add(ec);
+            }
+        }
+
+        return matchList;
+    }
+
+    /** Call only when synchronized on this */
+    private void keyRemoved(int conditions) {
+        indexedKeys--;
+        indexedConditions -= conditions;
+        // bloom filter bits can't be cleared, so start over when nothing is left
+        if (indexedKeys == 0) filterBits = new long[MIN_FILTER_LONGS];
+    }
+    /** Call only when synchronized on this */
+    private long[] makeFilter(int minLongs) {
+        int longs = MIN_FILTER_LONGS;
+        while (longs < minLongs) longs <<= 1;
+        long[] bits = new long[longs];
+        for (FieldGroup group : groups) for (Object key : group.byKey.keySet()) setFilterBits(bits, keyHash(group, key));
+        return bits;
+    }
+
+    private static int keyHash(FieldGroup group, Object key) {
+        int h = (group.namesHash * 31 + key.hashCode()) * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+    private static void setFilterBits(long[] bits, int h) {
+        int mask = (bits.length << 6) - 1;
+        int bit1 = h & mask, bit2 = Integer.rotateLeft(h, 15) & mask;
+        bits[bit1 >>> 6] |= 1L << bit1;
+        bits[bit2 >>> 6] |= 1L << bit2;
+    }
+    private static boolean mightContain(long[] bits, int h) {
+        int mask = (bits.length << 6) - 1;
+        int bit1 = h & mask, bit2 = Integer.rotateLeft(h, 15) & mask;
+        return (bits[bit1 >>> 6] & (1L << bit1)) != 0 && (bits[bit2 >>> 6] & (1L << bit2)) != 0;
+    }
+
+    /** Value for index keys so values equal by the Groovy == used for EQUALS in mapMatches() are equal, or NOT_INDEXED */
+    private static Object indexValue(Object value) {
+        if (value == null) return NULL_VALUE;
+        if (value instanceof String || value instanceof Boolean) return value;
+        if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte)
+            return ((Number) value).longValue();
+        if (value instanceof BigDecimal) {
+            BigDecimal bd = (BigDecimal) value;
+            if (bd.signum() == 0) return 0L;
+            bd = bd.stripTrailingZeros();
+            if (bd.scale() <= 0 && bd.precision() - bd.scale() <= 18) return bd.longValue();
+            return bd;
+        }
+        return NOT_INDEXED;
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.impl.entity;
+
+import org.moqui.entity.EntityValue;
+import org.moqui.util.LiteStringMap;
+
+import java.math.BigDecimal;
+import java.util.*;
+
+/**
+ * Comparator for EntityValue with the same order as CollectionUtilities.MapOrderByComparator, but with the order by
+ * strings ('-' for descending, '^' for ignore case) parsed once and field values read by FieldInfo index.
+ *
+ * For sorting a list use sort() which gets the field values of each record once instead of on each compare, and for
+ * large lists uses Arrays.parallelSort().
+ */
+public class EntityOrderByComparator implements Comparator<EntityValue> {
+    /** Lists at least this big are sorted with Arrays.parallelSort() */
+    public static final int PARALLEL_SORT_MIN = 10000;
+
+    private final String[] names;
+    private final boolean[] descending, ignoreCase, nullsFirst;
+    // FieldInfo for the fields of the last EntityDefinition seen, nearly always the same for all values
+    private FieldInfoCache lastFieldInfos = null;
+
+    public EntityOrderByComparator(List<? extends CharSequence> fieldNameList) { this(fieldNameList, null); }
+    public EntityOrderByComparator(List<? extends CharSequence> fieldNameList, Boolean nullsLast) {
+        ArrayList<String> fieldArrayList = new ArrayList<>();
+        for (CharSequence fieldName : fieldNameList) {
+            String fieldStr = fieldName.toString();
+            if (fieldStr.contains(",")) {
+                for (String curField : fieldStr.split(",")) {
+                    curField = curField.trim();
+                    if (!curField.isEmpty()) fieldArrayList.add(curField);
+                }
+            } else if (!fieldStr.isEmpty()) {
+                fieldArrayList.add(fieldStr);
+            }
+        }
+        int size = fieldArrayList.size();
+        names = new String[size];
+        descending = new boolean[size];
+        ignoreCase = new boolean[size];
+        nullsFirst = new boolean[size];
+        for (int i = 0; i < size; i++) {
+            String fieldName = fieldArrayList.get(i);
+            if (fieldName.charAt(0) == '-') {
+                descending[i] = true;
+                fieldName = fieldName.substring(1);
+            } else if (fieldName.charAt(0) == '+') {
+                fieldName = fieldName.substring(1);
+            }
+            if (fieldName.length() > 0 && fieldName.charAt(0) == '^') {
+                ignoreCase[i] = true;
+                fieldName = fieldName.substring(1);
+            }
+            names[i] = LiteStringMap.internString(fieldName);
+            // NOTE: nulls go earlier in the list for ascending, later in the list for descending (unless nullsLast set)
+            nullsFirst[i] = nullsLast != null ? !nullsLast : !descending[i];
+        }
+    }
+
+    @Override public int compare(EntityValue ev1, EntityValue ev2) {
+        for (int i = 0; i < names.length; i++) {
+            int comp = compareField(i, getFieldValue(ev1, i), getFieldValue(ev2, i));
+            if (comp != 0) return comp;
+        }
+        return 0;
+    }
+
+    /** Sort the list in place, stable like List.sort() */
+    public void sort(List<EntityValue> valueList) {
+        int size = valueList.size();
+        if (size < 2 || names.length == 0) return;
+        KeyedValue[] keyedArray = new KeyedValue[size];
+        for (int i = 0; i < size; i++) {
+            EntityValue ev = valueList.get(i);
+            Object[] keys = new Object[names.length];
+            for (int j = 0; j < names.length; j++) keys[j] = getFieldValue(ev, j);
+            keyedArray[i] = new KeyedValue(keys, ev);
+        }
+        Comparator<KeyedValue> keyedComparator = this::compareKeys;
+        if (size >= PARALLEL_SORT_MIN) Arrays.parallelSort(keyedArray, keyedComparator);
+        else Arrays.sort(keyedArray, keyedComparator);
+        for (int i = 0; i < size; i++) valueList.set(i, keyedArray[i].value);
+    }
+
+    private int compareKeys(KeyedValue kv1, KeyedValue kv2) {
+        Object[] keys1 = kv1.keys, keys2 = kv2.keys;
+        for (int i = 0; i < names.length; i++) {
+            int comp = compareField(i, keys1[i], keys2[i]);
+            if (comp != 0) return comp;
+        }
+        return 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    private int compareField(int i, Object value1, Object value2) {
+        if (value1 == null) {
+            if (value2 == null) return 0;
+            return nullsFirst[i] ? -1 : 1;
+        }
+        if (value2 == null) return nullsFirst[i] ? 1 : -1;
+
+        int comp;
+        if (ignoreCase[i] && value1 instanceof String && value2 instanceof String) {
+            comp = ((String) value1).compareToIgnoreCase((String) value2);
+        } else if (value1.getClass() != value2.getClass() && value1 instanceof Number && value2 instanceof Number) {
+            comp = new BigDecimal(value1.toString()).compareTo(new BigDecimal(value2.toString()));
+        } else {
+            comp = ((Comparable) value1).compareTo(value2);
+        }
+        return descending[i] ? -comp : comp;
+    }
+
+    private Object getFieldValue(EntityValue ev, int i) {
+        if (!(ev instanceof EntityValueBase)) return ev.get(names[i]);
+        EntityValueBase evb = (EntityValueBase) ev;
+        EntityDefinition ed = evb.getEntityDefinition();
+        FieldInfoCache fieldInfos = lastFieldInfos;
+        if (fieldInfos == null || fieldInfos.ed != ed) lastFieldInfos = fieldInfos = new FieldInfoCache(ed, names);
+        FieldInfo fi = fieldInfos.fieldInfos[i];
+        // not a field, let get() handle it
+        if (fi == null) return evb.get(names[i]);
+        // localized fields need the rest of getKnownField()
+        if (!fi.isSimple) return evb.getKnownField(fi);
+        return evb.getValueMap().getByIString(fi.name, fi.index);
+    }
+
+    private static class FieldInfoCache {
+        final EntityDefinition ed;
+        final FieldInfo[] fieldInfos;
+        FieldInfoCache(EntityDefinition ed, String[] names) {
+            this.ed = ed;
+            fieldInfos = new FieldInfo[names.length];
+            for (int i = 0; i < names.length; i++) fieldInfos[i] = ed.getFieldInfo(names[i]);
+        }
+    }
+    private static class KeyedValue {
+        final Object[] keys;
+        final EntityValue value;
+        KeyedValue(Object[] keys, EntityValue value) { this.keys = keys; this.value = value; }
+    }
+
+    @Override public String toString() { return Arrays.toString(names); }
+}
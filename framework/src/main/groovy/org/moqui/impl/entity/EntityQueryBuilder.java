@@ -163,6 +163,7 @@ public class EntityQueryBuilder implements Runnable {
         // long beforeQuery = queryStats ? System.nanoTime() : 0;
 
         execQuery = false;
+        efi.noteGroupWrite(mainEntityDefinition.getEntityGroupName());
         if (execWithTimeout) {
             try {
                 Future<?> execFuture = efi.statementExecutor.submit(this);
@@ -0,0 +1,419 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.impl.entity
+
+import groovy.transform.CompileStatic
+import org.moqui.entity.EntityCondition
+import org.moqui.entity.EntityException
+import org.moqui.entity.EntityFind
+import org.moqui.entity.EntityList
+import org.moqui.entity.EntityListIterator
+import org.moqui.entity.EntityValue
+import org.moqui.impl.context.ExecutionContextFactoryImpl
+import org.moqui.impl.context.ExecutionContextImpl
+import org.moqui.impl.context.WorkerLane
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+
+import java.sql.Date
+import java.sql.Timestamp
+import java.time.LocalDate
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.function.Consumer
+import java.util.stream.Stream
+import java.util.stream.StreamSupport
+
+/**
+ * Stream support for EntityFind: a sequential Stream over an EntityListIterator and a parallel Stream that splits the
+ * find into ranges of a field and reads each range with its own connection in a worker thread.
+ */
+@CompileStatic
+class EntityStreamSupport {
+    protected final static Logger logger = LoggerFactory.getLogger(EntityStreamSupport.class)
+
+    /** Values read ahead per partition before the reading worker waits for the stream to catch up */
+    static final int PARTITION_QUEUE_SIZE = 1000
+    /** Seconds a partition reader waits for the stream to take a value, or the stream waits for the reader to read one,
+     * before giving up */
+    static final int STALLED_SECONDS = 600
+    /** Seconds the stream waits for a partition reader to start in a worker thread before giving up */
+    static final int START_WAIT_SECONDS = 120
+    /** Worker lane partition readers run in, if not configured the worker pool is used */
+    static final String PARTITION_LANE = "EntityStream"
+
+    static Stream<EntityValue> iteratorStream(EntityListIterator eli) {
+        IteratorSpliterator spliterator = new IteratorSpliterator(eli)
+        return StreamSupport.stream(spliterator, false).onClose(spliterator)
+    }
+
+    /** Spliterator for an EntityListIterator, closes the iterator after the last value, on error, or when the stream is closed */
+    static class IteratorSpliterator implements Spliterator<EntityValue>, Runnable {
+        protected final EntityListIterator eli
+        protected boolean closed = false
+
+        IteratorSpliterator(EntityListIterator eli) { this.eli = eli }
+
+        @Override
+        boolean tryAdvance(Consumer<? super EntityValue> action) {
+            if (closed) return false
+            try {
+                EntityValue ev = eli.next()
+                if (ev == null) { close(); return false }
+                action.accept(ev)
+                return true
+            } catch (Throwable t) {
+                close()
+                throw t
+            }
+        }
+        @Override Spliterator<EntityValue> trySplit() { return null }
+        @Override long estimateSize() { return Long.MAX_VALUE }
+        @Override int characteristics() { return ORDERED | NONNULL }
+
+        @Override void run() { close() }
+        void close() {
+            if (closed) return
+            closed = true
+            eli.close()
+        }
+    }
+
+    /**
+     * Get conditions for ranges of a field to split a find into partitions. For integer, date, and date-time fields the
+     * ranges are even splits between the min and max values, for other types boundaries are sampled at offsets in the
+     * ordered values so partitions have about the same number of records. Records with a null value for the field are in
+     * the first partition. May return fewer conditions than requested if there are not enough distinct values.
+     */
+    static List<EntityCondition> makePartitionConditions(EntityFacadeImpl efi, EntityDefinition ed, FieldInfo fi,
+            EntityCondition whereCondition, boolean disableAuthz, boolean useClone, int partitions) {
+        String fieldName = fi.name
+        List<Object> boundaries = new ArrayList<>(partitions - 1)
+        int typeValue = fi.typeValue
+        if (typeValue == 2 || typeValue == 4 || typeValue == 5 || typeValue == 6) {
+            EntityValue minValue = makeBoundFind(efi, ed, fieldName, whereCondition, disableAuthz, useClone)
+                    .orderBy(fieldName).limit(1).one()
+            if (minValue == null) return [(EntityCondition) null]
+            EntityValue maxValue = makeBoundFind(efi, ed, fieldName, whereCondition, disableAuthz, useClone)
+                    .orderBy("-" + fieldName).limit(1).one()
+            long min = toLong(typeValue, minValue.get(fieldName))
+            long max = toLong(typeValue, maxValue.get(fieldName))
+            long lastBound = min
+            for (int i = 1; i < partitions; i++) {
+                // BigDecimal to avoid overflow in (max - min) * i
+                long bound = min + (BigDecimal.valueOf(max).subtract(BigDecimal.valueOf(min)) * i).divideToIntegralValue(BigDecimal.valueOf(partitions)).longValue()
+                if (bound <= lastBound) continue
+                boundaries.add(fromLong(typeValue, bound))
+                lastBound = bound
+            }
+        } else {
+            EntityFind boundFind = makeBoundFind(efi, ed, fieldName, whereCondition, disableAuthz, useClone)
+            long count = boundFind.count()
+            if (count == 0) return [(EntityCondition) null]
+            boundFind.orderBy(fieldName).limit(1)
+            Object lastBound = null
+            for (int i = 1; i < partitions; i++) {
+                EntityList sampleList = boundFind.offset((int) (count * i / partitions)).list()
+                if (sampleList.size() == 0) break
+                Object bound = sampleList.get(0).get(fieldName)
+                if (bound == null || bound == lastBound || (lastBound != null && ((Comparable) bound).compareTo(lastBound) <= 0)) continue
+                boundaries.add(bound)
+                lastBound = bound
+            }
+        }
+
+        EntityConditionFactoryImpl ecfi = efi.conditionFactoryImpl
+        int boundSize = boundaries.size()
+        if (boundSize == 0) return [(EntityCondition) null]
+        List<EntityCondition> condList = new ArrayList<>(boundSize + 1)
+        condList.add(ecfi.makeCondition(ecfi.makeCondition(fieldName, EntityCondition.ComparisonOperator.LESS_THAN, boundaries.get(0)),
+                EntityCondition.JoinOperator.OR, ecfi.makeCondition(fieldName, EntityCondition.ComparisonOperator.IS_NULL, null)))
+        for (int i = 1; i < boundSize; i++) {
+            condList.add(ecfi.makeCondition(ecfi.makeCondition(fieldName, EntityCondition.ComparisonOperator.GREATER_THAN_EQUAL_TO, boundaries.get(i - 1)),
+                    EntityCondition.JoinOperator.AND, ecfi.makeCondition(fieldName, EntityCondition.ComparisonOperator.LESS_THAN, boundaries.get(i))))
+        }
+        condList.add(ecfi.makeCondition(fieldName, EntityCondition.ComparisonOperator.GREATER_THAN_EQUAL_TO, boundaries.get(boundSize - 1)))
+        return condList
+    }
+    protected static EntityFind makeBoundFind(EntityFacadeImpl efi, EntityDefinition ed, String fieldName,
+            EntityCondition whereCondition, boolean disableAuthz, boolean useClone) {
+        EntityFind boundFind = efi.find(ed.getFullEntityName()).condition(whereCondition)
+                .condition(fieldName, EntityCondition.ComparisonOperator.IS_NOT_NULL, null)
+                .selectField(fieldName).useCache(false).useClone(useClone)
+        if (disableAuthz) boundFind.disableAuthz()
+        return boundFind
+    }
+    protected static long toLong(int typeValue, Object value) {
+        if (typeValue == 2) return ((Timestamp) value).getTime()
+        // compare dates by day so boundaries are at the start of a day
+        if (typeValue == 4) return ((Date) value).toLocalDate().toEpochDay()
+        return ((Number) value).longValue()
+    }
+    protected static Object fromLong(int typeValue, long value) {
+        if (typeValue == 2) return new Timestamp(value)
+        if (typeValue == 4) return Date.valueOf(LocalDate.ofEpochDay(value))
+        if (typeValue == 5) return Integer.valueOf((int) value)
+        return Long.valueOf(value)
+    }
+
+    /**
+     * The state shared by all spliterators of a parallel stream. Each partition is read in a worker thread with its own
+     * ExecutionContext (with the user and authz state of the calling thread) and no transaction, so with its own
+     * connection. Readers are started as the stream gets to each partition so no more connections are used than the
+     * stream has threads. If the worker lane or pool is busy a partition is read in the stream thread instead.
+     */
+    static class PartitionedRead implements Runnable {
+        final ExecutionContextFactoryImpl ecfi
+        final String entityName
+        final EntityCondition whereCondition, havingCondition
+        final List<EntityCondition> partitionConditions
+        final List<String> fieldsToSelect
+        final boolean distinct, disableAuthz, useClone
+        final Integer fetchSize
+        final String threadUsername
+        final boolean threadAuthzDisabled
+        protected final ArrayList<PartitionFeed> feedList = new ArrayList<>()
+        volatile boolean closed = false
+
+        PartitionedRead(EntityFindBase find, EntityDefinition ed, EntityCondition whereCondition, List<EntityCondition> partitionConditions) {
+            ExecutionContextImpl eci = find.efi.ecfi.getEci()
+            ecfi = eci.ecfi
+            entityName = ed.getFullEntityName()
+            this.whereCondition = whereCondition
+            havingCondition = find.getHavingEntityCondition()
+            this.partitionConditions = partitionConditions
+            fieldsToSelect = find.getSelectFields() ? new ArrayList<String>(find.getSelectFields()) : (List<String>) null
+            distinct = find.getDistinct()
+            disableAuthz = find.disableAuthz
+            useClone = find.useClone
+            fetchSize = find.getFetchSize()
+            threadUsername = eci.userFacade.username
+            threadAuthzDisabled = eci.artifactExecutionFacade.getAuthzDisabled()
+        }
+
+        Stream<EntityValue> makeStream() {
+            return StreamSupport.stream(new PartitionSpliterator(this, 0, partitionConditions.size()), true).onClose(this)
+        }
+
+        PartitionFeed start(int index) {
+            PartitionFeed feed = new PartitionFeed(this, index)
+            synchronized (feedList) {
+                if (closed) throw new EntityException("Parallel stream for ${entityName} is closed")
+                feedList.add(feed)
+            }
+            ExecutorService executor = ecfi.getWorkerLane(PARTITION_LANE)
+            if (isBusy(executor)) {
+                feed.inline = true
+                return feed
+            }
+            try {
+                executor.execute(new ExecutionContextImpl.ThreadPoolRunnable(ecfi, { feed.readPartition() }))
+            } catch (RejectedExecutionException e) {
+                if (logger.isTraceEnabled()) logger.trace("Worker lane ${PARTITION_LANE} full, reading partition ${index} of parallel stream for ${entityName} in stream thread")
+                feed.inline = true
+            }
+            return feed
+        }
+        /** True if a reader would wait for a thread: the lane is at its limit or all worker pool threads are active */
+        protected boolean isBusy(ExecutorService executor) {
+            if (executor instanceof WorkerLane) {
+                WorkerLane lane = (WorkerLane) executor
+                if (lane.getActiveCount() >= lane.getLimit()) return true
+            }
+            ThreadPoolExecutor workerPool = ecfi.workerPool
+            return workerPool.getActiveCount() >= workerPool.getMaximumPoolSize()
+        }
+
+        @Override void run() {
+            closed = true
+            synchronized (feedList) {
+                for (PartitionFeed feed in feedList) {
+                    feed.queue.clear()
+                    feed.closeInline()
+                }
+            }
+        }
+    }
+
+    static class PartitionFeed {
+        static final Object END = new Object()
+        final PartitionedRead partitionedRead
+        final int index
+        final ArrayBlockingQueue<Object> queue = new ArrayBlockingQueue<>(PARTITION_QUEUE_SIZE)
+        volatile Throwable error = null
+        /** Set when the reader starts in a worker thread */
+        volatile boolean started = false
+        /** Set when the stream gives up waiting for the reader, so it stops if it starts or is running */
+        volatile boolean cancelled = false
+        /** If true the partition is read in the thread calling take() with inlineEli, nothing is put in the queue */
+        boolean inline = false
+        protected volatile EntityListIterator inlineEli = (EntityListIterator) null
+        protected volatile boolean inlineDone = false
+
+        PartitionFeed(PartitionedRead partitionedRead, int index) { this.partitionedRead = partitionedRead; this.index = index }
+
+        protected EntityListIterator makeIterator(ExecutionContextImpl eci) {
+            PartitionedRead read = partitionedRead
+            EntityFind ef = eci.entityFacade.find(read.entityName).condition(read.whereCondition)
+                    .havingCondition(read.havingCondition).distinct(read.distinct).useClone(read.useClone)
+                    .fetchSize(read.fetchSize != null ? read.fetchSize : 500)
+            if (read.disableAuthz) ef.disableAuthz()
+            EntityCondition partitionCondition = read.partitionConditions.get(index)
+            if (partitionCondition != null) ef.condition(partitionCondition)
+            if (read.fieldsToSelect != null) ef.selectFields(read.fieldsToSelect)
+            return ef.iterator()
+        }
+        protected void loginThreadUser(ExecutionContextImpl eci) {
+            PartitionedRead read = partitionedRead
+            if (read.threadUsername) eci.userFacade.internalLoginUser(read.threadUsername, false)
+            if (read.threadAuthzDisabled) eci.artifactExecutionFacade.disableAuthz()
+        }
+
+        void readPartition() {
+            PartitionedRead read = partitionedRead
+            started = true
+            if (cancelled || read.closed) { offer(END); return }
+            EntityListIterator eli = (EntityListIterator) null
+            try {
+                ExecutionContextImpl eci = read.ecfi.getEci()
+                loginThreadUser(eci)
+                eli = makeIterator(eci)
+                EntityValue ev
+                while (!read.closed && !cancelled && (ev = eli.next()) != null) { if (!offer(ev)) break }
+            } catch (Throwable t) {
+                error = t
+                logger.error("Error reading partition ${index} of parallel stream for ${read.entityName}", t)
+            } finally {
+                if (eli != null) { try { eli.close() } catch (Throwable t) { logger.warn("Error closing partition iterator", t) } }
+                offer(END)
+            }
+        }
+        protected boolean offer(Object obj) {
+            PartitionedRead read = partitionedRead
+            // if the stream is abandoned without being closed don't hold the connection forever
+            for (int waitSeconds = 0; !read.closed && !cancelled; waitSeconds++) {
+                if (queue.offer(obj, 1, TimeUnit.SECONDS)) return true
+                if (waitSeconds >= STALLED_SECONDS) {
+                    logger.warn("Parallel stream for ${read.entityName} partition ${index} not consumed for ${STALLED_SECONDS}s, stopping read (close streams not consumed to the end)")
+                    return false
+                }
+            }
+            return false
+        }
+
+        /** Get the next value, null after the last */
+        EntityValue take() {
+            if (inline) return takeInline()
+            PartitionedRead read = partitionedRead
+            int waitSeconds = 0
+            while (!read.closed) {
+                Object obj = queue.poll(1, TimeUnit.SECONDS)
+                if (obj == null) {
+                    waitSeconds++
+                    if (!started && waitSeconds >= START_WAIT_SECONDS) {
+                        cancelled = true
+                        throw new EntityException("Reading partition ${index} of parallel stream for ${read.entityName} not started after ${START_WAIT_SECONDS}s, worker pool busy")
+                    }
+                    if (waitSeconds >= STALLED_SECONDS) {
+                        cancelled = true
+                        throw new EntityException("No values read for partition ${index} of parallel stream for ${read.entityName} in ${STALLED_SECONDS}s")
+                    }
+                    continue
+                }
+                if (obj.is(END)) {
+                    if (error != null) throw new EntityException("Error reading partition ${index} of parallel stream for ${read.entityName}", error)
+                    return (EntityValue) null
+                }
+                return (EntityValue) obj
+            }
+            return (EntityValue) null
+        }
+
+        protected EntityValue takeInline() {
+            PartitionedRead read = partitionedRead
+            if (read.closed || inlineDone) { closeInline(); return (EntityValue) null }
+            try {
+                if (inlineEli == null) openInline()
+                EntityListIterator eli = inlineEli
+                EntityValue ev = eli != null ? eli.next() : (EntityValue) null
+                if (ev == null) closeInline()
+                return ev
+            } catch (Throwable t) {
+                closeInline()
+                throw new EntityException("Error reading partition ${index} of parallel stream for ${read.entityName}", t)
+            }
+        }
+        protected void openInline() {
+            ExecutionContextFactoryImpl ecfi = partitionedRead.ecfi
+            ExecutionContextImpl activeEc = ecfi.activeContext.get()
+            if (activeEc != null) { inlineEli = makeIterator(activeEc); return }
+            // in a thread with no ExecutionContext (like a common pool thread) use one for the stream user only to make
+            //     the iterator, reading from it after doesn't need one and without a transaction it has its own connection
+            try {
+                ExecutionContextImpl eci = ecfi.getEci()
+                loginThreadUser(eci)
+                inlineEli = makeIterator(eci)
+            } finally {
+                ecfi.destroyActiveExecutionContext()
+            }
+        }
+        protected void closeInline() {
+            inlineDone = true
+            EntityListIterator eli = inlineEli
+            if (eli == null) return
+            inlineEli = (EntityListIterator) null
+            try { eli.close() } catch (Throwable t) { logger.warn("Error closing partition iterator", t) }
+        }
+    }
+
+    /** Splits by partition, the partitions of each spliterator are read in turn */
+    static class PartitionSpliterator implements Spliterator<EntityValue> {
+        protected final PartitionedRead read
+        protected int nextIndex
+        protected final int endIndex
+        protected PartitionFeed current = (PartitionFeed) null
+
+        PartitionSpliterator(PartitionedRead read, int startIndex, int endIndex) {
+            this.read = read
+            nextIndex = startIndex
+            this.endIndex = endIndex
+        }
+
+        @Override
+        boolean tryAdvance(Consumer<? super EntityValue> action) {
+            while (true) {
+                if (current == null) {
+                    if (nextIndex >= endIndex || read.closed) return false
+                    current = read.start(nextIndex++)
+                }
+                EntityValue ev = current.take()
+                if (ev != null) { action.accept(ev); return true }
+                current = (PartitionFeed) null
+            }
+        }
+        @Override
+        Spliterator<EntityValue> trySplit() {
+            if (current != null || endIndex - nextIndex < 2) return null
+            int mid = (nextIndex + endIndex) >>> 1
+            PartitionSpliterator prefix = new PartitionSpliterator(read, nextIndex, mid)
+            nextIndex = mid
+            return prefix
+        }
+        @Override long estimateSize() { return Long.MAX_VALUE }
+        @Override int characteristics() { return NONNULL }
+    }
+}
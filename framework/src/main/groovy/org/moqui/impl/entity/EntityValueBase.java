@@ -257,7 +257,7 @@ public abstract class EntityValueBase implements EntityValue {
         // if enabled use moqui.basic.LocalizedEntityField for any localized fields
         if (fieldInfo.enableLocalization) {
             String name = fieldInfo.name;
-            Locale locale = getEntityFacadeImpl().ecfi.getEci().userFacade.getLocale();
+            Locale locale = getEntityFacadeImpl().ecfi.getEci().getUserFacade().getLocale();
             String localeStr = locale != null ? locale.toString() : null;
             if (localeStr != null) {
                 Object internalValue = valueMapInternal.getByIString(fieldInfo.name, fieldInfo.index);
@@ -462,7 +462,7 @@ public abstract class EntityValueBase implements EntityValue {
         // this will do a field name check
         ExecutionContextImpl eci = getEntityFacadeImpl().ecfi.getEci();
         FieldInfo fi = getEntityDefinition().getFieldInfo(name);
-        Object converted = fi.convertFromString(value, eci.l10nFacade);
+        Object converted = fi.convertFromString(value, eci.getL10nFacade());
         putKnownField(fi, converted);
         return this;
     }
@@ -703,9 +703,9 @@ public abstract class EntityValueBase implements EntityValue {
     public EntityValue store() { return createOrUpdate(); }
 
     private void handleAuditLog(boolean isUpdate, LiteStringMap<Object> oldValues, EntityDefinition ed, ExecutionContextImpl ec) {
-        if ((isUpdate && oldValues == null) || !ed.entityInfo.needsAuditLog || ec.artifactExecutionFacade.entityAuditLogDisabled()) return;
+        if ((isUpdate && oldValues == null) || !ed.entityInfo.needsAuditLog || ec.getArtifactExecutionFacade().entityAuditLogDisabled()) return;
 
-        Timestamp nowTimestamp = ec.userFacade.getNowTimestamp();
+        Timestamp nowTimestamp = ec.getUserFacade().getNowTimestamp();
 
         LiteStringMap<Object> pksValueMap = new LiteStringMap<>(ed.entityInfo.pkFieldInfoArray.length).useManualIndex();
         addThreeFieldPkValues(pksValueMap, ed);
@@ -752,7 +752,7 @@ public abstract class EntityValueBase implements EntityValue {
                     if (changeReason.isEmpty()) changeReason = null;
                 }
 
-                String stackNameString = ec.artifactExecutionFacade.getStackNameString();
+                String stackNameString = ec.getArtifactExecutionFacade().getStackNameString();
                 if (stackNameString.length() > 4000) stackNameString = stackNameString.substring(0, 4000);
                 LinkedHashMap<String, Object> parms = new LinkedHashMap<>();
                 parms.put("changedEntityName", getEntityName());
@@ -1440,7 +1440,7 @@ public abstract class EntityValueBase implements EntityValue {
     public abstract EntityValue cloneDbValue(boolean getOld);
 
     private boolean doDataFeed(ExecutionContextImpl ec) {
-        if (ec.artifactExecutionFacade.entityDataFeedDisabled()) return false;
+        if (ec.getArtifactExecutionFacade().entityDataFeedDisabled()) return false;
         // skip ArtifactHitBin, causes funny recursion
         return !"moqui.server.ArtifactHitBin".equals(entityName);
     }
@@ -1543,7 +1543,7 @@ public abstract class EntityValueBase implements EntityValue {
         if (!tfi.getUseLockTrack()) return;
 
         final EntityDefinition ed = getEntityDefinition();
-        final ArtifactExecutionFacadeImpl aefi = efi.ecfi.getEci().artifactExecutionFacade;
+        final ArtifactExecutionFacadeImpl aefi = efi.ecfi.getEci().getArtifactExecutionFacade();
 
         ArrayList<ArtifactExecutionInfo> stackArray = aefi.getStackArray();
 
@@ -1595,7 +1595,7 @@ public abstract class EntityValueBase implements EntityValue {
         final EntityFacadeImpl efi = getEntityFacadeImpl();
         final ExecutionContextFactoryImpl ecfi = efi.ecfi;
         final ExecutionContextImpl ec = ecfi.getEci();
-        final ArtifactExecutionFacadeImpl aefi = ec.artifactExecutionFacade;
+        final ArtifactExecutionFacadeImpl aefi = ec.getArtifactExecutionFacade();
 
         // check/set defaults
         if (entityInfo.hasFieldDefaults) checkSetFieldDefaults(ed, ec, null);
@@ -1678,7 +1678,7 @@ public abstract class EntityValueBase implements EntityValue {
         final EntityFacadeImpl efi = getEntityFacadeImpl();
         final ExecutionContextFactoryImpl ecfi = efi.ecfi;
         final ExecutionContextImpl ec = ecfi.getEci();
-        final ArtifactExecutionFacadeImpl aefi = ec.artifactExecutionFacade;
+        final ArtifactExecutionFacadeImpl aefi = ec.getArtifactExecutionFacade();
         final TransactionCache curTxCache = getTxCache(ecfi);
         final boolean optimisticLock = entityInfo.optimisticLock;
         final boolean hasFieldDefaults = entityInfo.hasFieldDefaults;
@@ -1841,7 +1841,7 @@ public abstract class EntityValueBase implements EntityValue {
         final EntityFacadeImpl efi = getEntityFacadeImpl();
         final ExecutionContextFactoryImpl ecfi = efi.ecfi;
         final ExecutionContextImpl ec = ecfi.getEci();
-        final ArtifactExecutionFacadeImpl aefi = ec.artifactExecutionFacade;
+        final ArtifactExecutionFacadeImpl aefi = ec.getArtifactExecutionFacade();
 
         // NOTE: this is create-only on the entity, ignores setting on fields (only considered in update)
         if (entityInfo.createOnly) throw new EntityException("Entity [" + getEntityName() + "] is create-only (immutable), cannot be deleted.");
@@ -1867,7 +1867,7 @@ public abstract class EntityValueBase implements EntityValue {
             }
 
             // clear the entity cache
-            efi.getEntityCache().clearCacheForValue(this, false);
+            efi.getEntityCache().clearCacheForValue(this, false, true);
             // run EECA after rules
             efi.runEecaRules(entityName, this, "delete", false);
         } catch (SQLException e) {
@@ -1891,7 +1891,7 @@ public abstract class EntityValueBase implements EntityValue {
         final EntityFacadeImpl efi = getEntityFacadeImpl();
         final ExecutionContextFactoryImpl ecfi = efi.ecfi;
         final ExecutionContextImpl ec = ecfi.getEci();
-        final ArtifactExecutionFacadeImpl aefi = ec.artifactExecutionFacade;
+        final ArtifactExecutionFacadeImpl aefi = ec.getArtifactExecutionFacade();
 
         List<String> pkFieldList = ed.getPkFieldNames();
         if (pkFieldList.size() == 0) {
@@ -261,7 +261,7 @@ public class FieldInfo {
                 case 8:
                 case 9:
                     if (value instanceof BigDecimal) value = safeStripZeroes((BigDecimal) value);
-                    L10nFacadeImpl l10n = ed.efi.ecfi.getEci().l10nFacade;
+                    L10nFacadeImpl l10n = ed.efi.ecfi.getEci().getL10nFacade();
                     outValue = l10n.format(value, null);
                     break;
                 case 10: outValue = value.toString(); break;
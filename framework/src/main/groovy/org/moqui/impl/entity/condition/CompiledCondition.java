@@ -0,0 +1,223 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.impl.entity.condition;
+
+import org.moqui.entity.EntityCondition.ComparisonOperator;
+import org.moqui.entity.EntityCondition.JoinOperator;
+import org.moqui.impl.entity.EntityConditionFactoryImpl;
+import org.moqui.impl.entity.EntityDefinition;
+import org.moqui.impl.entity.EntityValueBase;
+import org.moqui.impl.entity.FieldInfo;
+import org.moqui.util.LiteStringMap;
+
+import java.util.*;
+
+/**
+ * In-memory evaluation of a condition for mapMatches(), compiled once from the condition tree and cached on the
+ * condition. Nested AND and OR lists are flattened, field values are read by index from LiteStringMap (the value map
+ * of EntityValueBase), comparisons of values of the same class as the condition value skip the generic Groovy
+ * comparison, and IN values are put in a HashSet.
+ *
+ * Results are always the same as EntityConditionFactoryImpl.compareByOperator(), which is used for anything else.
+ */
+public abstract class CompiledCondition {
+    public abstract boolean matches(Map<String, Object> map);
+
+    public static CompiledCondition compile(EntityConditionImplBase cond) {
+        if (cond instanceof FieldValueCondition) return compileField((FieldValueCondition) cond);
+        if (cond instanceof ListCondition) {
+            ListCondition listCond = (ListCondition) cond;
+            JoinOperator op = listCond.getOperator();
+            ArrayList<CompiledCondition> compiledList = new ArrayList<>();
+            addFlattened(listCond, op, compiledList);
+            if (compiledList.size() == 1) return compiledList.get(0);
+            CompiledCondition[] compiledArray = compiledList.toArray(new CompiledCondition[0]);
+            return op == JoinOperator.AND ? new AndMatch(compiledArray) : new OrMatch(compiledArray);
+        }
+        return new ConditionMatch(cond);
+    }
+    private static void addFlattened(ListCondition listCond, JoinOperator op, ArrayList<CompiledCondition> compiledList) {
+        ArrayList<EntityConditionImplBase> condList = listCond.getConditionList();
+        int condListSize = condList.size();
+        for (int i = 0; i < condListSize; i++) {
+            EntityConditionImplBase cond = condList.get(i);
+            if (cond instanceof ListCondition && ((ListCondition) cond).getOperator() == op) {
+                addFlattened((ListCondition) cond, op, compiledList);
+            } else if (cond instanceof ListCondition && ((ListCondition) cond).getConditionList().size() == 0) {
+                // an empty AND matches everything, an empty OR nothing; same as ListCondition.mapMatches()
+                compiledList.add(((ListCondition) cond).getOperator() == JoinOperator.AND ? TRUE_MATCH : FALSE_MATCH);
+            } else {
+                compiledList.add(compile(cond));
+            }
+        }
+    }
+
+    private static CompiledCondition compileField(FieldValueCondition fvc) {
+        ComparisonOperator op = fvc.getOperator();
+        FieldAccess access = new FieldAccess(fvc.getFieldName());
+        Object value = fvc.getValue();
+        switch (op) {
+            case IS_NULL: return new NullMatch(access, true);
+            case IS_NOT_NULL: return new NullMatch(access, false);
+            case EQUALS:
+            case NOT_EQUAL:
+                if (value == null) return new NullMatch(access, op == ComparisonOperator.EQUALS);
+                if (value instanceof Comparable) return new CompareMatch(access, op, value);
+                break;
+            case LESS_THAN:
+            case GREATER_THAN:
+            case LESS_THAN_EQUAL_TO:
+            case GREATER_THAN_EQUAL_TO:
+                if (value instanceof Comparable) return new CompareMatch(access, op, value);
+                break;
+            case IN:
+            case NOT_IN:
+                // a String value is changed to a List when SQL is generated, so only compile Collection values
+                if (value instanceof Collection) return new InMatch(access, (Collection) value, op == ComparisonOperator.IN);
+                break;
+        }
+        return new OperatorMatch(access, fvc);
+    }
+
+    /** Gets a field value by name, for LiteStringMap and EntityValueBase by index */
+    static final class FieldAccess {
+        final String name;
+        // last index found, LiteStringMap instances for the same entity usually have the field at the same index
+        private int indexHint = -1;
+        private FieldInfo lastFieldInfo = null;
+
+        FieldAccess(String name) { this.name = LiteStringMap.internString(name); }
+
+        Object get(Map<String, Object> map) {
+            if (map instanceof LiteStringMap) return getLite((LiteStringMap<Object>) map);
+            if (map instanceof EntityValueBase) {
+                EntityValueBase evb = (EntityValueBase) map;
+                EntityDefinition ed = evb.getEntityDefinition();
+                FieldInfo fi = lastFieldInfo;
+                if (fi == null || fi.ed != ed) {
+                    fi = ed.getFieldInfo(name);
+                    // not a field, may be a relationship name or something else EntityValueBase.get() handles
+                    if (fi == null) return map.get(name);
+                    lastFieldInfo = fi;
+                }
+                // localized fields need the rest of getKnownField()
+                if (!fi.isSimple) return evb.getKnownField(fi);
+                return evb.getValueMap().getByIString(name, fi.index);
+            }
+            return map.get(name);
+        }
+        private Object getLite(LiteStringMap<Object> lsm) {
+            int hint = indexHint;
+            if (hint >= 0 && hint < lsm.size() && lsm.getKey(hint) == name) return lsm.getValue(hint);
+            int index = lsm.findIndexIString(name);
+            if (index == -1) return null;
+            indexHint = index;
+            return lsm.getValue(index);
+        }
+    }
+
+    static final CompiledCondition TRUE_MATCH = new CompiledCondition() {
+        @Override public boolean matches(Map<String, Object> map) { return true; }
+    };
+    static final CompiledCondition FALSE_MATCH = new CompiledCondition() {
+        @Override public boolean matches(Map<String, Object> map) { return false; }
+    };
+
+    static final class AndMatch extends CompiledCondition {
+        private final CompiledCondition[] conds;
+        AndMatch(CompiledCondition[] conds) { this.conds = conds; }
+        @Override public boolean matches(Map<String, Object> map) {
+            for (int i = 0; i < conds.length; i++) if (!conds[i].matches(map)) return false;
+            return true;
+        }
+    }
+    static final class OrMatch extends CompiledCondition {
+        private final CompiledCondition[] conds;
+        OrMatch(CompiledCondition[] conds) { this.conds = conds; }
+        @Override public boolean matches(Map<String, Object> map) {
+            for (int i = 0; i < conds.length; i++) if (conds[i].matches(map)) return true;
+            return false;
+        }
+    }
+
+    static final class NullMatch extends CompiledCondition {
+        private final FieldAccess access;
+        private final boolean isNull;
+        NullMatch(FieldAccess access, boolean isNull) { this.access = access; this.isNull = isNull; }
+        @Override public boolean matches(Map<String, Object> map) { return (access.get(map) == null) == isNull; }
+    }
+
+    /** EQUALS, NOT_EQUAL, and less/greater than with a Comparable value */
+    static final class CompareMatch extends CompiledCondition {
+        private final FieldAccess access;
+        private final ComparisonOperator op;
+        private final Object value;
+        private final Class valueClass;
+        private final boolean isString;
+        CompareMatch(FieldAccess access, ComparisonOperator op, Object value) {
+            this.access = access;
+            this.op = op;
+            this.value = value;
+            valueClass = value.getClass();
+            isString = value instanceof String;
+        }
+        @SuppressWarnings("unchecked")
+        @Override public boolean matches(Map<String, Object> map) {
+            Object fieldValue = access.get(map);
+            // for other classes and nulls use the Groovy comparison with type coercion
+            if (fieldValue == null || fieldValue.getClass() != valueClass)
+                return EntityConditionFactoryImpl.compareByOperator(fieldValue, op, value);
+            switch (op) {
+                case EQUALS: return isString ? value.equals(fieldValue) : ((Comparable) fieldValue).compareTo(value) == 0;
+                case NOT_EQUAL: return isString ? !value.equals(fieldValue) : ((Comparable) fieldValue).compareTo(value) != 0;
+                case LESS_THAN: return ((Comparable) fieldValue).compareTo(value) < 0;
+                case GREATER_THAN: return ((Comparable) fieldValue).compareTo(value) > 0;
+                case LESS_THAN_EQUAL_TO: return ((Comparable) fieldValue).compareTo(value) <= 0;
+                case GREATER_THAN_EQUAL_TO: return ((Comparable) fieldValue).compareTo(value) >= 0;
+                default: return EntityConditionFactoryImpl.compareByOperator(fieldValue, op, value);
+            }
+        }
+    }
+
+    static final class InMatch extends CompiledCondition {
+        private final FieldAccess access;
+        private final Collection<Object> values;
+        private final boolean in;
+        @SuppressWarnings("unchecked")
+        InMatch(FieldAccess access, Collection value, boolean in) {
+            this.access = access;
+            // Collection.contains() like compareByOperator(), so equals() and not Groovy coercion, same for a HashSet
+            values = value.size() > 4 ? new HashSet<Object>(value) : (Collection<Object>) value;
+            this.in = in;
+        }
+        @Override public boolean matches(Map<String, Object> map) { return values.contains(access.get(map)) == in; }
+    }
+
+    /** Any other operator or value, the operator and value are read from the condition each time */
+    static final class OperatorMatch extends CompiledCondition {
+        private final FieldAccess access;
+        private final FieldValueCondition fvc;
+        OperatorMatch(FieldAccess access, FieldValueCondition fvc) { this.access = access; this.fvc = fvc; }
+        @Override public boolean matches(Map<String, Object> map) {
+            return EntityConditionFactoryImpl.compareByOperator(access.get(map), fvc.getOperator(), fvc.getValue());
+        }
+    }
+
+    /** Other types of conditions (date, field to field, where, etc) */
+    static final class ConditionMatch extends CompiledCondition {
+        private final EntityConditionImplBase cond;
+        ConditionMatch(EntityConditionImplBase cond) { this.cond = cond; }
+        @Override public boolean matches(Map<String, Object> map) { return cond.mapMatches(map); }
+    }
+}
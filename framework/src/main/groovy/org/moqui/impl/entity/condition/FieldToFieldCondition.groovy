@@ -129,6 +129,7 @@ class FieldToFieldCondition implements EntityConditionImplBase {
         }
     }
 
+    boolean getIgnoreCase() { return ignoreCase }
     @Override
     EntityCondition ignoreCase() { ignoreCase = true; curHashCode++; return this }
 
@@ -38,6 +38,7 @@ public class FieldValueCondition implements EntityConditionImplBase, Externaliza
     protected Object value;
     protected boolean ignoreCase = false;
     private int curHashCode;
+    private transient CompiledCondition compiledCondition = null;
 
     public FieldValueCondition() { }
     public FieldValueCondition(ConditionField field, ComparisonOperator operator, Object value) {
@@ -252,7 +253,9 @@ public class FieldValueCondition implements EntityConditionImplBase, Externaliza
 
     @Override
     public boolean mapMatches(Map<String, Object> map) {
-        return EntityConditionFactoryImpl.compareByOperator(map.get(field.fieldName), operator, value);
+        CompiledCondition compiled = compiledCondition;
+        if (compiled == null) compiledCondition = compiled = CompiledCondition.compile(this);
+        return compiled.matches(map);
     }
     @Override
     public boolean mapMatchesAny(Map<String, Object> map) { return mapMatches(map); }
@@ -30,8 +30,10 @@ public class ListCondition implements EntityConditionImplBase {
     protected JoinOperator operator;
     private int conditionListSize = 0;
     private int curHashCode;
+    private transient CompiledCondition compiledCondition = null;
     private static final Class thisClass = ListCondition.class;
 
+    public ListCondition() { }
     public ListCondition(List<EntityConditionImplBase> conditionList, JoinOperator operator) {
         this.operator = operator != null ? operator : AND;
         if (conditionList != null) {
@@ -61,6 +63,7 @@ public class ListCondition implements EntityConditionImplBase {
         if (condition != null) conditionList.add(condition);
         curHashCode = createHashCode();
         conditionListSize = conditionList.size();
+        compiledCondition = null;
     }
     public void addConditions(ArrayList<EntityConditionImplBase> condList) {
         int condListSize = condList != null ? condList.size() : 0;
@@ -108,14 +111,9 @@ public class ListCondition implements EntityConditionImplBase {
 
     @Override
     public boolean mapMatches(Map<String, Object> map) {
-        for (int i = 0; i < conditionListSize; i++) {
-            EntityConditionImplBase condition = conditionList.get(i);
-            boolean conditionMatches = condition.mapMatches(map);
-            if (conditionMatches && this.operator == OR) return true;
-            if (!conditionMatches && this.operator == AND) return false;
-        }
-        // if we got here it means that it's an OR with no trues, or an AND with no falses
-        return (this.operator == AND);
+        CompiledCondition compiled = compiledCondition;
+        if (compiled == null) compiledCondition = compiled = CompiledCondition.compile(this);
+        return compiled.matches(map);
     }
     @Override
     public boolean mapMatchesAny(Map<String, Object> map) {
@@ -212,5 +210,6 @@ public class ListCondition implements EntityConditionImplBase {
         operator = JoinOperator.valueOf(new String((char[]) in.readObject()));
         curHashCode = createHashCode();
         conditionListSize = conditionList != null ? conditionList.size() : 0;
+        compiledCondition = null;
     }
 }
@@ -98,7 +98,7 @@ public class ElasticEntityListIterator implements EntityListIterator {
         esKeepAlive = efi.ecfi.transactionFacade.getTransactionTimeout() + "s";
 
         // capture the current artifact stack for finalize not closed debugging, has minimal performance impact (still ~0.0038ms per call compared to numbers below)
-        artifactStack = efi.ecfi.getEci().artifactExecutionFacade.getStackArray();
+        artifactStack = efi.ecfi.getEci().getArtifactExecutionFacade().getStackArray();
 
         /* uncomment only if needed temporarily: huge performance impact, ~0.036ms per call with, ~0.0037ms without (~10x difference!)
         StackTraceElement[] tempStack = Thread.currentThread().getStackTrace();
@@ -1051,6 +1051,10 @@ class ScreenDefinition {
                             response.addIntHeader('X-Page-Max-Index', context.get(listName.concat("PageMaxIndex")) as int)
                             response.addIntHeader('X-Page-Range-Low', context.get(listName.concat("PageRangeLow")) as int)
                             response.addIntHeader('X-Page-Range-High', context.get(listName.concat("PageRangeHigh")) as int)
+                            if (context.get(listName.concat("PageNextCursor")) != null)
+                                response.addHeader('X-Page-Next-Cursor', context.get(listName.concat("PageNextCursor")) as String)
+                            if (context.get(listName.concat("PagePrevCursor")) != null)
+                                response.addHeader('X-Page-Prev-Cursor', context.get(listName.concat("PagePrevCursor")) as String)
                         }
 
                         logger.info("form ${partName} actions result:\n${JsonOutput.prettyPrint(JsonOutput.toJson(listObj))}")
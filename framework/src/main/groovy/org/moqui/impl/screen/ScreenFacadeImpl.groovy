@@ -100,16 +100,34 @@ class ScreenFacadeImpl implements ScreenFacade {
         }
         logger.info("Warmed screen definition cache for ${screenCount} screens in ${(System.currentTimeMillis() - startTime)/1000} seconds")
     }
-    protected int warmCacheScreen(ScreenDefinition sd) {
+    /** Load subscreens one level at a time, parsing the screen files for each level in parallel before loading them */
+    protected int warmCacheScreen(ScreenDefinition rootSd) {
         int screenCount = 0
-        for (SubscreensItem ssi in sd.subscreensByName.values()) {
-            try {
-                ScreenDefinition subSd = getScreenDefinition(ssi.getLocation())
-                screenCount++
-                if (subSd) screenCount += warmCacheScreen(subSd)
-            } catch (Throwable t) {
-                logger.error("Error loading screen at [${ssi.getLocation()}] during cache warming", t)
+        ArrayList<ScreenDefinition> levelList = new ArrayList<>([rootSd])
+        while (levelList.size() > 0) {
+            ArrayList<String> locationList = new ArrayList<>()
+            for (ScreenDefinition sd in levelList) for (SubscreensItem ssi in sd.subscreensByName.values())
+                locationList.add(ssi.getLocation())
+
+            LinkedHashSet<ResourceReference> parseRrSet = new LinkedHashSet<>()
+            for (String location in new LinkedHashSet<String>(locationList)) {
+                if (location == null || location.isEmpty() || screenLocationCache.containsKey(location)) continue
+                try { parseRrSet.add(ecfi.resourceFacade.getLocationReference(location)) }
+                catch (Throwable t) { if (logger.isTraceEnabled()) logger.trace("Not parsing screen at ${location}: ${t.toString()}") }
             }
+            ecfi.parseXmlFilesParallel("screen", parseRrSet)
+
+            ArrayList<ScreenDefinition> nextList = new ArrayList<>()
+            for (String location in locationList) {
+                try {
+                    ScreenDefinition subSd = getScreenDefinition(location)
+                    screenCount++
+                    if (subSd) nextList.add(subSd)
+                } catch (Throwable t) {
+                    logger.error("Error loading screen at [${location}] during cache warming", t)
+                }
+            }
+            levelList = nextList
         }
         return screenCount
     }
@@ -2068,10 +2068,14 @@ class ScreenForm {
 
                 // logger.warn("TOREMOVE form-list.entity-find: ${ef.toString()}\ndisplayedFieldSet: ${displayedFieldSet}")
 
-                // run the query
-                EntityList efList = ef.list()
-                // if cached do the date filter after query
+                // handle pagination, etc parameters like XML Actions entity-find
+                MNode sfiNode = entityFindNode.first("search-form-inputs")
+                boolean doPaginate = sfiNode != null && !"false".equals(sfiNode.attribute("paginate"))
                 boolean useCache = ef.shouldCache()
+
+                // run the query, when paginated from the DB get the count at the same time
+                EntityList efList = doPaginate && !useCache && ef.getLimit() != null ? ef.listWithCount() : ef.list()
+                // if cached do the date filter after query
                 if (useCache) for (MNode df in entityFindNode.children("date-filter")) {
                     Timestamp validDate = (Timestamp) null
                     String validDateAttr = df.attribute("valid-date")
@@ -2084,9 +2088,6 @@ class ScreenForm {
                 context.put(listName, efList)
                 context.put(listName.concat("_xafind"), ef)
 
-                // handle pagination, etc parameters like XML Actions entity-find
-                MNode sfiNode = entityFindNode.first("search-form-inputs")
-                boolean doPaginate = sfiNode != null && !"false".equals(sfiNode.attribute("paginate"))
                 if (doPaginate) {
                     long count, pageSize, pageIndex
                     if (ef.getLimit() == null) {
@@ -2101,9 +2102,7 @@ class ScreenForm {
                     } else {
                         pageIndex = ef.pageIndex
                         pageSize = ef.pageSize
-                        // this can be expensive, only get count if efList size is equal to pageSize (can skip if no paginate needed)
-                        if (efList.size() < pageSize) count = efList.size() + pageSize * pageIndex
-                        else count = ef.count()
+                        count = efList.getTotalCount()
                     }
                     long maxIndex = (new BigDecimal(count-1)).divide(new BigDecimal(pageSize), 0, RoundingMode.DOWN).longValue()
                     long pageRangeLow = (pageIndex * pageSize) + 1
@@ -2117,6 +2116,11 @@ class ScreenForm {
                     context.put(listName.concat("PageMaxIndex"), maxIndex)
                     context.put(listName.concat("PageRangeLow"), pageRangeLow)
                     context.put(listName.concat("PageRangeHigh"), pageRangeHigh)
+                    if (ef.isSeekPaginate()) {
+                        // for keyset pagination links pass these as pageCursor instead of using pageIndex
+                        context.put(listName.concat("PageNextCursor"), ef.getNextSeekCursor(efList))
+                        context.put(listName.concat("PagePrevCursor"), ef.getPrevSeekCursor(efList))
+                    }
                 }
 
                 listObject = efList
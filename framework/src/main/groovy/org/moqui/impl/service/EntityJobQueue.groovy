@@ -0,0 +1,465 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.impl.service
+
+import groovy.transform.CompileStatic
+import org.moqui.entity.EntityCondition
+import org.moqui.entity.EntityList
+import org.moqui.entity.EntityValue
+import org.moqui.impl.context.ExecutionContextFactoryImpl
+import org.moqui.impl.context.ExecutionContextImpl
+import org.moqui.impl.entity.EntityFacadeImpl
+import org.moqui.service.ServiceException
+import org.moqui.util.MNode
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+
+import javax.sql.rowset.serial.SerialBlob
+import java.lang.ref.WeakReference
+import java.sql.Blob
+import java.sql.Timestamp
+import java.util.concurrent.*
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * A database-backed ExecutorService for distributed async service calls and service jobs (use as the
+ * service-facade.@distributed-factory through the EntityJobQueueToolFactory).
+ *
+ * Tasks (must be Serializable, generally Externalizable like AsyncServiceCallable and ServiceJobCallable) are stored in
+ * ServiceJobQueueEntry records in a separate transaction. Each server polls the queue and claims a batch of entries
+ * (limited by free service job pool slots) with FOR UPDATE SKIP LOCKED where supported, pushing out the availableTime by
+ * the visibility timeout so entries claimed by a server that goes away are claimed again later. Tasks that throw are
+ * retried with exponential backoff and dead-lettered after maxAttempts.
+ *
+ * NOTE: as with any at-least-once queue a task may run more than once if a server stops while running it, so queued
+ * services should be safe to run again.
+ */
+@CompileStatic
+class EntityJobQueue extends AbstractExecutorService {
+    protected final static Logger logger = LoggerFactory.getLogger(EntityJobQueue.class)
+
+    public final static String PENDING = "Pending"
+    public final static String CLAIMED = "Claimed"
+    public final static String DONE = "Done"
+    public final static String DEAD = "Dead"
+    public final static String CANCELLED = "Cancelled"
+    protected final static String queueEntityName = "moqui.service.job.ServiceJobQueueEntry"
+
+    protected final ExecutionContextFactoryImpl ecfi
+    final String queueName
+    final int pollTime, batchSize, visibilityTimeout, maxAttempts, retryBackoff
+    int defaultPriority = 5
+    /** Set as claimedBy on claimed entries, only entries still claimed by this queue instance are updated after running */
+    protected final String serverId = UUID.randomUUID().toString()
+
+    protected volatile boolean shutdown = false
+    protected final AtomicInteger runningCount = new AtomicInteger(0)
+    /** Futures for entries queued from this server, to complete them locally if run here; weak so abandoned futures
+     * don't accumulate, values are weak references because each future references its own key */
+    protected final Map<String, WeakReference<QueueEntryFuture>> localFutures =
+            Collections.synchronizedMap(new WeakHashMap<String, WeakReference<QueueEntryFuture>>())
+
+    protected final AtomicLong enqueuedCount = new AtomicLong(0), claimedCount = new AtomicLong(0),
+            completedCount = new AtomicLong(0), retriedCount = new AtomicLong(0), deadCount = new AtomicLong(0)
+
+    EntityJobQueue(ExecutionContextFactoryImpl ecfi) { this(ecfi, "default") }
+    EntityJobQueue(ExecutionContextFactoryImpl ecfi, String queueName) {
+        this.ecfi = ecfi
+        this.queueName = queueName
+        MNode serviceFacadeNode = ecfi.confXmlRoot.first("service-facade")
+        pollTime = (serviceFacadeNode.attribute("entity-queue-poll-time") ?: "2") as int
+        batchSize = (serviceFacadeNode.attribute("entity-queue-batch-size") ?: "10") as int
+        visibilityTimeout = (serviceFacadeNode.attribute("entity-queue-visibility-timeout") ?: "1800") as int
+        maxAttempts = (serviceFacadeNode.attribute("entity-queue-max-attempts") ?: "3") as int
+        retryBackoff = (serviceFacadeNode.attribute("entity-queue-retry-backoff") ?: "30") as int
+    }
+
+    /** Start polling for queue entries to run on this server, called by EntityJobQueueToolFactory.init() */
+    void startPolling() {
+        if (pollTime <= 0) {
+            logger.warn("Not polling EntityJobQueue ${queueName}, entity-queue-poll-time is ${pollTime}; entries queued here will only run on other servers")
+            return
+        }
+        logger.info("Starting EntityJobQueue ${queueName} polling every ${pollTime}s, batch size ${batchSize}, visibility timeout ${visibilityTimeout}s, max attempts ${maxAttempts}")
+        ecfi.scheduleAtFixedRate(new QueuePoller(this), pollTime, pollTime)
+    }
+
+    // ==================== ExecutorService methods ====================
+
+    @Override void execute(Runnable command) { enqueue(command, defaultPriority) }
+
+    @Override
+    <T> Future<T> submit(Callable<T> task) { return submit(task, defaultPriority) }
+    <T> Future<T> submit(Callable<T> task, int priority) {
+        if (task == null) throw new NullPointerException("Task may not be null")
+        return (Future<T>) enqueue(task, priority)
+    }
+    @Override
+    Future<?> submit(Runnable task) {
+        if (task == null) throw new NullPointerException("Task may not be null")
+        return enqueue(task, defaultPriority)
+    }
+    @Override
+    <T> Future<T> submit(Runnable task, T result) {
+        if (task == null) throw new NullPointerException("Task may not be null")
+        QueueEntryFuture future = enqueue(task, defaultPriority)
+        future.runnableResult = result
+        return (Future<T>) future
+    }
+
+    @Override void shutdown() { shutdown = true }
+    @Override List<Runnable> shutdownNow() { shutdown = true; return new ArrayList<Runnable>() }
+    @Override boolean isShutdown() { return shutdown }
+    @Override boolean isTerminated() { return shutdown && runningCount.get() == 0 }
+    @Override
+    boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long endTime = System.currentTimeMillis() + unit.toMillis(timeout)
+        while (!isTerminated()) {
+            if (System.currentTimeMillis() > endTime) return false
+            Thread.sleep(100)
+        }
+        return true
+    }
+
+    // ==================== Queue Operations ====================
+
+    Map<String, Object> getStats() {
+        return [queueName:queueName, running:runningCount.get(), enqueued:enqueuedCount.get(), claimed:claimedCount.get(),
+                completed:completedCount.get(), retried:retriedCount.get(), dead:deadCount.get()] as Map<String, Object>
+    }
+
+    QueueEntryFuture enqueue(Object task, int priority) {
+        if (shutdown) throw new RejectedExecutionException("EntityJobQueue ${queueName} is shut down")
+        if (!(task instanceof Serializable))
+            throw new RejectedExecutionException("Task ${task.class.name} is not Serializable, cannot add to EntityJobQueue ${queueName}")
+
+        byte[] taskBytes
+        try {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream()
+            ObjectOutputStream oos = new ObjectOutputStream(baos)
+            oos.writeObject(task)
+            oos.close()
+            taskBytes = baos.toByteArray()
+        } catch (IOException e) {
+            throw new RejectedExecutionException("Error serializing task ${task.class.name} for EntityJobQueue ${queueName}", e)
+        }
+
+        // always use a separate transaction so the entry is visible to other servers right away, and so a caller waiting
+        //     on the Future in a transaction doesn't wait on itself
+        String queueEntryId = (String) ecfi.transactionFacade.runRequireNew(null, "Error adding entry to EntityJobQueue", {
+            Timestamp nowTimestamp = new Timestamp(System.currentTimeMillis())
+            EntityValue entry = ecfi.entityFacade.makeValue(queueEntityName)
+                    .set("queueName", queueName).set("priority", priority).set("queueStatus", PENDING)
+                    .set("taskClassName", task.class.name).set("taskData", new SerialBlob(taskBytes))
+                    .set("availableTime", nowTimestamp).set("createdTime", nowTimestamp)
+                    .set("attemptCount", 0L).set("maxAttempts", maxAttempts)
+                    .setSequencedIdPrimary()
+            ExecutionContextImpl eci = ecfi.getEci()
+            boolean alreadyDisabled = eci.artifactExecutionFacade.disableAuthz()
+            try { entry.create() } finally { if (!alreadyDisabled) eci.artifactExecutionFacade.enableAuthz() }
+            return entry.getNoCheckSimple("queueEntryId")
+        })
+        enqueuedCount.incrementAndGet()
+
+        QueueEntryFuture future = new QueueEntryFuture(this, queueEntryId)
+        localFutures.put(future.queueEntryId, new WeakReference<QueueEntryFuture>(future))
+        return future
+    }
+
+    /** Claim and run available entries on this server, called periodically by the QueuePoller */
+    int claimAndRun() {
+        if (shutdown) return 0
+        ThreadPoolExecutor jobWorkerPool = ecfi.serviceFacade.jobWorkerPool
+        int freeSlots = jobWorkerPool.getMaximumPoolSize() - (jobWorkerPool.getActiveCount() + jobWorkerPool.getQueue().size())
+        int toClaim = Math.min(batchSize, freeSlots)
+        if (toClaim <= 0) return 0
+
+        String claimedHost = ecfi.getLocalhostAddress()?.getHostName() ?: "localhost"
+        EntityFacadeImpl efi = ecfi.entityFacade
+        ExecutionContextImpl eci = ecfi.getEci()
+        boolean alreadyDisabled = eci.artifactExecutionFacade.disableAuthz()
+        ArrayList<EntityValue> claimedList = new ArrayList<>()
+        boolean beganTransaction = ecfi.transactionFacade.begin(null)
+        try {
+            long nowMillis = System.currentTimeMillis()
+            Timestamp nowTimestamp = new Timestamp(nowMillis)
+            // Claimed entries with an expired availableTime were claimed by a server that didn't finish them, claim again
+            EntityList entryList = efi.find(queueEntityName).condition("queueName", queueName)
+                    .condition("queueStatus", EntityCondition.ComparisonOperator.IN, [PENDING, CLAIMED])
+                    .condition("availableTime", EntityCondition.ComparisonOperator.LESS_THAN_EQUAL_TO, nowTimestamp)
+                    .orderBy("priority").orderBy("availableTime").limit(toClaim)
+                    .forUpdate(true).skipLocked(true).useCache(false).disableAuthz().list()
+            Timestamp visibleTimestamp = new Timestamp(nowMillis + visibilityTimeout * 1000L)
+            int entryListSize = entryList.size()
+            for (int i = 0; i < entryListSize; i++) {
+                EntityValue entry = entryList.get(i)
+                long attemptCount = ((entry.getNoCheckSimple("attemptCount") ?: 0L) as long) + 1
+                entry.set("queueStatus", CLAIMED).set("claimedTime", nowTimestamp).set("claimedHost", claimedHost)
+                        .set("claimedBy", serverId).set("availableTime", visibleTimestamp).set("attemptCount", attemptCount).update()
+                claimedList.add(entry)
+            }
+        } catch (Throwable t) {
+            ecfi.transactionFacade.rollback(beganTransaction, "Error claiming EntityJobQueue entries", t)
+            logger.error("Error claiming EntityJobQueue ${queueName} entries", t)
+            return 0
+        } finally {
+            if (ecfi.transactionFacade.isTransactionInPlace()) ecfi.transactionFacade.commit(beganTransaction)
+            if (!alreadyDisabled) eci.artifactExecutionFacade.enableAuthz()
+        }
+
+        int claimedListSize = claimedList.size()
+        if (claimedListSize == 0) return 0
+        claimedCount.addAndGet(claimedListSize)
+        for (int i = 0; i < claimedListSize; i++) {
+            EntityValue entry = claimedList.get(i)
+            runningCount.incrementAndGet()
+            try {
+                jobWorkerPool.execute(new QueueEntryRunner(this, entry))
+            } catch (RejectedExecutionException e) {
+                runningCount.decrementAndGet()
+                // leave it claimed, will be available again after the visibility timeout; better to release it now
+                releaseEntry((String) entry.getNoCheckSimple("queueEntryId"))
+            }
+        }
+        if (logger.isTraceEnabled()) logger.trace("EntityJobQueue ${queueName} claimed ${claimedListSize} entries")
+        return claimedListSize
+    }
+
+    protected void runEntry(EntityValue entry) {
+        String queueEntryId = (String) entry.getNoCheckSimple("queueEntryId")
+        Object result = null
+        Throwable error = null
+        try {
+            Object task = deserializeTask((Blob) entry.getNoCheckSimple("taskData"))
+            if (task instanceof Callable) {
+                result = ((Callable) task).call()
+            } else if (task instanceof Runnable) {
+                ((Runnable) task).run()
+            } else {
+                throw new IllegalArgumentException("Task ${task?.class?.name} in EntityJobQueue entry ${queueEntryId} is not a Callable or Runnable")
+            }
+        } catch (Throwable t) {
+            error = t
+        } finally {
+            // clean up anything the task left behind in the thread before updating the entry
+            ExecutionContextImpl activeEc = ecfi.activeContext.get()
+            if (activeEc != null) activeEc.destroy()
+        }
+
+        long attemptCount = (entry.getNoCheckSimple("attemptCount") ?: 1L) as long
+        long entryMaxAttempts = (entry.getNoCheckSimple("maxAttempts") ?: maxAttempts) as long
+        String newStatus
+        if (error == null) {
+            newStatus = DONE
+            completedCount.incrementAndGet()
+        } else if (attemptCount >= entryMaxAttempts) {
+            newStatus = DEAD
+            deadCount.incrementAndGet()
+            logger.error("EntityJobQueue ${queueName} entry ${queueEntryId} (${entry.getNoCheckSimple("taskClassName")}) failed on attempt ${attemptCount} of ${entryMaxAttempts}, dead-lettered", error)
+        } else {
+            newStatus = PENDING
+            retriedCount.incrementAndGet()
+            logger.warn("EntityJobQueue ${queueName} entry ${queueEntryId} (${entry.getNoCheckSimple("taskClassName")}) failed on attempt ${attemptCount} of ${entryMaxAttempts}, will retry: ${error.toString()}")
+        }
+
+        boolean updated = false
+        ExecutionContextImpl eci = ecfi.getEci()
+        try {
+            eci.artifactExecutionFacade.disableAuthz()
+            long nowMillis = System.currentTimeMillis()
+            Map<String, Object> updateMap = [queueEntryId:queueEntryId, queueStatus:newStatus] as Map<String, Object>
+            if (error != null) {
+                String errorString = error.toString()
+                if (errorString.length() > 4000) errorString = errorString.substring(0, 4000)
+                updateMap.put("lastError", errorString)
+            }
+            if (PENDING.equals(newStatus)) {
+                // exponential backoff: retryBackoff * 2^(attempt - 1)
+                long backoffMillis = retryBackoff * 1000L * (1L << (int) Math.min(attemptCount - 1L, 16L))
+                updateMap.put("availableTime", new Timestamp(nowMillis + backoffMillis))
+            } else {
+                updateMap.put("completedTime", new Timestamp(nowMillis))
+            }
+            updated = (Boolean) ecfi.transactionFacade.runUseOrBegin(null, "Error updating EntityJobQueue entry", {
+                EntityValue current = ecfi.entityFacade.find(queueEntityName).condition("queueEntryId", queueEntryId)
+                        .forUpdate(true).useCache(false).one()
+                // if this run went past the visibility timeout the entry may be claimed again, leave it to that claim
+                if (current == null || !CLAIMED.equals(current.getNoCheckSimple("queueStatus")) ||
+                        !serverId.equals(current.getNoCheckSimple("claimedBy")) ||
+                        ((current.getNoCheckSimple("attemptCount") ?: 0L) as long) != attemptCount) return false
+                current.setAll(updateMap).update()
+                return true
+            })
+            if (!updated) logger.warn("EntityJobQueue ${queueName} entry ${queueEntryId} no longer claimed by this server after running, not setting status to ${newStatus}")
+        } catch (Throwable t) {
+            logger.error("Error updating EntityJobQueue ${queueName} entry ${queueEntryId} to ${newStatus}", t)
+        } finally {
+            eci.destroy()
+        }
+
+        if (updated && !PENDING.equals(newStatus)) {
+            WeakReference<QueueEntryFuture> futureRef = localFutures.remove(queueEntryId)
+            QueueEntryFuture future = futureRef?.get()
+            if (future != null) {
+                if (error == null) future.localComplete(result) else future.localFail(error)
+            }
+        }
+    }
+
+    protected void releaseEntry(String queueEntryId) {
+        ExecutionContextImpl eci = ecfi.getEci()
+        try {
+            eci.artifactExecutionFacade.disableAuthz()
+            ecfi.transactionFacade.runUseOrBegin(null, "Error releasing EntityJobQueue entry", {
+                EntityValue entry = ecfi.entityFacade.find(queueEntityName).condition("queueEntryId", queueEntryId)
+                        .useCache(false).one()
+                long attemptCount = (entry.getNoCheckSimple("attemptCount") ?: 1L) as long
+                entry.set("queueStatus", PENDING).set("availableTime", new Timestamp(System.currentTimeMillis()))
+                        .set("attemptCount", attemptCount - 1).update()
+            })
+        } catch (Throwable t) {
+            logger.warn("Error releasing EntityJobQueue ${queueName} entry ${queueEntryId}, will be available after visibility timeout: ${t.toString()}")
+        } finally {
+            eci.destroy()
+        }
+    }
+
+    protected Object deserializeTask(Blob taskData) {
+        if (taskData == null) throw new IllegalArgumentException("No task data in EntityJobQueue entry")
+        InputStream blobIs = taskData.getBinaryStream()
+        ClassLoader cl = ecfi.getClassLoader()
+        ObjectInputStream ois = new ObjectInputStream(blobIs) {
+            @Override
+            protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+                try { return Class.forName(desc.getName(), false, cl) }
+                catch (ClassNotFoundException e) { return super.resolveClass(desc) }
+            }
+        }
+        try { return ois.readObject() } finally { ois.close() }
+    }
+
+    /** Get the queueStatus and lastError of an entry, used by QueueEntryFuture when the entry is run on another server */
+    protected EntityValue findEntryStatus(String queueEntryId) {
+        ExecutionContextImpl eci = ecfi.getEci()
+        boolean alreadyDisabled = eci.artifactExecutionFacade.disableAuthz()
+        try {
+            return ecfi.entityFacade.find(queueEntityName).condition("queueEntryId", queueEntryId)
+                    .selectField("queueStatus").selectField("lastError").useCache(false).one()
+        } finally {
+            if (!alreadyDisabled) eci.artifactExecutionFacade.enableAuthz()
+        }
+    }
+    protected boolean cancelEntry(String queueEntryId) {
+        return (Boolean) ecfi.transactionFacade.runRequireNew(null, "Error cancelling EntityJobQueue entry", {
+            EntityValue entry = ecfi.entityFacade.find(queueEntityName).condition("queueEntryId", queueEntryId)
+                    .forUpdate(true).useCache(false).disableAuthz().one()
+            if (entry == null || !PENDING.equals(entry.getNoCheckSimple("queueStatus"))) return false
+            ExecutionContextImpl eci = ecfi.getEci()
+            boolean alreadyDisabled = eci.artifactExecutionFacade.disableAuthz()
+            try {
+                entry.set("queueStatus", CANCELLED).set("completedTime", new Timestamp(System.currentTimeMillis())).update()
+            } finally {
+                if (!alreadyDisabled) eci.artifactExecutionFacade.enableAuthz()
+            }
+            return true
+        })
+    }
+
+    static class QueuePoller implements Runnable {
+        protected final EntityJobQueue queue
+        QueuePoller(EntityJobQueue queue) { this.queue = queue }
+        @Override
+        void run() {
+            ExecutionContextImpl eci = queue.ecfi.getEci()
+            try {
+                // keep claiming while full batches are available, up to free job slots
+                while (queue.claimAndRun() >= queue.batchSize) { /* claim more */ }
+            } catch (Throwable t) {
+                logger.error("Error in EntityJobQueue ${queue.queueName} poll", t)
+            } finally {
+                eci.destroy()
+            }
+        }
+    }
+
+    static class QueueEntryRunner implements Runnable {
+        protected final EntityJobQueue queue
+        protected final EntityValue entry
+        QueueEntryRunner(EntityJobQueue queue, EntityValue entry) { this.queue = queue; this.entry = entry }
+        @Override
+        void run() {
+            try { queue.runEntry(entry) }
+            finally { queue.runningCount.decrementAndGet() }
+        }
+    }
+
+    /** Future for a queued entry: completed directly when run on this server, otherwise get() polls the entry status.
+     * When run on another server the result is not available and get() returns null (or the Runnable result). */
+    static class QueueEntryFuture implements Future<Object> {
+        protected final EntityJobQueue queue
+        final String queueEntryId
+        protected final CompletableFuture<Object> localFuture = new CompletableFuture<>()
+        protected Object runnableResult = null
+
+        QueueEntryFuture(EntityJobQueue queue, String queueEntryId) { this.queue = queue; this.queueEntryId = queueEntryId }
+
+        protected void localComplete(Object result) { localFuture.complete(runnableResult != null ? runnableResult : result) }
+        protected void localFail(Throwable t) { localFuture.completeExceptionally(t) }
+
+        @Override
+        boolean cancel(boolean mayInterruptIfRunning) {
+            if (localFuture.isDone()) return false
+            if (!queue.cancelEntry(queueEntryId)) return false
+            queue.localFutures.remove(queueEntryId)
+            return localFuture.cancel(mayInterruptIfRunning)
+        }
+        @Override boolean isCancelled() { return localFuture.isCancelled() || CANCELLED.equals(checkStatus()?.getNoCheckSimple("queueStatus")) }
+        @Override
+        boolean isDone() {
+            if (localFuture.isDone()) return true
+            String status = (String) checkStatus()?.getNoCheckSimple("queueStatus")
+            return DONE.equals(status) || DEAD.equals(status) || CANCELLED.equals(status)
+        }
+        @Override
+        Object get() throws InterruptedException, ExecutionException {
+            try { return get(Long.MAX_VALUE, TimeUnit.MILLISECONDS) }
+            catch (TimeoutException e) { throw new ExecutionException(e) }
+        }
+        @Override
+        Object get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            long timeoutMillis = unit.toMillis(timeout)
+            long endTime = timeoutMillis == Long.MAX_VALUE ? Long.MAX_VALUE : System.currentTimeMillis() + timeoutMillis
+            while (true) {
+                // wait on the local future between checks of the entry status in case it runs on another server
+                long waitMillis = Math.min(500L, endTime - System.currentTimeMillis())
+                if (waitMillis <= 0) throw new TimeoutException("Timeout waiting for EntityJobQueue entry ${queueEntryId}")
+                try {
+                    return localFuture.get(waitMillis, TimeUnit.MILLISECONDS)
+                } catch (TimeoutException e) {
+                    EntityValue entry = checkStatus()
+                    String status = (String) entry?.getNoCheckSimple("queueStatus")
+                    // if run on this server the local future will be completed right after the status update, check again
+                    if (localFuture.isDone()) return localFuture.get()
+                    if (entry == null) throw new ExecutionException(new IllegalStateException("EntityJobQueue entry ${queueEntryId} not found"))
+                    if (DONE.equals(status)) return runnableResult
+                    if (DEAD.equals(status)) throw new ExecutionException(new ServiceException("EntityJobQueue entry ${queueEntryId} failed: ${entry.getNoCheckSimple("lastError")}"))
+                    if (CANCELLED.equals(status)) throw new CancellationException("EntityJobQueue entry ${queueEntryId} cancelled")
+                }
+            }
+        }
+
+        protected EntityValue checkStatus() { return queue.findEntryStatus(queueEntryId) }
+    }
+}
@@ -161,9 +161,9 @@ public class ParameterInfo {
                 case DOUBLE:
                 case BIG_DECIMAL:
                 case BIG_INTEGER:
-                    BigDecimal bdVal = eci.l10nFacade.parseNumber(valueStr, format);
+                    BigDecimal bdVal = eci.getL10nFacade().parseNumber(valueStr, format);
                     if (bdVal == null) {
-                        eci.messageFacade.addValidationError(null, namePrefix + name, serviceName,
+                        eci.getMessageFacade().addValidationError(null, namePrefix + name, serviceName,
                                 MessageFormat.format(eci.getL10n().localize("Value entered ({0}) could not be converted to a {1}{2,choice,0#|1# using format [}{3}{2,choice,0#|1#]}"),valueStr,type,(format != null ? 1 : 0),(format == null ? "" : format)), null);
                     } else {
                         switch (parmType) {
@@ -177,18 +177,18 @@ public class ParameterInfo {
                     }
                     break;
                 case TIME:
-                    converted = eci.l10nFacade.parseTime(valueStr, format);
-                    if (converted == null) eci.messageFacade.addValidationError(null, namePrefix + name,
+                    converted = eci.getL10nFacade().parseTime(valueStr, format);
+                    if (converted == null) eci.getMessageFacade().addValidationError(null, namePrefix + name,
                             serviceName, MessageFormat.format(eci.getL10n().localize("Value entered ({0}) could not be converted to a {1}{2,choice,0#|1# using format [}{3}{2,choice,0#|1#]}"),valueStr,type,(format != null ? 1 : 0),(format == null ? "" : format)), null);
                     break;
                 case DATE:
-                    converted = eci.l10nFacade.parseDate(valueStr, format);
-                    if (converted == null) eci.messageFacade.addValidationError(null, namePrefix + name,
+                    converted = eci.getL10nFacade().parseDate(valueStr, format);
+                    if (converted == null) eci.getMessageFacade().addValidationError(null, namePrefix + name,
                             serviceName, MessageFormat.format(eci.getL10n().localize("Value entered ({0}) could not be converted to a {1}{2,choice,0#|1# using format [}{3}{2,choice,0#|1#]}"),valueStr,type,(format != null ? 1 : 0),(format == null ? "" : format)), null);
                     break;
                 case TIMESTAMP:
-                    converted = eci.l10nFacade.parseTimestamp(valueStr, format);
-                    if (converted == null) eci.messageFacade.addValidationError(null, namePrefix + name,
+                    converted = eci.getL10nFacade().parseTimestamp(valueStr, format);
+                    if (converted == null) eci.getMessageFacade().addValidationError(null, namePrefix + name,
                             serviceName, MessageFormat.format(eci.getL10n().localize("Value entered ({0}) could not be converted to a {1}{2,choice,0#|1# using format [}{3}{2,choice,0#|1#]}"),valueStr,type,(format != null ? 1 : 0),(format == null ? "" : format)), null);
                     break;
                 case LIST:
@@ -222,7 +222,7 @@ public class ParameterInfo {
                         try {
                             converted = ContextJavaUtil.jacksonMapper.readValue(valueStr, Map.class);
                         } catch (Exception e) {
-                            eci.messageFacade.addValidationError(null, namePrefix + name, serviceName,
+                            eci.getMessageFacade().addValidationError(null, namePrefix + name, serviceName,
                                     "Could not convert JSON to Map", e);
                         }
                     }
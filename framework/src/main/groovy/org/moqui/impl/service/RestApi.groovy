@@ -21,11 +21,13 @@ import org.moqui.context.ExecutionContext
 import org.moqui.entity.EntityValue
 import org.moqui.resource.ResourceReference
 import org.moqui.entity.EntityFind
+import org.moqui.entity.EntityList
 import org.moqui.impl.context.ArtifactExecutionInfoImpl
 import org.moqui.impl.context.ExecutionContextFactoryImpl
 import org.moqui.impl.context.ExecutionContextImpl
 import org.moqui.impl.context.UserFacadeImpl
 import org.moqui.impl.entity.EntityDefinition
+import org.moqui.impl.entity.EntityFindBase
 import org.moqui.impl.entity.FieldInfo
 import org.moqui.impl.util.RestSchemaUtil
 import org.moqui.jcache.MCache
@@ -122,7 +124,9 @@ class RestApi {
                                        'X-Page-Size':[type:'integer', description:"Number of results per page"],
                                        'X-Page-Max-Index':[type:'integer', description:"Highest page index given page size and count of results"],
                                        'X-Page-Range-Low':[type:'integer', description:"Index of first result in page"],
-                                       'X-Page-Range-High':[type:'integer', description:"Index of last result in page"]] as Map<String, Object>
+                                       'X-Page-Range-High':[type:'integer', description:"Index of last result in page"],
+                                       'X-Page-Next-Cursor':[type:'string', description:"With pageCursor, pass as pageCursor to get the next page"],
+                                       'X-Page-Prev-Cursor':[type:'string', description:"With pageCursor, pass as pageCursor to get the previous page"]] as Map<String, Object>
         rootMap.put('traits', [[paged:[queryParameters:RestSchemaUtil.ramlPaginationParameters, headers:headers]],
             [service:[responses:[401:[description:"Authentication required"], 403:[description:"Access Forbidden (no authz)"],
                                  429:[description:"Too Many Requests (tarpit)"], 500:[description:"General Error"]]]],
@@ -377,7 +381,9 @@ class RestApi {
                     // we don't want to go overboard with these requests, never do an unlimited find, if no limit use 100
                     if (!ef.getLimit() && !"true".equals(ec.context.get("pageNoLimit"))) ef.limit(100)
 
-                    int count = ef.count() as int
+                    // for a plain list get the count at the same time as the list
+                    EntityList el = masterName ? (EntityList) null : ef.listWithCount()
+                    int count = (el != null ? el.getTotalCount() : ef.count()) as int
                     int pageIndex = ef.getPageIndex()
                     int pageSize = ef.getPageSize()
                     int pageMaxIndex = ((count - 1) as BigDecimal).divide(pageSize as BigDecimal, 0, RoundingMode.DOWN).intValue()
@@ -390,7 +396,14 @@ class RestApi {
                     if (masterName) {
                         return new RestResult(ef.listMaster(masterName), headers)
                     } else {
-                        return new RestResult(ef.list().getValueMapList(), headers)
+                        EntityFindBase efb = (EntityFindBase) ef
+                        if (efb.isSeekPaginate()) {
+                            String nextCursor = efb.getNextSeekCursor(el)
+                            String prevCursor = efb.getPrevSeekCursor(el)
+                            if (nextCursor != null) headers.put('X-Page-Next-Cursor', nextCursor)
+                            if (prevCursor != null) headers.put('X-Page-Prev-Cursor', prevCursor)
+                        }
+                        return new RestResult(el.getValueMapList(), headers)
                     }
                 } else if (operation == 'count') {
                     EntityFind ef = ec.entity.find(entityName).searchFormMap(ec.context, null, null, null, false)
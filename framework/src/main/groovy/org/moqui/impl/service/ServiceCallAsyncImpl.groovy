@@ -61,7 +61,7 @@ class ServiceCallAsyncImpl extends ServiceCallImpl implements ServiceCallAsync {
         if (distribute && sfi.distributedExecutorService != null) {
             sfi.distributedExecutorService.execute(runnable)
         } else {
-            ecfi.workerPool.execute(runnable)
+            ecfi.getServiceWorkerExecutor(serviceName).execute(runnable)
         }
     }
 
@@ -75,7 +75,7 @@ class ServiceCallAsyncImpl extends ServiceCallImpl implements ServiceCallAsync {
         if (distribute && sfi.distributedExecutorService != null) {
             return sfi.distributedExecutorService.submit(callable)
         } else {
-            return ecfi.workerPool.submit(callable)
+            return ecfi.getServiceWorkerExecutor(serviceName).submit(callable)
         }
     }
 
@@ -96,6 +96,11 @@ class ServiceCallJobImpl extends ServiceCallImpl implements ServiceCallJob {
         ServiceJobCallable callable = new ServiceJobCallable(eci, serviceJob, jobRunId, lastRunTime, clearLock, parameters)
         if (sfi.distributedExecutorService == null || localOnly || "Y".equals(serviceJob.localOnly)) {
             runFuture = sfi.jobWorkerPool.submit(callable)
+        } else if (sfi.distributedExecutorService instanceof EntityJobQueue) {
+            // pass the ServiceJob priority through so queued jobs are claimed in priority order
+            EntityJobQueue jobQueue = (EntityJobQueue) sfi.distributedExecutorService
+            Long priority = (Long) serviceJob.priority
+            runFuture = jobQueue.submit(callable, priority != null ? priority.intValue() : jobQueue.defaultPriority)
         } else {
             runFuture = sfi.distributedExecutorService.submit(callable)
         }
@@ -60,7 +60,7 @@ public class ServiceCallSyncImpl extends ServiceCallImpl implements ServiceCallS
         ExecutionContextFactoryImpl ecfi = sfi.ecfi;
         ExecutionContextImpl eci = ecfi.getEci();
 
-        boolean enableAuthz = disableAuthz && !eci.artifactExecutionFacade.disableAuthz();
+        boolean enableAuthz = disableAuthz && !eci.getArtifactExecutionFacade().disableAuthz();
         try {
             if (multi) {
                 ArrayList<String> inParameterNames = null;
@@ -105,7 +105,7 @@ public class ServiceCallSyncImpl extends ServiceCallImpl implements ServiceCallS
                         Map<String, Object> singleResult = callSingle(currentParms, sd, eci);
                         if (singleResult != null) result.putAll(singleResult);
                         // ... and break if there are any errors
-                        if (eci.messageFacade.hasError()) break;
+                        if (eci.getMessageFacade().hasError()) break;
                     }
 
                     return result;
@@ -114,7 +114,7 @@ public class ServiceCallSyncImpl extends ServiceCallImpl implements ServiceCallS
                     throw t;
                 } finally {
                     if (eci.transactionFacade.isTransactionInPlace()) {
-                        if (eci.messageFacade.hasError()) {
+                        if (eci.getMessageFacade().hasError()) {
                             eci.transactionFacade.rollback(beganTransaction, "Error message found running service " + serviceName + " in multi mode", null);
                         } else {
                             eci.transactionFacade.commit(beganTransaction);
@@ -125,26 +125,26 @@ public class ServiceCallSyncImpl extends ServiceCallImpl implements ServiceCallS
                 return callSingle(parameters, sd, eci);
             }
         } finally {
-            if (enableAuthz) eci.artifactExecutionFacade.enableAuthz();
+            if (enableAuthz) eci.getArtifactExecutionFacade().enableAuthz();
         }
     }
 
     private Map<String, Object> callSingle(Map<String, Object> currentParameters, ServiceDefinition sd, final ExecutionContextImpl eci) {
-        if (ignorePreviousError) eci.messageFacade.pushErrors();
+        if (ignorePreviousError) eci.getMessageFacade().pushErrors();
         // NOTE: checking this here because service won't generally run after input validation, etc anyway
-        if (eci.messageFacade.hasError()) {
-            logger.warn("Found error(s) before service " + serviceName + ", so not running service. Errors: " + eci.messageFacade.getErrorsString());
+        if (eci.getMessageFacade().hasError()) {
+            logger.warn("Found error(s) before service " + serviceName + ", so not running service. Errors: " + eci.getMessageFacade().getErrorsString());
             return null;
         }
 
         TransactionFacadeImpl tf = eci.transactionFacade;
         int transactionStatus = tf.getStatus();
         if (!requireNewTransaction && transactionStatus == Status.STATUS_MARKED_ROLLBACK) {
-            logger.warn("Transaction marked for rollback, not running service " + serviceName + ". Errors: [" + eci.messageFacade.getErrorsString() + "] Artifact stack: " + eci.artifactExecutionFacade.getStackNameString());
+            logger.warn("Transaction marked for rollback, not running service " + serviceName + ". Errors: [" + eci.getMessageFacade().getErrorsString() + "] Artifact stack: " + eci.getArtifactExecutionFacade().getStackNameString());
             if (ignorePreviousError) {
-                eci.messageFacade.popErrors();
-            } else if (!eci.messageFacade.hasError()) {
-                eci.messageFacade.addError("Transaction marked for rollback, not running service " + serviceName);
+                eci.getMessageFacade().popErrors();
+            } else if (!eci.getMessageFacade().hasError()) {
+                eci.getMessageFacade().addError("Transaction marked for rollback, not running service " + serviceName);
             }
             return null;
         }
@@ -172,26 +172,26 @@ public class ServiceCallSyncImpl extends ServiceCallImpl implements ServiceCallS
         // in-parameter validation
         if (hasSecaRules) ServiceFacadeImpl.runSecaRules(serviceNameNoHash, currentParameters, null, "pre-validate", secaRules, eci);
         if (sd != null) {
-            if (softValidate) eci.messageFacade.pushErrors();
+            if (softValidate) eci.getMessageFacade().pushErrors();
             currentParameters = sd.convertValidateCleanParameters(currentParameters, eci);
             if (softValidate) {
-                if (eci.messageFacade.hasError()) {
-                    eci.messageFacade.moveErrorsToDangerMessages();
-                    eci.messageFacade.popErrors();
+                if (eci.getMessageFacade().hasError()) {
+                    eci.getMessageFacade().moveErrorsToDangerMessages();
+                    eci.getMessageFacade().popErrors();
                     return null;
                 }
-                eci.messageFacade.popErrors();
+                eci.getMessageFacade().popErrors();
             }
         }
         // if error(s) in parameters, return now with no results
-        if (eci.messageFacade.hasError()) {
-            StringBuilder errMsg = new StringBuilder("Found error(s) when validating input parameters for service " + serviceName + ", so not running service. Errors: " + eci.messageFacade.getErrorsString() + "; the artifact stack is:\n");
-            for (ArtifactExecutionInfo stackItem : eci.artifactExecutionFacade.getStack()) {
+        if (eci.getMessageFacade().hasError()) {
+            StringBuilder errMsg = new StringBuilder("Found error(s) when validating input parameters for service " + serviceName + ", so not running service. Errors: " + eci.getMessageFacade().getErrorsString() + "; the artifact stack is:\n");
+            for (ArtifactExecutionInfo stackItem : eci.getArtifactExecutionFacade().getStack()) {
                 errMsg.append(stackItem.toString()).append("\n");
             }
 
             logger.warn(errMsg.toString());
-            if (ignorePreviousError) eci.messageFacade.popErrors();
+            if (ignorePreviousError) eci.getMessageFacade().popErrors();
             return null;
         }
 
@@ -204,8 +204,8 @@ public class ServiceCallSyncImpl extends ServiceCallImpl implements ServiceCallS
             if (!userLoggedIn) return null;
         }
 
-        if (sd != null && "true".equals(sd.authenticate) && eci.userFacade.getUsername() == null && !eci.userFacade.getLoggedInAnonymous()) {
-            if (ignorePreviousError) eci.messageFacade.popErrors();
+        if (sd != null && "true".equals(sd.authenticate) && eci.getUserFacade().getUsername() == null && !eci.getUserFacade().getLoggedInAnonymous()) {
+            if (ignorePreviousError) eci.getMessageFacade().popErrors();
             throw new AuthenticationRequiredException("User must be logged in to call service " + serviceName);
         }
 
@@ -214,24 +214,24 @@ public class ServiceCallSyncImpl extends ServiceCallImpl implements ServiceCallS
                 try {
                     return runImplicitEntityAuto(currentParameters, secaRules, eci);
                 } finally {
-                    if (ignorePreviousError) eci.messageFacade.popErrors();
+                    if (ignorePreviousError) eci.getMessageFacade().popErrors();
                 }
             } else {
                 logger.info("No service with name " + serviceName + ", isEntityAutoPattern=" + isEntityAutoPattern() +
                         ", path=" + path + ", verb=" + verb + ", noun=" + noun + ", noun is entity? " + eci.getEntityFacade().isEntityDefined(noun));
-                if (ignorePreviousError) eci.messageFacade.popErrors();
+                if (ignorePreviousError) eci.getMessageFacade().popErrors();
                 throw new ServiceException("Could not find service with name " + serviceName);
             }
         }
 
         if ("interface".equals(serviceType)) {
-            if (ignorePreviousError) eci.messageFacade.popErrors();
+            if (ignorePreviousError) eci.getMessageFacade().popErrors();
             throw new ServiceException("Service " + serviceName + " is an interface and cannot be run");
         }
 
         ServiceRunner serviceRunner = sd.serviceRunner;
         if (serviceRunner == null) {
-            if (ignorePreviousError) eci.messageFacade.popErrors();
+            if (ignorePreviousError) eci.getMessageFacade().popErrors();
             throw new ServiceException("Could not find service runner for type " + serviceType + " for service " + serviceName);
         }
 
@@ -246,25 +246,25 @@ public class ServiceCallSyncImpl extends ServiceCallImpl implements ServiceCallS
         if (authzAction == null) authzAction = ArtifactExecutionInfo.AUTHZA_ALL;
         ArtifactExecutionInfoImpl aei = new ArtifactExecutionInfoImpl(serviceName, ArtifactExecutionInfo.AT_SERVICE, authzAction, serviceType);
         if (rememberParameters && !sd.noRememberParameters) aei.setParameters(currentParameters);
-        eci.artifactExecutionFacade.pushInternal(aei, (sd != null && "true".equals(sd.authenticate)), true);
+        eci.getArtifactExecutionFacade().pushInternal(aei, (sd != null && "true".equals(sd.authenticate)), true);
 
         // if error in auth or for other reasons, return now with no results
-        if (eci.messageFacade.hasError()) {
-            eci.artifactExecutionFacade.pop(aei);
-            if (ignorePreviousError) eci.messageFacade.popErrors();
+        if (eci.getMessageFacade().hasError()) {
+            eci.getArtifactExecutionFacade().pop(aei);
+            if (ignorePreviousError) eci.getMessageFacade().popErrors();
             logger.warn("Found error(s) when checking authc for service " + serviceName + ", so not running service. Errors: " +
-                    eci.messageFacade.getErrorsString() + "; the artifact stack is:\n " + eci.getArtifactExecution().getStack());
+                    eci.getMessageFacade().getErrorsString() + "; the artifact stack is:\n " + eci.getArtifactExecution().getStack());
             return null;
         }
 
         // must be done after the artifact execution push so that AEII object to set anonymous authorized is in place
         boolean loggedInAnonymous = false;
         if (sd != null && "anonymous-all".equals(sd.authenticate)) {
-            eci.artifactExecutionFacade.setAnonymousAuthorizedAll();
-            loggedInAnonymous = eci.userFacade.loginAnonymousIfNoUser();
+            eci.getArtifactExecutionFacade().setAnonymousAuthorizedAll();
+            loggedInAnonymous = eci.getUserFacade().loginAnonymousIfNoUser();
         } else if (sd != null && "anonymous-view".equals(sd.authenticate)) {
-            eci.artifactExecutionFacade.setAnonymousAuthorizedView();
-            loggedInAnonymous = eci.userFacade.loginAnonymousIfNoUser();
+            eci.getArtifactExecutionFacade().setAnonymousAuthorizedView();
+            loggedInAnonymous = eci.getUserFacade().loginAnonymousIfNoUser();
         }
 
         // handle sd.serviceNode."@semaphore"; do this BEFORE local transaction created, etc so waiting for this doesn't cause TX timeout
@@ -272,7 +272,7 @@ public class ServiceCallSyncImpl extends ServiceCallImpl implements ServiceCallS
             try {
                 checkAddSemaphore(eci, currentParameters, true);
             } catch (Throwable t) {
-                eci.artifactExecutionFacade.pop(aei);
+                eci.getArtifactExecutionFacade().pop(aei);
                 throw t;
             }
         }
@@ -308,12 +308,12 @@ public class ServiceCallSyncImpl extends ServiceCallImpl implements ServiceCallS
                 if (traceEnabled) logger.trace("Calling service " + serviceName + " pre-call input: " + currentParameters);
 
                 // if error(s) in pre-service or anything else before actual run then return now with no results
-                if (eci.messageFacade.hasError()) {
-                    StringBuilder errMsg = new StringBuilder("Found error(s) before running service " + serviceName + " so not running. Errors: " + eci.messageFacade.getErrorsString() + "; the artifact stack is:\n");
-                    for (ArtifactExecutionInfo stackItem : eci.artifactExecutionFacade.getStack())
+                if (eci.getMessageFacade().hasError()) {
+                    StringBuilder errMsg = new StringBuilder("Found error(s) before running service " + serviceName + " so not running. Errors: " + eci.getMessageFacade().getErrorsString() + "; the artifact stack is:\n");
+                    for (ArtifactExecutionInfo stackItem : eci.getArtifactExecutionFacade().getStack())
                         errMsg.append(stackItem.toString()).append("\n");
                     logger.warn(errMsg.toString());
-                    if (ignorePreviousError) eci.messageFacade.popErrors();
+                    if (ignorePreviousError) eci.getMessageFacade().popErrors();
                     return null;
                 }
 
@@ -323,15 +323,15 @@ public class ServiceCallSyncImpl extends ServiceCallImpl implements ServiceCallS
                 } finally {
                     if (hasSecaRules) sfi.registerTxSecaRules(serviceNameNoHash, currentParameters, result, secaRules);
                 }
-                // logger.warn("Called " + serviceName + " has error message " + eci.messageFacade.hasError() + " began TX " + beganTransaction + " TX status " + tf.getStatusString());
+                // logger.warn("Called " + serviceName + " has error message " + eci.getMessageFacade().hasError() + " began TX " + beganTransaction + " TX status " + tf.getStatusString());
 
                 // post-service SECA rules
                 if (hasSecaRules) ServiceFacadeImpl.runSecaRules(serviceNameNoHash, currentParameters, result, "post-service", secaRules, eci);
                 // registered callbacks, no Throwable
                 sfi.callRegisteredCallbacks(serviceName, currentParameters, result);
                 // if we got any errors added to the message list in the service, rollback for that too
-                if (eci.messageFacade.hasError()) {
-                    tf.rollback(beganTransaction, "Error running service " + serviceName + " (message): " + eci.messageFacade.getErrorsString(), null);
+                if (eci.getMessageFacade().hasError()) {
+                    tf.rollback(beganTransaction, "Error running service " + serviceName + " (message): " + eci.getMessageFacade().getErrorsString(), null);
                     transactionStatus = tf.getStatus();
                 }
 
@@ -346,12 +346,12 @@ public class ServiceCallSyncImpl extends ServiceCallImpl implements ServiceCallS
                 // rollback the transaction
                 tf.rollback(beganTransaction, "Error running service " + serviceName + " (Throwable)", t);
                 transactionStatus = tf.getStatus();
-                logger.warn("Error running service " + serviceName + " (Throwable) Artifact stack: " + eci.artifactExecutionFacade.getStackNameString(), t);
+                logger.warn("Error running service " + serviceName + " (Throwable) Artifact stack: " + eci.getArtifactExecutionFacade().getStackNameString(), t);
                 // add all exception messages to the error messages list
-                eci.messageFacade.addError(t.getMessage());
+                eci.getMessageFacade().addError(t.getMessage());
                 Throwable parent = t.getCause();
                 while (parent != null) {
-                    eci.messageFacade.addError(parent.getMessage());
+                    eci.getMessageFacade().addError(parent.getMessage());
                     parent = parent.getCause();
                 }
             } finally {
@@ -361,8 +361,8 @@ public class ServiceCallSyncImpl extends ServiceCallImpl implements ServiceCallS
                         if (transactionStatus == Status.STATUS_ACTIVE) {
                             tf.commit();
                         } else if (transactionStatus == Status.STATUS_MARKED_ROLLBACK) {
-                            if (!eci.messageFacade.hasError())
-                                eci.messageFacade.addError("Cannot commit transaction for service " + serviceName + ", marked rollback-only");
+                            if (!eci.getMessageFacade().hasError())
+                                eci.getMessageFacade().addError("Cannot commit transaction for service " + serviceName + ", marked rollback-only");
                             // will rollback based on marked rollback only
                             tf.commit();
                         }
@@ -376,10 +376,10 @@ public class ServiceCallSyncImpl extends ServiceCallImpl implements ServiceCallS
                 } catch (Throwable t) {
                     logger.warn("Error committing transaction for service " + serviceName, t);
                     // add all exception messages to the error messages list
-                    eci.messageFacade.addError(t.getMessage());
+                    eci.getMessageFacade().addError(t.getMessage());
                     Throwable parent = t.getCause();
                     while (parent != null) {
-                        eci.messageFacade.addError(parent.getMessage());
+                        eci.getMessageFacade().addError(parent.getMessage());
                         parent = parent.getCause();
                     }
 
@@ -400,21 +400,21 @@ public class ServiceCallSyncImpl extends ServiceCallImpl implements ServiceCallS
             }
 
             try {
-                if (userLoggedIn) eci.userFacade.logoutLocal();
+                if (userLoggedIn) eci.getUserFacade().logoutLocal();
             } catch (Throwable t) {
                 logger.error("Error logging out user after call to service " + serviceName, t);
             }
 
-            if (loggedInAnonymous) eci.userFacade.logoutAnonymousOnly();
+            if (loggedInAnonymous) eci.getUserFacade().logoutAnonymousOnly();
 
             // all done so pop the artifact info
-            eci.artifactExecutionFacade.pop(aei);
+            eci.getArtifactExecutionFacade().pop(aei);
             // restore error messages if needed
-            if (ignorePreviousError) eci.messageFacade.popErrors();
+            if (ignorePreviousError) eci.getMessageFacade().popErrors();
 
             if (traceEnabled) logger.trace("Finished call to service " + serviceName +
-                    (eci.messageFacade.hasError() ? " with " + (eci.messageFacade.getErrors().size() +
-                            eci.messageFacade.getValidationErrors().size()) + " error messages" : ", was successful"));
+                    (eci.getMessageFacade().hasError() ? " with " + (eci.getMessageFacade().getErrors().size() +
+                            eci.getMessageFacade().getValidationErrors().size()) + " error messages" : ", was successful"));
         }
 
     }
@@ -433,13 +433,13 @@ public class ServiceCallSyncImpl extends ServiceCallImpl implements ServiceCallS
 
         eci.transactionFacade.runRequireNew(null, "Error in clear service semaphore", new Closure<EntityValue>(this, this) {
             EntityValue doCall(Object it) {
-                boolean authzDisabled = eci.artifactExecutionFacade.disableAuthz();
+                boolean authzDisabled = eci.getArtifactExecutionFacade().disableAuthz();
                 try {
                     return eci.getEntity().makeValue("moqui.service.semaphore.ServiceParameterSemaphore")
                             .set("serviceName", semaphoreName).set("parameterValue", parameterValue)
                             .set("lockThread", null).set("lockTime", null).update();
                 } finally {
-                    if (!authzDisabled) eci.artifactExecutionFacade.enableAuthz();
+                    if (!authzDisabled) eci.getArtifactExecutionFacade().enableAuthz();
                 }
             }
             public EntityValue doCall() { return doCall(null); }
@@ -477,7 +477,7 @@ public class ServiceCallSyncImpl extends ServiceCallImpl implements ServiceCallS
 
         eci.transactionFacade.runRequireNew(txTimeout, "Error in check/add service semaphore", new Closure<EntityValue>(this, this) {
             EntityValue doCall(Object it) {
-                boolean authzDisabled = eci.artifactExecutionFacade.disableAuthz();
+                boolean authzDisabled = eci.getArtifactExecutionFacade().disableAuthz();
                 try {
                     final long startTime = System.currentTimeMillis();
 
@@ -544,7 +544,7 @@ public class ServiceCallSyncImpl extends ServiceCallImpl implements ServiceCallS
                         }
                     }
                 } finally {
-                    if (!authzDisabled) eci.artifactExecutionFacade.enableAuthz();
+                    if (!authzDisabled) eci.getArtifactExecutionFacade().enableAuthz();
                 }
             }
             public EntityValue doCall() { return doCall(null); }
@@ -584,12 +584,12 @@ public class ServiceCallSyncImpl extends ServiceCallImpl implements ServiceCallS
                 if (hasSecaRules) ServiceFacadeImpl.runSecaRules(serviceNameNoHash, currentParameters, null, "pre-service", secaRules, eci);
 
                 // if error(s) in pre-service or anything else before actual run then return now with no results
-                if (eci.messageFacade.hasError()) {
-                    StringBuilder errMsg = new StringBuilder("Found error(s) before running service " + serviceName + " so not running. Errors: " + eci.messageFacade.getErrorsString() + "; the artifact stack is:\n");
-                    for (ArtifactExecutionInfo stackItem : eci.artifactExecutionFacade.getStack())
+                if (eci.getMessageFacade().hasError()) {
+                    StringBuilder errMsg = new StringBuilder("Found error(s) before running service " + serviceName + " so not running. Errors: " + eci.getMessageFacade().getErrorsString() + "; the artifact stack is:\n");
+                    for (ArtifactExecutionInfo stackItem : eci.getArtifactExecutionFacade().getStack())
                         errMsg.append(stackItem.toString()).append("\n");
                     logger.warn(errMsg.toString());
-                    if (ignorePreviousError) eci.messageFacade.popErrors();
+                    if (ignorePreviousError) eci.getMessageFacade().popErrors();
                     return null;
                 }
 
@@ -619,10 +619,10 @@ public class ServiceCallSyncImpl extends ServiceCallImpl implements ServiceCallS
                 logger.error("Error running service " + serviceName, t);
                 tf.rollback(beganTransaction, "Error running service " + serviceName + " (Throwable)", t);
                 // add all exception messages to the error messages list
-                eci.messageFacade.addError(t.getMessage());
+                eci.getMessageFacade().addError(t.getMessage());
                 Throwable parent = t.getCause();
                 while (parent != null) {
-                    eci.messageFacade.addError(parent.getMessage());
+                    eci.getMessageFacade().addError(parent.getMessage());
                     parent = parent.getCause();
                 }
             } finally {
@@ -631,10 +631,10 @@ public class ServiceCallSyncImpl extends ServiceCallImpl implements ServiceCallS
                 } catch (Throwable t) {
                     logger.warn("Error committing transaction for entity-auto service " + serviceName, t);
                     // add all exception messages to the error messages list
-                    eci.messageFacade.addError(t.getMessage());
+                    eci.getMessageFacade().addError(t.getMessage());
                     Throwable parent = t.getCause();
                     while (parent != null) {
-                        eci.messageFacade.addError(parent.getMessage());
+                        eci.getMessageFacade().addError(parent.getMessage());
                         parent = parent.getCause();
                     }
                 }
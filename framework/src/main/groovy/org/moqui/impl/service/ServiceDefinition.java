@@ -77,6 +77,7 @@ public class ServiceDefinition {
     public final boolean hasSemaphore;
     public final String semaphore, semaphoreName, semaphoreParameter;
     public final long semaphoreIgnoreMillis, semaphoreSleepTime, semaphoreTimeoutTime;
+    public final String workerLane;
 
     public ServiceDefinition(ServiceFacadeImpl sfi, String path, MNode sn) {
         this.sfi = sfi;
@@ -208,6 +209,9 @@ public class ServiceDefinition {
         if (timeoutAttr == null || timeoutAttr.isEmpty()) timeoutAttr = "120";
         semaphoreTimeoutTime = Long.parseLong(timeoutAttr) * 1000;
 
+        String workerLaneAttr = serviceNode.attribute("worker-lane");
+        workerLane = workerLaneAttr != null && !workerLaneAttr.isEmpty() ? workerLaneAttr : null;
+
         // validate defaults to true
         validate = !"false".equals(serviceNode.attribute("validate"));
         allowRemote = "true".equals(serviceNode.attribute("allow-remote"));
@@ -490,7 +494,7 @@ public class ServiceDefinition {
                 }
                 // if required and still empty (nothing from default), complain
                 if (parameterIsEmpty && validate && parameterInfo.required)
-                    eci.messageFacade.addValidationError(null, namePrefix + parameterName, serviceName, eci.getL10n().localize("Field cannot be empty"), null);
+                    eci.getMessageFacade().addValidationError(null, namePrefix + parameterName, serviceName, eci.getL10n().localize("Field cannot be empty"), null);
             }
             // NOTE: not else because parameterIsEmpty may be changed
             if (!parameterIsEmpty) {
@@ -25,6 +25,7 @@ import org.moqui.impl.context.ExecutionContextFactoryImpl
 import org.moqui.impl.context.ExecutionContextImpl
 import org.moqui.resource.ClasspathResourceReference
 import org.moqui.impl.service.runner.EntityAutoServiceRunner
+import org.moqui.impl.service.runner.RemoteJsonRpcBatcher
 import org.moqui.impl.service.runner.RemoteJsonRpcServiceRunner
 import org.moqui.service.*
 import org.moqui.util.CollectionUtilities
@@ -66,6 +67,11 @@ class ServiceFacadeImpl implements ServiceFacade {
 
     protected final ConcurrentMap<String, List<ServiceCallback>> callbackRegistry = new ConcurrentHashMap<>()
 
+    /** Pooled HTTP clients for remote service calls, one per remote host (scheme://host:port) */
+    protected final ConcurrentHashMap<String, RestClient.PooledRequestFactory> remoteRequestFactories = new ConcurrentHashMap<>()
+    /** JSON-RPC call batchers by location, only used if service-facade.@remote-batch-window > 0 */
+    protected final ConcurrentHashMap<String, RemoteJsonRpcBatcher> remoteJsonRpcBatchers = new ConcurrentHashMap<>()
+
     ServiceFacadeImpl(ExecutionContextFactoryImpl ecfi) {
         this.ecfi = ecfi
         serviceLocationCache = ecfi.cacheFacade.getCache("service.location", String.class, ServiceDefinition.class)
@@ -106,6 +112,8 @@ class ServiceFacadeImpl implements ServiceFacade {
     }
 
     void postFacadeInit() {
+        // parse service, SECA and EMECA files in parallel, then rules and definitions are loaded from parsed files
+        ecfi.parseXmlFilesParallel("service", getAllServiceFileLocations())
         // load Service ECA rules
         loadSecaRulesAll()
         // load Email ECA rules
@@ -163,6 +171,37 @@ class ServiceFacadeImpl implements ServiceFacade {
     void destroy() {
         // destroy all service runners
         for (ServiceRunner sr in serviceRunners.values()) sr.destroy()
+        // fail remote calls waiting for a batch, then stop HTTP clients for remote calls
+        for (RemoteJsonRpcBatcher batcher in remoteJsonRpcBatchers.values()) batcher.close()
+        remoteJsonRpcBatchers.clear()
+        for (RestClient.PooledRequestFactory rf in remoteRequestFactories.values()) rf.destroy()
+        remoteRequestFactories.clear()
+    }
+
+    /** Get the pooled RequestFactory for the remote host of a location, created and started on first use */
+    RestClient.RequestFactory getRemoteRequestFactory(String location) {
+        URI uri = URI.create(location)
+        String key = uri.getScheme() + "://" + uri.getHost() + ":" + uri.getPort()
+        RestClient.PooledRequestFactory rf = remoteRequestFactories.get(key)
+        if (rf != null) return rf
+        return remoteRequestFactories.computeIfAbsent(key, { String k ->
+            MNode serviceFacadeNode = ecfi.confXmlRoot.first("service-facade")
+            int poolSize = (serviceFacadeNode.attribute("remote-pool-size") ?: "64") as int
+            boolean http2 = serviceFacadeNode.attribute("remote-http2") != "false"
+            logger.info("Creating pooled HTTP client for remote service calls to ${k}: pool size ${poolSize}, HTTP/2 ${http2}")
+            return new RestClient.PooledRequestFactory("RemoteSvc-" + uri.getHost()).poolSize(poolSize).http2(http2).init()
+        })
+    }
+    /** Get the JSON-RPC batcher for a location, or null if batching is not enabled (service-facade.@remote-batch-window) */
+    RemoteJsonRpcBatcher getRemoteJsonRpcBatcher(String location) {
+        RemoteJsonRpcBatcher batcher = remoteJsonRpcBatchers.get(location)
+        if (batcher != null) return batcher
+        MNode serviceFacadeNode = ecfi.confXmlRoot.first("service-facade")
+        long windowMillis = (serviceFacadeNode.attribute("remote-batch-window") ?: "0") as long
+        if (windowMillis <= 0L) return null
+        int maxSize = (serviceFacadeNode.attribute("remote-batch-max") ?: "50") as int
+        return remoteJsonRpcBatchers.computeIfAbsent(location, { String loc ->
+            new RemoteJsonRpcBatcher(this, loc, windowMillis, maxSize) })
     }
 
     ServiceRunner getServiceRunner(String type) { serviceRunners.get(type) }
@@ -376,6 +415,24 @@ class ServiceFacadeImpl implements ServiceFacade {
         return serviceInfoList
     }
 
+    /** All XML files in component service directories (including SECA, EMECA and REST API files) and service-file locations */
+    List<ResourceReference> getAllServiceFileLocations() {
+        List<ResourceReference> rrList = new ArrayList<>()
+        for (MNode serviceFile in ecfi.confXmlRoot.first("service-facade").children("service-file"))
+            rrList.add(ecfi.resourceFacade.getLocationReference(serviceFile.attribute("location")))
+        for (String location in this.ecfi.getComponentBaseLocations().values()) {
+            ResourceReference serviceRr = this.ecfi.resourceFacade.getLocationReference(location + "/service")
+            if (serviceRr.supportsExists() && serviceRr.exists && serviceRr.supportsDirectory()) addXmlFilesInDir(serviceRr, rrList)
+        }
+        return rrList
+    }
+    protected static void addXmlFilesInDir(ResourceReference dir, List<ResourceReference> rrList) {
+        for (ResourceReference entryRr in dir.directoryEntries) {
+            if (entryRr.directory) addXmlFilesInDir(entryRr, rrList)
+            else if (entryRr.fileName.endsWith(".xml")) rrList.add(entryRr)
+        }
+    }
+
     protected void findServicesInDir(String baseLocation, ResourceReference dir, Set<String> sns) {
         // logger.warn("Finding services in [${dir.location}]")
         for (ResourceReference entryRr in dir.directoryEntries) {
@@ -412,6 +469,7 @@ class ServiceFacadeImpl implements ServiceFacade {
     }
 
     void loadSecaRulesAll() {
+        long startTime = System.currentTimeMillis()
         int numLoaded = 0
         int numFiles = 0
         HashMap<String, ServiceEcaRule> ruleByIdMap = new HashMap<>()
@@ -431,7 +489,7 @@ class ServiceFacadeImpl implements ServiceFacade {
                 logger.warn("Can't load SECA rules from component at [${serviceDirRr.location}] because it doesn't support exists/directory/etc")
             }
         }
-        if (logger.infoEnabled) logger.info("Loaded ${numLoaded} Service ECA rules from ${numFiles} .secas.xml files, ${ruleNoIdList.size()} rules have no id, ${ruleNoIdList.size() + ruleByIdMap.size()} SECA rules active")
+        if (logger.infoEnabled) logger.info("Loaded ${numLoaded} Service ECA rules from ${numFiles} .secas.xml files in ${System.currentTimeMillis() - startTime}ms, ${ruleNoIdList.size()} rules have no id, ${ruleNoIdList.size() + ruleByIdMap.size()} SECA rules active")
 
         Map<String, ArrayList<ServiceEcaRule>> ruleMap = new HashMap<>()
         ruleNoIdList.addAll(ruleByIdMap.values())
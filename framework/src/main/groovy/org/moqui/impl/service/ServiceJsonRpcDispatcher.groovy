@@ -20,7 +20,16 @@ import javax.servlet.http.HttpServletRequest
 import javax.servlet.http.HttpServletResponse
 
 import org.moqui.context.ArtifactAuthorizationException
+import org.moqui.impl.context.ExecutionContextFactoryImpl
 import org.moqui.impl.context.ExecutionContextImpl
+import org.moqui.impl.context.UserFacadeImpl
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicReferenceArray
 
 import org.slf4j.Logger
 import org.slf4j.LoggerFactory
@@ -37,6 +46,13 @@ public class ServiceJsonRpcDispatcher {
     final static int INVALID_PARAMS = -32602 // Invalid method parameter(s).
     final static int INTERNAL_ERROR = -32603 // Internal JSON-RPC error.
 
+    /** Worker lane for batch entries, tools.worker-lane with this name (the worker pool if there is none) */
+    final static String BATCH_LANE = "JsonRpcBatch"
+    /** Max workers per batch request in addition to the request thread */
+    final static int BATCH_PARALLEL_MAX = 4
+    /** Max wait for entries run by workers after the request thread has no more entries to run */
+    final static long BATCH_WAIT_SECONDS = 300L
+
     private final ExecutionContextImpl eci
 
     public ServiceJsonRpcDispatcher(ExecutionContextImpl eci) {
@@ -45,32 +61,159 @@ public class ServiceJsonRpcDispatcher {
 
     public void dispatch() {
         Map callMap = eci.web.getRequestParameters()
+        String parseError = (String) callMap._requestBodyJsonParseError
         if (callMap._requestBodyJsonList) {
             List callList = (List) callMap._requestBodyJsonList
-            List<Map> jsonRespList = []
-            for (Object callSingleObj in callList) {
-                if (callSingleObj instanceof Map) {
-                    Map callSingleMap = (Map) callSingleObj
-                    jsonRespList.add(callSingle(callSingleMap.method as String, callSingleMap.params, callSingleMap.id ?: null))
-                } else {
-                    jsonRespList.add(callSingle(null, callSingleObj, null))
-                }
-            }
+            eci.getWeb().sendJsonResponse(callBatch(callList, parseError))
         } else {
             // logger.info("========= JSON-RPC request with map: ${callMap}")
-            Map jsonResp = callSingle(callMap.method as String, callMap.params, callMap.id ?: null)
+            Map jsonResp = callSingle(eci, callMap.method as String, callMap.params, callMap.id ?: null, parseError)
             eci.getWeb().sendJsonResponse(jsonResp)
         }
     }
 
-    protected Map callSingle(String method, Object paramsObj, Object id) {
+    /** Run batch entries in parallel in the JsonRpcBatch worker lane (or worker pool if no lane configured), at most
+     * BATCH_PARALLEL_MAX workers per request plus this thread, each entry in its own ExecutionContext with the request
+     * user, locale, time zone and visit; entries not taken by a worker (including when the lane rejects workers) run in
+     * this thread; responses are in the same order as the requests */
+    protected List<Map> callBatch(List callList, String parseError) {
+        int callSize = callList.size()
+        List<Map> jsonRespList = new ArrayList<>(callSize)
+        if (callSize == 0) return jsonRespList
+
+        ExecutionContextFactoryImpl ecfi = eci.ecfi
+        BatchState state = new BatchState(eci, callList, parseError)
+        int workerCount = Math.min(callSize - 1, BATCH_PARALLEL_MAX)
+        if (workerCount > 0) {
+            ExecutorService executor = ecfi.getWorkerLane(BATCH_LANE)
+            for (int i = 0; i < workerCount; i++) {
+                try {
+                    executor.execute(new BatchWorker(ecfi, state))
+                } catch (RejectedExecutionException e) {
+                    logger.warn("JSON-RPC batch worker rejected, running remaining entries in request thread: ${e.toString()}")
+                    break
+                }
+            }
+        }
+
+        // run entries not yet taken by a worker here, with errors from each kept separate from the request's
+        int index
+        while ((index = state.nextIndex.getAndIncrement()) < callSize) {
+            eci.messageFacade.pushErrors()
+            try {
+                state.setResponse(index, callEntry(eci, callList.get(index), parseError))
+            } catch (Throwable t) {
+                state.setError(index, t)
+            } finally {
+                eci.messageFacade.popErrors()
+            }
+        }
+
+        boolean allDone = false
+        try {
+            allDone = state.doneLatch.await(BATCH_WAIT_SECONDS, TimeUnit.SECONDS)
+        } catch (InterruptedException e) {
+            logger.warn("Interrupted waiting for JSON-RPC batch entries")
+        }
+        for (int i = 0; i < callSize; i++) {
+            Map jsonResp = state.responses.get(i)
+            if (jsonResp == null) {
+                if (allDone) logger.error("No response for JSON-RPC batch entry ${i}")
+                else logger.warn("JSON-RPC batch entry ${i} not done after ${BATCH_WAIT_SECONDS}s, responding with error")
+                jsonResp = [jsonrpc:"2.0", id:entryId(callList.get(i)), error:[code:INTERNAL_ERROR,
+                        message:"Batch entry not done in ${BATCH_WAIT_SECONDS} seconds".toString()]] as Map
+            }
+            jsonRespList.add(jsonResp)
+        }
+        return jsonRespList
+    }
+
+    protected static Map callEntry(ExecutionContextImpl eci, Object callSingleObj, String parseError) {
+        if (callSingleObj instanceof Map) {
+            Map callSingleMap = (Map) callSingleObj
+            return callSingle(eci, callSingleMap.method as String, callSingleMap.params, callSingleMap.id ?: null, parseError)
+        } else {
+            return callSingle(eci, null, callSingleObj, null, parseError)
+        }
+    }
+    protected static Object entryId(Object callSingleObj) { return callSingleObj instanceof Map ? ((Map) callSingleObj).id : null }
+
+    /** Entries of one batch request shared by its workers, each entry taken once by index */
+    static class BatchState {
+        final List callList
+        final String parseError
+        final AtomicInteger nextIndex = new AtomicInteger(0)
+        final AtomicReferenceArray<Map> responses
+        final CountDownLatch doneLatch
+        // request context captured here as the request ECI is not safe to use from other threads
+        final String username, visitId, clientIp
+        final Locale locale
+        final TimeZone timeZone
+        final boolean authzDisabled
+
+        BatchState(ExecutionContextImpl eci, List callList, String parseError) {
+            this.callList = callList; this.parseError = parseError
+            responses = new AtomicReferenceArray<>(callList.size())
+            doneLatch = new CountDownLatch(callList.size())
+            UserFacadeImpl ufi = eci.userFacade
+            username = ufi.getUsername(); visitId = ufi.getVisitId(); clientIp = ufi.getClientIp()
+            locale = ufi.getLocale(); timeZone = ufi.getTimeZone()
+            authzDisabled = eci.artifactExecutionFacade.getAuthzDisabled()
+        }
+
+        void setResponse(int index, Map jsonResp) {
+            responses.set(index, jsonResp)
+            doneLatch.countDown()
+        }
+        void setError(int index, Throwable t) {
+            logger.error("Error in JSON-RPC batch entry ${index}: ${t.toString()}", t)
+            setResponse(index, [jsonrpc:"2.0", id:entryId(callList.get(index)), error:[code:INTERNAL_ERROR, message:t.getMessage()]] as Map)
+        }
+    }
+
+    /** Runs entries from a batch until none are left, in an ExecutionContext with the request context */
+    static class BatchWorker implements Runnable {
+        private final ExecutionContextFactoryImpl ecfi
+        private final BatchState state
+        BatchWorker(ExecutionContextFactoryImpl ecfi, BatchState state) { this.ecfi = ecfi; this.state = state }
+
+        @Override
+        void run() {
+            int callSize = state.callList.size()
+            // if the request thread already took all entries don't bother with an ExecutionContext
+            int index = state.nextIndex.getAndIncrement()
+            if (index >= callSize) return
+            ExecutionContextImpl threadEci = ecfi.getEci()
+            try {
+                if (state.username != null && !state.username.isEmpty()) threadEci.userFacade.internalLoginUser(state.username, false)
+                threadEci.userFacade.internalSetRequestContext(state.locale, state.timeZone, state.visitId, state.clientIp)
+                if (state.authzDisabled) threadEci.artifactExecutionFacade.disableAuthz()
+                while (index < callSize) {
+                    threadEci.messageFacade.clearErrors()
+                    try {
+                        state.setResponse(index, callEntry(threadEci, state.callList.get(index), state.parseError))
+                    } catch (Throwable t) {
+                        state.setError(index, t)
+                    }
+                    index = state.nextIndex.getAndIncrement()
+                }
+            } catch (Throwable t) {
+                // failed setting up the context, answer the entry taken with the error
+                if (index < callSize) state.setError(index, t)
+            } finally {
+                threadEci.destroy()
+            }
+        }
+    }
+
+    protected static Map callSingle(ExecutionContextImpl eci, String method, Object paramsObj, Object id, String parseError) {
         // logger.warn("========= JSON-RPC call method=[${method}], id=[${id}], params=${paramsObj}")
 
         String errorMessage = null
         Integer errorCode = null
         ServiceDefinition sd = method ? eci.serviceFacade.getServiceDefinition(method) : null
-        if (eci.web.getRequestParameters()._requestBodyJsonParseError) {
-            errorMessage = eci.web.getRequestParameters()._requestBodyJsonParseError
+        if (parseError) {
+            errorMessage = parseError
             errorCode = PARSE_ERROR
         } else if (!method) {
             errorMessage = "No method specified"
@@ -0,0 +1,151 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.impl.service.runner
+
+import groovy.transform.CompileStatic
+import org.moqui.BaseException
+import org.moqui.impl.service.ServiceFacadeImpl
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Merges concurrent JSON-RPC calls to the same location into a single JSON-RPC batch request.
+ *
+ * The first call to arrive when no batch is pending is the leader: it waits for the batch window, then sends all calls
+ * that arrived in the meantime and completes their futures. If the batch fills up before the window ends the call that
+ * filled it sends it right away. No separate thread is used, callers just wait for their response.
+ */
+@CompileStatic
+class RemoteJsonRpcBatcher {
+    protected final static Logger logger = LoggerFactory.getLogger(RemoteJsonRpcBatcher.class)
+
+    protected final ServiceFacadeImpl sfi
+    final String location
+    protected final long windowMillis
+    protected final int maxSize
+
+    protected final AtomicLong idSequence = new AtomicLong(0)
+    protected ArrayList<PendingCall> pendingList = new ArrayList<>()
+    protected boolean closed = false
+
+    RemoteJsonRpcBatcher(ServiceFacadeImpl sfi, String location, long windowMillis, int maxSize) {
+        this.sfi = sfi
+        this.location = location
+        this.windowMillis = windowMillis
+        this.maxSize = maxSize > 1 ? maxSize : 2
+    }
+
+    /** Call the method and return the JSON-RPC response object for it (Map with result or error) */
+    Object call(String method, Map<String, Object> parameters) {
+        PendingCall pendingCall = new PendingCall([jsonrpc:"2.0", id:idSequence.incrementAndGet(), method:method,
+                params:parameters] as Map<String, Object>)
+
+        boolean isLeader = false
+        ArrayList<PendingCall> fullList = null
+        synchronized (this) {
+            if (closed) throw new BaseException("JSON-RPC batcher for ${location} is closed")
+            pendingList.add(pendingCall)
+            if (pendingList.size() == 1) {
+                isLeader = true
+            } else if (pendingList.size() >= maxSize) {
+                fullList = pendingList
+                pendingList = new ArrayList<>()
+            }
+        }
+
+        if (fullList != null) {
+            sendBatch(fullList)
+        } else if (isLeader) {
+            try { Thread.sleep(windowMillis) } catch (InterruptedException e) { Thread.currentThread().interrupt() }
+            ArrayList<PendingCall> sendList = null
+            synchronized (this) {
+                // if the batch filled up while sleeping it was already sent including this call
+                if (pendingList.contains(pendingCall)) {
+                    sendList = pendingList
+                    pendingList = new ArrayList<>()
+                }
+            }
+            if (sendList != null) sendBatch(sendList)
+        }
+
+        try {
+            return pendingCall.future.get()
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause() ?: e
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause
+            throw new BaseException("Error in batched JSON-RPC call to ${location}", cause)
+        }
+    }
+
+    protected void sendBatch(ArrayList<PendingCall> sendList) {
+        int sendSize = sendList.size()
+        try {
+            Object responseObj
+            if (sendSize == 1) {
+                responseObj = send(sendList.get(0).requestMap)
+            } else {
+                List<Map<String, Object>> requestList = new ArrayList<>(sendSize)
+                for (int i = 0; i < sendSize; i++) requestList.add(sendList.get(i).requestMap)
+                responseObj = send(requestList)
+            }
+            if (logger.isTraceEnabled()) logger.trace("Sent JSON-RPC batch of ${sendSize} calls to ${location}")
+
+            if (responseObj instanceof List) {
+                Map<Object, Object> responseById = new HashMap<>()
+                for (Object respEntry in (List) responseObj) {
+                    // ids may come back as Integer or Long depending on size, so compare as String
+                    if (respEntry instanceof Map) responseById.put(((Map) respEntry).id?.toString(), respEntry)
+                }
+                for (int i = 0; i < sendSize; i++) {
+                    PendingCall pendingCall = sendList.get(i)
+                    Object respEntry = responseById.get(pendingCall.requestMap.id.toString())
+                    if (respEntry != null) pendingCall.future.complete(respEntry)
+                    else pendingCall.future.completeExceptionally(new BaseException("No response for JSON-RPC batch call id ${pendingCall.requestMap.id} to ${location}"))
+                }
+            } else if (sendSize == 1) {
+                sendList.get(0).future.complete(responseObj)
+            } else {
+                // a single response to a batch is an error for the whole batch (like a parse error), pass it to all
+                for (int i = 0; i < sendSize; i++) sendList.get(i).future.complete(responseObj)
+            }
+        } catch (Throwable t) {
+            for (int i = 0; i < sendSize; i++) sendList.get(i).future.completeExceptionally(t)
+        }
+    }
+
+    /** Fail calls waiting for a batch to be sent and any later calls, for shutdown */
+    void close() {
+        ArrayList<PendingCall> closeList
+        synchronized (this) {
+            closed = true
+            closeList = pendingList
+            pendingList = new ArrayList<>()
+        }
+        for (int i = 0; i < closeList.size(); i++)
+            closeList.get(i).future.completeExceptionally(new BaseException("JSON-RPC batcher for ${location} closed before call was sent"))
+    }
+
+    /** Send a JSON-RPC request (Map) or batch (List) and return the parsed response */
+    protected Object send(Object requestObj) { return RemoteJsonRpcServiceRunner.sendJsonRpc(sfi, location, requestObj) }
+
+    static class PendingCall {
+        final Map<String, Object> requestMap
+        final CompletableFuture<Object> future = new CompletableFuture<>()
+        PendingCall(Map<String, Object> requestMap) { this.requestMap = requestMap }
+    }
+}
@@ -13,11 +13,11 @@
  */
 package org.moqui.impl.service.runner
 
-import groovy.json.JsonBuilder
-import groovy.json.JsonSlurper
 import groovy.transform.CompileStatic
 import org.moqui.context.ExecutionContext
-import org.moqui.util.WebUtilities
+import org.moqui.impl.context.ContextJavaUtil
+import org.moqui.impl.context.ExecutionContextImpl
+import org.moqui.util.RestClient
 import org.moqui.impl.service.ServiceDefinition
 import org.moqui.impl.service.ServiceFacadeImpl
 import org.moqui.impl.service.ServiceRunner
@@ -48,26 +48,19 @@ public class RemoteJsonRpcServiceRunner implements ServiceRunner {
 
     static Map<String, Object> runJsonService(String serviceName, String location, String method,
                                               Map<String, Object> parameters, ExecutionContext ec) {
-        Map jsonRequestMap = [jsonrpc:"2.0", id:1, method:method, params:parameters]
-        JsonBuilder jb = new JsonBuilder()
-        jb.call(jsonRequestMap)
-        String jsonRequest = jb.toString()
+        ServiceFacadeImpl sfi = ((ExecutionContextImpl) ec).ecfi.serviceFacade
 
-        // logger.warn("======== JSON-RPC remote service request to location [${location}]: ${jsonRequest}")
+        // logger.warn("======== JSON-RPC remote service request to location [${location}]: ${method} ${parameters}")
 
-        String jsonResponse = WebUtilities.simpleHttpStringRequest(location, jsonRequest, "application/json")
-
-        // logger.info("JSON-RPC remote service [${sd.getServiceName()}] request: ${httpPost.getRequestLine()}, ${httpPost.getAllHeaders()}, ${httpPost.getEntity().contentLength} bytes")
-        // logger.warn("======== JSON-RPC remote service request entity [length:${httpPost.getEntity().contentLength}]: ${EntityUtils.toString(httpPost.getEntity())}")
-
-        // logger.warn("======== JSON-RPC remote service response from location [${location}]: ${jsonResponse}")
-
-        // parse and return the results
-        JsonSlurper slurper = new JsonSlurper()
+        // call and parse the results, batched with other concurrent calls to the same location if configured
         Object jsonObj
         try {
-            // logger.warn("========== JSON-RPC response: ${jsonResponse}")
-            jsonObj = slurper.parseText(jsonResponse)
+            RemoteJsonRpcBatcher batcher = sfi.getRemoteJsonRpcBatcher(location)
+            if (batcher != null) {
+                jsonObj = batcher.call(method, parameters)
+            } else {
+                jsonObj = sendJsonRpc(sfi, location, [jsonrpc:"2.0", id:1, method:method, params:parameters])
+            }
         } catch (Throwable t) {
             String errMsg = ec.resource.expand('Error parsing JSON-RPC response for service [${serviceName ?: method}]: ${t.toString()}','',[serviceName:serviceName, method:method, t:t])
             logger.error(errMsg, t)
@@ -97,5 +90,15 @@ public class RemoteJsonRpcServiceRunner implements ServiceRunner {
         }
     }
 
+    /** Send a JSON-RPC request object (Map) or batch (List) to the location using the pooled HTTP client for it,
+     * returns the parsed response */
+    static Object sendJsonRpc(ServiceFacadeImpl sfi, String location, Object requestObj) {
+        String jsonRequest = ContextJavaUtil.jacksonMapper.writeValueAsString(requestObj)
+        RestClient.RestResponse response = new RestClient().withRequestFactory(sfi.getRemoteRequestFactory(location))
+                .method(RestClient.POST).uri(location).contentType("application/json").text(jsonRequest).call()
+        // logger.warn("========== JSON-RPC response: ${response.text()}")
+        return ContextJavaUtil.jacksonMapper.readValue(response.text(), Object.class)
+    }
+
     public void destroy() { }
 }
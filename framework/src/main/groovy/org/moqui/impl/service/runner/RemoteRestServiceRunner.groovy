@@ -14,6 +14,7 @@
 package org.moqui.impl.service.runner
 
 import groovy.transform.CompileStatic
+import org.moqui.impl.context.ContextJavaUtil
 import org.moqui.impl.context.ExecutionContextImpl
 import org.moqui.impl.service.ServiceDefinition
 import org.moqui.impl.service.ServiceFacadeImpl
@@ -53,6 +54,9 @@ class RemoteRestServiceRunner implements ServiceRunner {
             location = eci.resourceFacade.expand(location, null, parameters, false)
         }
 
+        // use the pooled HTTP client for the remote host instead of the default shared one
+        rc.withRequestFactory(eci.serviceFacade.getRemoteRequestFactory(location))
+
         if (RestClient.GET.is(rc.getMethod())) {
             String parmsStr = RestClient.parametersMapToString(parameters)
             if (parmsStr != null && !parmsStr.isEmpty()) location = location + "?" + parmsStr
@@ -60,7 +64,7 @@ class RemoteRestServiceRunner implements ServiceRunner {
         } else {
             rc.uri(location)
             // NOTE: another option for parameters might be addBodyParameters(parameters), but a JSON body in the request is more common except for GET
-            if (parameters != null && !parameters.isEmpty()) rc.jsonObject(parameters)
+            if (parameters != null && !parameters.isEmpty()) rc.text(ContextJavaUtil.jacksonMapper.writeValueAsString(parameters))
         }
         // logger.warn("remote-rest service call to ${rc.getUriString()}")
 
@@ -74,7 +78,8 @@ class RemoteRestServiceRunner implements ServiceRunner {
             return null
         }
 
-        Object responseObj = response.jsonObject()
+        String responseText = response.text()
+        Object responseObj = responseText ? ContextJavaUtil.jacksonMapper.readValue(responseText, Object.class) : null
         if (responseObj instanceof Map) return (Map) responseObj
         else return [response:responseObj]
     }
@@ -0,0 +1,73 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.impl.tools
+
+import groovy.transform.CompileStatic
+import org.moqui.context.ExecutionContextFactory
+import org.moqui.context.ToolFactory
+import org.moqui.impl.context.ExecutionContextFactoryImpl
+import org.moqui.impl.service.EntityJobQueue
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.TimeUnit
+
+/** A database-backed distributed ExecutorService for async services and service jobs, to use set
+ * service-facade.@distributed-factory to EntityJobQueue. Workers on each server claim queued entries from the
+ * ServiceJobQueueEntry entity, see EntityJobQueue for details. */
+@CompileStatic
+class EntityJobQueueToolFactory implements ToolFactory<ExecutorService> {
+    protected final static Logger logger = LoggerFactory.getLogger(EntityJobQueueToolFactory.class)
+    final static String TOOL_NAME = "EntityJobQueue"
+
+    protected ExecutionContextFactoryImpl ecfi = null
+    protected EntityJobQueue jobQueue = null
+
+    /** Default empty constructor */
+    EntityJobQueueToolFactory() { }
+
+    @Override String getName() { return TOOL_NAME }
+
+    @Override
+    void preFacadeInit(ExecutionContextFactory ecf) { this.ecfi = (ExecutionContextFactoryImpl) ecf }
+
+    @Override
+    void init(ExecutionContextFactory ecf) {
+        this.ecfi = (ExecutionContextFactoryImpl) ecf
+        // start polling only after all facades are initialized, so entity and service facades are ready to run tasks
+        getJobQueue().startPolling()
+    }
+
+    /** NOTE: may be called by ServiceFacadeImpl.postFacadeInit() before init(), entries are only claimed after init() */
+    @Override
+    ExecutorService getInstance(Object... parameters) {
+        if (ecfi == null) throw new IllegalStateException("EntityJobQueueToolFactory not initialized")
+        return getJobQueue()
+    }
+
+    protected synchronized EntityJobQueue getJobQueue() {
+        if (jobQueue == null) jobQueue = new EntityJobQueue(ecfi)
+        return jobQueue
+    }
+
+    @Override
+    void destroy() {
+        if (jobQueue != null) {
+            jobQueue.shutdown()
+            if (!jobQueue.awaitTermination(30, TimeUnit.SECONDS))
+                logger.warn("EntityJobQueue tasks still running after 30 seconds, entries will be claimed again after visibility timeout")
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a 
+ * Grant of Patent License.
+ * 
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ * 
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.impl.tools
+
+import groovy.transform.CompileStatic
+import org.moqui.context.ExecutionContextFactory
+import org.moqui.context.ToolFactory
+import org.moqui.impl.context.ExecutionContextFactoryImpl
+import org.moqui.impl.context.NotificationMessageImpl
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+
+import org.moqui.util.SimpleTopic
+
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.function.Consumer
+
+/** A SimpleTopic for a single server, to test distributed cache invalidate (entity-facade.@dci-topic-factory) and
+ * notifications (@notification-topic-factory) without a cluster. Messages are serialized and deserialized as for
+ * sending to another server, then passed to the entity cache or notification listeners and any added listeners. The entity cache skips messages
+ * it sent so for it this checks what is sent (see getPublishCount() and getPublishBytes()) and that it can be read. */
+@CompileStatic
+class LoopbackTopicToolFactory implements ToolFactory<SimpleTopic> {
+    protected final static Logger logger = LoggerFactory.getLogger(LoopbackTopicToolFactory.class)
+    final static String TOOL_NAME = "LoopbackTopic"
+
+    protected ExecutionContextFactoryImpl ecfi = null
+    protected LoopbackTopic topic = null
+
+    /** Default empty constructor */
+    LoopbackTopicToolFactory() { }
+
+    @Override
+    String getName() { return TOOL_NAME }
+    @Override
+    void init(ExecutionContextFactory ecf) {
+        ecfi = (ExecutionContextFactoryImpl) ecf
+        topic = new LoopbackTopic()
+        topic.addListener({ Object message ->
+            if (message instanceof NotificationMessageImpl) {
+                ecfi.notifyNotificationMessageListeners((NotificationMessageImpl) message)
+            } else {
+                ecfi.entityFacade.getEntityCache().receiveInvalidate(message)
+            }
+        } as Consumer<Object>)
+    }
+
+    @Override
+    SimpleTopic getInstance(Object... parameters) {
+        if (topic == null) throw new IllegalStateException("LoopbackTopicToolFactory not initialized")
+        return topic
+    }
+
+    static class LoopbackTopic implements SimpleTopic<Object> {
+        protected final List<Consumer<Object>> listenerList = new CopyOnWriteArrayList<>()
+        protected long publishCount = 0, publishBytes = 0
+
+        void addListener(Consumer<Object> listener) { listenerList.add(listener) }
+        synchronized long getPublishCount() { return publishCount }
+        synchronized long getPublishBytes() { return publishBytes }
+
+        @Override
+        void publish(Object message) {
+            byte[] bytes = serialize(message)
+            synchronized (this) { publishCount++; publishBytes += bytes.length }
+            Object received = deserialize(bytes)
+            for (Consumer<Object> listener in listenerList) {
+                try {
+                    listener.accept(received)
+                } catch (Throwable t) {
+                    logger.error("Error in loopback topic listener for message ${received.getClass().getName()}", t)
+                }
+            }
+        }
+
+        static byte[] serialize(Object message) {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream()
+            ObjectOutputStream oos = new ObjectOutputStream(baos)
+            oos.writeObject(message)
+            oos.close()
+            return baos.toByteArray()
+        }
+        static Object deserialize(byte[] bytes) {
+            ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes)) {
+                @Override protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+                    return Class.forName(desc.getName(), false, Thread.currentThread().getContextClassLoader())
+                }
+            }
+            try { return ois.readObject() } finally { ois.close() }
+        }
+    }
+}
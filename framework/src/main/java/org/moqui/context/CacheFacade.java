@@ -15,6 +15,8 @@ package org.moqui.context;
 
 import org.moqui.jcache.MCache;
 import javax.cache.Cache;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /** A facade used for managing and accessing Cache instances. */
@@ -40,4 +42,11 @@ public interface CacheFacade {
 
     Set<String> getCacheNames();
     boolean cacheExists(String cacheName);
+
+    /** Snapshot of configuration and statistics for a local cache (MCache), including load, eviction and expiry sweep
+     * times (loadTotalMillis, loadMaxMicros, evictionMaxMicros, etc), or null if there is no local cache by the name. */
+    Map<String, Object> getCacheInfo(String cacheName);
+    /** Snapshots like getCacheInfo() for all local caches, or those with names matching filterRegexp (case insensitive,
+     * anywhere in the name), ordered by a field in the snapshot such as '-loadTotalMillis' if orderByField is not null. */
+    List<Map<String, Object>> getAllCachesInfo(String orderByField, String filterRegexp);
 }
@@ -195,6 +195,24 @@ public interface EntityFind extends java.io.Serializable, SimpleEtl.Extractor {
     /** For use with searchFormInputs when paginated. Equals limit (default 20; exists for consistency/convenience along with getPageIndex()). */
     int getPageSize();
 
+    /** Keyset (seek) pagination: only get rows after the row with these values for the order by fields, followed by
+     * values for any primary key fields not in the order by (added to the order by as a tie-breaker). Use with limit()
+     * instead of offset() so getting a deep page doesn't make the database read and skip all rows before it.
+     * Order by fields should not have null values and the order by must be the same for all pages.
+     * Applies to list() and iterator(), not count().
+     *
+     * @return Returns this for chaining of method calls.
+     */
+    EntityFind seekAfter(List<Object> orderByValues);
+    /** Like seekAfter() but get the rows just before the row with these values, for a previous page; only for list(). */
+    EntityFind seekBefore(List<Object> orderByValues);
+    /** Seek after or before the row a cursor from getSeekCursor() was made from. In searchFormInputs() the cursor
+     * comes from the pageCursor parameter. */
+    EntityFind seekCursor(String cursor);
+    /** Make a cursor for the page after (next=true) or before (next=false) this value, usually the last or first value
+     * in a list from this find. */
+    String getSeekCursor(EntityValue value, boolean next);
+
     /** Lock the selected record so only this transaction can change it until it is ended.
      * If this is set when the find is done the useCache setting will be ignored as this will always get the data from
      *     the database.
@@ -205,6 +223,16 @@ public interface EntityFind extends java.io.Serializable, SimpleEtl.Extractor {
     EntityFind forUpdate(boolean forUpdate);
     boolean getForUpdate();
 
+    /** Used along with forUpdate(true) to skip rows already locked by other transactions instead of waiting for them,
+     * useful for competing consumers of a queue table. Uses the database.@for-update-skip-locked attribute for the
+     * entity group's database; if not configured for the database this is ignored and rows are locked as usual.
+     * Default is false.
+     *
+     * @return Returns this for chaining of method calls.
+     */
+    EntityFind skipLocked(boolean skipLocked);
+    boolean getSkipLocked();
+
     // ======================== JDBC Options ==============================
 
     /** Specifies how the ResultSet will be traversed. Available values: ResultSet.TYPE_FORWARD_ONLY,
@@ -294,9 +322,40 @@ public interface EntityFind extends java.io.Serializable, SimpleEtl.Extractor {
      */
     EntityListIterator iterator() throws EntityException;
 
+    /**
+     * Runs a find with current options and returns a sequential Stream backed by an EntityListIterator. The iterator is
+     * closed after the last value is consumed or when an error happens, but if the stream is not consumed to the end
+     * (like with findFirst() or limit()) it must be closed, best with try-with-resources. Without a fetchSize set a
+     * larger fetch size than for iterator() is used as streams are usually consumed to the end.
+     */
+    java.util.stream.Stream<EntityValue> stream() throws EntityException;
+
+    /** Parallel stream split by ranges of the first primary key field, see parallelStream(String, int) */
+    java.util.stream.Stream<EntityValue> parallelStream(int partitions) throws EntityException;
+    /**
+     * Runs a find with current options split into ranges of the named field and returns a parallel Stream. For integer,
+     * date, and date-time fields the ranges are even splits between min and max values, for other fields boundaries are
+     * sampled so partitions have about the same number of records.
+     *
+     * Each partition is read in a worker thread with its own ExecutionContext (same user and authz state) and its own
+     * connection, outside any transaction of the calling thread, so data written in the current transaction and not yet
+     * committed is not seen. There is no order between partitions, limit, offset, and dynamic views are not supported.
+     * If the stream is not consumed to the end it must be closed to stop the partition readers.
+     */
+    java.util.stream.Stream<EntityValue> parallelStream(String partitionField, int partitions) throws EntityException;
+
     /** Runs a find with current options to get a count of matching records. */
     long count() throws EntityException;
 
+    /**
+     * Runs list() and count() for a paginated find, returning the list with the count in EntityList.getTotalCount().
+     * When it is safe the count runs at the same time in a worker thread with its own connection: with a limit, not
+     * cached, not for update, no dynamic view, no transaction cache, and no writes to the entity group earlier in this
+     * ExecutionContext (as the count is outside the current transaction). If the page has fewer records than the limit
+     * the count is known from the offset and list size and the count query is cancelled if not yet started.
+     */
+    EntityList listWithCount() throws EntityException;
+
     /** Update a set of values that match a condition.
      *
      * @param fieldsToSet The fields of the named entity to set in the database
@@ -104,6 +104,8 @@ public interface EntityList extends List<EntityValue>, Iterable<EntityValue>, Cl
     int getPageIndex();
     /** For use with filterByLimit when paginated. Equals limit (default 20; for use along with getPageIndex()). */
     int getPageSize();
+    /** Count of all records matching the find for a list from EntityFind.listWithCount(), otherwise null. */
+    Long getTotalCount();
 
     /** Modify this EntityList so that is ordered by the field names passed in.
      *
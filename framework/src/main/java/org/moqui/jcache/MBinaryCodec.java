@@ -0,0 +1,164 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.jcache;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Default MCodec with a one byte type tag and compact forms for common simple types, Lists and Maps; anything else
+ * uses Java serialization (Externalizable where implemented).
+ *
+ * Extend and override writeObject() and readObject() for other compact forms, using tags from TAG_EXTENDED up.
+ */
+public class MBinaryCodec implements MCodec<Object> {
+    protected static final byte TAG_NULL = 0, TAG_STRING = 1, TAG_LONG = 2, TAG_INTEGER = 3, TAG_BIG_DECIMAL = 4,
+            TAG_TIMESTAMP = 5, TAG_SQL_DATE = 6, TAG_SQL_TIME = 7, TAG_TRUE = 8, TAG_FALSE = 9, TAG_DOUBLE = 10,
+            TAG_BYTES = 11, TAG_LIST = 12, TAG_MAP = 13, TAG_SERIALIZED = 14;
+    /** Tags for subclasses start here */
+    protected static final byte TAG_EXTENDED = 32;
+
+    @Override
+    public byte[] encode(Object value) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(baos);
+        writeObject(out, value);
+        out.flush();
+        return baos.toByteArray();
+    }
+    @Override
+    public Object decode(byte[] bytes) throws IOException {
+        return readObject(new DataInputStream(new ByteArrayInputStream(bytes)));
+    }
+
+    protected void writeObject(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(TAG_NULL);
+        } else if (value instanceof String) {
+            out.writeByte(TAG_STRING);
+            byte[] strBytes = ((String) value).getBytes(StandardCharsets.UTF_8);
+            out.writeInt(strBytes.length);
+            out.write(strBytes);
+        } else if (value instanceof Long) {
+            out.writeByte(TAG_LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Integer) {
+            out.writeByte(TAG_INTEGER);
+            out.writeInt((Integer) value);
+        } else if (value instanceof BigDecimal) {
+            out.writeByte(TAG_BIG_DECIMAL);
+            out.writeUTF(value.toString());
+        } else if (value instanceof Timestamp) {
+            out.writeByte(TAG_TIMESTAMP);
+            out.writeLong(((Timestamp) value).getTime());
+            out.writeInt(((Timestamp) value).getNanos());
+        } else if (value instanceof java.sql.Date) {
+            out.writeByte(TAG_SQL_DATE);
+            out.writeLong(((java.sql.Date) value).getTime());
+        } else if (value instanceof java.sql.Time) {
+            out.writeByte(TAG_SQL_TIME);
+            out.writeLong(((java.sql.Time) value).getTime());
+        } else if (value instanceof Boolean) {
+            out.writeByte((Boolean) value ? TAG_TRUE : TAG_FALSE);
+        } else if (value instanceof Double) {
+            out.writeByte(TAG_DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof byte[]) {
+            out.writeByte(TAG_BYTES);
+            out.writeInt(((byte[]) value).length);
+            out.write((byte[]) value);
+        } else if (value.getClass() == ArrayList.class) {
+            List<?> list = (List<?>) value;
+            int size = list.size();
+            out.writeByte(TAG_LIST);
+            out.writeInt(size);
+            for (int i = 0; i < size; i++) writeObject(out, list.get(i));
+        } else if (value.getClass() == HashMap.class) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            out.writeByte(TAG_MAP);
+            out.writeInt(map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                writeObject(out, entry.getKey());
+                writeObject(out, entry.getValue());
+            }
+        } else {
+            out.writeByte(TAG_SERIALIZED);
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(256);
+            ObjectOutputStream oos = new ObjectOutputStream(baos);
+            oos.writeObject(value);
+            oos.flush();
+            out.writeInt(baos.size());
+            baos.writeTo(out);
+        }
+    }
+
+    protected Object readObject(DataInputStream in) throws IOException {
+        byte tag = in.readByte();
+        switch (tag) {
+            case TAG_NULL: return null;
+            case TAG_STRING: return new String(readBytes(in), StandardCharsets.UTF_8);
+            case TAG_LONG: return in.readLong();
+            case TAG_INTEGER: return in.readInt();
+            case TAG_BIG_DECIMAL: return new BigDecimal(in.readUTF());
+            case TAG_TIMESTAMP:
+                Timestamp ts = new Timestamp(in.readLong());
+                ts.setNanos(in.readInt());
+                return ts;
+            case TAG_SQL_DATE: return new java.sql.Date(in.readLong());
+            case TAG_SQL_TIME: return new java.sql.Time(in.readLong());
+            case TAG_TRUE: return Boolean.TRUE;
+            case TAG_FALSE: return Boolean.FALSE;
+            case TAG_DOUBLE: return in.readDouble();
+            case TAG_BYTES: return readBytes(in);
+            case TAG_LIST:
+                int listSize = in.readInt();
+                ArrayList<Object> list = new ArrayList<>(listSize);
+                for (int i = 0; i < listSize; i++) list.add(readObject(in));
+                return list;
+            case TAG_MAP:
+                int mapSize = in.readInt();
+                HashMap<Object, Object> map = new HashMap<>(mapSize * 4 / 3 + 1);
+                for (int i = 0; i < mapSize; i++) map.put(readObject(in), readObject(in));
+                return map;
+            case TAG_SERIALIZED:
+                ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(readBytes(in))) {
+                    @Override protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+                        try {
+                            return Class.forName(desc.getName(), false, Thread.currentThread().getContextClassLoader());
+                        } catch (ClassNotFoundException e) {
+                            return super.resolveClass(desc);
+                        }
+                    }
+                };
+                try {
+                    return ois.readObject();
+                } catch (ClassNotFoundException e) {
+                    throw new IOException("Class not found reading serialized cache value", e);
+                }
+            default: throw new IOException("Unknown cache value tag " + tag);
+        }
+    }
+
+    protected static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+}
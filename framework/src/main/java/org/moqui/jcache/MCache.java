@@ -29,7 +29,9 @@ import javax.cache.processor.EntryProcessorResult;
 
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -60,6 +62,15 @@ public class MCache<K, V> implements Cache<K, V> {
     private EvictRunnable evictRunnable = null;
     private ScheduledFuture<?> evictFuture = null;
 
+    private MWeigher<K, V> weigher = null;
+    private volatile long maxBytes = 0;
+    // set while a weight eviction is queued or running on the evict worker so puts over max bytes don't queue more than one
+    private final AtomicBoolean weightEvictQueued = new AtomicBoolean(false);
+    private MOffHeapStore<K, V> offHeapStore = null;
+    private long staleGraceMillis = 0, refreshAheadMillis = 0;
+    private boolean coalesceLoads = false;
+    private long coalesceWaitMillis = 10000;
+
     private static class WorkerThreadFactory implements ThreadFactory {
         private final ThreadGroup workerGroup = new ThreadGroup("MCacheEvict");
         private final AtomicInteger threadNumber = new AtomicInteger(1);
@@ -101,6 +112,19 @@ public class MCache<K, V> implements Cache<K, V> {
                     evictRunnable = new EvictRunnable(this, mCacheConf.maxEntries);
                     evictFuture = workerPool.scheduleWithFixedDelay(evictRunnable, 30, mCacheConf.maxCheckSeconds, TimeUnit.SECONDS);
                 }
+                weigher = mCacheConf.weigher;
+                if (mCacheConf.maxBytes > 0) {
+                    if (weigher != null) maxBytes = mCacheConf.maxBytes;
+                    else logger.warn("Cache " + name + " has max bytes " + mCacheConf.maxBytes + " but no weigher, not limiting by bytes");
+                }
+                staleGraceMillis = mCacheConf.staleGraceMillis;
+                refreshAheadMillis = mCacheConf.refreshAheadMillis;
+                coalesceLoads = mCacheConf.coalesceLoads;
+                coalesceWaitMillis = mCacheConf.coalesceWaitMillis;
+                if (mCacheConf.offHeapBytes > 0) {
+                    MCodec<V> codec = mCacheConf.codec != null ? mCacheConf.codec : (MCodec<V>) new MBinaryCodec();
+                    offHeapStore = new MOffHeapStore<>(name, mCacheConf.offHeapBytes, codec);
+                }
             }
         }
         hasExpiry = accessDuration != null || creationDuration != null || updateDuration != null;
@@ -125,6 +149,34 @@ public class MCache<K, V> implements Cache<K, V> {
         }
     }
     public int getMaxEntries() { return evictRunnable != null ? evictRunnable.maxEntries : 0; }
+    /** Set maximum estimated bytes, 0 for no limit; only used if the cache has a weigher (from MCacheConfiguration) */
+    public void setMaxBytes(long bytes) {
+        if (bytes > 0 && weigher == null) throw new IllegalStateException("Cache " + name + " has no weigher, cannot set max bytes");
+        maxBytes = bytes;
+        if (bytes > 0 && stats.estimatedBytes.get() > bytes) queueWeightEvict();
+    }
+    public long getMaxBytes() { return maxBytes; }
+    /** True if an eviction by weight is queued or running on the evict worker */
+    public boolean isWeightEvictPending() { return weightEvictQueued.get(); }
+    public MWeigher<K, V> getWeigher() { return weigher; }
+    /** Time after expiry an entry may be used while refreshed, from MCacheConfiguration.setStaleGraceMillis() */
+    public long getStaleGraceMillis() { return hasExpiry ? staleGraceMillis : 0; }
+    /** Time before expiry to refresh an entry, from MCacheConfiguration.setRefreshAheadMillis() */
+    public long getRefreshAheadMillis() { return hasExpiry ? refreshAheadMillis : 0; }
+    /** From MCacheConfiguration.setCoalesceLoads() */
+    public boolean isCoalesceLoads() { return coalesceLoads; }
+    /** From MCacheConfiguration.setCoalesceWaitMillis() */
+    public long getCoalesceWaitMillis() { return coalesceWaitMillis; }
+    /** The off-heap tier, null if none configured (see MCacheConfiguration.setOffHeapBytes()) */
+    public MOffHeapStore<K, V> getOffHeapStore() { return offHeapStore; }
+    /** Remove entries in the off-heap tier with keys matching the filter, without decoding the values; for removing by
+     * key without knowing the value, as iterator() and getEntryList() only include entries in the heap tier */
+    public int invalidateOffHeap(Predicate<? super K> keyFilter) {
+        if (offHeapStore == null) return 0;
+        int removed = offHeapStore.invalidateIf(keyFilter);
+        if (removed > 0 && statsEnabled) stats.countBulkRemoval(removed);
+        return removed;
+    }
 
     @Override
     public String getName() { return name; }
@@ -149,60 +201,100 @@ public class MCache<K, V> implements Cache<K, V> {
     }
     /** Get an entry, if it is in the cache and not expired, otherwise returns null. The policy can be null to use cache's policy. */
     public MEntry<K, V> getEntry(final K key, final ExpiryPolicy policy) { return getEntryInternal(key, policy, null, 0); }
+    /** Get an entry even if expired as long as it expired no more than graceMillis ago, for using a stale value while
+     * it is refreshed; see getExpireTime() to check if expired and replaceEntry() to put the refreshed value. */
+    public MEntry<K, V> getEntryStale(K key, long graceMillis) {
+        if (isClosed) throw new IllegalStateException("Cache " + name + " is closed");
+        if (key == null) throw new IllegalArgumentException("Cache key cannot be null");
+        MEntry<K, V> entry = getStored(key);
+        if (entry != null && hasExpiry) {
+            long currentTime = System.currentTimeMillis();
+            if (entry.getExpireTime(accessDuration, creationDuration, updateDuration) + graceMillis < currentTime) {
+                entry.isExpired = true;
+                removeInternal(key);
+                entry = null;
+                if (statsEnabled) stats.countExpire();
+            } else {
+                entry.accessCount++;
+                if (currentTime > entry.lastAccessTime) entry.lastAccessTime = currentTime;
+            }
+        }
+        if (statsEnabled) { if (entry != null) stats.countHit(); else stats.countMiss(); }
+        return entry;
+    }
+    /** Time the entry expires based on the cache expiry settings, Long.MAX_VALUE if never */
+    public long getExpireTime(MEntry<K, V> entry) {
+        if (!hasExpiry) return Long.MAX_VALUE;
+        return entry.getExpireTime(accessDuration, creationDuration, updateDuration);
+    }
+    /** Replace an entry (even if expired) with a new entry for the value, only if it is still in the cache; returns false
+     * if it was removed or replaced since it was read */
+    public boolean replaceEntry(K key, MEntry<K, V> oldEntry, V value) {
+        if (isClosed) throw new IllegalStateException("Cache " + name + " is closed");
+        MEntry<K, V> newEntry = new MEntry<>(key, value, System.currentTimeMillis());
+        newEntry.weight = weighAny(key, value);
+        // NOTE: MEntry.equals() compares values, so this replaces if the current value equals the old value
+        if (!entryStore.replace(key, oldEntry, newEntry)) return false;
+        removedWeight(oldEntry);
+        addedWeight(newEntry.weight);
+        if (statsEnabled) stats.countPut();
+        return true;
+    }
+
     /** Simple entry get, doesn't check if expired. */
     public MEntry<K, V> getEntryNoCheck(K key) {
         if (isClosed) throw new IllegalStateException("Cache " + name + " is closed");
         if (key == null) throw new IllegalArgumentException("Cache key cannot be null");
-        MEntry<K, V> entry = entryStore.get(key);
+        MEntry<K, V> entry = getStored(key);
         if (entry != null) {
-            if (statsEnabled) { stats.gets++; stats.hits++; }
+            if (statsEnabled) stats.countHit();
             long accessTime = System.currentTimeMillis();
             entry.accessCount++; if (accessTime > entry.lastAccessTime) entry.lastAccessTime = accessTime;
         } else {
-            if (statsEnabled) { stats.gets++; stats.misses++; }
+            if (statsEnabled) stats.countMiss();
         }
         return entry;
     }
     private MEntry<K, V> getEntryInternal(final K key, final ExpiryPolicy policy, final Long expireBeforeTime, long currentTime) {
         if (isClosed) throw new IllegalStateException("Cache " + name + " is closed");
         if (key == null) throw new IllegalArgumentException("Cache key cannot be null");
-        MEntry<K, V> entry = entryStore.get(key);
+        MEntry<K, V> entry = getStored(key);
 
         if (entry != null) {
             if (policy != null) {
                 if (currentTime == 0) currentTime = System.currentTimeMillis();
                 if (entry.isExpired(currentTime, policy)) {
-                    entryStore.remove(key);
+                    removeInternal(key);
                     entry = null;
                     if (statsEnabled) stats.countExpire();
                 }
             } else if (hasExpiry) {
                 if (currentTime == 0) currentTime = System.currentTimeMillis();
                 if (entry.isExpired(currentTime, accessDuration, creationDuration, updateDuration)) {
-                    entryStore.remove(key);
+                    removeInternal(key);
                     entry = null;
                     if (statsEnabled) stats.countExpire();
                 }
             }
 
             if (expireBeforeTime != null && entry != null && entry.lastUpdatedTime < expireBeforeTime) {
-                entryStore.remove(key);
+                removeInternal(key);
                 entry = null;
                 if (statsEnabled) stats.countExpire();
             }
 
             if (entry != null) {
-                if (statsEnabled) { stats.gets++; stats.hits++; }
+                if (statsEnabled) stats.countHit();
                 entry.accessCount++;
                 // at this point if an ad-hoc policy is used or hasExpiry == true currentTime will be set, otherwise will be 0
                 // meaning we don't need to track the lastAccessTime (only thing we need System.currentTimeMillis() for)
                 // if (currentTime == 0) currentTime = System.currentTimeMillis();
                 if (currentTime > entry.lastAccessTime) entry.lastAccessTime = currentTime;
             } else {
-                if (statsEnabled) { stats.gets++; stats.misses++; }
+                if (statsEnabled) stats.countMiss();
             }
         } else {
-            if (statsEnabled) { stats.gets++; stats.misses++; }
+            if (statsEnabled) stats.countMiss();
         }
 
         return entry;
@@ -210,9 +302,9 @@ public class MCache<K, V> implements Cache<K, V> {
     private MEntry<K, V> getCheckExpired(K key) {
         if (isClosed) throw new IllegalStateException("Cache " + name + " is closed");
         if (key == null) throw new IllegalArgumentException("Cache key cannot be null");
-        MEntry<K, V> entry = entryStore.get(key);
+        MEntry<K, V> entry = getStored(key);
         if (hasExpiry && entry != null && entry.isExpired(accessDuration, creationDuration, updateDuration)) {
-            entryStore.remove(key);
+            removeInternal(key);
             entry = null;
             if (statsEnabled) stats.countExpire();
         }
@@ -221,9 +313,9 @@ public class MCache<K, V> implements Cache<K, V> {
     private MEntry<K, V> getCheckExpired(K key, long currentTime) {
         if (isClosed) throw new IllegalStateException("Cache " + name + " is closed");
         if (key == null) throw new IllegalArgumentException("Cache key cannot be null");
-        MEntry<K, V> entry = entryStore.get(key);
+        MEntry<K, V> entry = getStored(key);
         if (hasExpiry && entry != null && entry.isExpired(currentTime, accessDuration, creationDuration, updateDuration)) {
-            entryStore.remove(key);
+            removeInternal(key);
             entry = null;
             if (statsEnabled) stats.countExpire();
         }
@@ -249,31 +341,41 @@ public class MCache<K, V> implements Cache<K, V> {
     @Override
     public void put(K key, V value) {
         long currentTime = System.currentTimeMillis();
+        long weight = weigh(key, value);
+        if (weight < 0) return;
         // get entry, count hit/miss
         MEntry<K, V> entry = getCheckExpired(key, currentTime);
         if (entry != null) {
             entry.setValue(value, currentTime);
-            if (statsEnabled) stats.puts++;
+            setWeight(entry, weight);
+            if (statsEnabled) stats.countPut();
         } else {
             entry = new MEntry<>(key, value, currentTime);
-            entryStore.put(key, entry);
-            if (statsEnabled) stats.puts++;
+            entry.weight = weight;
+            removedWeight(entryStore.put(key, entry));
+            addedWeight(weight);
+            if (statsEnabled) stats.countPut();
         }
     }
     @Override
     public V getAndPut(K key, V value) {
         long currentTime = System.currentTimeMillis();
+        long weight = weigh(key, value);
+        if (weight < 0) return null;
         // get entry, count hit/miss
         MEntry<K, V> entry = getCheckExpired(key, currentTime);
         if (entry != null) {
             V oldValue = entry.value;
             entry.setValue(value, currentTime);
-            if (statsEnabled) stats.puts++;
+            setWeight(entry, weight);
+            if (statsEnabled) stats.countPut();
             return oldValue;
         } else {
             entry = new MEntry<>(key, value, currentTime);
-            entryStore.put(key, entry);
-            if (statsEnabled) stats.puts++;
+            entry.weight = weight;
+            removedWeight(entryStore.put(key, entry));
+            addedWeight(weight);
+            if (statsEnabled) stats.countPut();
             return null;
         }
     }
@@ -290,10 +392,14 @@ public class MCache<K, V> implements Cache<K, V> {
         if (entry != null) {
             return false;
         } else {
+            long weight = weigh(key, value);
+            if (weight < 0) return false;
             entry = new MEntry<>(key, value, currentTime);
+            entry.weight = weight;
             MEntry<K, V> existingValue = entryStore.putIfAbsent(key, entry);
             if (existingValue == null) {
-                if (statsEnabled) stats.puts++;
+                addedWeight(weight);
+                if (statsEnabled) stats.countPut();
                 return true;
             } else {
                 return false;
@@ -305,7 +411,7 @@ public class MCache<K, V> implements Cache<K, V> {
     public boolean remove(K key) {
         MEntry<K, V> entry = getCheckExpired(key);
         if (entry != null) {
-            entryStore.remove(key);
+            removeInternal(key);
             if (statsEnabled) stats.countRemoval();
             return true;
         } else {
@@ -321,6 +427,7 @@ public class MCache<K, V> implements Cache<K, V> {
             if (remove) {
                 // remove with dummy MEntry instance for comparison to ensure still equals
                 remove = entryStore.remove(key, new MEntry<>(key, oldValue));
+                if (remove) removedWeight(entry);
                 if (remove && statsEnabled) stats.countRemoval();
             }
             return remove;
@@ -335,7 +442,7 @@ public class MCache<K, V> implements Cache<K, V> {
         MEntry<K, V> entry = getEntryInternal(key, null, null, 0);
         if (entry != null) {
             V oldValue = entry.value;
-            entryStore.remove(key);
+            removeInternal(key);
             if (statsEnabled) stats.countRemoval();
             return oldValue;
         }
@@ -349,7 +456,8 @@ public class MCache<K, V> implements Cache<K, V> {
 
         if (entry != null) {
             boolean replaced = entry.setValueIfEquals(oldValue, newValue, currentTime);
-            if (replaced) if (statsEnabled) stats.puts++;
+            if (replaced) setWeight(entry, weighAny(key, newValue));
+            if (replaced) if (statsEnabled) stats.countPut();
             return replaced;
         } else {
             return false;
@@ -363,7 +471,8 @@ public class MCache<K, V> implements Cache<K, V> {
 
         if (entry != null) {
             entry.setValue(value, currentTime);
-            if (statsEnabled) stats.puts++;
+            setWeight(entry, weighAny(key, value));
+            if (statsEnabled) stats.countPut();
             return true;
         } else {
             return false;
@@ -378,7 +487,8 @@ public class MCache<K, V> implements Cache<K, V> {
         if (entry != null) {
             V oldValue = entry.value;
             entry.setValue(value, currentTime);
-            if (statsEnabled) stats.puts++;
+            setWeight(entry, weighAny(key, value));
+            if (statsEnabled) stats.countPut();
             return oldValue;
         } else {
             return null;
@@ -396,6 +506,8 @@ public class MCache<K, V> implements Cache<K, V> {
         if (isClosed) throw new IllegalStateException("Cache " + name + " is closed");
         int size = entryStore.size();
         entryStore.clear();
+        stats.estimatedBytes.set(0);
+        if (offHeapStore != null) offHeapStore.clear();
         if (statsEnabled) stats.countBulkRemoval(size);
     }
 
@@ -404,6 +516,8 @@ public class MCache<K, V> implements Cache<K, V> {
         if (isClosed) throw new IllegalStateException("Cache " + name + " is closed");
         // don't track removals or do anything else, removeAll does that
         entryStore.clear();
+        stats.estimatedBytes.set(0);
+        if (offHeapStore != null) offHeapStore.clear();
     }
 
     @Override
@@ -442,6 +556,8 @@ public class MCache<K, V> implements Cache<K, V> {
         if (isClosed) throw new IllegalStateException("Cache " + name + " is already closed");
         isClosed = true;
         entryStore.clear();
+        stats.estimatedBytes.set(0);
+        if (offHeapStore != null) offHeapStore.close();
     }
     @Override
     public boolean isClosed() { return isClosed; }
@@ -485,11 +601,11 @@ public class MCache<K, V> implements Cache<K, V> {
                 if (curEntry.isExpired) {
                     curEntry = null;
                 } else if (mCache.hasExpiry && curEntry.isExpired(initialTime, mCache.accessDuration, mCache.creationDuration, mCache.updateDuration)) {
-                    mCache.entryStore.remove(curEntry.getKey());
+                    mCache.removeInternal(curEntry.getKey());
                     if (mCache.statsEnabled) mCache.stats.countExpire();
                     curEntry = null;
                 } else {
-                    if (mCache.statsEnabled)  { mCache.stats.gets++; mCache.stats.hits++; }
+                    if (mCache.statsEnabled) mCache.stats.countHit();
                     break;
                 }
             }
@@ -499,7 +615,7 @@ public class MCache<K, V> implements Cache<K, V> {
         @Override
         public void remove() {
             if (curEntry != null) {
-                mCache.entryStore.remove(curEntry.getKey());
+                mCache.removeInternal(curEntry.getKey());
                 if (mCache.statsEnabled) mCache.stats.countRemoval();
                 curEntry = null;
             }
@@ -518,7 +634,7 @@ public class MCache<K, V> implements Cache<K, V> {
             MEntry<K, V> entry = getCheckExpired(key, currentTime);
             if (entry != null) {
                 entryList.add(entry);
-                if (statsEnabled) { stats.gets++; stats.hits++; }
+                if (statsEnabled) stats.countHit();
                 entry.accessCount++; if (currentTime > entry.lastAccessTime) entry.lastAccessTime = currentTime;
             }
         }
@@ -527,6 +643,7 @@ public class MCache<K, V> implements Cache<K, V> {
     public int clearExpired() {
         if (isClosed) throw new IllegalStateException("Cache " + name + " is closed");
         if (!hasExpiry) return 0;
+        long startNanos = System.nanoTime();
         long currentTime = System.currentTimeMillis();
         ArrayList<K> keyList = new ArrayList<>(entryStore.keySet());
         int keyListSize = keyList.size();
@@ -535,21 +652,190 @@ public class MCache<K, V> implements Cache<K, V> {
             K key = keyList.get(i);
             MEntry<K, V> entry = entryStore.get(key);
             if (entry != null && entry.isExpired(currentTime, accessDuration, creationDuration, updateDuration)) {
-                entryStore.remove(key);
+                removeInternal(key);
                 if (statsEnabled) stats.countExpire();
                 expireCount++;
             }
         }
+        if (statsEnabled) stats.expireSweepTimer.record(System.nanoTime() - startNanos);
         return expireCount;
     }
+    /** Record time to load a value on a miss, done outside the cache (usually by the entity facade) */
+    public void recordLoad(long nanos) { if (statsEnabled) stats.loadTimer.record(nanos); }
     public CacheStatisticsMXBean getStats() { return stats; }
     public MStats getMStats() { return stats; }
+    public boolean isStatisticsEnabled() { return statsEnabled; }
+    void setStatisticsEnabled(boolean enabled) { statsEnabled = enabled; }
     public int size() { return entryStore.size(); }
 
     public Duration getAccessDuration() { return accessDuration; }
     public Duration getCreationDuration() { return creationDuration; }
     public Duration getUpdateDuration() { return updateDuration; }
 
+    /** Get from the heap tier, or if not there from the off-heap tier moving it to the heap tier. The move is done in
+     * entryStore.computeIfAbsent() so it is atomic with removeInternal() and evictInternal() for the same key. */
+    private MEntry<K, V> getStored(K key) {
+        MEntry<K, V> entry = entryStore.get(key);
+        if (entry != null || offHeapStore == null) return entry;
+        boolean[] promoted = new boolean[1];
+        entry = entryStore.computeIfAbsent(key, k -> {
+            MEntry<K, V> offHeapEntry = offHeapStore.remove(k);
+            if (offHeapEntry == null) return null;
+            offHeapEntry.weight = weighAny(k, offHeapEntry.value);
+            promoted[0] = true;
+            return offHeapEntry;
+        });
+        // add weight outside computeIfAbsent as it may evict, which must not modify entryStore while in a compute
+        if (promoted[0]) addedWeight(entry.weight);
+        return entry;
+    }
+    /** Encode the value of an entry evicted from the heap tier for the off-heap tier, null if expired */
+    private byte[] encodeForDemote(MEntry<K, V> entry, V value) {
+        if (entry.isExpired) return null;
+        if (hasExpiry && entry.isExpired(accessDuration, creationDuration, updateDuration)) return null;
+        return offHeapStore.encode(entry.getKey(), value);
+    }
+
+    /** Remove from the heap tier and the off-heap tier; with an off-heap tier both are done in entryStore.compute() so a
+     * concurrent move between tiers for the key can't bring back the removed value */
+    @SuppressWarnings("unchecked")
+    private MEntry<K, V> removeInternal(K key) {
+        MEntry<K, V> entry;
+        if (offHeapStore == null) {
+            entry = entryStore.remove(key);
+        } else {
+            Object[] removed = new Object[1];
+            entryStore.compute(key, (k, cur) -> {
+                removed[0] = cur;
+                offHeapStore.invalidate(k);
+                return null;
+            });
+            entry = (MEntry<K, V>) removed[0];
+        }
+        removedWeight(entry);
+        return entry;
+    }
+    /** Remove from the heap tier for eviction, and move to the off-heap tier if there is one. The value is encoded
+     * before the compute so the key isn't locked while encoding, then in the compute only removed if the entry was not
+     * replaced or updated meanwhile and the encoded bytes stored, so a concurrent remove or move between tiers is
+     * ordered with it. */
+    private MEntry<K, V> evictInternal(K key) {
+        MEntry<K, V> entry;
+        if (offHeapStore == null) {
+            entry = entryStore.remove(key);
+        } else {
+            entry = entryStore.get(key);
+            if (entry == null) return null;
+            final MEntry<K, V> evictEntry = entry;
+            // same lock as MEntry.setValue() to get the value with its update time
+            V value;
+            final long updatedTime;
+            synchronized (evictEntry.getKey()) { value = evictEntry.value; updatedTime = evictEntry.lastUpdatedTime; }
+            final byte[] bytes = encodeForDemote(evictEntry, value);
+            boolean[] removed = new boolean[1];
+            entryStore.computeIfPresent(key, (k, cur) -> {
+                if (cur != evictEntry || cur.lastUpdatedTime != updatedTime) return cur;
+                removed[0] = true;
+                if (bytes != null) offHeapStore.put(cur, bytes);
+                return null;
+            });
+            if (!removed[0]) return null;
+        }
+        removedWeight(entry);
+        return entry;
+    }
+    /** Weight for a put, -1 if over max bytes, in which case any current entry is removed and an eviction counted */
+    private long weigh(K key, V value) {
+        if (weigher == null) return 0;
+        long weight = weigher.weigh(key, value);
+        long curMaxBytes = maxBytes;
+        if (curMaxBytes > 0 && weight > curMaxBytes) {
+            removeInternal(key);
+            stats.countEviction();
+            if (logger.isTraceEnabled()) logger.trace("Not putting entry of " + weight + " bytes in cache " + name + " with max bytes " + curMaxBytes);
+            return -1;
+        }
+        return weight;
+    }
+    /** Weight for a replace, not checked against max bytes */
+    private long weighAny(K key, V value) { return weigher != null ? weigher.weigh(key, value) : 0; }
+    private void setWeight(MEntry<K, V> entry, long weight) {
+        if (weigher == null) return;
+        long oldWeight;
+        synchronized (entry) { oldWeight = entry.weight; entry.weight = weight; }
+        addedWeight(weight - oldWeight);
+    }
+    private void removedWeight(MEntry<K, V> entry) {
+        if (weigher == null || entry == null) return;
+        long oldWeight;
+        synchronized (entry) { oldWeight = entry.weight; entry.weight = 0; }
+        if (oldWeight != 0) stats.estimatedBytes.addAndGet(-oldWeight);
+    }
+    private void addedWeight(long weight) {
+        if (weight == 0) return;
+        long totalBytes = stats.estimatedBytes.addAndGet(weight);
+        long curMaxBytes = maxBytes;
+        if (curMaxBytes > 0 && totalBytes > curMaxBytes) queueWeightEvict();
+    }
+    /** Run evictByWeight() on the evict worker instead of in the putting thread, puts may go over max bytes until it runs */
+    private void queueWeightEvict() {
+        if (!weightEvictQueued.compareAndSet(false, true)) return;
+        try {
+            workerPool.execute(() -> {
+                try {
+                    if (!isClosed) evictByWeight();
+                } finally {
+                    weightEvictQueued.set(false);
+                }
+                // puts while evicting didn't queue another run, check again
+                long curMaxBytes = maxBytes;
+                if (!isClosed && curMaxBytes > 0 && stats.estimatedBytes.get() > curMaxBytes) queueWeightEvict();
+            });
+        } catch (RejectedExecutionException e) {
+            weightEvictQueued.set(false);
+            logger.warn("Could not queue eviction by weight for cache " + name, e);
+        }
+    }
+
+    /** Evict least used entries, and for the same use count the biggest first, until at 90% of max bytes; only run on the
+     * evict worker, see queueWeightEvict() */
+    @SuppressWarnings("unchecked")
+    private void evictByWeight() {
+        try {
+            long curMaxBytes = maxBytes;
+            if (curMaxBytes <= 0) return;
+            long startNanos = System.nanoTime();
+
+            // add up entry weights instead of using the running total which may drift with concurrent put and remove of an entry
+            Collection<MEntry<K, V>> entrySet = entryStore.values();
+            PriorityQueue<MEntry> priorityQueue = new PriorityQueue<>(Math.max(entrySet.size(), 1), weightComparator);
+            long totalBytes = 0;
+            for (MEntry<K, V> entry : entrySet) {
+                totalBytes += entry.weight;
+                priorityQueue.add(entry);
+            }
+            stats.estimatedBytes.set(totalBytes);
+            if (totalBytes <= curMaxBytes) return;
+
+            long targetBytes = curMaxBytes - curMaxBytes / 10;
+            int entriesEvicted = 0;
+            while (totalBytes > targetBytes && priorityQueue.size() > 0) {
+                MEntry<K, V> curEntry = priorityQueue.poll();
+                long curWeight = curEntry.weight;
+                MEntry<K, V> removed = evictInternal(curEntry.getKey());
+                if (removed == null) continue;
+                totalBytes -= curWeight;
+                stats.countEviction();
+                entriesEvicted++;
+            }
+            long elapsedNanos = System.nanoTime() - startNanos;
+            if (statsEnabled) stats.evictTimer.record(elapsedNanos);
+            logger.info("Evicted " + entriesEvicted + " entries in " + (elapsedNanos / 1000000) + "ms from cache " + name + " to get under max bytes " + curMaxBytes);
+        } catch (Throwable t) {
+            logger.error("Error evicting by weight from cache " + name, t);
+        }
+    }
+
     private static class EvictRunnable<K, V> implements Runnable {
         static AccessComparator comparator = new AccessComparator();
         MCache cache;
@@ -562,7 +848,7 @@ public class MCache<K, V> implements Cache<K, V> {
             int entriesToEvict = cache.entryStore.size() - maxEntries;
             if (entriesToEvict <= 0) return;
 
-            long startTime = System.currentTimeMillis();
+            long startNanos = System.nanoTime();
 
             Collection<MEntry> entrySet = (Collection<MEntry>) cache.entryStore.values();
             PriorityQueue<MEntry> priorityQueue = new PriorityQueue<>(entrySet.size(), comparator);
@@ -573,13 +859,24 @@ public class MCache<K, V> implements Cache<K, V> {
                 MEntry curEntry = priorityQueue.poll();
                 // if an entry was expired after pulling the initial value set
                 if (curEntry.isExpired) continue;
-                cache.entryStore.remove(curEntry.getKey());
-                cache.stats.evictions++;
+                cache.evictInternal(curEntry.getKey());
+                cache.stats.countEviction();
                 entriesEvicted++;
                 entriesToEvict--;
             }
-            long timeElapsed = System.currentTimeMillis() - startTime;
-            logger.info("Evicted " + entriesEvicted + " entries in " + timeElapsed + "ms from cache " + cache.name);
+            long elapsedNanos = System.nanoTime() - startNanos;
+            if (cache.statsEnabled) cache.stats.evictTimer.record(elapsedNanos);
+            logger.info("Evicted " + entriesEvicted + " entries in " + (elapsedNanos / 1000000) + "ms from cache " + cache.name);
+        }
+    }
+    private static final WeightComparator weightComparator = new WeightComparator();
+    private static class WeightComparator implements Comparator<MEntry> {
+        @Override
+        public int compare(MEntry e1, MEntry e2) {
+            if (e1.accessCount != e2.accessCount) return e1.accessCount > e2.accessCount ? 1 : -1;
+            if (e1.weight != e2.weight) return e1.weight > e2.weight ? -1 : 1;
+            if (e1.lastAccessTime == e2.lastAccessTime) return 0;
+            return e1.lastAccessTime > e2.lastAccessTime ? 1 : -1;
         }
     }
     private static class AccessComparator implements Comparator<MEntry> {
@@ -28,6 +28,14 @@ public class MCacheConfiguration<K, V> extends MutableConfiguration<K, V> {
 
     int maxEntries = 0;
     long maxCheckSeconds = 30;
+    long maxBytes = 0;
+    MWeigher<K, V> weigher = null;
+    long offHeapBytes = 0;
+    MCodec<V> codec = null;
+    long staleGraceMillis = 0;
+    long refreshAheadMillis = 0;
+    boolean coalesceLoads = false;
+    long coalesceWaitMillis = 10000;
 
     /** Set maximum number of entries in the cache, 0 means no limit (default). Limit is enforced in a scheduled worker, not on put operations. */
     public MCacheConfiguration<K, V> setMaxEntries(int elements) {
@@ -47,4 +55,79 @@ public class MCacheConfiguration<K, V> extends MutableConfiguration<K, V> {
     public long getMaxCheckSeconds() {
         return maxCheckSeconds;
     }
+
+    /** Set maximum estimated bytes for all entries in the cache, 0 means no limit (default). Limit is enforced on put
+     * operations by evicting the least used entries. Requires a weigher, see setWeigher(). */
+    public MCacheConfiguration<K, V> setMaxBytes(long bytes) {
+        maxBytes = bytes;
+        return this;
+    }
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /** Set the weigher used to estimate the bytes for each entry, used for max bytes and MStats estimated bytes */
+    public MCacheConfiguration<K, V> setWeigher(MWeigher<K, V> weigher) {
+        this.weigher = weigher;
+        return this;
+    }
+    public MWeigher<K, V> getWeigher() {
+        return weigher;
+    }
+
+    /** Set bytes for an off-heap tier, 0 means none (default). Entries evicted from the heap (by max entries or max
+     * bytes) go in the off-heap tier and are moved back to the heap when found there on a get. */
+    public MCacheConfiguration<K, V> setOffHeapBytes(long bytes) {
+        offHeapBytes = bytes;
+        return this;
+    }
+    public long getOffHeapBytes() {
+        return offHeapBytes;
+    }
+
+    /** Set the codec for values in the off-heap tier, defaults to MBinaryCodec */
+    public MCacheConfiguration<K, V> setCodec(MCodec<V> codec) {
+        this.codec = codec;
+        return this;
+    }
+    public MCodec<V> getCodec() {
+        return codec;
+    }
+
+    /** Set time after expiry that an entry may still be used while it is refreshed, see MCache.getEntryStale().
+     * MCache does not load values, this is for the code that does. */
+    public MCacheConfiguration<K, V> setStaleGraceMillis(long millis) {
+        staleGraceMillis = millis;
+        return this;
+    }
+    public long getStaleGraceMillis() {
+        return staleGraceMillis;
+    }
+
+    /** Set time before expiry to refresh an entry in the background. MCache does not load values, this is for the code that does. */
+    public MCacheConfiguration<K, V> setRefreshAheadMillis(long millis) {
+        refreshAheadMillis = millis;
+        return this;
+    }
+    public long getRefreshAheadMillis() {
+        return refreshAheadMillis;
+    }
+
+    /** Set to true to have only one thread load a missing key while others wait. MCache does not load values, this is for the code that does. */
+    public MCacheConfiguration<K, V> setCoalesceLoads(boolean coalesce) {
+        coalesceLoads = coalesce;
+        return this;
+    }
+    public boolean isCoalesceLoads() {
+        return coalesceLoads;
+    }
+
+    /** Set max time to wait for another thread loading the same key with coalesce loads, then load anyway */
+    public MCacheConfiguration<K, V> setCoalesceWaitMillis(long millis) {
+        coalesceWaitMillis = millis;
+        return this;
+    }
+    public long getCoalesceWaitMillis() {
+        return coalesceWaitMillis;
+    }
 }
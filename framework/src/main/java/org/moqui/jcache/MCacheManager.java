@@ -20,13 +20,21 @@ import javax.cache.Cache;
 import javax.cache.CacheManager;
 import javax.cache.configuration.Configuration;
 import javax.cache.spi.CachingProvider;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.lang.management.ManagementFactory;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Properties;
 
-/** This class does not completely support the javax.cache.CacheManager spec, it is just enough to use as a factory for MCache instances. */
+/** This class does not completely support the javax.cache.CacheManager spec, it is just enough to use as a factory for MCache instances.
+ * Statistics for each cache with statistics enabled are registered with the platform MBeanServer as an MStatsMXBean
+ * named javax.cache:type=CacheStatistics,CacheManager=MCacheManager,Cache="name". */
 public class MCacheManager implements CacheManager {
     private static final Logger logger = LoggerFactory.getLogger(MCacheManager.class);
 
@@ -65,6 +73,7 @@ public class MCacheManager implements CacheManager {
 
         MCache<K, V> newCache = new MCache(cacheName, this, configuration);
         cacheMap.put(cacheName, newCache);
+        if (newCache.isStatisticsEnabled()) registerStats(newCache);
         return newCache;
     }
 
@@ -93,6 +102,7 @@ public class MCacheManager implements CacheManager {
         MCache cache = cacheMap.get(cacheName);
         if (cache != null) {
             cacheMap.remove(cacheName);
+            unregisterStats(cacheName);
             cache.close();
         } else {
             throw new IllegalStateException("Cache with name " + cacheName + " does not exist, cannot be destroyed");
@@ -103,11 +113,51 @@ public class MCacheManager implements CacheManager {
     public void enableManagement(String cacheName, boolean enabled) {
         throw new UnsupportedOperationException("MCacheManager does not support CacheMXBean"); }
     @Override
-    public void enableStatistics(String cacheName, boolean enabled) {
-        throw new UnsupportedOperationException("MCacheManager does not support registered statistics; use the MCache.getStats() or getMStats() methods"); }
+    public synchronized void enableStatistics(String cacheName, boolean enabled) {
+        if (isClosed) throw new IllegalStateException("MCacheManager is closed");
+        MCache cache = cacheMap.get(cacheName);
+        if (cache == null) throw new IllegalStateException("Cache with name " + cacheName + " does not exist, cannot enable statistics");
+        cache.setStatisticsEnabled(enabled);
+        if (enabled) registerStats(cache);
+        else unregisterStats(cacheName);
+    }
+
+    public static ObjectName getStatsObjectName(String cacheName) {
+        try {
+            return new ObjectName("javax.cache:type=CacheStatistics,CacheManager=MCacheManager,Cache=" + ObjectName.quote(cacheName));
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Could not make MBean name for cache " + cacheName, e);
+        }
+    }
+    private void registerStats(MCache cache) {
+        try {
+            MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = getStatsObjectName(cache.getName());
+            StandardMBean mbean = new StandardMBean(cache.getMStats(), MStatsMXBean.class, true);
+            try {
+                mbs.registerMBean(mbean, objectName);
+            } catch (InstanceAlreadyExistsException e) {
+                // left from a cache with the same name before close(), replace it
+                mbs.unregisterMBean(objectName);
+                mbs.registerMBean(mbean, objectName);
+            }
+        } catch (Exception e) {
+            logger.warn("Could not register statistics MBean for cache " + cache.getName() + ": " + e.toString());
+        }
+    }
+    private void unregisterStats(String cacheName) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(getStatsObjectName(cacheName));
+        } catch (InstanceNotFoundException e) {
+            // statistics not enabled or not registered, nothing to do
+        } catch (Exception e) {
+            logger.warn("Could not unregister statistics MBean for cache " + cacheName + ": " + e.toString());
+        }
+    }
 
     @Override
-    public void close() {
+    public synchronized void close() {
+        for (String cacheName : cacheMap.keySet()) unregisterStats(cacheName);
         cacheMap.clear();
         // doesn't work well with current singleton approach: isClosed = true;
     }
@@ -0,0 +1,22 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.jcache;
+
+import java.io.IOException;
+
+/** Converts cache values to and from bytes for the MCache off-heap tier, see MCacheConfiguration.setOffHeapBytes() */
+public interface MCodec<V> {
+    byte[] encode(V value) throws IOException;
+    V decode(byte[] bytes) throws IOException;
+}
@@ -26,6 +26,8 @@ public class MEntry<K, V> implements Cache.Entry<K, V> {
     long lastAccessTime = 0;
     long accessCount = 0;
     boolean isExpired = false;
+    // estimated bytes from the cache's weigher, 0 if none
+    long weight = 0;
 
     /**
      * Use this only to create MEntry to compare with an existing entry
@@ -107,6 +109,10 @@ public class MEntry<K, V> implements Cache.Entry<K, V> {
         return accessCount;
     }
 
+    public long getWeight() {
+        return weight;
+    }
+
     /* done directly on fields for performance reasons
     void countAccess(long accessTime) {
         accessCount++; if (accessTime > lastAccessTime) lastAccessTime = accessTime;
@@ -127,6 +133,18 @@ public class MEntry<K, V> implements Cache.Entry<K, V> {
         return isExpired(System.currentTimeMillis(), accessDuration, creationDuration, updateDuration);
     }
 
+    /** Earliest time this entry expires for the given durations, Long.MAX_VALUE if never */
+    long getExpireTime(Duration accessDuration, Duration creationDuration, Duration updateDuration) {
+        long expireTime = Long.MAX_VALUE;
+        if (accessDuration != null && !accessDuration.isEternal())
+            expireTime = Math.min(expireTime, accessDuration.getAdjustedTime(lastAccessTime));
+        if (creationDuration != null && !creationDuration.isEternal())
+            expireTime = Math.min(expireTime, creationDuration.getAdjustedTime(createdTime));
+        if (updateDuration != null && !updateDuration.isEternal())
+            expireTime = Math.min(expireTime, updateDuration.getAdjustedTime(lastUpdatedTime));
+        return expireTime;
+    }
+
     boolean isExpired(long accessTime, Duration accessDuration, Duration creationDuration, Duration updateDuration) {
         if (isExpired) return true;
         if (accessDuration != null && !accessDuration.isEternal()) {
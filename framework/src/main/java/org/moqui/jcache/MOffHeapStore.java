@@ -0,0 +1,246 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.jcache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.function.Predicate;
+
+/**
+ * Off-heap second tier for MCache, values evicted from the heap are encoded with an MCodec and stored in direct
+ * ByteBuffers, and on a get are removed and decoded to go back in the heap tier.
+ *
+ * Keys are hashed to segments, each a ring buffer with its own lock, allocated on first use. When a segment is full
+ * the oldest values are overwritten (FIFO). Keys and small slot records stay on the heap, the values don't.
+ */
+public class MOffHeapStore<K, V> {
+    private static final Logger logger = LoggerFactory.getLogger(MOffHeapStore.class);
+    static final int MAX_SEGMENT_BYTES = 1 << 30;
+    static final int MIN_SEGMENTS = 4;
+
+    private final String name;
+    private final MCodec<V> codec;
+    private final long capacityBytes;
+    private final Segment<K>[] segments;
+
+    @SuppressWarnings("unchecked")
+    public MOffHeapStore(String name, long capacityBytes, MCodec<V> codec) {
+        this.name = name;
+        this.codec = codec;
+        this.capacityBytes = capacityBytes;
+        int segmentCount = (int) Math.max(MIN_SEGMENTS, (capacityBytes + MAX_SEGMENT_BYTES - 1) / MAX_SEGMENT_BYTES);
+        int segmentBytes = (int) (capacityBytes / segmentCount);
+        segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) segments[i] = new Segment<>(segmentBytes);
+    }
+
+    private Segment<K> segment(K key) {
+        int hash = key.hashCode();
+        hash ^= (hash >>> 16);
+        return segments[(hash & 0x7fffffff) % segments.length];
+    }
+
+    /** Encode a value to pass to put(), null if it could not be encoded; separate so it can be done before locking
+     * anything for the key */
+    byte[] encode(K key, V value) {
+        try {
+            return codec.encode(value);
+        } catch (Exception e) {
+            if (logger.isTraceEnabled()) logger.trace("Could not encode value for key " + key + " in off-heap cache " + name, e);
+            return null;
+        }
+    }
+    /** Store the value encoded with encode(), returns false if it is too big for a segment */
+    boolean put(MEntry<K, V> entry, byte[] bytes) {
+        K key = entry.getKey();
+        return segment(key).put(key, bytes, entry.getCreatedTime(), entry.lastUpdatedTime);
+    }
+
+    /** Remove and decode the value for the key, null if not found (or could not be decoded) */
+    MEntry<K, V> remove(K key) {
+        Slot<K> slot = segment(key).take(key);
+        if (slot == null) return null;
+        byte[] bytes = slot.bytes;
+        // the slot stays in the segment's FIFO until overwritten, don't keep the bytes
+        slot.bytes = null;
+        try {
+            MEntry<K, V> entry = new MEntry<>(key, codec.decode(bytes), slot.createdTime);
+            entry.lastUpdatedTime = slot.lastUpdatedTime;
+            return entry;
+        } catch (Exception e) {
+            logger.warn("Could not decode value for key " + key + " in off-heap cache " + name, e);
+            return null;
+        }
+    }
+
+    /** Remove the value for the key without decoding it */
+    void invalidate(K key) { segment(key).invalidate(key); }
+
+    /** Remove values with keys matching the filter without decoding them, returns the number removed */
+    int invalidateIf(Predicate<? super K> keyFilter) {
+        int removed = 0;
+        for (Segment<K> segment : segments) removed += segment.invalidateIf(keyFilter);
+        return removed;
+    }
+
+    void clear() { for (Segment<K> segment : segments) segment.clear(); }
+    void close() { for (Segment<K> segment : segments) segment.release(); }
+
+    public long getCapacityBytes() { return capacityBytes; }
+    /** Number of values in the off-heap tier */
+    public int size() {
+        int size = 0;
+        for (Segment<K> segment : segments) size += segment.size();
+        return size;
+    }
+    /** Bytes used by values in the off-heap tier, not counting space of removed values not yet overwritten */
+    public long getUsedBytes() {
+        long bytes = 0;
+        for (Segment<K> segment : segments) bytes += segment.liveBytes;
+        return bytes;
+    }
+    /** Bytes allocated for segments used so far */
+    public long getAllocatedBytes() {
+        long bytes = 0;
+        for (Segment<K> segment : segments) if (segment.buffer != null) bytes += segment.capacity;
+        return bytes;
+    }
+    /** Values put in the off-heap tier when evicted from the heap */
+    public long getPuts() {
+        long count = 0;
+        for (Segment<K> segment : segments) count += segment.puts;
+        return count;
+    }
+    /** Values found in the off-heap tier and moved back to the heap */
+    public long getHits() {
+        long count = 0;
+        for (Segment<K> segment : segments) count += segment.hits;
+        return count;
+    }
+    /** Values overwritten to make room for others */
+    public long getEvictions() {
+        long count = 0;
+        for (Segment<K> segment : segments) count += segment.evictions;
+        return count;
+    }
+
+    private static class Slot<K> {
+        final K key;
+        final int offset, length;
+        final long createdTime, lastUpdatedTime;
+        byte[] bytes = null;
+        Slot(K key, int offset, int length, long createdTime, long lastUpdatedTime) {
+            this.key = key; this.offset = offset; this.length = length;
+            this.createdTime = createdTime; this.lastUpdatedTime = lastUpdatedTime;
+        }
+    }
+
+    private static class Segment<K> {
+        final int capacity;
+        ByteBuffer buffer = null;
+        int head = 0;
+        // slots in write order, including removed slots until their space is overwritten
+        final ArrayDeque<Slot<K>> fifo = new ArrayDeque<>();
+        final HashMap<K, Slot<K>> index = new HashMap<>();
+        long liveBytes = 0, puts = 0, hits = 0, evictions = 0;
+
+        Segment(int capacity) { this.capacity = capacity; }
+
+        synchronized boolean put(K key, byte[] bytes, long createdTime, long lastUpdatedTime) {
+            int length = bytes.length;
+            if (length > capacity) return false;
+            if (buffer == null) buffer = ByteBuffer.allocateDirect(capacity);
+            Slot<K> oldSlot = index.remove(key);
+            if (oldSlot != null) liveBytes -= oldSlot.length;
+
+            if (head + length > capacity) {
+                // not enough room at the end, drop the slots there (oldest, from the last pass) and start over at 0
+                while (!fifo.isEmpty() && fifo.peekFirst().offset >= head) evict(fifo.pollFirst());
+                head = 0;
+            }
+            // drop slots from the last pass in the space to write
+            while (!fifo.isEmpty()) {
+                Slot<K> first = fifo.peekFirst();
+                if (first.offset >= head && first.offset < head + length) evict(fifo.pollFirst());
+                else break;
+            }
+
+            ByteBuffer dup = buffer.duplicate();
+            dup.position(head);
+            dup.put(bytes);
+            Slot<K> slot = new Slot<>(key, head, length, createdTime, lastUpdatedTime);
+            head += length;
+            fifo.addLast(slot);
+            index.put(key, slot);
+            liveBytes += length;
+            puts++;
+            return true;
+        }
+        private void evict(Slot<K> slot) {
+            // the slot may have been removed, or replaced by a newer one for the same key
+            if (index.get(slot.key) == slot) {
+                index.remove(slot.key);
+                liveBytes -= slot.length;
+                evictions++;
+            }
+        }
+
+        synchronized Slot<K> take(K key) {
+            Slot<K> slot = index.remove(key);
+            if (slot == null) return null;
+            byte[] bytes = new byte[slot.length];
+            ByteBuffer dup = buffer.duplicate();
+            dup.position(slot.offset);
+            dup.get(bytes);
+            slot.bytes = bytes;
+            liveBytes -= slot.length;
+            hits++;
+            return slot;
+        }
+        synchronized void invalidate(K key) {
+            Slot<K> slot = index.remove(key);
+            if (slot != null) liveBytes -= slot.length;
+        }
+
+        synchronized int invalidateIf(Predicate<? super K> keyFilter) {
+            int removed = 0;
+            Iterator<Slot<K>> slotIter = index.values().iterator();
+            while (slotIter.hasNext()) {
+                Slot<K> slot = slotIter.next();
+                if (!keyFilter.test(slot.key)) continue;
+                slotIter.remove();
+                liveBytes -= slot.length;
+                removed++;
+            }
+            return removed;
+        }
+
+        synchronized int size() { return index.size(); }
+        synchronized void clear() {
+            index.clear();
+            fifo.clear();
+            head = 0;
+            liveBytes = 0;
+        }
+        synchronized void release() {
+            clear();
+            buffer = null;
+        }
+    }
+}
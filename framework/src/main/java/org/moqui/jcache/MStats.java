@@ -13,114 +13,170 @@
  */
 package org.moqui.jcache;
 
-import javax.cache.management.CacheStatisticsMXBean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
-public class MStats implements CacheStatisticsMXBean {
-    long hits = 0;
-    long misses = 0;
-    long gets = 0;
-
-    long puts = 0;
-    private long removals = 0;
-    long evictions = 0;
-    private long expires = 0;
-
-    // long totalGetMicros = 0, totalPutMicros = 0, totalRemoveMicros = 0;
+/**
+ * Statistics for an MCache. Counters are LongAdder so threads counting gets and puts on a busy cache don't contend
+ * for the same memory; sums are only added up when read.
+ *
+ * Get, put and remove times are not tracked (timing each would cost more than most gets), but time for things that
+ * can be slow is: loads on a miss reported with MCache.recordLoad(), eviction runs, and expired entry sweeps.
+ */
+public class MStats implements MStatsMXBean {
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder puts = new LongAdder();
+    private final LongAdder removals = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expires = new LongAdder();
+    // not a counter so not reset in clear(), only updated when the cache has a weigher
+    final AtomicLong estimatedBytes = new AtomicLong(0);
+
+    final Timer loadTimer = new Timer();
+    final Timer evictTimer = new Timer();
+    final Timer expireSweepTimer = new Timer();
 
     @Override
     public void clear() {
-        hits = 0;
-        misses = 0;
-        gets = 0;
-        puts = 0;
-        removals = 0;
-        evictions = 0;
-        expires = 0;
+        hits.reset();
+        misses.reset();
+        puts.reset();
+        removals.reset();
+        evictions.reset();
+        expires.reset();
+        loadTimer.clear();
+        evictTimer.clear();
+        expireSweepTimer.clear();
     }
 
     @Override
-    public long getCacheHits() {
-        return hits;
-    }
-
+    public long getCacheHits() { return hits.sum(); }
     @Override
     public float getCacheHitPercentage() {
-        return (hits / gets) * 100;
+        long curHits = hits.sum(), curGets = curHits + misses.sum();
+        return curGets == 0 ? 0 : curHits * 100.0f / curGets;
     }
-
     @Override
-    public long getCacheMisses() {
-        return misses;
-    }
-
+    public long getCacheMisses() { return misses.sum(); }
     @Override
     public float getCacheMissPercentage() {
-        return (misses / gets) * 100;
+        long curMisses = misses.sum(), curGets = curMisses + hits.sum();
+        return curGets == 0 ? 0 : curMisses * 100.0f / curGets;
     }
-
     @Override
-    public long getCacheGets() {
-        return gets;
-    }
-
+    public long getCacheGets() { return hits.sum() + misses.sum(); }
     @Override
-    public long getCachePuts() {
-        return puts;
-    }
-
+    public long getCachePuts() { return puts.sum(); }
     @Override
-    public long getCacheRemovals() {
-        return removals;
-    }
-
+    public long getCacheRemovals() { return removals.sum(); }
     @Override
-    public long getCacheEvictions() {
-        return evictions;
-    }
+    public long getCacheEvictions() { return evictions.sum(); }
 
     @Override
-    public float getAverageGetTime() {
-        return 0;
-    } // totalGetMicros / gets
-
+    public float getAverageGetTime() { return 0; }
     @Override
-    public float getAveragePutTime() {
-        return 0;
-    } // totalPutMicros / puts
-
+    public float getAveragePutTime() { return 0; }
     @Override
-    public float getAverageRemoveTime() {
-        return 0;
-    } // totalRemoveMicros / removals
+    public float getAverageRemoveTime() { return 0; }
 
-    public long getCacheExpires() {
-        return expires;
-    }
-
-    /* have callers access fields directly for performance reasons:
-    void countHit() {
-        gets++; hits++;
-        // totalGetMicros += micros;
-    }
-    void countMiss() {
-        gets++; misses++;
-        // totalGetMicros += micros;
-    }
-    void countPut() {
-        puts++;
-        // totalPutMicros += micros;
-    }
-    */
-    void countRemoval() {
-        removals++;
-        // totalRemoveMicros += micros;
-    }
-
-    void countBulkRemoval(long entries) {
-        removals += entries;
-    }
+    @Override
+    public long getCacheExpires() { return expires.sum(); }
+    /** Estimated bytes of all entries in the cache, 0 if the cache has no weigher */
+    @Override
+    public long getEstimatedBytes() { return estimatedBytes.get(); }
 
-    void countExpire() {
-        expires++;
+    @Override
+    public long getCacheLoads() { return loadTimer.getCount(); }
+    @Override
+    public float getAverageLoadTime() { return loadTimer.getAverageMicros(); }
+    @Override
+    public float getMaxLoadTime() { return loadTimer.getMaxMicros(); }
+    @Override
+    public float getLoadTime99Percentile() { return loadTimer.getPercentileMicros(0.99); }
+    @Override
+    public long getEvictionRuns() { return evictTimer.getCount(); }
+    @Override
+    public float getAverageEvictionPause() { return evictTimer.getAverageMicros(); }
+    @Override
+    public float getMaxEvictionPause() { return evictTimer.getMaxMicros(); }
+    @Override
+    public long getExpirySweeps() { return expireSweepTimer.getCount(); }
+    @Override
+    public float getAverageExpirySweepTime() { return expireSweepTimer.getAverageMicros(); }
+    @Override
+    public float getMaxExpirySweepTime() { return expireSweepTimer.getMaxMicros(); }
+
+    public Timer getLoadTimer() { return loadTimer; }
+    public Timer getEvictTimer() { return evictTimer; }
+    public Timer getExpireSweepTimer() { return expireSweepTimer; }
+
+    void countHit() { hits.increment(); }
+    void countMiss() { misses.increment(); }
+    void countPut() { puts.increment(); }
+    void countEviction() { evictions.increment(); }
+    void countRemoval() { removals.increment(); }
+    void countBulkRemoval(long entries) { removals.add(entries); }
+    void countExpire() { expires.increment(); }
+
+    /** Count, total, max and a histogram of times with buckets by powers of 2 in microseconds (under 1us, 1-2us,
+     * 2-4us, etc, the last for 2^(BUCKETS-2)us and over) for percentiles without keeping each time. */
+    public static class Timer {
+        public static final int BUCKETS = 26;
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong(0);
+        private final LongAdder[] buckets = new LongAdder[BUCKETS];
+
+        Timer() { for (int i = 0; i < BUCKETS; i++) buckets[i] = new LongAdder(); }
+
+        public void record(long nanos) {
+            if (nanos < 0) nanos = 0;
+            count.increment();
+            totalNanos.add(nanos);
+            long curMax = maxNanos.get();
+            while (nanos > curMax && !maxNanos.compareAndSet(curMax, nanos)) curMax = maxNanos.get();
+            long micros = nanos / 1000;
+            int bucket = micros == 0 ? 0 : 64 - Long.numberOfLeadingZeros(micros);
+            buckets[Math.min(bucket, BUCKETS - 1)].increment();
+        }
+        void clear() {
+            count.reset();
+            totalNanos.reset();
+            maxNanos.set(0);
+            for (int i = 0; i < BUCKETS; i++) buckets[i].reset();
+        }
+
+        public long getCount() { return count.sum(); }
+        public long getTotalNanos() { return totalNanos.sum(); }
+        public float getTotalMillis() { return totalNanos.sum() / 1000000.0f; }
+        public float getAverageMicros() {
+            long curCount = count.sum();
+            return curCount == 0 ? 0 : totalNanos.sum() / 1000.0f / curCount;
+        }
+        public float getMaxMicros() { return maxNanos.get() / 1000.0f; }
+        /** Counts in each bucket, bucket i for times under 2^i microseconds (and at least 2^(i-1)) */
+        public long[] getBucketCounts() {
+            long[] counts = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) counts[i] = buckets[i].sum();
+            return counts;
+        }
+        /** Upper bound in microseconds of the bucket with the time at the percentile (0.0 to 1.0), or the max
+         * time if lower; for the last bucket the max time */
+        public float getPercentileMicros(double percentile) {
+            long[] counts = getBucketCounts();
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) total += counts[i];
+            if (total == 0) return 0;
+            long target = (long) Math.ceil(total * percentile);
+            if (target < 1) target = 1;
+            float maxMicros = getMaxMicros();
+            long running = 0;
+            for (int i = 0; i < BUCKETS - 1; i++) {
+                running += counts[i];
+                if (running >= target) return Math.min(1L << i, maxMicros);
+            }
+            return maxMicros;
+        }
     }
 }
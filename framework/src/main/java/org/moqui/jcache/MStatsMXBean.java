@@ -0,0 +1,39 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.jcache;
+
+import javax.cache.management.CacheStatisticsMXBean;
+
+/** Statistics for an MCache registered with the platform MBeanServer, times in microseconds like the average
+ * times in CacheStatisticsMXBean. */
+public interface MStatsMXBean extends CacheStatisticsMXBean {
+    long getCacheExpires();
+    long getEstimatedBytes();
+
+    /** Number of values loaded on a miss (usually entity queries) and recorded with MCache.recordLoad() */
+    long getCacheLoads();
+    float getAverageLoadTime();
+    float getMaxLoadTime();
+    float getLoadTime99Percentile();
+
+    /** Number of eviction runs that evicted entries, by max entries or max bytes */
+    long getEvictionRuns();
+    float getAverageEvictionPause();
+    float getMaxEvictionPause();
+
+    /** Number of MCache.clearExpired() sweeps */
+    long getExpirySweeps();
+    float getAverageExpirySweepTime();
+    float getMaxExpirySweepTime();
+}
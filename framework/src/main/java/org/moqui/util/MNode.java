@@ -44,8 +44,12 @@ public class MNode implements TemplateNodeModel, TemplateSequenceModel, Template
     protected final static Logger logger = LoggerFactory.getLogger(MNode.class);
     private static final Version FTL_VERSION = Configuration.VERSION_2_3_32;
 
-    private final static Map<String, MNode> parsedNodeCache = new HashMap<>();
+    // concurrent so files can be parsed in parallel, see ExecutionContextFactoryImpl.parseXmlFilesParallel()
+    private final static Map<String, MNode> parsedNodeCache = new ConcurrentHashMap<>();
     public static void clearParsedNodeCache() { parsedNodeCache.clear(); }
+    private static volatile MNodeSnapshot parseSnapshot = null;
+    /** Use parsed files from a snapshot when unchanged and add files parsed to it, or stop with null */
+    public static void setParseSnapshot(MNodeSnapshot snapshot) { parseSnapshot = snapshot; }
 
     /* ========== Factories (XML Parsing) ========== */
 
@@ -53,10 +57,26 @@ public class MNode implements TemplateNodeModel, TemplateSequenceModel, Template
         if (rr == null || (rr.supportsExists() && !rr.getExists())) return null;
         String location = rr.getLocation();
         MNode cached = parsedNodeCache.get(location);
-        if (cached != null && cached.lastModified >= rr.getLastModified()) return cached;
+        long rrLastModified = rr.getLastModified();
+        if (cached != null && cached.lastModified >= rrLastModified) return cached;
+
+        MNodeSnapshot snapshot = parseSnapshot;
+        if (snapshot != null && rrLastModified > 0) {
+            InputStream is = rr.openStream();
+            if (is == null) return null;
+            byte[] source;
+            try { source = is.readAllBytes(); }
+            catch (IOException e) { throw new BaseException("Error reading XML from " + location, e); }
+            finally {
+                try { is.close(); }
+                catch (IOException e) { logger.error("Error closing XML stream from " + location, e); }
+            }
+            return parseWithSnapshot(snapshot, location, rrLastModified, source);
+        }
 
         MNode node = parse(location, rr.openStream());
-        node.lastModified = rr.getLastModified();
+        if (node == null) return null;
+        node.lastModified = rrLastModified;
         if (node.lastModified > 0) parsedNodeCache.put(location, node);
         return node;
     }
@@ -75,13 +95,22 @@ public class MNode implements TemplateNodeModel, TemplateSequenceModel, Template
 
         String location = fl.getPath();
         MNode cached = parsedNodeCache.get(location);
-        if (cached != null && cached.lastModified >= fl.lastModified()) return cached;
+        long flLastModified = fl.lastModified();
+        if (cached != null && cached.lastModified >= flLastModified) return cached;
+
+        MNodeSnapshot snapshot = parseSnapshot;
+        if (snapshot != null && flLastModified > 0) {
+            byte[] source;
+            try { source = Files.readAllBytes(fl.toPath()); }
+            catch (IOException e) { throw new BaseException("Error reading XML file at " + fl.getPath(), e); }
+            return parseWithSnapshot(snapshot, location, flLastModified, source);
+        }
 
         BufferedReader fr = null;
         try {
             fr = Files.newBufferedReader(fl.toPath(), UTF_8); // new FileReader(fl);
             MNode node = parse(fl.getPath(), new InputSource(fr));
-            node.lastModified = fl.lastModified();
+            node.lastModified = flLastModified;
             if (node.lastModified > 0) parsedNodeCache.put(location, node);
             return node;
         } catch (Exception e) {
@@ -91,6 +120,18 @@ public class MNode implements TemplateNodeModel, TemplateSequenceModel, Template
             catch (IOException e) { logger.error("Error closing XML file at " + fl.getPath(), e); }
         }
     }
+    /** Tree from the snapshot if parsed from the same source bytes, otherwise parse and add to the snapshot */
+    private static MNode parseWithSnapshot(MNodeSnapshot snapshot, String location, long lastModified, byte[] source) {
+        MNode node = snapshot.get(location, source);
+        if (node == null) {
+            node = parse(location, new InputSource(new InputStreamReader(new ByteArrayInputStream(source), UTF_8)));
+            if (node == null) return null;
+            snapshot.add(location, lastModified, source, node);
+        }
+        node.lastModified = lastModified;
+        parsedNodeCache.put(location, node);
+        return node;
+    }
     public static MNode parseText(String location, String text) throws BaseException {
         if (text == null || text.length() == 0) return null;
         return parse(location, new InputSource(new StringReader(text)));
@@ -231,6 +272,10 @@ public class MNode implements TemplateNodeModel, TemplateSequenceModel, Template
         return parentNode.hasAncestor(nodeName);
     }
 
+    // for MNodeSnapshot, without making an empty child list or checking text
+    ArrayList<MNode> getChildListInternal() { return childList; }
+    void setTextInternal(String text) { childText = text; }
+
     public ArrayList<MNode> getChildren() {
         if (childList == null) childList = new ArrayList<>();
         return childList;
@@ -0,0 +1,303 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * Parsed XML files (MNode trees) saved in a binary file to use instead of parsing the files again on the next start.
+ * Each file is saved with the size and CRC32 of its source and used only if both are the same, so changed files are
+ * parsed as usual and saved again. Reading and checking the source is much faster than parsing it, and unlike a last
+ * modified time check works for files copied or checked out again with the same content.
+ *
+ * When set with MNode.setParseSnapshot() files parsed by MNode.parse() are taken from the snapshot file (memory mapped,
+ * each tree read when first used) and files parsed from source are encoded right after parsing, before any code that
+ * uses the parsed tree can change it. Call save() to write the new snapshot file with the files used or parsed since
+ * open, and after it no longer use the instance. The new file is saved next to the mapped one and replaces it on the
+ * next open, as a mapped file can't be replaced on some platforms.
+ *
+ * The file has an index of location, last modified, source size, source CRC32, CRC32, offset and length for each XML
+ * file then the encoded trees, each with the element and attribute names used once then the nodes referring to them
+ * by index.
+ */
+public class MNodeSnapshot {
+    private static final Logger logger = LoggerFactory.getLogger(MNodeSnapshot.class);
+    private static final int MAGIC = 0x4D4E5331;
+    /** Change when the MNode fields saved change */
+    private static final int VERSION = 2;
+
+    private final File file;
+    private final MappedByteBuffer mappedBuffer;
+    private final HashMap<String, Entry> entryMap = new HashMap<>();
+    private final ConcurrentHashMap<String, Entry> newEntryMap = new ConcurrentHashMap<>();
+    private final Set<String> usedLocations = ConcurrentHashMap.newKeySet();
+
+    private static class Entry {
+        final long lastModified, sourceSize, sourceCrc, crc;
+        final int offset, length;
+        final byte[] bytes;
+        Entry(long lastModified, long sourceSize, long sourceCrc, long crc, int offset, int length, byte[] bytes) {
+            this.lastModified = lastModified; this.sourceSize = sourceSize; this.sourceCrc = sourceCrc; this.crc = crc;
+            this.offset = offset; this.length = length; this.bytes = bytes;
+        }
+    }
+
+    private MNodeSnapshot(File file, MappedByteBuffer mappedBuffer) { this.file = file; this.mappedBuffer = mappedBuffer; }
+
+    /** Open the snapshot file and read its index, or if not found or not valid make an empty snapshot that will be
+     * saved to the file */
+    public static MNodeSnapshot open(File file) {
+        File newFile = new File(file.getPath() + ".new");
+        if (newFile.exists()) {
+            try {
+                Files.move(newFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                logger.warn("Could not replace definition snapshot " + file.getPath() + " with saved " + newFile.getName() + ": " + e.toString());
+            }
+        }
+        if (!file.exists() || file.length() < 12) return new MNodeSnapshot(file, null);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                logger.info("Definition snapshot " + file.getPath() + " is from a different version, not using");
+                return new MNodeSnapshot(file, null);
+            }
+            MNodeSnapshot snapshot = new MNodeSnapshot(file, buffer);
+            ByteBuffer indexBuffer = buffer.duplicate();
+            indexBuffer.position(8);
+            int entryCount = indexBuffer.getInt();
+            for (int i = 0; i < entryCount; i++) {
+                String location = readString(indexBuffer);
+                Entry entry = new Entry(indexBuffer.getLong(), indexBuffer.getLong(), indexBuffer.getLong(),
+                        indexBuffer.getLong(), indexBuffer.getInt(), indexBuffer.getInt(), null);
+                if (entry.offset < 0 || entry.length < 0 || (long) entry.offset + entry.length > buffer.capacity())
+                    throw new IOException("Entry for " + location + " is outside the file");
+                snapshot.entryMap.put(location, entry);
+            }
+            return snapshot;
+        } catch (Exception e) {
+            logger.warn("Could not read definition snapshot " + file.getPath() + ", not using: " + e.toString());
+            return new MNodeSnapshot(file, null);
+        }
+    }
+
+    public int getEntryCount() { return entryMap.size(); }
+    /** Number of files taken from the snapshot instead of parsed */
+    public int getSnapshotCount() { return usedLocations.size(); }
+    /** Number of files parsed and added since open */
+    public int getParsedCount() { return newEntryMap.size(); }
+
+    /** Get the parsed tree for a file if in the snapshot with the same source size and CRC32, otherwise null */
+    public MNode get(String location, byte[] source) {
+        Entry entry = entryMap.get(location);
+        if (entry == null || entry.sourceSize != source.length || entry.sourceCrc != sourceCrc(source)) return null;
+        ByteBuffer entryBuffer = mappedBuffer.duplicate();
+        entryBuffer.position(entry.offset);
+        entryBuffer.limit(entry.offset + entry.length);
+        byte[] bytes = new byte[entry.length];
+        entryBuffer.get(bytes);
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        if (crc.getValue() != entry.crc) {
+            logger.warn("Definition snapshot entry for " + location + " has wrong checksum, parsing file");
+            return null;
+        }
+        try {
+            MNode node = decode(ByteBuffer.wrap(bytes), location);
+            usedLocations.add(location);
+            return node;
+        } catch (Exception e) {
+            logger.warn("Could not read definition snapshot entry for " + location + ", parsing file: " + e.toString());
+            return null;
+        }
+    }
+
+    /** Add a just parsed file, call before the tree is used so it is saved as parsed */
+    public void add(String location, long lastModified, byte[] source, MNode node) {
+        try {
+            byte[] bytes = encode(node);
+            CRC32 crc = new CRC32();
+            crc.update(bytes);
+            newEntryMap.put(location, new Entry(lastModified, source.length, sourceCrc(source), crc.getValue(), 0, bytes.length, bytes));
+        } catch (Exception e) {
+            logger.warn("Could not add " + location + " to definition snapshot: " + e.toString());
+        }
+    }
+
+    private static long sourceCrc(byte[] source) {
+        CRC32 crc = new CRC32();
+        crc.update(source);
+        return crc.getValue();
+    }
+
+    /** Write the snapshot file with files added and used since open, if any files were added or not used (changed,
+     * deleted or no longer loaded) */
+    public void save() {
+        TreeMap<String, Entry> saveMap = new TreeMap<>();
+        int droppedCount = 0;
+        for (Map.Entry<String, Entry> mapEntry : entryMap.entrySet()) {
+            String location = mapEntry.getKey();
+            if (usedLocations.contains(location)) saveMap.put(location, mapEntry.getValue());
+            else if (!newEntryMap.containsKey(location)) droppedCount++;
+        }
+        saveMap.putAll(newEntryMap);
+        if (newEntryMap.isEmpty() && droppedCount == 0) return;
+        long startTime = System.currentTimeMillis();
+
+        File tempFile = new File(file.getPath() + ".tmp");
+        try {
+            File parentDir = file.getParentFile();
+            if (parentDir != null && !parentDir.exists()) parentDir.mkdirs();
+
+            // index size first to know where file data starts
+            ByteArrayOutputStream indexBaos = new ByteArrayOutputStream(saveMap.size() * 100);
+            DataOutputStream indexOut = new DataOutputStream(indexBaos);
+            int indexSize = 12;
+            for (String location : saveMap.keySet()) indexSize += 4 + location.getBytes(StandardCharsets.UTF_8).length + 40;
+            int offset = indexSize;
+            for (Map.Entry<String, Entry> mapEntry : saveMap.entrySet()) {
+                Entry entry = mapEntry.getValue();
+                writeString(indexOut, mapEntry.getKey());
+                indexOut.writeLong(entry.lastModified);
+                indexOut.writeLong(entry.sourceSize);
+                indexOut.writeLong(entry.sourceCrc);
+                indexOut.writeLong(entry.crc);
+                indexOut.writeInt(offset);
+                indexOut.writeInt(entry.length);
+                offset += entry.length;
+            }
+            indexOut.flush();
+
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), 65536))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(saveMap.size());
+                indexBaos.writeTo(out);
+                byte[] copyBytes = null;
+                for (Entry entry : saveMap.values()) {
+                    if (entry.bytes != null) {
+                        out.write(entry.bytes);
+                    } else {
+                        if (copyBytes == null || copyBytes.length < entry.length) copyBytes = new byte[Math.max(entry.length, 8192)];
+                        ByteBuffer entryBuffer = mappedBuffer.duplicate();
+                        entryBuffer.position(entry.offset);
+                        entryBuffer.get(copyBytes, 0, entry.length);
+                        out.write(copyBytes, 0, entry.length);
+                    }
+                }
+            }
+            // the file opened may still be mapped, so save next to it and replace it on open
+            File newFile = new File(file.getPath() + ".new");
+            Files.move(tempFile.toPath(), newFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            logger.info("Saved definition snapshot with " + saveMap.size() + " files (" + newEntryMap.size() + " parsed, " +
+                    usedLocations.size() + " from snapshot, " + droppedCount + " dropped) in " +
+                    (System.currentTimeMillis() - startTime) + "ms to " + newFile.getPath());
+        } catch (Exception e) {
+            logger.warn("Could not save definition snapshot " + file.getPath() + ": " + e.toString());
+            if (tempFile.exists()) tempFile.delete();
+        }
+    }
+
+    static byte[] encode(MNode root) throws IOException {
+        HashMap<String, Integer> nameIndexMap = new HashMap<>();
+        ArrayList<String> nameList = new ArrayList<>();
+        ByteArrayOutputStream nodeBaos = new ByteArrayOutputStream(4096);
+        DataOutputStream nodeOut = new DataOutputStream(nodeBaos);
+        encodeNode(nodeOut, root, nameIndexMap, nameList);
+        nodeOut.flush();
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(nodeBaos.size() + nameList.size() * 16 + 8);
+        DataOutputStream out = new DataOutputStream(baos);
+        out.writeInt(nameList.size());
+        for (String name : nameList) writeString(out, name);
+        nodeBaos.writeTo(out);
+        out.flush();
+        return baos.toByteArray();
+    }
+    private static void encodeNode(DataOutputStream out, MNode node, HashMap<String, Integer> nameIndexMap,
+                                   ArrayList<String> nameList) throws IOException {
+        out.writeInt(nameIndex(node.getName(), nameIndexMap, nameList));
+        Map<String, String> attributeMap = node.getAttributes();
+        out.writeInt(attributeMap.size());
+        for (Map.Entry<String, String> attrEntry : attributeMap.entrySet()) {
+            out.writeInt(nameIndex(attrEntry.getKey(), nameIndexMap, nameList));
+            writeString(out, attrEntry.getValue());
+        }
+        writeString(out, node.getText());
+        ArrayList<MNode> childList = node.getChildListInternal();
+        int childCount = childList != null ? childList.size() : 0;
+        out.writeInt(childCount);
+        for (int i = 0; i < childCount; i++) encodeNode(out, childList.get(i), nameIndexMap, nameList);
+    }
+    private static int nameIndex(String name, HashMap<String, Integer> nameIndexMap, ArrayList<String> nameList) {
+        Integer index = nameIndexMap.get(name);
+        if (index != null) return index;
+        nameIndexMap.put(name, nameList.size());
+        nameList.add(name);
+        return nameList.size() - 1;
+    }
+
+    static MNode decode(ByteBuffer buffer, String location) {
+        int nameCount = buffer.getInt();
+        String[] names = new String[nameCount];
+        for (int i = 0; i < nameCount; i++) names[i] = readString(buffer);
+        MNode root = new MNode(names[buffer.getInt()], null);
+        decodeNode(buffer, root, names, location);
+        return root;
+    }
+    private static void decodeNode(ByteBuffer buffer, MNode node, String[] names, String location) {
+        if (location != null) node.setFileLocation(location);
+        int attrCount = buffer.getInt();
+        if (attrCount > 0) {
+            Map<String, String> attributeMap = node.getAttributes();
+            for (int i = 0; i < attrCount; i++) {
+                String attrName = names[buffer.getInt()];
+                attributeMap.put(attrName, readString(buffer));
+            }
+        }
+        node.setTextInternal(readString(buffer));
+        int childCount = buffer.getInt();
+        for (int i = 0; i < childCount; i++) {
+            MNode child = node.append(names[buffer.getInt()], null);
+            decodeNode(buffer, child, names, location);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) { out.writeInt(-1); return; }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) return null;
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -21,11 +21,14 @@ import org.eclipse.jetty.client.HttpResponseException;
 import org.eclipse.jetty.client.ValidatingConnectionPool;
 import org.eclipse.jetty.client.api.*;
 import org.eclipse.jetty.client.dynamic.HttpClientTransportDynamic;
+import org.eclipse.jetty.client.http.HttpClientConnectionFactory;
 import org.eclipse.jetty.client.http.HttpClientTransportOverHTTP;
 import org.eclipse.jetty.client.util.*;
 import org.eclipse.jetty.http.HttpField;
 import org.eclipse.jetty.http.HttpFields;
 import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http2.client.HTTP2Client;
+import org.eclipse.jetty.http2.client.http.ClientConnectionFactoryOverHTTP2;
 import org.eclipse.jetty.io.ClientConnector;
 import org.eclipse.jetty.util.HttpCookieStore;
 import org.eclipse.jetty.util.ssl.SslContextFactory;
@@ -734,6 +737,7 @@ public class RestClient {
         private int poolSize = 64;
         private int queueSize = 1024;
         private long validationTimeoutMillis = 1000;
+        private boolean http2 = false;
 
         private SslContextFactory.Client sslContextFactory = null;
         private HttpClientTransport transport = null;
@@ -755,6 +759,9 @@ public class RestClient {
         public PooledRequestFactory queueSize(int size) { queueSize = size; return this; }
         /** Quarantine timeout for connection validation, see ValidatingConnectionPool javadoc for details */
         public PooledRequestFactory validationTimeout(long millis) { validationTimeoutMillis = millis; return this; }
+        /** If true (and no transport specified) negotiate HTTP/2 with ALPN for https so concurrent requests are
+         * multiplexed over a connection, falls back to HTTP/1.1 if the server doesn't support it and for plain http */
+        public PooledRequestFactory http2(boolean enable) { http2 = enable; return this; }
 
         public PooledRequestFactory init() {
             if (transport == null) {
@@ -764,7 +771,13 @@ public class RestClient {
                 }
                 ClientConnector clientConnector = new ClientConnector();
                 clientConnector.setSslContextFactory(sslContextFactory);
-                transport = new HttpClientTransportDynamic(clientConnector);
+                if (http2) {
+                    // HTTP/1.1 first so plain http doesn't try h2c prior knowledge, for https the server picks from ALPN
+                    transport = new HttpClientTransportDynamic(clientConnector, HttpClientConnectionFactory.HTTP11,
+                            new ClientConnectionFactoryOverHTTP2.HTTP2(new HTTP2Client(clientConnector)));
+                } else {
+                    transport = new HttpClientTransportDynamic(clientConnector);
+                }
             }
 
             if (executor == null) { executor = new QueuedThreadPool(); executor.setName(shortName + "-queue"); }
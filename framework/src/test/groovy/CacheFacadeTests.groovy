@@ -16,6 +16,16 @@
 import org.moqui.Moqui
 import org.moqui.context.ExecutionContext
 import org.moqui.jcache.MCache
+import org.moqui.jcache.MCacheConfiguration
+import org.moqui.jcache.MCacheManager
+import org.moqui.jcache.MEntry
+
+import javax.cache.expiry.CreatedExpiryPolicy
+import javax.cache.expiry.Duration
+import java.lang.management.ManagementFactory
+import java.util.concurrent.TimeUnit
+import java.util.function.Predicate
+import org.moqui.impl.entity.EntityCacheWeigher
 import spock.lang.*
 
 class CacheFacadeTests extends Specification {
@@ -96,5 +106,129 @@ class CacheFacadeTests extends Specification {
         }
     }
 
+    def "max bytes evicts by weight"() {
+        when:
+        MCacheConfiguration conf = new MCacheConfiguration().setWeigher(new EntityCacheWeigher()).setMaxBytes(20000)
+        MCache weighedCache = new MCache("CacheFacadeWeighTests", null, conf)
+        for (int i = 0; i < 100; i++) weighedCache.put("key" + i, "value" + i)
+        long smallBytes = weighedCache.getMStats().getEstimatedBytes()
+        weighedCache.put("big", "x" * 19000)
+        weighedCache.put("tooBig", "x" * 30000)
+        waitForWeightEvict(weighedCache)
+
+        then:
+        smallBytes > 0
+        weighedCache.getMStats().getEstimatedBytes() <= 20000
+        weighedCache.getMStats().getCacheEvictions() > 0
+        weighedCache.get("tooBig") == null
+        weighedCache.size() < 101
+
+        cleanup:
+        weighedCache.close()
+    }
+
+    def "off heap tier keeps and promotes evicted entries"() {
+        when:
+        MCacheConfiguration conf = new MCacheConfiguration().setWeigher(new EntityCacheWeigher()).setMaxBytes(20000)
+                .setOffHeapBytes(1024 * 1024)
+        MCache tieredCache = new MCache("CacheFacadeOffHeapTests", null, conf)
+        for (int i = 0; i < 1000; i++) tieredCache.put("key" + i, "value" + i)
+        waitForWeightEvict(tieredCache)
+        int heapSize = tieredCache.size()
+        int offHeapSize = tieredCache.getOffHeapStore().size()
+        boolean allFound = (0..<1000).every { int i -> tieredCache.get("key" + i) == "value" + i }
+        tieredCache.remove("key1")
+
+        then:
+        heapSize < 1000
+        heapSize + offHeapSize == 1000
+        allFound
+        tieredCache.getOffHeapStore().getHits() > 0
+        tieredCache.get("key1") == null
+
+        cleanup:
+        tieredCache.close()
+    }
+
+    def "stale entry used in grace time and replaced if not changed"() {
+        when:
+        MCacheConfiguration conf = new MCacheConfiguration().setStaleGraceMillis(60000)
+        conf.setExpiryPolicyFactory(CreatedExpiryPolicy.factoryOf(new Duration(TimeUnit.MILLISECONDS, 50)))
+        MCache staleCache = new MCache("CacheFacadeStaleTests", null, conf)
+        staleCache.put("key1", "value1")
+        staleCache.put("key2", "value2")
+        Thread.sleep(100)
+        MEntry staleEntry = staleCache.getEntryStale("key1", staleCache.getStaleGraceMillis())
+        MEntry staleEntry2 = staleCache.getEntryStale("key2", staleCache.getStaleGraceMillis())
+        boolean expiredGet = staleCache.get("key2") == null
+        boolean replaced = staleCache.replaceEntry("key1", staleEntry, "value1b")
+        boolean replaced2 = staleCache.replaceEntry("key2", staleEntry2, "value2b")
+
+        then:
+        staleEntry.getValue() == "value1"
+        staleCache.getExpireTime(staleEntry) < System.currentTimeMillis()
+        expiredGet
+        replaced
+        !replaced2
+        staleCache.get("key1") == "value1b"
+        staleCache.get("key2") == null
+
+        cleanup:
+        staleCache.close()
+    }
+
+    def "cache statistics snapshot and MBean"() {
+        when:
+        testCache.put("key1", "value1")
+        testCache.get("key1")
+        testCache.get("key1")
+        testCache.get("missing")
+        testCache.recordLoad(TimeUnit.MILLISECONDS.toNanos(3))
+        testCache.recordLoad(TimeUnit.MICROSECONDS.toNanos(20))
+        Map<String, Object> info = ec.cache.getCacheInfo("CacheFacadeTests")
+        Object mbeanHits = ManagementFactory.getPlatformMBeanServer()
+                .getAttribute(MCacheManager.getStatsObjectName("CacheFacadeTests"), "CacheHits")
+
+        then:
+        info.hitCount >= 2
+        info.missCountTotal >= 1
+        (info.hitPercent as float) > 0.0f
+        info.loadCount >= 2
+        (info.loadMaxMicros as float) >= 3000.0f
+        (info.load99Micros as float) >= 3000.0f
+        mbeanHits == testCache.getMStats().getCacheHits()
+        ec.cache.getCacheInfo("NoSuchCacheFacadeTests") == null
+
+        cleanup:
+        testCache.clear()
+    }
+
+    def "off heap tier invalidate by key filter"() {
+        when:
+        MCacheConfiguration conf = new MCacheConfiguration().setWeigher(new EntityCacheWeigher()).setMaxBytes(20000)
+                .setOffHeapBytes(1024 * 1024)
+        MCache tieredCache = new MCache("CacheFacadeOffHeapInvalidateTests", null, conf)
+        for (int i = 0; i < 1000; i++) tieredCache.put("key" + i, "value" + i)
+        waitForWeightEvict(tieredCache)
+        int offHeapSize = tieredCache.getOffHeapStore().size()
+        int removed = tieredCache.invalidateOffHeap({ String key -> key.endsWith("7") } as Predicate<String>)
+        int stillFound = (0..<1000).count { int i -> i % 10 == 7 && tieredCache.get("key" + i) != null }
+
+        then:
+        removed > 0
+        tieredCache.getOffHeapStore().size() == offHeapSize - removed
+        // only the ones that were in the heap tier are left
+        stillFound == 100 - removed
+
+        cleanup:
+        tieredCache.close()
+    }
+
     // TODO: test cache expire time
+
+    /** Eviction by weight runs in the cache evict thread, wait for it to be done */
+    static void waitForWeightEvict(MCache cache) {
+        for (int i = 0; i < 500 && (cache.isWeightEvictPending() || cache.getMStats().getEstimatedBytes() > cache.getMaxBytes()); i++)
+            Thread.sleep(10)
+    }
 }
@@ -22,7 +22,39 @@ import org.moqui.entity.EntityValue
 import org.moqui.Moqui
 import java.sql.Timestamp
 import org.moqui.entity.EntityCondition
+import org.moqui.entity.EntityFind
 import org.moqui.entity.EntityList
+import org.moqui.util.CollectionUtilities
+import org.moqui.impl.entity.DatasourceReplicaSet
+import org.moqui.impl.entity.EntityFacadeImpl
+import org.moqui.impl.entity.EntityDatasourceFactoryImpl
+import org.moqui.impl.entity.EntityDefinition
+import java.sql.Connection
+import org.moqui.util.MNode
+import org.h2.jdbcx.JdbcDataSource
+import javax.sql.DataSource
+import java.util.stream.Collectors
+import javax.cache.Cache
+import org.moqui.impl.entity.EntityCacheInvalidateBatch
+import org.moqui.impl.entity.EntityCacheSnapshot
+import org.moqui.impl.entity.EntityValueBase
+import org.moqui.impl.tools.LoopbackTopicToolFactory
+import java.util.function.Consumer
+import org.moqui.impl.entity.EntityCache
+import org.moqui.impl.context.ExecutionContextFactoryImpl
+import org.moqui.impl.context.WorkerLane
+import org.moqui.jcache.MCache
+import org.moqui.jcache.MCacheConfiguration
+import javax.cache.expiry.CreatedExpiryPolicy
+import javax.cache.expiry.Duration
+import java.util.concurrent.Callable
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
 
 class EntityFindTests extends Specification {
     protected final static Logger logger = LoggerFactory.getLogger(EntityFindTests.class)
@@ -175,6 +207,27 @@ class EntityFindTests extends Specification {
         testEntity2.testMedium == "Test Name 5"
     }
 
+    def "auto cache clear for one with no result by multiple fields and other conditions"() {
+        when:
+        // Integer in the condition and Long in the value are equal in mapMatches() so must be in the bf index too
+        EntityValue testEntity1 = ec.entity.find("moqui.test.TestEntity")
+                .condition([testNumberInteger:(Integer) 9876, testIndicator:"Y"]).useCache(true).one()
+        EntityValue testEntity2 = ec.entity.find("moqui.test.TestEntity")
+                .condition("testMedium", EntityCondition.LIKE, "Test Name 6%").useCache(true).one()
+        ec.entity.makeValue("moqui.test.TestEntity").setAll([testId:"EXTST1", testNumberInteger:9876L,
+                testIndicator:"Y", testMedium:"Test Name 6"]).update()
+        EntityValue testEntity3 = ec.entity.find("moqui.test.TestEntity")
+                .condition([testNumberInteger:(Integer) 9876, testIndicator:"Y"]).useCache(true).one()
+        EntityValue testEntity4 = ec.entity.find("moqui.test.TestEntity")
+                .condition("testMedium", EntityCondition.LIKE, "Test Name 6%").useCache(true).one()
+
+        then:
+        testEntity1 == null
+        testEntity2 == null
+        testEntity3?.testId == "EXTST1"
+        testEntity4?.testId == "EXTST1"
+    }
+
     def "auto cache clear for list on update of record not included"() {
         // update the testMedium and make sure we get the new value
         when:
@@ -189,6 +242,289 @@ class EntityFindTests extends Specification {
     }
 
 
+    def "incremental list and count cache update on commit"() {
+        // TestEntity is cache-incremental, cached lists are updated on commit instead of cleared
+        when:
+        ec.entity.makeValue("moqui.test.TestEntity").setAll([testId:"INCTST1", testMedium:"Incremental"]).create()
+        ec.entity.makeValue("moqui.test.TestEntity").setAll([testId:"INCTST2", testMedium:"Incremental"]).create()
+        ec.transaction.commit()
+        ec.transaction.begin(null)
+        EntityList list1 = ec.entity.find("moqui.test.TestEntity").condition("testMedium", "Incremental").useCache(true).list()
+        long count1 = ec.entity.find("moqui.test.TestEntity").condition("testMedium", "Incremental").useCache(true).count()
+        ec.entity.makeValue("moqui.test.TestEntity").setAll([testId:"INCTST3", testMedium:"Incremental"]).create()
+        // not in the cached list until commit, in this transaction finds go to the database
+        EntityList list2 = ec.entity.find("moqui.test.TestEntity").condition("testMedium", "Incremental").useCache(true).list()
+        ec.transaction.commit()
+        EntityList cachedList3 = getCachedTestEntityList("INCTST1")
+        ec.transaction.begin(null)
+        EntityList list3 = ec.entity.find("moqui.test.TestEntity").condition("testMedium", "Incremental")
+                .orderBy("testId").useCache(true).list()
+        long count3 = ec.entity.find("moqui.test.TestEntity").condition("testMedium", "Incremental").useCache(true).count()
+        EntityValue inc2 = ec.entity.find("moqui.test.TestEntity").condition("testId", "INCTST2").one()
+        inc2.testMedium = "Incremental Other"
+        inc2.update()
+        ec.entity.find("moqui.test.TestEntity").condition("testId", "INCTST1").one().delete()
+        ec.transaction.commit()
+        EntityList cachedList4 = getCachedTestEntityList("INCTST3")
+        ec.transaction.begin(null)
+        EntityList list4 = ec.entity.find("moqui.test.TestEntity").condition("testMedium", "Incremental").useCache(true).list()
+        long count4 = ec.entity.find("moqui.test.TestEntity").condition("testMedium", "Incremental").useCache(true).count()
+        ec.entity.find("moqui.test.TestEntity").condition("testId", EntityCondition.IN, ["INCTST2", "INCTST3"]).deleteAll()
+
+        then:
+        list1.size() == 2
+        count1 == 2
+        list2.size() == 3
+        cachedList3 != null
+        cachedList3.size() == 3
+        list3*.testId == ["INCTST1", "INCTST2", "INCTST3"]
+        count3 == 3
+        cachedList4*.testId == ["INCTST3"]
+        list4*.testId == ["INCTST3"]
+        count4 == 1
+    }
+
+    def "incremental list cache not changed on rollback"() {
+        when:
+        EntityList list1 = ec.entity.find("moqui.test.TestEntity").condition("testMedium", "Incremental Rollback").useCache(true).list()
+        ec.transaction.commit()
+        ec.transaction.begin(null)
+        ec.entity.makeValue("moqui.test.TestEntity").setAll([testId:"INCTST4", testMedium:"Incremental Rollback"]).create()
+        ec.transaction.rollback("Testing incremental cache rollback", null)
+        ec.transaction.begin(null)
+        EntityList list2 = ec.entity.find("moqui.test.TestEntity").condition("testMedium", "Incremental Rollback").useCache(true).list()
+
+        then:
+        list1.size() == 0
+        list2.size() == 0
+    }
+
+    def "incremental list and count cache cleared for ignore case condition"() {
+        // mapMatches() compares exactly so cached results for an ignore case condition can't be updated in memory
+        when:
+        EntityCondition caseCond = ec.entity.conditionFactory.makeCondition("testMedium", EntityCondition.EQUALS, "incremental case").ignoreCase()
+        EntityList list1 = ec.entity.find("moqui.test.TestEntity").condition(caseCond).useCache(true).list()
+        long count1 = ec.entity.find("moqui.test.TestEntity").condition(caseCond).useCache(true).count()
+        ec.transaction.commit()
+        ec.transaction.begin(null)
+        ec.entity.makeValue("moqui.test.TestEntity").setAll([testId:"INCTST5", testMedium:"Incremental Case"]).create()
+        ec.transaction.commit()
+        ec.transaction.begin(null)
+        EntityList list2 = ec.entity.find("moqui.test.TestEntity").condition(caseCond).useCache(true).list()
+        long count2 = ec.entity.find("moqui.test.TestEntity").condition(caseCond).useCache(true).count()
+        ec.entity.find("moqui.test.TestEntity").condition("testId", "INCTST5").deleteAll()
+
+        then:
+        list1.size() == 0
+        count1 == 0
+        list2*.testId == ["INCTST5"]
+        count2 == 1
+    }
+
+    def "incremental list and count cache with concurrent creates"() {
+        when:
+        ec.transaction.commit()
+        ec.entity.find("moqui.test.TestEntity").condition("testMedium", "Incremental Concurrent").useCache(true).list()
+        ec.entity.find("moqui.test.TestEntity").condition("testMedium", "Incremental Concurrent").useCache(true).count()
+        // each thread creates values in separate transactions and reads the cached list and count between them
+        List results = ConcurrentExecution.executeConcurrently(8, {
+            ExecutionContext tec = Moqui.getExecutionContext()
+            tec.artifactExecution.disableAuthz()
+            try {
+                for (int i = 0; i < 10; i++) {
+                    tec.transaction.begin(null)
+                    tec.entity.makeValue("moqui.test.TestEntity").setAll([testId:"INCCON" + Thread.currentThread().getId() + "_" + i,
+                            testMedium:"Incremental Concurrent"]).create()
+                    tec.transaction.commit()
+                    tec.entity.find("moqui.test.TestEntity").condition("testMedium", "Incremental Concurrent").useCache(true).list()
+                    tec.entity.find("moqui.test.TestEntity").condition("testMedium", "Incremental Concurrent").useCache(true).count()
+                }
+            } finally {
+                tec.destroy()
+            }
+            return null
+        })
+        EntityList cachedList = ec.entity.find("moqui.test.TestEntity").condition("testMedium", "Incremental Concurrent")
+                .orderBy("testId").useCache(true).list()
+        long cachedCount = ec.entity.find("moqui.test.TestEntity").condition("testMedium", "Incremental Concurrent").useCache(true).count()
+        EntityList dbList = ec.entity.find("moqui.test.TestEntity").condition("testMedium", "Incremental Concurrent")
+                .orderBy("testId").useCache(false).list()
+        ec.transaction.begin(null)
+        ec.entity.find("moqui.test.TestEntity").condition("testMedium", "Incremental Concurrent").deleteAll()
+
+        then:
+        results.every { it == null }
+        dbList.size() == 80
+        cachedList*.testId == dbList*.testId
+        cachedCount == 80
+    }
+
+    def "distributed cache invalidate batch combines changes and updates caches when received"() {
+        when:
+        EntityFacadeImpl efi = (EntityFacadeImpl) ec.entity
+        EntityValue cachedValue = ec.entity.find("moqui.test.TestEntity").condition("testId", "EXTST1").useCache(true).one()
+        ec.entity.find("moqui.test.TestEntity").condition("testId", "EXTST1").useCache(true).list()
+        boolean oneCachedBefore = getCachedTestEntityOne("EXTST1") != null
+
+        // as if from another server: two changes to the same record in a transaction, sent through a topic
+        EntityCacheInvalidateBatch batch = new EntityCacheInvalidateBatch("other-server")
+        EntityValueBase changedValue = (EntityValueBase) cachedValue.cloneValue()
+        changedValue.set("testMedium", "Batch Name 1")
+        batch.add(changedValue, false, false, false, true)
+        changedValue.set("testMedium", "Batch Name 2")
+        batch.add(changedValue, false, false, false, true)
+        LoopbackTopicToolFactory.LoopbackTopic topic = new LoopbackTopicToolFactory.LoopbackTopic()
+        List<Object> receivedList = []
+        topic.addListener({ Object message -> receivedList.add(message) } as Consumer<Object>)
+        topic.publish(batch)
+        efi.getEntityCache().receiveInvalidate(receivedList[0])
+
+        then:
+        batch.size() == 1
+        topic.publishCount == 1
+        receivedList[0] instanceof EntityCacheInvalidateBatch
+        ((EntityCacheInvalidateBatch) receivedList[0]).size() == 1
+        oneCachedBefore
+        getCachedTestEntityOne("EXTST1") == null
+        getCachedTestEntityList("EXTST1")?.find({ EntityValue ev -> ev.testId == "EXTST1" })?.testMedium == "Batch Name 2"
+    }
+
+    def "entity cache snapshot saves keys and loads them into empty caches"() {
+        when:
+        EntityFacadeImpl efi = (EntityFacadeImpl) ec.entity
+        ec.entity.find("moqui.test.TestEntity").condition("testId", "EXTST1").useCache(true).one()
+        ec.entity.find("moqui.test.TestEntity").condition("testId", "SNAPTST_NONE").useCache(true).one()
+        ec.entity.find("moqui.test.TestEntity").condition("testId", "EXTST1").useCache(true).list()
+        File snapshotFile = File.createTempFile("EntityCacheSnapshot", ".bin")
+        EntityCacheSnapshot snapshot = new EntityCacheSnapshot(efi)
+        int savedKeys = snapshot.save(snapshotFile, 100)
+        ec.cache.getCache("entity.record.one.moqui.test.TestEntity").clear()
+        ec.cache.getCache("entity.record.list.moqui.test.TestEntity").clear()
+        boolean clearedOne = getCachedTestEntityOne("EXTST1") == null
+        int loadedCount = snapshot.load(snapshotFile, 0, 30000)
+        snapshotFile.delete()
+
+        then:
+        savedKeys >= 3
+        clearedOne
+        loadedCount >= 3
+        getCachedTestEntityOne("EXTST1") != null
+        getCachedTestEntityList("EXTST1") != null
+    }
+
+    def "entity cache snapshot loads one by pk with key value not of field type"() {
+        when:
+        EntityFacadeImpl efi = (EntityFacadeImpl) ec.entity
+        ec.entity.makeValue("moqui.test.TestIntPk").setAll([intId:9123, testMedium:"Snapshot Int"]).createOrUpdate()
+        ec.entity.find("moqui.test.TestIntPk").condition("intId", "9123").useCache(true).one()
+        File snapshotFile = File.createTempFile("EntityCacheSnapshot", ".bin")
+        EntityCacheSnapshot snapshot = new EntityCacheSnapshot(efi)
+        snapshot.save(snapshotFile, 100)
+        ec.cache.getCache("entity.record.one.moqui.test.TestIntPk").clear()
+        snapshot.load(snapshotFile, 0, 30000)
+        snapshotFile.delete()
+        List<Object> cachedValues = []
+        Iterator<Cache.Entry> entryIter = ec.cache.getCache("entity.record.one.moqui.test.TestIntPk").iterator()
+        while (entryIter.hasNext()) cachedValues.add(entryIter.next()?.getValue())
+
+        then:
+        cachedValues.size() > 0
+        cachedValues.every({ it instanceof EntityValue && ((EntityValue) it).intId == 9123 })
+
+        cleanup:
+        ec.entity.find("moqui.test.TestIntPk").condition("intId", 9123).deleteAll()
+        ec.cache.getCache("entity.record.one.moqui.test.TestIntPk").clear()
+    }
+
+    def "entity cache coalesces concurrent loads of a missing condition outside a transaction"() {
+        when:
+        EntityCache entityCache = ((EntityFacadeImpl) ec.entity).getEntityCache()
+        MCache coalesceCache = new MCache("EntityFindCoalesceTests", null, new MCacheConfiguration().setCoalesceLoads(true))
+        EntityCondition cond = ec.entity.conditionFactory.makeCondition("testId", EntityCondition.EQUALS, "COALTST1")
+        boolean coalesceOutsideTx = entityCache.shouldCoalesceLoad(coalesceCache)
+        boolean beganTransaction = ec.transaction.begin(null)
+        boolean coalesceInTx = entityCache.shouldCoalesceLoad(coalesceCache)
+        ec.transaction.commit(beganTransaction)
+
+        AtomicInteger loadCount = new AtomicInteger(0)
+        ExecutorService loadPool = Executors.newFixedThreadPool(4)
+        CountDownLatch startLatch = new CountDownLatch(1)
+        List<Future<Object>> futureList = []
+        for (int i = 0; i < 4; i++) futureList.add(loadPool.submit({
+            startLatch.await()
+            // same steps as a find: check the cache, begin the load, on null another thread loaded so check again
+            Object cached = coalesceCache.get(cond)
+            if (cached != null) return cached
+            CompletableFuture<Void> load = entityCache.beginLoad(coalesceCache, cond)
+            if (load == null) return coalesceCache.get(cond)
+            loadCount.incrementAndGet()
+            Thread.sleep(200)
+            coalesceCache.put(cond, "loaded")
+            entityCache.endLoad(coalesceCache, cond, load)
+            return "loaded"
+        } as Callable<Object>))
+        startLatch.countDown()
+        List<Object> results = futureList.collect({ Future<Object> future -> future.get(10, TimeUnit.SECONDS) })
+
+        then:
+        coalesceOutsideTx
+        !coalesceInTx
+        loadCount.get() == 1
+        results == ["loaded", "loaded", "loaded", "loaded"]
+
+        cleanup:
+        loadPool.shutdown()
+        coalesceCache.close()
+    }
+
+    def "entity cache uses stale entry and refreshes it in the background"() {
+        when:
+        EntityFacadeImpl efi = (EntityFacadeImpl) ec.entity
+        EntityDefinition ed = efi.getEntityDefinition("moqui.test.TestEntity")
+        ec.entity.makeValue("moqui.test.TestEntity").setAll([testId:"SWRTST1", testMedium:"Fresh"]).createOrUpdate()
+        EntityCondition cond = ec.entity.conditionFactory.makeCondition("testId", EntityCondition.EQUALS, "SWRTST1")
+        MCacheConfiguration conf = new MCacheConfiguration().setStaleGraceMillis(60000)
+        conf.setExpiryPolicyFactory(CreatedExpiryPolicy.factoryOf(new Duration(TimeUnit.MILLISECONDS, 50)))
+        MCache staleCache = new MCache("EntityFindRefreshTests", null, conf)
+        EntityValue staleValue = ec.entity.find("moqui.test.TestEntity").condition("testId", "SWRTST1").useCache(false).one().cloneValue()
+        staleValue.set("testMedium", "Stale")
+        staleCache.put(cond, staleValue)
+        Thread.sleep(100)
+        EntityValue staleHit = (EntityValue) efi.getEntityCache().getCached(ed, cond, staleCache, false)
+        EntityValue refreshed = null
+        for (int i = 0; i < 50 && refreshed == null; i++) {
+            Thread.sleep(100)
+            EntityValue cur = (EntityValue) staleCache.getEntryStale(cond, 60000L)?.getValue()
+            if (cur?.testMedium == "Fresh") refreshed = cur
+        }
+
+        then:
+        staleHit.testMedium == "Stale"
+        refreshed != null
+
+        cleanup:
+        ec.entity.find("moqui.test.TestEntity").condition("testId", "SWRTST1").deleteAll()
+        staleCache.close()
+    }
+
+    EntityValue getCachedTestEntityOne(String testId) {
+        Iterator<Cache.Entry> entryIter = ec.cache.getCache("entity.record.one.moqui.test.TestEntity").iterator()
+        while (entryIter.hasNext()) {
+            EntityValue ev = (EntityValue) entryIter.next()?.getValue()
+            if (ev != null && ev.get("testId") == testId) return ev
+        }
+        return null
+    }
+    EntityList getCachedTestEntityList(String testId) {
+        Iterator<Cache.Entry> entryIter = ec.cache.getCache("entity.record.list.moqui.test.TestEntity").iterator()
+        while (entryIter.hasNext()) {
+            Cache.Entry entry = entryIter.next()
+            EntityList el = (EntityList) entry?.getValue()
+            if (el != null && el.find({ EntityValue ev -> ev.testId == testId }) != null) return el
+        }
+        return null
+    }
+
     def "auto cache clear for view list on create of record not included"() {
         // this is similar to what happens with authz checking with changes after startup
         when:
@@ -269,4 +605,269 @@ class EntityFindTests extends Specification {
         then:
         geo.isMutable()
     }
+
+    def "view find with same shape uses SQL template"() {
+        when:
+        EntityFacadeImpl efi = (EntityFacadeImpl) ec.entity
+        long hitsBefore = (long) efi.getSqlTemplateStats().hits
+        EntityValue usa = ec.entity.find("moqui.basic.GeoAndType").condition("geoId", "USA").useCache(false).one()
+        EntityValue can = ec.entity.find("moqui.basic.GeoAndType").condition("geoId", "CAN").useCache(false).one()
+        long usaCount = ec.entity.find("moqui.basic.GeoAndType").condition("geoId", "USA").useCache(false).count()
+        long canCount = ec.entity.find("moqui.basic.GeoAndType").condition("geoId", "CAN").useCache(false).count()
+        long hitsAfter = (long) efi.getSqlTemplateStats().hits
+
+        then:
+        usa.geoId == "USA"
+        usa.typeDescription == "Country"
+        can.geoId == "CAN"
+        usaCount == 1
+        canCount == 1
+        hitsAfter >= hitsBefore + 2
+    }
+
+    def "view find pages use one SQL template with the limit and offset of each find"() {
+        when:
+        EntityFacadeImpl efi = (EntityFacadeImpl) ec.entity
+        EntityList allCountries = ec.entity.find("moqui.basic.GeoAndType").condition("geoTypeEnumId", "GEOT_COUNTRY")
+                .orderBy("geoId").useCache(false).list()
+        // first find may make the template, the rest use it with other offsets
+        ec.entity.find("moqui.basic.GeoAndType").condition("geoTypeEnumId", "GEOT_COUNTRY").orderBy("geoId")
+                .offset(0).limit(5).useCache(false).list()
+        long hitsBefore = (long) efi.getSqlTemplateStats().hits
+        EntityList page2 = ec.entity.find("moqui.basic.GeoAndType").condition("geoTypeEnumId", "GEOT_COUNTRY")
+                .orderBy("geoId").offset(5).limit(5).useCache(false).list()
+        EntityList page3 = ec.entity.find("moqui.basic.GeoAndType").condition("geoTypeEnumId", "GEOT_COUNTRY")
+                .orderBy("geoId").offset(10).limit(3).useCache(false).list()
+        long hitsAfter = (long) efi.getSqlTemplateStats().hits
+
+        then:
+        allCountries.size() > 13
+        page2*.geoId == allCountries.subList(5, 10)*.geoId
+        page3*.geoId == allCountries.subList(10, 13)*.geoId
+        hitsAfter >= hitsBefore + 2
+    }
+
+    def "replica set round robin and skip failed replica"() {
+        when:
+        Map<String, DataSource> dsByGroup = [:]
+        for (String name in ["replicatest#b", "replicatest#a"]) {
+            JdbcDataSource ds = new JdbcDataSource()
+            ds.setURL("jdbc:h2:mem:" + name.replace('#', '_'))
+            dsByGroup.put(name, ds)
+        }
+        DatasourceReplicaSet replicaSet = new DatasourceReplicaSet(new MNode("datasource", ["group-name":"replicatest",
+                "replica-routing":"until-write", "replica-retry-seconds":"60"]), dsByGroup)
+        List<String> first = replicaSet.candidates()*.groupName
+        List<String> second = replicaSet.candidates()*.groupName
+        replicaSet.noteFailed(replicaSet.candidates().find({ it.groupName == "replicatest#a" }), new Exception("test down"))
+        List<String> afterFail = replicaSet.candidates()*.groupName
+        Map stats = replicaSet.getStats()
+
+        EntityFacadeImpl efi = (EntityFacadeImpl) ec.entity
+        // no replicas configured for the test datasources, so never routed
+        boolean transactionalReplica = efi.isReplicaFind("transactional")
+
+        then:
+        replicaSet.routing == DatasourceReplicaSet.Routing.UNTIL_WRITE
+        first == ["replicatest#a", "replicatest#b"]
+        second == ["replicatest#b", "replicatest#a"]
+        afterFail == ["replicatest#b"]
+        stats.replicas[0].available == false
+        stats.replicas[0].failures == 1
+        !transactionalReplica
+    }
+
+    def "finds routed to replica database outside transaction and to primary in transaction"() {
+        when:
+        EntityFacadeImpl efi = (EntityFacadeImpl) ec.entity
+        EntityDefinition ed = efi.getEntityDefinition("moqui.test.TestIntPk")
+        String groupName = ed.getEntityGroupName()
+        String replicaGroup = groupName + "#routetest"
+        // a second H2 database as the replica, with a record not in the primary
+        JdbcDataSource replicaDs = new JdbcDataSource()
+        replicaDs.setURL("jdbc:h2:mem:moqui_route_test;DB_CLOSE_DELAY=-1")
+        Connection replicaCon = replicaDs.getConnection()
+        efi.getEntityDbMeta().createTable(ed, replicaCon)
+        replicaCon.createStatement().executeUpdate("INSERT INTO " + ed.getFullTableName() + " (" +
+                ed.getFieldInfo("intId").columnName + ", " + ed.getFieldInfo("testMedium").columnName + ") VALUES (9301, 'replica')")
+        replicaCon.close()
+        EntityDatasourceFactoryImpl replicaEdf = new EntityDatasourceFactoryImpl()
+        replicaEdf.efi = efi
+        replicaEdf.dataSource = replicaDs
+        efi.datasourceFactoryByGroupMap.put(replicaGroup, replicaEdf)
+        efi.replicaSetByGroup.put(groupName, new DatasourceReplicaSet(new MNode("datasource", ["group-name":groupName,
+                "replica-routing":"until-write"]), [(replicaGroup):(DataSource) replicaDs]))
+
+        EntityValue outsideTx = ec.entity.find("moqui.test.TestIntPk").condition("intId", 9301).useCache(false).one()
+        EntityValue inTx = null
+        boolean committed = false
+        boolean beganTransaction = ec.transaction.begin(null)
+        try {
+            inTx = ec.entity.find("moqui.test.TestIntPk").condition("intId", 9301).useCache(false).one()
+            ec.entity.makeValue("moqui.test.TestIntPk").setAll([intId:9302, testMedium:"primary"]).createOrUpdate()
+            ec.transaction.commit(beganTransaction)
+            committed = true
+        } catch (Throwable t) {
+            ec.transaction.rollback(beganTransaction, "replica routing test", t)
+        }
+        EntityValue primaryValue = ec.entity.find("moqui.test.TestIntPk").condition("intId", 9302).useCache(false).forUpdate(true).one()
+
+        then:
+        outsideTx?.testMedium == "replica"
+        // with XA transactions finds in a transaction don't use the replica, with local transactions until-write does
+        efi.ecfi.transactionFacade.isLocalTransactions() ? inTx?.testMedium == "replica" : inTx == null
+        committed
+        primaryValue?.testMedium == "primary"
+
+        cleanup:
+        efi.replicaSetByGroup.remove(groupName)
+        efi.datasourceFactoryByGroupMap.remove(replicaGroup)
+        ec.entity.find("moqui.test.TestIntPk").condition("intId", 9302).deleteAll()
+        Connection dropCon = replicaDs.getConnection()
+        dropCon.createStatement().execute("DROP ALL OBJECTS")
+        dropCon.close()
+    }
+
+    def "keyset pagination matches offset pages"() {
+        when:
+        EntityList offsetPage2 = ec.entity.find("moqui.basic.Geo").condition("geoTypeEnumId", "GEOT_COUNTRY")
+                .orderBy("geoName").orderBy("geoId").offset(10).limit(10).useCache(false).list()
+        EntityFind firstFind = ec.entity.find("moqui.basic.Geo").condition("geoTypeEnumId", "GEOT_COUNTRY")
+                .orderBy("geoName").searchFormMap([pageCursor:"", pageSize:"10"], null, null, null, false)
+        EntityList seekPage1 = firstFind.list()
+        String nextCursor = firstFind.getNextSeekCursor(seekPage1)
+        EntityFind secondFind = ec.entity.find("moqui.basic.Geo").condition("geoTypeEnumId", "GEOT_COUNTRY")
+                .orderBy("geoName").searchFormMap([pageCursor:nextCursor, pageSize:"10", pageIndex:"1"], null, null, null, false)
+        EntityList seekPage2 = secondFind.list()
+        String prevCursor = secondFind.getPrevSeekCursor(seekPage2)
+        EntityList seekBackPage1 = ec.entity.find("moqui.basic.Geo").condition("geoTypeEnumId", "GEOT_COUNTRY")
+                .orderBy("geoName").seekCursor(prevCursor).limit(10).list()
+
+        then:
+        firstFind.getPrevSeekCursor(seekPage1) == null
+        seekPage2*.geoId == offsetPage2*.geoId
+        secondFind.getPageIndex() == 1
+        seekBackPage1*.geoId == seekPage1*.geoId
+    }
+
+    def "stream and parallel stream get all records"() {
+        when:
+        Set<String> listIds = new HashSet<>(ec.entity.find("moqui.basic.Geo").useCache(false).list()*.geoId)
+        Set<String> streamIds
+        ec.entity.find("moqui.basic.Geo").stream().withCloseable { streamIds = it.map({ it.geoId }).collect(Collectors.toSet()) }
+        Set<String> parallelIds
+        ec.entity.find("moqui.basic.Geo").parallelStream(4).withCloseable { parallelIds = it.map({ it.geoId }).collect(Collectors.toSet()) }
+        long dateCount
+        ec.entity.find("moqui.basic.Geo").condition("geoTypeEnumId", "GEOT_COUNTRY").parallelStream("lastUpdatedStamp", 3)
+                .withCloseable { dateCount = it.count() }
+
+        then:
+        listIds.size() > 100
+        streamIds == listIds
+        parallelIds == listIds
+        dateCount == ec.entity.find("moqui.basic.Geo").condition("geoTypeEnumId", "GEOT_COUNTRY").count()
+    }
+
+    def "parallel stream reads partitions in stream threads when worker lane is busy"() {
+        when:
+        WorkerLane lane = (WorkerLane) ((ExecutionContextFactoryImpl) ec.factory).getWorkerLane("EntityStream")
+        CountDownLatch releaseLatch = new CountDownLatch(1)
+        for (int i = 0; i < lane.maxLimit; i++) lane.execute({ releaseLatch.await(30, TimeUnit.SECONDS) } as Runnable)
+        for (int i = 0; i < 50 && lane.getActiveCount() < lane.getLimit(); i++) Thread.sleep(100)
+        Set<String> listIds = new HashSet<>(ec.entity.find("moqui.basic.Geo").useCache(false).list()*.geoId)
+        Set<String> parallelIds
+        ec.entity.find("moqui.basic.Geo").parallelStream(4).withCloseable { parallelIds = it.map({ it.geoId }).collect(Collectors.toSet()) }
+
+        then:
+        lane.getActiveCount() >= lane.getLimit()
+        parallelIds == listIds
+
+        cleanup:
+        releaseLatch.countDown()
+    }
+
+    def "list with count gets page and total count"() {
+        when:
+        long countryCount = ec.entity.find("moqui.basic.Geo").condition("geoTypeEnumId", "GEOT_COUNTRY").useCache(false).count()
+        EntityList firstPage = ec.entity.find("moqui.basic.Geo").condition("geoTypeEnumId", "GEOT_COUNTRY")
+                .orderBy("geoId").offset(0).limit(10).useCache(false).listWithCount()
+        int lastOffset = (int) ((countryCount - 1) / 10) * 10
+        EntityList lastPage = ec.entity.find("moqui.basic.Geo").condition("geoTypeEnumId", "GEOT_COUNTRY")
+                .orderBy("geoId").offset(lastOffset).limit(10).useCache(false).listWithCount()
+
+        then:
+        firstPage.size() == 10
+        firstPage.getTotalCount() == countryCount
+        lastPage.getTotalCount() == countryCount
+    }
+
+    def "list with count in transaction includes records created in it"() {
+        when:
+        boolean beganTransaction = ec.transaction.begin(null)
+        long beforeCount = 0, pageSize = 0, totalCount = 0
+        try {
+            beforeCount = ec.entity.find("moqui.test.TestEntity").condition("testMedium", "LWCTST").useCache(false).count()
+            for (int i = 0; i < 3; i++) ec.entity.makeValue("moqui.test.TestEntity")
+                    .setAll([testId:"LWCTST" + i, testMedium:"LWCTST"]).create()
+            EntityList page = ec.entity.find("moqui.test.TestEntity").condition("testMedium", "LWCTST")
+                    .orderBy("testId").offset(0).limit(2).useCache(false).listWithCount()
+            pageSize = page.size()
+            totalCount = page.getTotalCount()
+        } finally {
+            ec.transaction.rollback(beganTransaction, "test rollback", null)
+        }
+
+        then:
+        beforeCount == 0
+        pageSize == 2
+        totalCount == 3
+    }
+
+    def "in memory condition filter matches database find"() {
+        when:
+        EntityCondition cond = ec.entity.conditionFactory.makeCondition([
+                ec.entity.conditionFactory.makeCondition("geoTypeEnumId", EntityCondition.IN, ["GEOT_COUNTRY", "GEOT_STATE", "GEOT_PROVINCE", "GEOT_TERRITORY", "GEOT_REGION"]),
+                ec.entity.conditionFactory.makeCondition([
+                        ec.entity.conditionFactory.makeCondition("geoId", EntityCondition.LESS_THAN, "M"),
+                        ec.entity.conditionFactory.makeCondition("geoCodeAlpha2", EntityCondition.EQUALS, "US")], EntityCondition.OR)])
+        List<String> dbIds = ec.entity.find("moqui.basic.Geo").condition(cond).orderBy("geoId").useCache(false).list()*.geoId
+        EntityList filtered = ec.entity.find("moqui.basic.Geo").orderBy("geoId").useCache(false).list().filterByCondition(cond, true)
+
+        then:
+        dbIds.size() > 0
+        filtered*.geoId == dbIds
+    }
+
+    def "filter and find on cached list use index with same results"() {
+        when:
+        EntityList cachedList = ec.entity.find("moqui.basic.Enumeration").orderBy("enumId").useCache(true).list()
+        List<String> dbIds = ec.entity.find("moqui.basic.Enumeration").condition("enumTypeId", "GeoType")
+                .orderBy("enumId").useCache(false).list()*.enumId
+        EntityList filtered = cachedList.filterByAnd([enumTypeId:"GeoType"])
+        EntityList excluded = cachedList.filterByAnd([enumTypeId:"GeoType"], false)
+        EntityValue found = cachedList.findByAnd("enumTypeId", "GeoType", "enumId", dbIds[1])
+
+        then:
+        cachedList.isFromCache()
+        filtered*.enumId == dbIds
+        excluded.size() == cachedList.size() - dbIds.size()
+        found.enumId == dbIds[1]
+        cachedList.indexMatching([enumId:dbIds[1]]) == cachedList.indexOf(found)
+        cachedList.findByAnd("enumTypeId", "NotAnEnumType") == null
+    }
+
+    def "order by fields sorts same as map comparator (#orderBy)"() {
+        when:
+        EntityList geoList = ec.entity.find("moqui.basic.Geo").useCache(false).list()
+        List<EntityValue> expected = new ArrayList<>(geoList)
+        expected.sort(new CollectionUtilities.MapOrderByComparator(orderBy))
+        geoList.orderByFields(orderBy)
+
+        then:
+        geoList.size() > 0
+        geoList*.geoId == expected*.geoId
+
+        where:
+        orderBy << [["geoName"], ["-geoTypeEnumId", "^geoName"], ["geoCodeNumeric,-geoId"], ["+^geoCodeAlpha2", "geoId"]]
+    }
 }
@@ -17,6 +17,8 @@ import spock.lang.*
 import org.moqui.context.ExecutionContext
 import org.moqui.Moqui
 import org.moqui.resource.ResourceReference
+import org.moqui.util.MNode
+import org.moqui.util.MNodeSnapshot
 
 class ResourceFacadeTests extends Specification {
     @Shared
@@ -103,4 +105,43 @@ class ResourceFacadeTests extends Specification {
         'Version: ${ec.factory.moquiVersion}' | "Version: ${ec.factory.moquiVersion}"
         "plain string" | "plain string"
     }
+
+    def "definition snapshot saves parsed files and uses them if not modified"() {
+        when:
+        File snapshotFile = File.createTempFile("DefinitionSnapshotTest", ".bin")
+        snapshotFile.delete()
+        ResourceReference entityRr = ec.resource.getLocationReference("component://moqui-framework/entity/BasicEntities.xml")
+        MNodeSnapshot saveSnapshot = MNodeSnapshot.open(snapshotFile)
+        MNode.clearParsedNodeCache()
+        MNode.setParseSnapshot(saveSnapshot)
+        String parsedText = MNode.parse(entityRr).toString()
+        MNode.setParseSnapshot(null)
+        saveSnapshot.save()
+
+        MNodeSnapshot loadSnapshot = MNodeSnapshot.open(snapshotFile)
+        MNode.clearParsedNodeCache()
+        MNode.setParseSnapshot(loadSnapshot)
+        MNode snapshotNode = MNode.parse(entityRr)
+        MNode.setParseSnapshot(null)
+        MNode.clearParsedNodeCache()
+        // saved again with no files used, as if deleted, drops the entry
+        MNodeSnapshot pruneSnapshot = MNodeSnapshot.open(snapshotFile)
+        pruneSnapshot.save()
+        int prunedEntryCount = MNodeSnapshot.open(snapshotFile).getEntryCount()
+
+        then:
+        saveSnapshot.getParsedCount() == 1
+        loadSnapshot.getEntryCount() == 1
+        loadSnapshot.getSnapshotCount() == 1
+        loadSnapshot.getParsedCount() == 0
+        snapshotNode.toString() == parsedText
+        snapshotNode.getFileLocation() == entityRr.getLocation()
+        pruneSnapshot.getEntryCount() == 1
+        prunedEntryCount == 0
+        loadSnapshot.get(entityRr.getLocation(), (entityRr.getText() + " ").getBytes("UTF-8")) == null
+
+        cleanup:
+        snapshotFile.delete()
+        new File(snapshotFile.getPath() + ".new").delete()
+    }
 }
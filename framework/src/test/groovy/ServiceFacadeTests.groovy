@@ -13,12 +13,35 @@
  */
 
 
+import org.moqui.entity.EntityValue
+import org.moqui.impl.service.EntityJobQueue
+import org.moqui.impl.service.ServiceCallAsyncImpl
 import org.moqui.impl.service.ServiceFacadeImpl
+import org.moqui.impl.service.ServiceJsonRpcDispatcher
+import org.moqui.impl.service.runner.RemoteJsonRpcBatcher
 import org.moqui.service.ServiceCallback
 import spock.lang.*
 
 import org.moqui.context.ExecutionContext
+import org.moqui.impl.context.ExecutionContextFactoryImpl
+import org.moqui.impl.context.ExecutionContextImpl
+import org.moqui.impl.context.WorkerLane
+import org.moqui.util.MNode
+import org.moqui.util.RestClient
 import org.moqui.Moqui
+import org.moqui.BaseException
+
+import java.util.concurrent.Callable
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
 
 class ServiceFacadeTests extends Specification {
     @Shared
@@ -44,4 +67,236 @@ class ServiceFacadeTests extends Specification {
         then:
         10 * scb.receiveEvent(null, null)
     }
+
+    def "worker lane limits concurrency over worker pool"() {
+        ExecutionContextFactoryImpl ecfi = ((ExecutionContextImpl) ec).ecfi
+        WorkerLane lane = new WorkerLane(new MNode("worker-lane", [name:"TestLane", "max-concurrency":"2",
+                adaptive:"false"]), ecfi.workerPool)
+        AtomicInteger running = new AtomicInteger(0)
+        AtomicInteger maxRunning = new AtomicInteger(0)
+
+        when:
+        List<Future> futureList = []
+        for (int i = 0; i < 8; i++) futureList.add(lane.submit({
+            int cur = running.incrementAndGet()
+            synchronized (maxRunning) { if (cur > maxRunning.get()) maxRunning.set(cur) }
+            Thread.sleep(50)
+            running.decrementAndGet()
+        } as Runnable))
+        for (Future future in futureList) future.get(10, TimeUnit.SECONDS)
+        lane.shutdown()
+
+        then:
+        lane.awaitTermination(5, TimeUnit.SECONDS)
+        maxRunning.get() <= 2
+        lane.getStats().completed == 8L
+    }
+
+    def "worker lane fails tasks the worker pool rejects"() {
+        ThreadPoolExecutor stoppedPool = new ThreadPoolExecutor(1, 2, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>())
+        stoppedPool.shutdown()
+        WorkerLane lane = new WorkerLane(new MNode("worker-lane", [name:"TestRejectLane", "max-concurrency":"1",
+                adaptive:"false"]), stoppedPool)
+
+        when:
+        Future future = lane.submit({ "done" } as Callable)
+        lane.shutdown()
+        future.get(5, TimeUnit.SECONDS)
+
+        then:
+        ExecutionException e = thrown()
+        e.cause instanceof RejectedExecutionException
+        lane.isTerminated()
+        lane.getStats().rejected == 1L
+    }
+
+    def "entity job queue claims and runs async service"() {
+        ExecutionContextFactoryImpl ecfi = ((ExecutionContextImpl) ec).ecfi
+        EntityJobQueue jobQueue = new EntityJobQueue(ecfi, "test-run")
+
+        when:
+        Future<Map<String, Object>> future = jobQueue.submit(new ServiceCallAsyncImpl.AsyncServiceCallable(
+                (ExecutionContextImpl) ec, "org.moqui.impl.BasicServices.noop", [:]))
+        int claimed = jobQueue.claimAndRun()
+        future.get(30, TimeUnit.SECONDS)
+        EntityValue entry = ec.entity.find("moqui.service.job.ServiceJobQueueEntry")
+                .condition("queueName", "test-run").useCache(false).disableAuthz().one()
+
+        then:
+        claimed == 1
+        future.isDone()
+        entry.queueStatus == EntityJobQueue.DONE
+        entry.attemptCount == 1
+
+        cleanup:
+        ec.entity.find("moqui.service.job.ServiceJobQueueEntry").condition("queueName", "test-run").disableAuthz().deleteAll()
+    }
+
+    def "entity job queue does not update entry claimed again by another server"() {
+        ExecutionContextFactoryImpl ecfi = ((ExecutionContextImpl) ec).ecfi
+        EntityJobQueue jobQueue = new EntityJobQueue(ecfi, "test-reclaim")
+        ExecutorService runPool = Executors.newFixedThreadPool(1)
+
+        when:
+        jobQueue.submit(new ServiceCallAsyncImpl.AsyncServiceCallable((ExecutionContextImpl) ec, "org.moqui.impl.BasicServices.noop", [:]))
+        // as if the visibility timeout passed while running here and another server claimed it
+        ec.entity.find("moqui.service.job.ServiceJobQueueEntry").condition("queueName", "test-reclaim").disableAuthz()
+                .updateAll([queueStatus:EntityJobQueue.CLAIMED, claimedBy:"other-server", attemptCount:1L])
+        EntityValue claimedEntry = ec.entity.find("moqui.service.job.ServiceJobQueueEntry")
+                .condition("queueName", "test-reclaim").useCache(false).disableAuthz().one()
+        // runEntry() destroys the ExecutionContext in its thread, so run it in another thread
+        runPool.submit({ jobQueue.runEntry(claimedEntry) } as Runnable).get(30, TimeUnit.SECONDS)
+        EntityValue entry = ec.entity.find("moqui.service.job.ServiceJobQueueEntry")
+                .condition("queueName", "test-reclaim").useCache(false).disableAuthz().one()
+
+        then:
+        entry.queueStatus == EntityJobQueue.CLAIMED
+        entry.claimedBy == "other-server"
+        entry.completedTime == null
+
+        cleanup:
+        runPool.shutdown()
+        ec.entity.find("moqui.service.job.ServiceJobQueueEntry").condition("queueName", "test-reclaim").disableAuthz().deleteAll()
+    }
+
+    def "entity job queue retries failed task with backoff"() {
+        ExecutionContextFactoryImpl ecfi = ((ExecutionContextImpl) ec).ecfi
+        EntityJobQueue jobQueue = new EntityJobQueue(ecfi, "test-retry")
+
+        when:
+        jobQueue.submit(new FailingCallable())
+        int claimed = jobQueue.claimAndRun()
+        ecfi.waitWorkerPoolEmpty(100)
+        EntityValue entry = ec.entity.find("moqui.service.job.ServiceJobQueueEntry")
+                .condition("queueName", "test-retry").useCache(false).disableAuthz().one()
+        // backoff pushes out availableTime so nothing should be claimable yet
+        int claimedAgain = jobQueue.claimAndRun()
+
+        then:
+        claimed == 1
+        entry.queueStatus == EntityJobQueue.PENDING
+        entry.attemptCount == 1
+        entry.lastError != null
+        entry.availableTime.time > System.currentTimeMillis()
+        claimedAgain == 0
+
+        cleanup:
+        ec.entity.find("moqui.service.job.ServiceJobQueueEntry").condition("queueName", "test-retry").disableAuthz().deleteAll()
+    }
+
+    def "remote JSON-RPC batcher sends concurrent calls in one batch"() {
+        ServiceFacadeImpl sfi = ((ExecutionContextImpl) ec).ecfi.serviceFacade
+        AtomicInteger sendCount = new AtomicInteger(0)
+        RemoteJsonRpcBatcher batcher = new RemoteJsonRpcBatcher(sfi, "http://localhost/rpc/json", 500L, 10) {
+            @Override protected Object send(Object requestObj) {
+                sendCount.incrementAndGet()
+                // answer in reverse order so responses must be matched by id
+                return ((List<Map>) requestObj).reverse().collect({ Map req -> req.method == "fail" ?
+                        [jsonrpc:"2.0", id:req.id, error:[code:-32000, message:"failed " + req.params.value]] :
+                        [jsonrpc:"2.0", id:req.id, result:[value:((req.params.value as int) * 2)]] })
+            }
+        }
+        ExecutorService callPool = Executors.newFixedThreadPool(4)
+        CountDownLatch startLatch = new CountDownLatch(1)
+
+        when:
+        List<Future<Object>> futureList = []
+        for (int i = 0; i < 4; i++) {
+            int value = i
+            futureList.add(callPool.submit({
+                startLatch.await()
+                return batcher.call(value == 3 ? "fail" : "double", [value:value] as Map<String, Object>)
+            } as Callable<Object>))
+        }
+        startLatch.countDown()
+        List<Map> responseList = futureList.collect({ Future<Object> future -> (Map) future.get(10, TimeUnit.SECONDS) })
+
+        then:
+        sendCount.get() == 1
+        responseList[0].result == [value:0]
+        responseList[1].result == [value:2]
+        responseList[2].result == [value:4]
+        responseList[3].error.message == "failed 3"
+
+        cleanup:
+        callPool.shutdown()
+    }
+
+    def "closed remote JSON-RPC batcher fails waiting and later calls"() {
+        ServiceFacadeImpl sfi = ((ExecutionContextImpl) ec).ecfi.serviceFacade
+        AtomicInteger sendCount = new AtomicInteger(0)
+        RemoteJsonRpcBatcher batcher = new RemoteJsonRpcBatcher(sfi, "http://localhost/rpc/json", 2000L, 10) {
+            @Override protected Object send(Object requestObj) { sendCount.incrementAndGet(); return [:] }
+        }
+        ExecutorService callPool = Executors.newFixedThreadPool(1)
+
+        when:
+        Future<Object> waitingCall = callPool.submit({ batcher.call("double", [value:1] as Map<String, Object>) } as Callable<Object>)
+        Thread.sleep(200)
+        batcher.close()
+        Throwable waitingError = null
+        try { waitingCall.get(10, TimeUnit.SECONDS) } catch (ExecutionException e) { waitingError = e.getCause() }
+        Throwable laterError = null
+        try { batcher.call("double", [value:2] as Map<String, Object>) } catch (BaseException e) { laterError = e }
+
+        then:
+        waitingError instanceof BaseException
+        laterError != null
+        sendCount.get() == 0
+
+        cleanup:
+        callPool.shutdown()
+    }
+
+    def "JSON-RPC batch responds in request order with per entry errors"() {
+        ExecutionContextImpl eci = (ExecutionContextImpl) ec
+        ServiceJsonRpcDispatcher dispatcher = new ServiceJsonRpcDispatcher(eci)
+        eci.userFacade.internalLoginUser("john.doe", false)
+
+        when:
+        List callList = [[jsonrpc:"2.0", id:1, method:"org.moqui.impl.BasicServices.find#Enumeration", params:[enumTypeId:"GeoType"]],
+                [jsonrpc:"2.0", id:2, method:"org.moqui.impl.BasicServices.bogus#Service", params:[:]],
+                [jsonrpc:"2.0", id:3, method:"org.moqui.impl.BasicServices.find#Enumeration", params:["GeoType"]],
+                "not a request",
+                [jsonrpc:"2.0", id:5, method:"org.moqui.impl.BasicServices.find#Enumeration", params:[enumTypeId:"GeoAssocType"]],
+                [jsonrpc:"2.0", id:6, method:"org.moqui.impl.BasicServices.find#Enumeration", params:[:]],
+                [jsonrpc:"2.0", id:7, method:"org.moqui.impl.BasicServices.find#Enumeration", params:[enumTypeId:"GeoType"]]]
+        List<Map> respList = dispatcher.callBatch(callList, null)
+        List<Map> parseErrorList = dispatcher.callBatch([[jsonrpc:"2.0", id:8, method:"org.moqui.impl.BasicServices.find#Enumeration"]], "Bad JSON")
+
+        then:
+        respList*.id == [1, 2, 3, null, 5, 6, 7]
+        respList[0].result.enumerationList.size() > 0
+        respList[1].error.code == -32601
+        respList[2].error.code == -32602
+        respList[3].error.code == -32600
+        respList[4].result.enumerationList.size() > 0
+        respList[5].error != null
+        respList[6].result.enumerationList*.enumId == respList[0].result.enumerationList*.enumId
+        !eci.message.hasError()
+        parseErrorList.size() == 1
+        parseErrorList[0].id == 8
+        parseErrorList[0].error.code == -32700
+
+        cleanup:
+        eci.userFacade.logoutUser()
+    }
+
+    def "remote service HTTP client is reused per host"() {
+        ServiceFacadeImpl sfi = ((ExecutionContextImpl) ec).ecfi.serviceFacade
+
+        when:
+        RestClient.RequestFactory rf1 = sfi.getRemoteRequestFactory("http://localhost:18080/rpc/json")
+        RestClient.RequestFactory rf2 = sfi.getRemoteRequestFactory("http://localhost:18080/rest/s1/test")
+        RestClient.RequestFactory rf3 = sfi.getRemoteRequestFactory("http://127.0.0.1:18080/rpc/json")
+
+        then:
+        rf1.is(rf2)
+        !rf1.is(rf3)
+        ((RestClient.PooledRequestFactory) rf1).getHttpClient().isStarted()
+    }
+
+    static class FailingCallable implements Callable<Object>, Serializable {
+        @Override Object call() throws Exception { throw new IllegalStateException("Failing on purpose") }
+    }
 }
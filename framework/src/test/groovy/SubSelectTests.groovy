@@ -75,4 +75,18 @@ class SubSelectTests extends Specification {
         list.isEmpty()
         find.getQueryTextList()[0].contains(" BAR_RANK >= ? ")
     }
+
+    def "find subselect with different operators on same field"() {
+        when:
+        EntityFind nullFind = ec.entity.find("moqui.test.FooBar").condition("barRank", null).useCache(false)
+        nullFind.list()
+        EntityFind equalFind = ec.entity.find("moqui.test.FooBar").condition("barRank", 100).useCache(false)
+        EntityList list = equalFind.list()
+
+        then:
+        list.isEmpty()
+        nullFind.getQueryTextList()[0].contains(" BAR_RANK IS NULL")
+        equalFind.getQueryTextList()[0].contains(" BAR_RANK = ? ")
+        !equalFind.getQueryTextList()[0].contains(" BAR_RANK IS NULL")
+    }
 }
@@ -13,10 +13,21 @@
  */
 
 import java.sql.Connection
+import java.sql.DriverManager
+import java.sql.ResultSet
+import java.sql.SQLException
 import java.sql.Statement
+import java.util.concurrent.Callable
+import javax.transaction.Status
+import javax.transaction.Synchronization
+import javax.transaction.Transaction
 
 import org.moqui.Moqui
 import org.moqui.context.ExecutionContext
+import org.moqui.impl.context.ExecutionContextFactoryImpl
+import org.moqui.impl.context.LocalConnectionPool
+import org.moqui.impl.context.LocalTransactionManager
+import org.moqui.impl.context.TransactionFacadeImpl
 
 import spock.lang.Shared
 import spock.lang.Specification
@@ -160,4 +171,72 @@ class TransactionFacadeTests extends Specification {
         rawCon1 == rawCon2
         rawCon1 == rawCon3
     }
+
+    def "test statement cache hit for repeated find in tx"() {
+        when:
+        TransactionFacadeImpl tfi = ((ExecutionContextFactoryImpl) ec.factory).transactionFacade
+        long hitsBefore = (long) tfi.getStatementCacheStats("transactional").hits
+        boolean beganTransaction = false
+        try {
+            beganTransaction = ec.transaction.begin(null)
+            ec.entity.find("moqui.basic.Enumeration").condition("enumId", "GEOT_COUNTRY").useCache(false).one()
+            ec.entity.find("moqui.basic.Enumeration").condition("enumId", "GEOT_STATE").useCache(false).one()
+        } finally {
+            ec.transaction.commit(beganTransaction)
+        }
+        long hitsAfter = (long) tfi.getStatementCacheStats("transactional").hits
+
+        then:
+        hitsAfter > hitsBefore
+    }
+
+    def "test local transaction manager suspend resume and rollback"() {
+        when:
+        LocalTransactionManager ltm = new LocalTransactionManager(60)
+        LocalConnectionPool pool = new LocalConnectionPool("LocalTest", ltm,
+                { DriverManager.getConnection("jdbc:h2:mem:localtxtest;DB_CLOSE_DELAY=-1", "sa", "") } as Callable<Connection>,
+                1, 4, 1000L, 60000L, null, -1)
+        pool.init()
+        Connection setupCon = pool.getConnection()
+        setupCon.createStatement().execute("CREATE TABLE LOCAL_TX_TEST (ID VARCHAR(20))")
+        setupCon.close()
+
+        List<Integer> completionStatus = []
+        ltm.begin()
+        Connection outerCon = pool.getConnection()
+        outerCon.createStatement().execute("INSERT INTO LOCAL_TX_TEST VALUES ('outer')")
+        ltm.getTransaction().registerSynchronization([beforeCompletion: { },
+                afterCompletion: { int status -> completionStatus.add(status) }] as Synchronization)
+        Transaction outerTx = ltm.suspend()
+        // like runRequireNew: a new transaction while the outer one is suspended gets its own connection
+        ltm.begin()
+        Connection innerCon = pool.getConnection()
+        innerCon.createStatement().execute("INSERT INTO LOCAL_TX_TEST VALUES ('inner')")
+        boolean separateConnections = innerCon.unwrap(Connection.class) != outerCon.unwrap(Connection.class)
+        ltm.commit()
+        ltm.resume(outerTx)
+        ltm.rollback()
+        // handles from a finished transaction are closed, the connection is back in the pool
+        boolean staleClosed = outerCon.isClosed()
+        String staleError = null
+        try { outerCon.createStatement() } catch (SQLException e) { staleError = e.message }
+
+        Connection checkCon = pool.getConnection()
+        ResultSet rs = checkCon.createStatement().executeQuery("SELECT ID FROM LOCAL_TX_TEST")
+        List<String> ids = []
+        while (rs.next()) ids.add(rs.getString(1))
+        checkCon.createStatement().execute("DROP TABLE LOCAL_TX_TEST")
+        checkCon.close()
+        Map poolStats = pool.getStats()
+        pool.close()
+
+        then:
+        separateConnections
+        ids == ['inner']
+        completionStatus == [Status.STATUS_ROLLEDBACK]
+        staleClosed
+        staleError == "Connection handle is closed"
+        ltm.getStatus() == Status.STATUS_NO_TRANSACTION
+        poolStats.inUse == 0
+    }
 }
@@ -159,7 +159,12 @@ ${.node}
     <#elseif .node["use-iterator"]?has_content && !useCache>
         ${listName} = ${listName}_xafind.iterator()
     <#else>
+        <#if doPaginate && !useCache>
+        <#-- when paginated get the count at the same time as the list -->
+        ${listName} = ${listName}_xafind.getLimit() != null ? ${listName}_xafind.listWithCount() : ${listName}_xafind.list()
+        <#else>
         ${listName} = ${listName}_xafind.list()
+        </#if>
         <#if useCache>
             <#list .node["date-filter"] as df>
                 ${listName} = ${listName}.filterByDate("${df["@from-field-name"]?default("fromDate")}", "${df["@thru-field-name"]?default("thruDate")}", <#if df["@valid-date"]?has_content>${df["@valid-date"]} as java.sql.Timestamp<#else>null</#if>, ${df["@ignore-if-empty"]!"false"})
@@ -183,8 +188,11 @@ ${.node}
             } else {
                 ${listName}PageIndex = ${listName}_xafind.getPageIndex()
                 ${listName}PageSize = ${listName}_xafind.getPageSize()
-                if (${listName}.size() < ${listName}PageSize) { ${listName}Count = ${listName}.size() + ${listName}PageIndex * ${listName}PageSize }
-                else { ${listName}Count = ${listName}_xafind.count() }
+                ${listName}Count = ${listName}.getTotalCount() != null ? ${listName}.getTotalCount() : ${listName}_xafind.count()
+            }
+            if (${listName}_xafind.isSeekPaginate()) {
+                ${listName}PageNextCursor = ${listName}_xafind.getNextSeekCursor(${listName})
+                ${listName}PagePrevCursor = ${listName}_xafind.getPrevSeekCursor(${listName})
             }
         </#if>
         ${listName}PageMaxIndex = ((BigDecimal) (${listName}Count - 1)).divide(${listName}PageSize ?: (${listName}Count - 1), 0, java.math.RoundingMode.DOWN) as int